@@ -1,6 +1,7 @@
 package com.mobincube.keystore.jks_parley_copy.sc_55UCEB;
 
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.graphics.Color;
 import android.net.Uri;
 import android.os.Bundle;
@@ -13,7 +14,6 @@ import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
-import android.widget.ScrollView;
 import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -25,24 +25,46 @@ import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.eeprom.EepromProtocol;
 import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.eeprom.I2cProtocol;
 import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.eeprom.SpiProtocol;
 import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.exception.HexParseException;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.ArrayDumpSink;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.BlankCheckSink;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.DumpDigest;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.DumpLibrary;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.DumpSink;
 import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.FileManager;
-import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.IntelHexFormat;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.ImageFormat;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.ImageFormats;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.MappedDumpSink;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.SparseImage;
 import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.ui.AboutActivity;
 import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.ui.FirmwareActivity;
 import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.ui.HexViewerHelper;
 import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.ui.LogHelper;
 import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.ui.PrivacyPolicyActivity;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb.BaudRateNegotiator;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb.GangProgrammer;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb.GangSessionManager;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb.PartialDump;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb.ProtocolEngine;
 import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb.ProtocolState;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb.SerialParams;
 import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb.UsbSerialListener;
 import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb.UsbSerialManager;
 import com.hoho.android.usbserial.driver.UsbSerialPort;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 public class MainActivity extends AppCompatActivity implements UsbSerialListener {
 
@@ -56,45 +78,93 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
     private TextView tvStatusLabel,   tvInstructions;
     private View     statusDot,        layoutStatus;
 
-    // ── Estado de la máquina ────────────────────────────────────────────────
-    private volatile ProtocolState state = ProtocolState.IDLE;
+    // ── Máquina de estados del protocolo ────────────────────────────────────
+    private ProtocolEngine     engine;
+    private BaudRateNegotiator baudNegotiator;
 
     // ── Caché del protocolo activo ──────────────────────────────────────────
     private volatile EepromProtocol cachedProtocol;
     private volatile int            cachedModelIndex;
-    private volatile int            cachedPageSize;
-
-    // ── Full Dump SPI ───────────────────────────────────────────────────────
-    private volatile boolean pendingFullDump = false;
-
-    // ── Scan combinado I2C+SPI ──────────────────────────────────────────────
-    private byte[] scanI2cAddresses;   // Resultado del I2C scan (dirs 7-bit)
-    private byte[] scanJedecId;        // Resultado JEDEC 3 bytes (o null)
 
     // ── Helpers de UI ───────────────────────────────────────────────────────
     private LogHelper       logHelper;
     private HexViewerHelper hexHelper;
 
-    // ── Buffers y contadores ────────────────────────────────────────────────
-    private byte[]                writeDataBuffer;
-    private byte[]                eepromBuffer;
-    private volatile int          currentAddress = 0;
-    private volatile int          totalSize      = 0;
-    private volatile int          chunkBytesReceived = 0; // FIX: contador persistente por chunk
-    private ByteArrayOutputStream readStream;
+    // ── Buffers ─────────────────────────────────────────────────────────────
+    private byte[]      writeDataBuffer;
+    private SparseImage writeImage;      // rangos que define el archivo, o null (todo)
+    private byte[]      eepromBuffer;
+    private DumpDigest  eepromBufferDigest;   // calculado durante la lectura
+
+    // Chip (protocolo + modelo) del que es copia fiel eepromBuffer en esta
+    // conexión; null si puede haber cambiado (escritura, borrado, desconexión)
+    private String eepromBufferChip;
+
+    // JEDEC ID del último volcado SPI completo (para la biblioteca); null en lecturas por chunks
+    private byte[] readJedecId;
+
+    // Borrado I2C en curso: al terminar el blank check se borran los sectores sucios
+    private boolean eraseAfterBlankCheck;
 
-    private static final int MAX_WRITE_CHUNK = 64;
-    private static final int READ_CHUNK      = 64;
+    // Lecturas de 1 MB o más van directo a Descargas/rom/ sin pasar por el heap
+    private static final int DISK_DUMP_THRESHOLD = 1 << 20;
+
+    // ── Mejor chunk de lectura por adaptador/chip ──────────────────────────
+    private static final String PREFS_NAME = "picmem";
+    private SharedPreferences prefs;
+    private String            readChunkKey;
+    private String            baudRateKey;
+
+    private static final String PREF_DIFFERENTIAL_WRITE = "differential_write";
+    private static final String PREF_VERIFY_WRITE       = "verify_write";
+    private static final String PREF_EXPORT_SRECORD     = "export_srecord";
+    private static final String PREF_READ_WINDOW        = "read_window_";      // + VID:PID
+    private static final String PREF_BAUD_RATE          = "baud_";             // + VID:PID
+
+    // Lecturas en vuelo con "Lecturas en paralelo": solo para firmwares que
+    // almacenan los comandos entrantes (el v3 pierde el segundo)
+    private static final int PIPELINED_READ_WINDOW = 4;
 
     private final ExecutorService bgExecutor = Executors.newSingleThreadExecutor();
 
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private Runnable timeoutRunnable;
 
+    // Silencio en la línea tras un error con lecturas en vuelo → reanudar
+    private final Runnable lineIdleRunnable = () -> engine.onLineIdle();
+
+    // El timeout de la negociación puede cambiar de velocidad (vaciar la cola
+    // de envío + transferencia de control USB): fuera del hilo UI. El token se
+    // toma al vencer; si el eco llega antes de que corra, se descarta.
+    private final Runnable baudTimeoutRunnable = () -> {
+        int token = baudNegotiator.getTimeoutToken();
+        bgExecutor.execute(() -> baudNegotiator.onTimeout(token));
+    };
+
+    // Lectura o volcado en curso tal como lo consulta el visor hex en cada frame
+    private final HexViewerHelper.Transfer liveTransfer = new HexViewerHelper.Transfer() {
+        @Override public int received() { return engine.getReceivedCount(); }
+        @Override public int total()    { return engine.getTransferSize(); }
+
+        @Override
+        public void read(int address, byte[] dst, int offset, int length) {
+            engine.readReceived(address, dst, offset, length);
+        }
+    };
+
     private final I2cProtocol i2cProtocol = new I2cProtocol();
     private final SpiProtocol spiProtocol = new SpiProtocol();
 
     private androidx.activity.result.ActivityResultLauncher<Intent> filePickerLauncher;
+    private androidx.activity.result.ActivityResultLauncher<Intent> gangFilePickerLauncher;
+
+    // ── Programación en lote ────────────────────────────────────────────────
+    // Mientras gangSessions != null los adaptadores son del lote y la
+    // conexión principal queda cerrada.
+    private final ScheduledExecutorService gangTimers = Executors.newSingleThreadScheduledExecutor();
+    private GangProgrammer     gang;
+    private GangSessionManager gangSessions;
+    private SparseImage        gangImage;
 
     // =========================================================================
     // LIFECYCLE
@@ -116,12 +186,26 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
                         if (uri != null) prepareWriteData(uri);
                     }
                 });
+        gangFilePickerLauncher = registerForActivityResult(
+                new androidx.activity.result.contract.ActivityResultContracts.StartActivityForResult(),
+                result -> {
+                    if (result.getResultCode() == RESULT_OK && result.getData() != null) {
+                        Uri uri = result.getData().getData();
+                        if (uri != null) prepareGangWrite(uri);
+                    }
+                });
 
         initViews();
         setupSpinners();
 
+        prefs         = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
         serialManager = new UsbSerialManager(this, this);
+        engine        = new ProtocolEngine(serialManager, engineListener);
+        engine.setSinkFactory(this::createDumpSink);
+        engine.setVerifyWrites(prefs.getBoolean(PREF_VERIFY_WRITE, true));
+        baudNegotiator = new BaudRateNegotiator(serialManager, baudListener);
         updateUIState(false);
+        recoverInterruptedDump();
 
         btnConnect.setOnClickListener(v    -> connectSerial());
         btnDisconnect.setOnClickListener(v -> disconnectSerial());
@@ -135,13 +219,14 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
         btnFullDump.setOnClickListener(v   -> startFullDump());
 
         timeoutRunnable = () -> {
-            if (state != ProtocolState.IDLE) {
-                log("⚠ Timeout sin respuesta (estado: " + state + ").");
-                if (state == ProtocolState.FULL_DUMPING)
+            ProtocolState st = engine.getState();
+            if (st != ProtocolState.IDLE) {
+                log("⚠ Timeout sin respuesta (estado: " + st + ").");
+                if (st == ProtocolState.FULL_DUMPING)
                     log("  SPI: verifica que el modelo coincida con el chip real.");
                 Toast.makeText(this, "Timeout — sin respuesta del PIC", Toast.LENGTH_SHORT).show();
-                state = ProtocolState.IDLE;
-                pendingFullDump = false;
+                engine.abort();
+                logPartialDump();
                 updateUIState(serialManager.isConnected());
                 hexHelper.dismiss();
             }
@@ -167,9 +252,8 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
         statusDot       = findViewById(R.id.statusDot);
         layoutStatus    = findViewById(R.id.layoutStatus);
 
-        TextView   tvLog   = findViewById(R.id.tvLog);
-        ScrollView scroll  = findViewById(R.id.scrollLog);
-        logHelper  = new LogHelper(this, tvLog, scroll);
+        logHelper  = new LogHelper(this, findViewById(R.id.rvLog));
+        log("> Aplicación lista.");
         hexHelper  = new HexViewerHelper(this);
     }
 
@@ -204,7 +288,6 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
     private void cacheProtocol() {
         cachedProtocol   = getActiveProtocol();
         cachedModelIndex = spinnerModel.getSelectedItemPosition();
-        cachedPageSize   = cachedProtocol.getPageSize(cachedModelIndex);
     }
 
     // =========================================================================
@@ -212,8 +295,9 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
     // =========================================================================
 
     private void connectSerial() {
-        serialManager.setSerialParameters(9600, 8, UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE);
-        log("Conectando a 9600 baud...");
+        serialManager.setSerialParameters(BaudRateNegotiator.BASE_BAUD_RATE, 8,
+                UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE);
+        log("Conectando a " + BaudRateNegotiator.BASE_BAUD_RATE + " baud...");
         serialManager.connect();
     }
 
@@ -234,40 +318,217 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
             return;
         }
         cacheProtocol();
-        totalSize      = cachedProtocol.getTotalSize(cachedModelIndex);
-        currentAddress = 0;
-        readStream     = new ByteArrayOutputStream();
-        state          = ProtocolState.READING;
-
-        log("Leyendo " + totalSize + " bytes [" + spinnerModel.getSelectedItem() + "]...");
-        hexHelper.showPopup("Leyendo memoria...", totalSize);
+        readJedecId = null;
+        int size = cachedProtocol.getTotalSize(cachedModelIndex);
+
+        log("Leyendo " + size + " bytes [" + spinnerModel.getSelectedItem() + "]...");
+        hexHelper.showPopup("Leyendo memoria...", size);
+        hexHelper.followTransfer(liveTransfer);
+        loadReadChunk();
+        engine.startRead(cachedProtocol, cachedModelIndex, size);
         updateUIState(true);
-        requestNextReadChunk();
     }
 
-    private void requestNextReadChunk() {
-        if (state != ProtocolState.READING) return;
-        if (currentAddress >= totalSize)    { finishRead(); return; }
-        int len = Math.min(READ_CHUNK, totalSize - currentAddress);
-        chunkBytesReceived = 0;  // FIX: reiniciar contador al inicio de cada chunk
-        serialManager.sendData(
-                cachedProtocol.buildReadCommand(currentAddress, len, cachedModelIndex));
-        resetTimeout(10000);
+    private DumpSink createDumpSink(int size) throws IOException {
+        if (size < DISK_DUMP_THRESHOLD) return new ArrayDumpSink(size);
+        File file = FileManager.createDumpFile();
+        log("Volcado directo a disco: " + file.getName());
+        return new MappedDumpSink(file, size);
     }
 
-    private void finishRead() {
+    /**
+     * Parte del mejor chunk de lectura medido para este adaptador y chip.
+     * @return el tamaño inicial
+     */
+    private int loadReadChunk() {
+        readChunkKey = "read_chunk_" + serialManager.getDeviceKey() + "_"
+                + (char) cachedProtocol.getCommandPrefix() + cachedModelIndex;
+        int chunk = prefs.getInt(readChunkKey, ProtocolEngine.READ_CHUNK);
+        engine.setInitialReadChunk(chunk);
+        return chunk;
+    }
+
+    /** Lecturas en vuelo recordadas para este adaptador (1 si no se eligió otra cosa). */
+    private int loadReadWindow() {
+        String key = serialManager.getDeviceKey();
+        if (key == null) return ProtocolEngine.DEFAULT_READ_WINDOW;
+        return prefs.getInt(PREF_READ_WINDOW + key, ProtocolEngine.DEFAULT_READ_WINDOW);
+    }
+
+    private void saveReadChunk() {
+        if (readChunkKey == null) return;
+        int best = engine.getReadChunks().getBestChunkSize();
+        prefs.edit().putInt(readChunkKey, best).apply();
+        Log.d(TAG, "Chunk de lectura recordado " + readChunkKey + " = " + best);
+    }
+
+    private void finishRead(final byte[] data, final DumpDigest digest) {
         mainHandler.post(() -> {
-            state = ProtocolState.IDLE;
-            cancelTimeout();
-            eepromBuffer = readStream.toByteArray();
+            saveReadChunk();
+            eepromBuffer       = data;
+            eepromBufferDigest = digest;
+            eepromBufferChip   = currentChipKey();
             log("✓ Lectura completada: " + eepromBuffer.length + " bytes.");
+            logDigest(digest);
             Toast.makeText(this, "Lectura completada", Toast.LENGTH_SHORT).show();
             updateUIState(true);
             hexHelper.renderFinal(eepromBuffer);
             hexHelper.updateProgress(eepromBuffer.length);
+            checkLibrary(data);
         });
     }
 
+    private void logDigest(DumpDigest digest) {
+        log("CRC32 " + digest.getCrc32Hex() + " · SHA-256 " + digest.getSha256Hex());
+    }
+
+    // =========================================================================
+    // BIBLIOTECA de volcados
+    // =========================================================================
+
+    /** Avisa si esta imagen ya está en la biblioteca (solo consulta el índice en memoria). */
+    private void checkLibrary(final byte[] data) {
+        bgExecutor.execute(() -> {
+            try {
+                DumpLibrary.Entry known = FileManager.getDumpLibrary().find(data);
+                if (known != null) log("ℹ Imagen idéntica a un volcado anterior: " + describe(known));
+            } catch (IOException e) {
+                Log.w(TAG, "Biblioteca no disponible", e);
+            }
+        });
+    }
+
+    /**
+     * Guarda el volcado ({@code data}, o {@code file} si se hizo directo a
+     * disco) en la biblioteca. Llamar desde bgExecutor.
+     */
+    private void storeInLibrary(byte[] data, File file, String chip, byte[] jedecId) {
+        try {
+            DumpLibrary library = FileManager.getDumpLibrary();
+            int dumps  = library.size();
+            int blocks = library.getBlockCount();
+            DumpLibrary.Entry entry = data != null
+                    ? library.add(data, chip, jedecId)
+                    : library.add(file, chip, jedecId);
+            if (library.size() == dumps) {
+                log("Biblioteca: ya estaba (" + describe(entry) + ")");
+            } else {
+                log("Biblioteca: añadido " + entry.getHash().substring(0, 12) + " ("
+                        + (library.getBlockCount() - blocks) + " bloques nuevos de "
+                        + (entry.getSize() + DumpLibrary.BLOCK_SIZE - 1) / DumpLibrary.BLOCK_SIZE + ")");
+            }
+        } catch (IOException e) {
+            log("⚠ No se pudo añadir a la biblioteca: " + e.getMessage());
+        }
+    }
+
+    private static String describe(DumpLibrary.Entry entry) {
+        StringBuilder sb = new StringBuilder();
+        if (!entry.getChip().isEmpty()) sb.append(entry.getChip()).append(", ");
+        byte[] jedec = entry.getJedecId();
+        if (jedec != null && jedec.length == 3) {
+            sb.append(String.format("JEDEC %02X %02X %02X, ", jedec[0] & 0xFF, jedec[1] & 0xFF, jedec[2] & 0xFF));
+        }
+        sb.append(DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT)
+                .format(new Date(entry.getTimestamp())));
+        return sb.toString();
+    }
+
+    // =========================================================================
+    // VELOCIDAD del enlace
+    // =========================================================================
+
+    /** Tras el ping: prueba velocidades más altas o verifica la recordada. */
+    private void startBaudNegotiation() {
+        if (!serialManager.isConnected() || engine.isBusy()) return;
+        baudRateKey = PREF_BAUD_RATE + serialManager.getDeviceKey();
+        int remembered = prefs.getInt(baudRateKey, 0);
+        updateUIState(true);
+        baudNegotiator.start(serialManager.getBaudRate(), remembered,
+                BaudRateNegotiator.CANDIDATE_RATES);
+    }
+
+    private final BaudRateNegotiator.Listener baudListener = new BaudRateNegotiator.Listener() {
+        @Override
+        public void onBaudProbe(int baudRate) {
+            log("Probando " + baudRate + " baud...");
+        }
+
+        @Override
+        public void onBaudRejected(int baudRate, String reason) {
+            log("⚠ " + baudRate + " baud inestable (" + reason + "). Volviendo a la anterior...");
+        }
+
+        @Override
+        public void onBaudSelected(int baudRate) {
+            prefs.edit().putInt(baudRateKey, baudRate).apply();
+            log("✓ Enlace a " + baudRate + " baud.");
+            updateUIState(true);
+            if (engine.getPartialDump() != null) mainHandler.post(() -> resumePendingDump());
+        }
+
+        @Override
+        public void onBaudFailed(int baudRate, String reason) {
+            prefs.edit().remove(baudRateKey).apply();
+            log("✗ Sin respuesta a " + baudRate + " baud tras la negociación (" + reason
+                    + "). Reconecte el dispositivo.");
+            updateUIState(true);
+        }
+
+        @Override
+        public void onTimeoutReset(long ms) {
+            mainHandler.removeCallbacks(baudTimeoutRunnable);
+            mainHandler.postDelayed(baudTimeoutRunnable, ms);
+        }
+
+        @Override
+        public void onTimeoutCancel() {
+            mainHandler.removeCallbacks(baudTimeoutRunnable);
+        }
+    };
+
+    // =========================================================================
+    // REANUDACIÓN de volcados interrumpidos
+    // =========================================================================
+
+    private void resumePendingDump() {
+        PartialDump p = engine.getPartialDump();
+        if (p == null || engine.isBusy()) return;
+        log("Volcado parcial pendiente (" + p.getWatermark() + " de " + p.getTotalSize()
+                + " B). Comprobando el chip...");
+        if (engine.resumePartialDump()) updateUIState(true);
+    }
+
+    /**
+     * Recupera el volcado a disco que quedó a medias en una sesión anterior;
+     * se reanuda al conectar como cualquier otro volcado parcial.
+     */
+    private void recoverInterruptedDump() {
+        bgExecutor.execute(() -> {
+            try {
+                MappedDumpSink sink = FileManager.recoverInterruptedDump();
+                if (sink == null) return;
+                EepromProtocol protocol = sink.getCommandPrefix() == spiProtocol.getCommandPrefix()
+                        ? spiProtocol : i2cProtocol;
+                if (engine.restorePartialDump(protocol, sink.getModelIndex(), sink)) {
+                    log("Volcado interrumpido recuperado: " + sink.getFile().getName() + " ("
+                            + sink.getWatermark() + " de " + sink.size() + " B). Se reanudará al conectar.");
+                } else {
+                    log("Volcado interrumpido descartado: " + sink.getFile().getName());
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "No se pudieron buscar volcados interrumpidos", e);
+            }
+        });
+    }
+
+    private void logPartialDump() {
+        PartialDump p = engine.getPartialDump();
+        if (p == null) return;
+        log("Volcado parcial conservado: " + p.getWatermark() + " de " + p.getTotalSize()
+                + " B. Se reanudará al reconectar.");
+    }
+
     // =========================================================================
     // ESCRITURA por chunks
     // =========================================================================
@@ -280,53 +541,29 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
 
     private void prepareWriteData(Uri uri) {
         try {
-            InputStream is = getContentResolver().openInputStream(uri);
-            if (is == null) return;
-            ByteArrayOutputStream buf = new ByteArrayOutputStream();
-            byte[] tmp = new byte[1024]; int n;
-            while ((n = is.read(tmp, 0, tmp.length)) != -1) buf.write(tmp, 0, n);
-            buf.flush(); is.close();
-            byte[] raw = buf.toByteArray();
-
-            cacheProtocol();
-            int memSize = cachedProtocol.getTotalSize(cachedModelIndex);
-            String fname = "Archivo";
-            android.database.Cursor c =
-                    getContentResolver().query(uri, null, null, null, null);
-            if (c != null && c.moveToFirst()) {
-                int idx = c.getColumnIndex(android.provider.OpenableColumns.DISPLAY_NAME);
-                if (idx != -1) fname = c.getString(idx);
-                c.close();
-            }
-            log("Archivo: " + fname + " (" + raw.length + " B)");
-
-            if (fname.toLowerCase(java.util.Locale.ROOT).endsWith(".hex")
-                    || (raw.length > 0 && raw[0] == ':')) {
-                log("Intel Hex detectado, parseando...");
-                try {
-                    writeDataBuffer = IntelHexFormat.parseIntelHex(raw, memSize);
-                    log("Hex → " + writeDataBuffer.length + " bytes.");
-                } catch (HexParseException ex) {
-                    log("Hex parse error: " + ex.getMessage() + " — usando binario.");
-                    writeDataBuffer = raw;
-                }
+            SparseImage image = loadWriteImage(uri);
+            if (image == null) return;
+            // Imagen plana solo para el visor y la verificación local
+            writeImage      = image;
+            writeDataBuffer = image.toArray(image.getEnd());
+
+            int    populated = image.getPopulatedBytes();
+            int    gaps      = image.getEnd() - populated;
+            String what      = populated + " bytes" + (gaps == 0 ? ""
+                    : " en " + image.getSegmentCount() + " segmento(s), " + gaps + " B de huecos sin enviar");
+            hexHelper.showPopup("Escribiendo memoria...", populated);
+            if (prefs.getBoolean(PREF_DIFFERENTIAL_WRITE, true)) {
+                byte[] current = currentChipKey().equals(eepromBufferChip) ? eepromBuffer : null;
+                log("Escribiendo " + what + " (diferencial, "
+                        + (current != null ? "comparando con la última lectura" : "leyendo cada página")
+                        + ")...");
+                engine.startDifferentialWrite(cachedProtocol, cachedModelIndex, image, current);
             } else {
-                writeDataBuffer = raw;
-            }
-
-            if (writeDataBuffer.length > memSize) {
-                log("Error: archivo (" + writeDataBuffer.length + " B) > memoria (" + memSize + " B).");
-                Toast.makeText(this, "Archivo excede la capacidad", Toast.LENGTH_LONG).show();
-                return;
+                log("Escribiendo " + what + "...");
+                engine.startWrite(cachedProtocol, cachedModelIndex, image);
             }
-
-            totalSize = writeDataBuffer.length;
-            state = ProtocolState.WRITING;
-            currentAddress = 0;
-            log("Escribiendo " + totalSize + " bytes...");
-            hexHelper.showPopup("Escribiendo memoria...", totalSize);
+            eepromBufferChip = null;
             updateUIState(true);
-            sendNextWriteChunk();
 
         } catch (Exception e) {
             Log.e(TAG, "prepareWriteData", e);
@@ -334,31 +571,222 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
         }
     }
 
-    private void sendNextWriteChunk() {
-        if (state != ProtocolState.WRITING) return;
-        if (currentAddress >= writeDataBuffer.length) { finishWrite(); return; }
+    /**
+     * Lee y parsea el archivo elegido para el modelo actual, sin tocar el
+     * estado de escritura. @return la imagen, o null si no cabe
+     */
+    private SparseImage loadWriteImage(Uri uri) throws IOException {
+        InputStream is = getContentResolver().openInputStream(uri);
+        if (is == null) return null;
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        byte[] tmp = new byte[1024]; int n;
+        while ((n = is.read(tmp, 0, tmp.length)) != -1) buf.write(tmp, 0, n);
+        buf.flush(); is.close();
+        byte[] raw = buf.toByteArray();
+
+        cacheProtocol();
+        int memSize = cachedProtocol.getTotalSize(cachedModelIndex);
+        String fname = "Archivo";
+        android.database.Cursor c =
+                getContentResolver().query(uri, null, null, null, null);
+        if (c != null && c.moveToFirst()) {
+            int idx = c.getColumnIndex(android.provider.OpenableColumns.DISPLAY_NAME);
+            if (idx != -1) fname = c.getString(idx);
+            c.close();
+        }
+        log("Archivo: " + fname + " (" + raw.length + " B)");
+
+        ImageFormat format = ImageFormats.detect(fname, raw);
+        SparseImage image  = SparseImage.dense(raw);
+        if (format != ImageFormats.RAW) {
+            log(format.getName() + " detectado, parseando...");
+            try {
+                image = format.read(new ByteArrayInputStream(raw), memSize);
+                log(format.getName() + " → " + image.getPopulatedBytes() + " bytes en "
+                        + image.getSegmentCount() + " segmento(s).");
+                if (image.getChecksumWarnings() > 0) {
+                    log("⚠ " + image.getChecksumWarnings() + " registro(s) con checksum inválido"
+                            + " (primero en la línea " + image.getFirstChecksumWarningLine()
+                            + "). Se usan sus datos igualmente.");
+                }
+            } catch (HexParseException ex) {
+                log(format.getName() + " parse error: " + ex.getMessage() + " — usando binario.");
+            }
+        }
 
-        int toNext = cachedPageSize - (currentAddress % cachedPageSize);
-        int limit  = Math.min(toNext, MAX_WRITE_CHUNK);
-        int len    = Math.min(limit, writeDataBuffer.length - currentAddress);
+        if (image.getEnd() > memSize) {
+            log("Error: archivo (" + image.getEnd() + " B) > memoria (" + memSize + " B).");
+            Toast.makeText(this, "Archivo excede la capacidad", Toast.LENGTH_LONG).show();
+            return null;
+        }
+        return image;
+    }
+
+    // =========================================================================
+    // PROGRAMACIÓN EN LOTE
+    // =========================================================================
+    // Misma imagen en todos los PICMEM conectados a la vez. Cada adaptador
+    // tiene su propio motor e hilos; el avance se muestra combinado en el
+    // popup y el resultado de cada uno en el log.
+    // -------------------------------------------------------------------------
+
+    private void startGangWrite() {
+        if (gangSessions != null || engine.isBusy() || baudNegotiator.isActive()) return;
+        Intent i = new Intent(Intent.ACTION_GET_CONTENT);
+        i.setType("*/*");
+        gangFilePickerLauncher.launch(i);
+    }
 
+    private void prepareGangWrite(Uri uri) {
         try {
-            ByteArrayOutputStream cs = new ByteArrayOutputStream();
-            cs.write(cachedProtocol.buildWriteCommandBase(currentAddress, len, cachedModelIndex));
-            cs.write(writeDataBuffer, currentAddress, len);
-            serialManager.sendData(cs.toByteArray());
-            resetTimeout(10000);
-        } catch (Exception e) { Log.e(TAG, "sendNextWriteChunk", e); }
+            gangImage = loadWriteImage(uri);
+        } catch (IOException e) {
+            Log.e(TAG, "prepareGangWrite", e);
+            Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_LONG).show();
+            return;
+        }
+        if (gangImage == null) return;
+
+        if (serialManager.isConnected()) {
+            log("Lote: se cierra la conexión principal.");
+            serialManager.disconnect();
+        }
+        gang         = new GangProgrammer(gangTimers, gangListener);
+        gangSessions = new GangSessionManager(this, gang, gangSessionListener);
+        // Cada puerto de un adaptador múltiple (FT2232/FT4232) es una estación más
+        List<String> ports = gangSessions.listPorts();
+        log("Lote: " + ports.size() + " puerto(s) USB-serie:");
+        for (String port : ports) {
+            SerialParams p = gangParams(port);
+            gangSessions.setParams(port, p);
+            log("  " + port + " a " + p);
+        }
+        updateUIState(false);
+        gangSessions.openAll(SerialParams.DEFAULT);
+    }
+
+    /**
+     * Velocidad negociada en una conexión anterior con ese tipo de adaptador;
+     * sin ella, la base. El lote no negocia: el ping de cada estación
+     * comprueba que el PIC responde a esa velocidad.
+     */
+    private SerialParams gangParams(String port) {
+        int baud = prefs.getInt(PREF_BAUD_RATE + GangSessionManager.deviceKeyOf(port), 0);
+        return baud > 0 ? SerialParams.DEFAULT.withBaudRate(baud) : SerialParams.DEFAULT;
     }
 
-    private void finishWrite() {
+    /** Cierra los adaptadores del lote en segundo plano. */
+    private void closeGang() {
+        final GangSessionManager sessions = gangSessions;
+        if (sessions == null) return;
+        bgExecutor.execute(() -> {
+            sessions.closeAll();
+            mainHandler.post(() -> {
+                if (gangSessions == sessions) {
+                    gangSessions = null;
+                    gang         = null;
+                    gangImage    = null;
+                }
+                updateUIState(false);
+            });
+        });
+    }
+
+    private final GangSessionManager.Listener gangSessionListener = new GangSessionManager.Listener() {
+        @Override
+        public void onSessionsOpened(int count) {
+            mainHandler.post(() -> {
+                if (gang == null) return;
+                if (count == 0) {
+                    log("Lote: no se pudo abrir ningún puerto.");
+                    closeGang();
+                    return;
+                }
+                log("Lote: " + count + " puerto(s) abiertos. Ping...");
+                gang.probe(cachedProtocol);
+            });
+        }
+
+        @Override
+        public void onSessionError(String device, Exception e) {
+            log("Lote: ✗ " + device + ": " + e.getMessage());
+        }
+    };
+
+    private final GangProgrammer.Listener gangListener = new GangProgrammer.Listener() {
+        @Override
+        public void onStationReady(String station, String banner) {
+            log("Lote: ✓ " + station + " — " + banner);
+        }
+
+        @Override
+        public void onStationLost(String station, String reason) {
+            log("Lote: ✗ " + station + " — " + reason);
+        }
+
+        @Override
+        public void onProbeComplete(int readyStations) {
+            mainHandler.post(() -> {
+                if (gang == null || gangImage == null) return;
+                if (readyStations == 0) {
+                    log("Lote: ningún PICMEM respondió.");
+                    closeGang();
+                    return;
+                }
+                boolean verify = prefs.getBoolean(PREF_VERIFY_WRITE, true);
+                int     bytes  = gangImage.getPopulatedBytes();
+                log("Lote: escribiendo " + bytes + " bytes en " + readyStations + " dispositivo(s)"
+                        + (verify ? ", verificando página a página..." : "..."));
+                hexHelper.showPopup("Programando " + readyStations + " dispositivo(s)...",
+                        bytes * readyStations);
+                gang.startWrite(cachedProtocol, cachedModelIndex, gangImage, verify);
+            });
+        }
+
+        @Override
+        public void onGangProgress(int done, int total) {
+            hexHelper.updateProgress(done, total);
+        }
+
+        @Override
+        public void onStationFinished(GangProgrammer.Result r) {
+            if (r.ok) {
+                log(String.format("Lote: ✓ %s — %d B, %d página(s), %d reintento(s), %.1f s",
+                        r.station, r.bytes, r.pagesWritten, r.pageRetries, r.elapsedMs / 1000.0));
+            } else {
+                log("Lote: ✗ " + r.station + " — " + r.message);
+            }
+        }
+
+        @Override
+        public void onGangComplete(List<GangProgrammer.Result> results) {
+            int ok = 0;
+            for (GangProgrammer.Result r : results) if (r.ok) ok++;
+            final int good = ok;
+            mainHandler.post(() -> {
+                log("Lote terminado: " + good + " de " + results.size() + " correctos.");
+                Toast.makeText(MainActivity.this, "Lote: " + good + "/" + results.size() + " correctos",
+                        Toast.LENGTH_LONG).show();
+                if (gangImage != null) hexHelper.renderFinal(gangImage.toArray(gangImage.getEnd()));
+                closeGang();
+            });
+        }
+    };
+
+    private String currentChipKey() {
+        return (char) cachedProtocol.getCommandPrefix() + "" + cachedModelIndex;
+    }
+
+    private void finishWrite(int length, int pagesWritten, int pagesSkipped, long savedMs) {
         mainHandler.post(() -> {
-            state = ProtocolState.IDLE;
-            cancelTimeout();
-            log("✓ Escritura completada: " + writeDataBuffer.length + " bytes.");
+            log("✓ Escritura completada: " + length + " bytes"
+                    + (prefs.getBoolean(PREF_VERIFY_WRITE, true) ? ", verificada página a página." : "."));
+            if (pagesSkipped > 0)
+                log("  Páginas: " + pagesWritten + " escritas, " + pagesSkipped
+                        + " sin cambios (ahorro ≈ " + savedMs + " ms).");
             Toast.makeText(this, "Escritura completada", Toast.LENGTH_SHORT).show();
             updateUIState(true);
-            hexHelper.updateProgress(writeDataBuffer.length);
+            hexHelper.updateProgress(length);
             hexHelper.renderFinal(writeDataBuffer);
         });
     }
@@ -373,28 +801,71 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
         byte[] cmd = cachedProtocol.buildEraseCommand(cachedModelIndex);
 
         if (cmd == null) {
+            // Borrado con 0xFF: primero se localizan las páginas que ya están en blanco
             int sz = cachedProtocol.getTotalSize(cachedModelIndex);
-            log("Borrando I2C (" + sz + " B con 0xFF)...");
-            writeDataBuffer = new byte[sz];
-            java.util.Arrays.fill(writeDataBuffer, (byte) 0xFF);
-            totalSize = sz; state = ProtocolState.WRITING; currentAddress = 0;
-            hexHelper.showPopup("Borrando I2C (0xFF)...", sz);
+            log("Borrando I2C (" + sz + " B con 0xFF). Blank check previo...");
+            eepromBufferChip     = null;
+            eraseAfterBlankCheck = true;
+            hexHelper.showPopup("Buscando páginas con datos...", sz);
+            engine.startBlankCheck(cachedProtocol, cachedModelIndex, sz, false);
             updateUIState(true);
-            sendNextWriteChunk();
         } else {
             log("Chip Erase SPI (puede tardar varios minutos)...");
-            state = ProtocolState.ERASING;
-            serialManager.sendData(cmd);
+            eepromBufferChip = null;
             hexHelper.showPopup("Borrando chip SPI...", 1);
+            engine.startChipErase(cmd);
+            updateUIState(true);
+        }
+    }
+
+    /** Comprueba si el chip está en blanco; se detiene en el primer byte != 0xFF. */
+    private void startBlankCheck() {
+        if (!serialManager.isConnected() || engine.isBusy()) return;
+        cacheProtocol();
+        int sz = cachedProtocol.getTotalSize(cachedModelIndex);
+        log("Blank check (" + sz + " B)...");
+        eraseAfterBlankCheck = false;
+        hexHelper.showPopup("Blank check...", sz);
+        engine.startBlankCheck(cachedProtocol, cachedModelIndex, sz, true);
+        updateUIState(true);
+    }
+
+    private void onBlankCheckFinished(BlankCheckSink result, int checkedBytes) {
+        boolean erase = eraseAfterBlankCheck;
+        eraseAfterBlankCheck = false;
+
+        if (result.isBlank()) {
+            log("✓ En blanco: " + checkedBytes + " B a 0xFF.");
+            if (erase) {
+                finishErase();
+            } else {
+                Toast.makeText(this, "Memoria en blanco", Toast.LENGTH_SHORT).show();
+                updateUIState(true);
+                hexHelper.dismiss();
+            }
+            return;
+        }
+        if (!erase) {
+            log(String.format("✗ No está en blanco: dato en 0x%06X.", result.getFirstDirtyAddress()));
+            Toast.makeText(this, "La memoria tiene datos", Toast.LENGTH_SHORT).show();
             updateUIState(true);
-            resetTimeout(300000);
+            hexHelper.dismiss();
+            return;
         }
+
+        int sz = cachedProtocol.getTotalSize(cachedModelIndex);
+        log("  " + result.getDirtySectorCount() + " de " + result.getSectorCount()
+                + " páginas con datos; solo se borran esas.");
+        writeDataBuffer = new byte[sz];
+        writeImage      = null;
+        java.util.Arrays.fill(writeDataBuffer, (byte) 0xFF);
+        hexHelper.showPopup("Borrando I2C (0xFF)...", sz);
+        engine.startMaskedWrite(cachedProtocol, cachedModelIndex, writeDataBuffer,
+                result.getDirtySectors());
     }
 
     private void finishErase() {
         mainHandler.post(() -> {
-            state = ProtocolState.IDLE;
-            cancelTimeout();
             log("✓ Borrado completado.");
             Toast.makeText(this, "Borrado completado", Toast.LENGTH_SHORT).show();
             updateUIState(serialManager.isConnected());
@@ -412,13 +883,18 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
             return;
         }
         log("Verificando datos...");
-        int size = Math.min(eepromBuffer.length, writeDataBuffer.length);
+        // Los huecos de un HEX disperso no se escribieron: no se comparan
+        SparseImage image = writeImage != null ? writeImage : SparseImage.dense(writeDataBuffer);
         int errors = 0;
-        for (int i = 0; i < size; i++) {
-            if (eepromBuffer[i] != writeDataBuffer[i]) {
-                if (errors < 10) log(String.format("  Diff 0x%06X: leído=0x%02X esperado=0x%02X",
-                        i, eepromBuffer[i] & 0xFF, writeDataBuffer[i] & 0xFF));
-                errors++;
+        for (int s = 0; s < image.getSegmentCount(); s++) {
+            int from = image.getSegmentAddress(s);
+            int size = Math.min(eepromBuffer.length, from + image.getSegmentLength(s));
+            for (int i = from; i < size; i++) {
+                if (eepromBuffer[i] != writeDataBuffer[i]) {
+                    if (errors < 10) log(String.format("  Diff 0x%06X: leído=0x%02X esperado=0x%02X",
+                            i, eepromBuffer[i] & 0xFF, writeDataBuffer[i] & 0xFF));
+                    errors++;
+                }
             }
         }
         if (errors == 0) {
@@ -437,13 +913,42 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
     private void startScan() {
         if (!serialManager.isConnected()) return;
         // Siempre escanear ambos buses: primero I2C, luego JEDEC SPI
-        scanI2cAddresses = null;
-        scanJedecId = null;
-        state = ProtocolState.SCANNING_BOTH_I2C;
-        readStream = new ByteArrayOutputStream();
         log("Escaneando bus I2C...");
-        serialManager.sendData(new byte[]{0x49, 0x53});  // I2C Scan
-        resetTimeout(12000);
+        engine.startScan();
+        updateUIState(true);
+    }
+
+    /**
+     * Auto-selección tras el scan. Si hay chips en ambos buses se mantiene
+     * el protocolo actual y solo se sugiere el modelo.
+     */
+    private void onScanFinished(byte[] i2cAddresses, byte[] jedecId) {
+        boolean hasI2c = i2cAddresses != null && i2cAddresses.length > 0;
+        boolean hasSpi = jedecId != null;
+
+        if (hasI2c && hasSpi) {
+            // Ambos detectados: mantener protocolo actual, seleccionar chip
+            int protoPos = spinnerProtocol.getSelectedItemPosition();
+            if (protoPos == 0) {
+                autoSelectI2cModel(i2cAddresses);
+            } else {
+                autoSelectSpiModel(jedecId[0], jedecId[1], jedecId[2]);
+            }
+            log("✓ Ambos buses detectados. Modelo auto-sugerido.");
+        } else if (hasI2c) {
+            // Solo I2C: cambiar a I2C si no estaba
+            runOnUiThread(() -> spinnerProtocol.setSelection(0));
+            autoSelectI2cModel(i2cAddresses);
+            log("✓ Modelo I2C auto-sugerido.");
+        } else if (hasSpi) {
+            // Solo SPI: cambiar a SPI si no estaba
+            runOnUiThread(() -> spinnerProtocol.setSelection(1));
+            autoSelectSpiModel(jedecId[0], jedecId[1], jedecId[2]);
+            log("✓ Modelo SPI Flash auto-sugerido.");
+        } else {
+            log("✗ No se detectaron chips I2C ni SPI.");
+        }
+
         updateUIState(true);
     }
 
@@ -454,60 +959,27 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
     private void startFullDump() {
         if (!serialManager.isConnected()) return;
         cacheProtocol();
+        readJedecId = null;
 
         if (cachedProtocol instanceof I2cProtocol) {
             int sz = cachedProtocol.getTotalSize(cachedModelIndex);
             if (sz > 65535) sz = 65535;
-            totalSize = sz;
-            currentAddress = 0;
-            readStream = new ByteArrayOutputStream();
-            state = ProtocolState.READING;
 
-            log("Volcado I2C (" + sz + " B en bloques de " + READ_CHUNK + " B)...");
+            int chunk = loadReadChunk();
+            log("Volcado I2C (" + sz + " B en bloques de " + chunk + " B)...");
             hexHelper.showPopup("Volcado completo I2C...", sz);
+            hexHelper.followTransfer(liveTransfer);
+            engine.startRead(cachedProtocol, cachedModelIndex, sz);
             updateUIState(true);
-            requestNextReadChunk();
 
         } else {
-            pendingFullDump = true;
-            state = ProtocolState.SCANNING_ID;
-            readStream = new ByteArrayOutputStream();
+            readChunkKey = null;   // 50 46 no usa chunks
             log("Detectando chip SPI via JEDEC antes del volcado...");
-            serialManager.sendData(new byte[]{0x50, 0x4A});
-            resetTimeout(3000);
+            engine.startSpiFullDump(cachedProtocol, cachedModelIndex);
             updateUIState(true);
         }
     }
 
-    private void startFullDumpAfterJedec(byte mfr, byte memType, byte cap) {
-        int capVal = cap & 0xFF;
-        if (mfr == (byte) 0xFF || mfr == 0x00 || capVal < 0x10 || capVal > 0x1C) {
-            log(String.format("✗ JEDEC inválido (%02X %02X %02X). Verifica CS/SCK/MOSI/MISO.",
-                    mfr & 0xFF, memType & 0xFF, capVal));
-            state = ProtocolState.IDLE;
-            pendingFullDump = false;
-            updateUIState(serialManager.isConnected());
-            return;
-        }
-
-        totalSize = 1 << capVal;
-        int sizeKB = totalSize / 1024;
-        log(String.format("Chip detectado: JEDEC %02X %02X %02X → %s KB",
-                mfr & 0xFF, memType & 0xFF, capVal,
-                sizeKB >= 1024 ? (sizeKB / 1024) + " MB (" + sizeKB + " KB)" : sizeKB + " KB"));
-
-        state = ProtocolState.FULL_DUMPING;
-        currentAddress = 0;
-        readStream = new ByteArrayOutputStream();
-        pendingFullDump = false;
-
-        mainHandler.post(() -> {
-            hexHelper.showPopup("Volcado completo SPI (" + sizeKB + " KB)...", totalSize);
-            serialManager.sendData(new byte[]{0x50, 0x46});
-            resetTimeout(20000);
-        });
-    }
-
     // =========================================================================
     // GUARDAR
     // =========================================================================
@@ -522,17 +994,26 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
             return;
         }
         // Copiar referencia para el hilo background
-        final byte[] dataCopy = eepromBuffer;
-        log("Exportando " + dataCopy.length + " bytes (.bin + .hex)...");
+        final byte[]     dataCopy = eepromBuffer;
+        final DumpDigest digest   = eepromBufferDigest;
+        final String     chip     = String.valueOf(spinnerModel.getSelectedItem());
+        final byte[]     jedecId  = readJedecId;
+        final List<ImageFormat> formats = new ArrayList<>(
+                Arrays.asList(ImageFormats.RAW, ImageFormats.INTEL_HEX));
+        if (prefs.getBoolean(PREF_EXPORT_SRECORD, false)) formats.add(ImageFormats.S_RECORD);
+        StringBuilder exts = new StringBuilder();
+        for (ImageFormat f : formats) exts.append(exts.length() > 0 ? " + ." : ".").append(f.getExtension());
+        log("Exportando " + dataCopy.length + " bytes (" + exts + ")...");
         Toast.makeText(this, "Exportando...", Toast.LENGTH_SHORT).show();
 
         bgExecutor.execute(() -> {
             try {
-                File dir = FileManager.saveMemoryDump(dataCopy);
+                File dir = FileManager.saveMemoryDump(dataCopy, formats, digest);
                 mainHandler.post(() -> {
                     log("✓ Guardado en " + dir.getAbsolutePath());
                     Toast.makeText(this, "Guardado en Descargas/rom/", Toast.LENGTH_LONG).show();
                 });
+                storeInLibrary(dataCopy, null, chip, jedecId);
             } catch (IllegalArgumentException e) {
                 mainHandler.post(() ->
                         Toast.makeText(this, "No hay datos para guardar", Toast.LENGTH_SHORT).show());
@@ -552,7 +1033,16 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
         mainHandler.postDelayed(timeoutRunnable, ms);
     }
 
-    private void cancelTimeout() { mainHandler.removeCallbacks(timeoutRunnable); }
+    private void cancelTimeout() {
+        mainHandler.removeCallbacks(timeoutRunnable);
+        mainHandler.removeCallbacks(lineIdleRunnable);
+        mainHandler.removeCallbacks(baudTimeoutRunnable);
+    }
+
+    private void scheduleLineIdle(long ms) {
+        mainHandler.removeCallbacks(lineIdleRunnable);
+        mainHandler.postDelayed(lineIdleRunnable, ms);
+    }
 
     // =========================================================================
     // UI STATE
@@ -560,9 +1050,10 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
 
     private void updateUIState(final boolean connected) {
         runOnUiThread(() -> {
-            btnConnect.setEnabled(!connected);
+            boolean gangActive = gangSessions != null;
+            btnConnect.setEnabled(!connected && !gangActive);
             btnDisconnect.setEnabled(connected);
-            boolean busy = state != ProtocolState.IDLE;
+            boolean busy = engine.isBusy() || baudNegotiator.isActive() || gangActive;
             btnRead.setEnabled(connected && !busy);
             btnWrite.setEnabled(connected && !busy);
             btnErase.setEnabled(connected && !busy);
@@ -593,8 +1084,8 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
                 }
                 if (layoutStatus != null)
                     layoutStatus.setBackgroundColor(Color.parseColor("#1A0A0A"));
-                state = ProtocolState.IDLE;
-                pendingFullDump = false;
+                engine.abort();
+                baudNegotiator.abort();
                 cancelTimeout();
             }
         });
@@ -606,11 +1097,9 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
 
     @Override
     public void onSerialConnect() {
+        engine.setReadWindow(loadReadWindow());
         cacheProtocol();
-        state = ProtocolState.PINGING;
-        readStream = new ByteArrayOutputStream();
-        serialManager.sendData(cachedProtocol.buildPingCommand());
-        resetTimeout(3000);
+        engine.startPing(cachedProtocol);
         updateUIState(true);
         log("Puerto USB abierto. Ping enviado...");
     }
@@ -625,305 +1114,210 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
     @Override
     public void onSerialRead(byte[] data) {
         if (data == null || data.length == 0) return;
+        onSerialBytes(data, 0, data.length);
+    }
 
-        switch (state) {
-
-            case PINGING: {
-                if (readStream == null) readStream = new ByteArrayOutputStream();
-                readStream.write(data, 0, data.length);
-                String s = new String(readStream.toByteArray(), StandardCharsets.UTF_8);
-                if (s.contains("PICMEM")) {
-                    state = ProtocolState.IDLE;
-                    cancelTimeout();
-                    log("✓ Firmware: " + s.replace("\r", "").replace("\n", " ").trim());
-                    runOnUiThread(() ->
-                            Toast.makeText(this, "PICMEM Detectado", Toast.LENGTH_SHORT).show());
-                    updateUIState(true);
-                }
-                break;
-            }
+    @Override
+    public void onSerialRead(ByteBuffer data) {
+        if (!data.hasArray()) {
+            UsbSerialListener.super.onSerialRead(data);
+            return;
+        }
+        // Búfer del pool: se procesa en su sitio, sin copiarlo
+        if (data.hasRemaining()) {
+            onSerialBytes(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+    }
 
-            case READING: {
-                if (readStream == null) break;
-
-                int expectedThisChunk = Math.min(READ_CHUNK, totalSize - currentAddress);
-
-                for (byte b : data) {
-                    int val = b & 0xFF;
-
-                    // FIX: usar chunkBytesReceived como variable de instancia persistente
-                    if (chunkBytesReceived == 0 && val == 0x58) {
-                        state = ProtocolState.IDLE;
-                        cancelTimeout();
-                        final int addr = currentAddress;
-                        log("✗ RESP_ERR en 0x" + Integer.toHexString(addr)
-                                + ". Verifica chip y conexiones.");
-                        runOnUiThread(() -> {
-                            Toast.makeText(this, "Error leyendo en 0x"
-                                    + Integer.toHexString(addr), Toast.LENGTH_SHORT).show();
-                            updateUIState(true);
-                            hexHelper.dismiss();
-                        });
-                        return;
-                    }
+    private void onSerialBytes(byte[] data, int offset, int length) {
+        if (baudNegotiator.isActive()) baudNegotiator.onBytes(data, offset, length);
+        else engine.onBytes(data, offset, length);
+    }
 
-                    if (chunkBytesReceived < expectedThisChunk) {
-                        readStream.write(b);
-                        chunkBytesReceived++;
-
-                    } else {
-                        // Ya recibimos todos los bytes del chunk, esperamos RESP_END
-                        if (val == 0x55) {
-                            currentAddress += expectedThisChunk;
-                            final int prog = currentAddress;
-                            runOnUiThread(() -> hexHelper.updateProgress(prog));
-                            hexHelper.renderThrottled(readStream.toByteArray());
-
-                            if (currentAddress >= totalSize) {
-                                finishRead();
-                            } else {
-                                requestNextReadChunk();
-                            }
-                            return;
-                        } else {
-                            Log.w(TAG, "Byte inesperado 0x" + Integer.toHexString(val)
-                                    + " tras chunk, addr=0x" + Integer.toHexString(currentAddress));
-                        }
-                    }
-                }
-                resetTimeout(10000);
-                break;
-            }
+    // =========================================================================
+    // EVENTOS DEL PROTOCOLO
+    // =========================================================================
 
-            case WRITING: {
-                for (byte b : data) {
-                    if (b == 0x4B) {
-                        int toNext   = cachedPageSize - (currentAddress % cachedPageSize);
-                        int limit    = Math.min(toNext, MAX_WRITE_CHUNK);
-                        int expected = Math.min(limit, writeDataBuffer.length - currentAddress);
-                        currentAddress += expected;
-                        final int prog = currentAddress;
-                        runOnUiThread(() -> hexHelper.updateProgress(prog));
-
-                        if (currentAddress >= writeDataBuffer.length) {
-                            finishWrite();
-                        } else {
-                            sendNextWriteChunk();
-                        }
-                        return;
-
-                    } else if (b == 0x58) {
-                        state = ProtocolState.IDLE;
-                        cancelTimeout();
-                        log("✗ Error de escritura (NACK del dispositivo).");
-                        runOnUiThread(() -> {
-                            updateUIState(true);
-                            hexHelper.dismiss();
-                        });
-                        return;
-                    }
-                }
-                resetTimeout(10000);
-                break;
-            }
+    private final ProtocolEngine.Listener engineListener = new ProtocolEngine.Listener() {
+        @Override
+        public void onPingOk(String banner) {
+            log("✓ Firmware: " + banner);
+            runOnUiThread(() ->
+                    Toast.makeText(MainActivity.this, "PICMEM Detectado", Toast.LENGTH_SHORT).show());
+            mainHandler.post(() -> startBaudNegotiation());
+        }
 
-            case ERASING: {
-                for (byte b : data) {
-                    if (b == 0x4B) { finishErase(); return; }
-                    if (b == 0x58) {
-                        state = ProtocolState.IDLE;
-                        cancelTimeout();
-                        log("✗ Error Chip Erase (RESP_ERR).");
-                        runOnUiThread(() -> {
-                            Toast.makeText(this, "Error al borrar", Toast.LENGTH_SHORT).show();
-                            updateUIState(true);
-                            hexHelper.dismiss();
-                        });
-                        return;
-                    }
-                }
-                resetTimeout(300000);
-                break;
-            }
+        @Override
+        public void onResumeStarted(int address, int totalSize) {
+            log(String.format("✓ Chip verificado. Reanudando desde 0x%06X (%d de %d B)...",
+                    address, address, totalSize));
+            hexHelper.showPopup("Reanudando lectura...", totalSize);
+            hexHelper.updateProgress(address);
+            hexHelper.followTransfer(liveTransfer);
+        }
 
-            case SCANNING_ID: {
-                if (readStream == null) readStream = new ByteArrayOutputStream();
-
-                if (cachedProtocol instanceof I2cProtocol) {
-                    for (byte b : data) {
-                        int val = b & 0xFF;
-                        if (val == 0xFF) {
-                            state = ProtocolState.IDLE;
-                            cancelTimeout();
-                            byte[] found = readStream.toByteArray();
-                            StringBuilder sb = new StringBuilder("I2C Scan → ");
-                            if (found.length == 0) sb.append("Sin dispositivos.");
-                            else {
-                                sb.append("Detectados: ");
-                                for (byte a : found)
-                                    sb.append(String.format("0x%02X ", a & 0xFF));
-                            }
-                            log(sb.toString());
-                            updateUIState(true);
-                            return;
-                        }
-                        if (val != 0x55 && val != 0x58) readStream.write(b);
-                    }
-                } else {
-                    readStream.write(data, 0, data.length);
-                    byte[] j = readStream.toByteArray();
-                    if (j.length >= 3) {
-                        state = ProtocolState.IDLE;
-                        cancelTimeout();
-
-                        if (pendingFullDump) {
-                            startFullDumpAfterJedec(j[0], j[1], j[2]);
-                        } else {
-                            log(String.format("SPI Scan → JEDEC ID: %02X %02X %02X",
-                                    j[0] & 0xFF, j[1] & 0xFF, j[2] & 0xFF));
-                            autoSelectSpiModel(j[0], j[1], j[2]);
-                            updateUIState(true);
-                        }
-                    }
-                }
-                break;
-            }
+        @Override
+        public void onResumeRejected(int address) {
+            log(String.format("⚠ Los datos en 0x%06X no coinciden con el volcado parcial "
+                    + "(¿otro chip?). Se descarta y se lee desde 0.", address));
+        }
 
-            // ── SCANNING_BOTH_I2C — Fase 1: recibir resultado I2C Scan ──────
-            case SCANNING_BOTH_I2C: {
-                if (readStream == null) readStream = new ByteArrayOutputStream();
-                for (byte b : data) {
-                    int val = b & 0xFF;
-                    if (val == 0xFF) {
-                        cancelTimeout();
-                        scanI2cAddresses = readStream.toByteArray();
-
-                        StringBuilder sb = new StringBuilder("I2C Scan → ");
-                        if (scanI2cAddresses.length == 0) sb.append("Sin dispositivos.");
-                        else {
-                            sb.append("Detectados: ");
-                            for (byte a : scanI2cAddresses)
-                                sb.append(String.format("0x%02X ", a & 0xFF));
-                        }
-                        log(sb.toString());
-
-                        // Fase 2: ahora JEDEC SPI
-                        state = ProtocolState.SCANNING_BOTH_SPI;
-                        readStream = new ByteArrayOutputStream();
-                        log("Leyendo JEDEC ID...");
-                        serialManager.sendData(new byte[]{0x50, 0x4A});
-                        resetTimeout(5000);
-                        return;
-                    }
-                    if (val != 0x55 && val != 0x58) readStream.write(b);
-                }
-                break;
-            }
+        @Override
+        public void onProgress(int done, int total) {
+            runOnUiThread(() -> hexHelper.updateProgress(done, total));
+        }
 
-            // ── SCANNING_BOTH_SPI — Fase 2: recibir JEDEC ID ────────────────
-            case SCANNING_BOTH_SPI: {
-                if (readStream == null) readStream = new ByteArrayOutputStream();
-                readStream.write(data, 0, data.length);
-                byte[] j = readStream.toByteArray();
-                if (j.length >= 3) {
-                    state = ProtocolState.IDLE;
-                    cancelTimeout();
-
-                    boolean jedecValid = (j[0] & 0xFF) != 0xFF && (j[0] & 0xFF) != 0x00
-                            && (j[2] & 0xFF) >= 0x10 && (j[2] & 0xFF) <= 0x1C;
-
-                    if (jedecValid) {
-                        scanJedecId = j;
-                        log(String.format("SPI Scan → JEDEC ID: %02X %02X %02X",
-                                j[0] & 0xFF, j[1] & 0xFF, j[2] & 0xFF));
-                    } else {
-                        scanJedecId = null;
-                        log(String.format("SPI Scan → JEDEC ID: %02X %02X %02X (no válido)",
-                                j[0] & 0xFF, j[1] & 0xFF, j[2] & 0xFF));
-                    }
+        @Override
+        public void onReadComplete(byte[] data, DumpDigest digest) {
+            finishRead(data, digest);
+        }
 
-                    // Decidir auto-selección
-                    boolean hasI2c = scanI2cAddresses != null && scanI2cAddresses.length > 0;
-                    boolean hasSpi = scanJedecId != null;
-
-                    if (hasI2c && hasSpi) {
-                        // Ambos detectados: mantener protocolo actual, seleccionar chip
-                        int protoPos = spinnerProtocol.getSelectedItemPosition();
-                        if (protoPos == 0) {
-                            autoSelectI2cModel(scanI2cAddresses);
-                        } else {
-                            autoSelectSpiModel(scanJedecId[0], scanJedecId[1], scanJedecId[2]);
-                        }
-                        log("✓ Ambos buses detectados. Modelo auto-sugerido.");
-                    } else if (hasI2c) {
-                        // Solo I2C: cambiar a I2C si no estaba
-                        runOnUiThread(() -> spinnerProtocol.setSelection(0));
-                        autoSelectI2cModel(scanI2cAddresses);
-                        log("✓ Modelo I2C auto-sugerido.");
-                    } else if (hasSpi) {
-                        // Solo SPI: cambiar a SPI si no estaba
-                        runOnUiThread(() -> spinnerProtocol.setSelection(1));
-                        autoSelectSpiModel(scanJedecId[0], scanJedecId[1], scanJedecId[2]);
-                        log("✓ Modelo SPI Flash auto-sugerido.");
-                    } else {
-                        log("✗ No se detectaron chips I2C ni SPI.");
+        @Override
+        public void onDumpSaved(File file, int size, DumpDigest digest) {
+            mainHandler.post(() -> {
+                saveReadChunk();
+                eepromBuffer       = null;
+                eepromBufferDigest = null;
+                eepromBufferChip   = null;
+                log("✓ Volcado completado: " + size + " bytes → " + file.getAbsolutePath());
+                logDigest(digest);
+                Toast.makeText(MainActivity.this, "Guardado en Descargas/rom/", Toast.LENGTH_LONG).show();
+                updateUIState(true);
+                hexHelper.updateProgress(size);
+                hexHelper.renderFile(file, size);
+                final String chip    = String.valueOf(spinnerModel.getSelectedItem());
+                final byte[] jedecId = readJedecId;
+                bgExecutor.execute(() -> {
+                    try {
+                        digest.writeSidecar(DumpDigest.sidecarFor(file));
+                    } catch (IOException e) {
+                        log("⚠ No se pudo guardar " + DumpDigest.sidecarFor(file).getName() + ": " + e.getMessage());
                     }
+                    storeInLibrary(null, file, chip, jedecId);
+                });
+            });
+        }
 
-                    updateUIState(true);
-                }
-                break;
-            }
+        @Override
+        public void onReadFallback(int address) {
+            log("⚠ RESP_ERR en 0x" + Integer.toHexString(address)
+                    + " con lecturas en vuelo. Reintentando de una en una...");
+        }
 
-            case FULL_DUMPING: {
-                if (readStream == null) break;
-
-                for (byte b : data) {
-                    int val = b & 0xFF;
-
-                    if (val == 0x58 && readStream.size() == 0) {
-                        state = ProtocolState.IDLE;
-                        cancelTimeout();
-                        log("✗ Full Dump abortado: chip no detectado o JEDEC inválido.");
-                        runOnUiThread(() -> {
-                            updateUIState(true);
-                            hexHelper.dismiss();
-                        });
-                        return;
-                    }
+        @Override
+        public void onReadChunkChanged(int chunkSize, long bytesPerSecond) {
+            log("Chunk de lectura → " + chunkSize + " B"
+                    + (bytesPerSecond > 0 ? " (" + bytesPerSecond + " B/s)" : ""));
+        }
 
-                    if (val == 0x55 && readStream.size() >= totalSize) {
-                        finishRead();
-                        return;
-                    }
+        @Override
+        public void onReadError(int address) {
+            log("✗ RESP_ERR en 0x" + Integer.toHexString(address)
+                    + ". Verifica chip y conexiones.");
+            runOnUiThread(() -> {
+                Toast.makeText(MainActivity.this, "Error leyendo en 0x"
+                        + Integer.toHexString(address), Toast.LENGTH_SHORT).show();
+                updateUIState(true);
+                hexHelper.dismiss();
+            });
+        }
 
-                    if (readStream.size() < totalSize) {
-                        readStream.write(b);
-                        int sz = readStream.size();
-
-                        if ((sz & 0xFF) == 0) {
-                            final int prog = sz;
-                            runOnUiThread(() -> hexHelper.updateProgress(prog));
-                        }
-                        if ((sz & 0xFFF) == 0) {
-                            hexHelper.renderThrottled(readStream.toByteArray());
-                        }
-                    }
-                }
-                resetTimeout(5000);
-                break;
+        @Override
+        public void onWriteComplete(int length, int pagesWritten, int pagesSkipped, long savedMs) {
+            finishWrite(length, pagesWritten, pagesSkipped, savedMs);
+        }
+
+        @Override
+        public void onWritePageRetry(int address, int attempt) {
+            log(String.format("⚠ Página 0x%06X no coincide al releerla. Reintento %d/%d...",
+                    address, attempt, ProtocolEngine.MAX_PAGE_RETRIES));
+        }
+
+        @Override
+        public void onEraseComplete() {
+            finishErase();
+        }
+
+        @Override
+        public void onBlankCheckComplete(BlankCheckSink result, int checkedBytes) {
+            mainHandler.post(() -> onBlankCheckFinished(result, checkedBytes));
+        }
+
+        @Override
+        public void onI2cScanResult(byte[] addresses) {
+            StringBuilder sb = new StringBuilder("I2C Scan → ");
+            if (addresses.length == 0) sb.append("Sin dispositivos.");
+            else {
+                sb.append("Detectados: ");
+                for (byte a : addresses)
+                    sb.append(String.format("0x%02X ", a & 0xFF));
             }
+            log(sb.toString());
 
-            default: break;
+            if (engine.getState() == ProtocolState.SCANNING_BOTH_SPI) log("Leyendo JEDEC ID...");
+            else updateUIState(true);
+        }
+
+        @Override
+        public void onJedecId(byte mfr, byte memType, byte cap, boolean valid) {
+            log(String.format("SPI Scan → JEDEC ID: %02X %02X %02X%s",
+                    mfr & 0xFF, memType & 0xFF, cap & 0xFF, valid ? "" : " (no válido)"));
+        }
+
+        @Override
+        public void onScanComplete(byte[] i2cAddresses, byte[] jedecId) {
+            onScanFinished(i2cAddresses, jedecId);
+        }
+
+        @Override
+        public void onFullDumpStarted(int totalSize, byte mfr, byte memType, byte cap) {
+            int sizeKB = totalSize / 1024;
+            log(String.format("Chip detectado: JEDEC %02X %02X %02X → %s KB",
+                    mfr & 0xFF, memType & 0xFF, cap & 0xFF,
+                    sizeKB >= 1024 ? (sizeKB / 1024) + " MB (" + sizeKB + " KB)" : sizeKB + " KB"));
+            mainHandler.post(() -> {
+                readJedecId = new byte[]{ mfr, memType, cap };
+                hexHelper.showPopup("Volcado completo SPI (" + sizeKB + " KB)...", totalSize);
+                hexHelper.followTransfer(liveTransfer);
+            });
+        }
+
+        @Override
+        public void onError(ProtocolState failedState, String message) {
+            log(message);
+            runOnUiThread(() -> {
+                if (failedState == ProtocolState.ERASING)
+                    Toast.makeText(MainActivity.this, "Error al borrar", Toast.LENGTH_SHORT).show();
+                updateUIState(true);
+                hexHelper.dismiss();
+            });
+        }
+
+        @Override
+        public void onTimeoutReset(long ms) {
+            resetTimeout(ms);
+        }
+
+        @Override
+        public void onTimeoutCancel() {
+            cancelTimeout();
         }
-    }
+
+        @Override
+        public void onLineIdleCheck(long ms) {
+            scheduleLineIdle(ms);
+        }
+    };
 
     @Override
     public void onSerialIoError(Exception e) {
         Log.e(TAG, "onSerialIoError", e);
-        state = ProtocolState.IDLE;
-        pendingFullDump = false;
+        engine.abort();
+        baudNegotiator.abort();
         cancelTimeout();
+        eepromBufferChip = null;
         log("Error I/O serial: " + e.getMessage());
+        logPartialDump();
         runOnUiThread(() -> {
             Toast.makeText(this, "Error de comunicación serial", Toast.LENGTH_SHORT).show();
             updateUIState(false);
@@ -933,10 +1327,12 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
 
     @Override
     public void onSerialDisconnect() {
-        state = ProtocolState.IDLE;
-        pendingFullDump = false;
+        engine.abort();
+        baudNegotiator.abort();
         cancelTimeout();
+        eepromBufferChip = null;
         log("Dispositivo desconectado.");
+        logPartialDump();
         runOnUiThread(() -> {
             Toast.makeText(this, "Desconectado", Toast.LENGTH_SHORT).show();
             updateUIState(false);
@@ -951,9 +1347,24 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main_menu, menu);
+        menu.findItem(R.id.action_differential_write)
+                .setChecked(prefs.getBoolean(PREF_DIFFERENTIAL_WRITE, true));
+        menu.findItem(R.id.action_verify_write)
+                .setChecked(prefs.getBoolean(PREF_VERIFY_WRITE, true));
+        menu.findItem(R.id.action_export_srecord)
+                .setChecked(prefs.getBoolean(PREF_EXPORT_SRECORD, false));
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // Por adaptador: solo con uno conectado
+        MenuItem pipelined = menu.findItem(R.id.action_pipelined_read);
+        pipelined.setEnabled(serialManager.getDeviceKey() != null);
+        pipelined.setChecked(loadReadWindow() > 1);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
         int id = item.getItemId();
@@ -963,6 +1374,52 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
         if (id == R.id.action_i2c_conn)  { openHardwareInfo(1); return true; }
         if (id == R.id.action_spi_conn)  { openHardwareInfo(2); return true; }
 
+        // ── Blank check ───────────────────────────────────────────────────
+        if (id == R.id.action_blank_check) { startBlankCheck(); return true; }
+
+        // ── Programación en lote ──────────────────────────────────────────
+        if (id == R.id.action_gang_write) { startGangWrite(); return true; }
+
+        // ── Escritura diferencial ─────────────────────────────────────────
+        if (id == R.id.action_differential_write) {
+            boolean on = !item.isChecked();
+            item.setChecked(on);
+            prefs.edit().putBoolean(PREF_DIFFERENTIAL_WRITE, on).apply();
+            log("Escritura diferencial " + (on ? "activada." : "desactivada."));
+            return true;
+        }
+        if (id == R.id.action_verify_write) {
+            boolean on = !item.isChecked();
+            item.setChecked(on);
+            prefs.edit().putBoolean(PREF_VERIFY_WRITE, on).apply();
+            engine.setVerifyWrites(on);
+            log("Verificación al escribir " + (on ? "activada." : "desactivada."));
+            return true;
+        }
+
+        // ── Lectura ───────────────────────────────────────────────────────
+        if (id == R.id.action_pipelined_read) {
+            String key = serialManager.getDeviceKey();
+            if (key == null) return true;
+            boolean on = !item.isChecked();
+            int window = on ? PIPELINED_READ_WINDOW : ProtocolEngine.DEFAULT_READ_WINDOW;
+            item.setChecked(on);
+            prefs.edit().putInt(PREF_READ_WINDOW + key, window).apply();
+            engine.setReadWindow(window);
+            log("Lecturas en vuelo para " + key + ": " + window
+                    + (on ? " (requiere firmware que almacene comandos)." : " (stop-and-wait)."));
+            return true;
+        }
+
+        // ── Exportación ───────────────────────────────────────────────────
+        if (id == R.id.action_export_srecord) {
+            boolean on = !item.isChecked();
+            item.setChecked(on);
+            prefs.edit().putBoolean(PREF_EXPORT_SRECORD, on).apply();
+            log("Exportar también S-Record " + (on ? "activado." : "desactivado."));
+            return true;
+        }
+
         // ── Firmware ──────────────────────────────────────────────────────
         if (id == R.id.action_firmware) {
             startActivity(new Intent(this, FirmwareActivity.class));
@@ -1075,6 +1532,9 @@ public class MainActivity extends AppCompatActivity implements UsbSerialListener
     protected void onDestroy() {
         super.onDestroy();
         serialManager.cleanup();
+        if (gang != null) gang.abort();
+        if (gangSessions != null) gangSessions.closeAll();
+        gangTimers.shutdownNow();
         mainHandler.removeCallbacksAndMessages(null);
         bgExecutor.shutdownNow();
     }
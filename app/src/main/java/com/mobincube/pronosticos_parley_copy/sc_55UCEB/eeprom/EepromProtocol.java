@@ -36,11 +36,31 @@ public interface EepromProtocol {
      */
     int getPageSize(int modelIndex);
 
+    /**
+     * Unidad mínima de borrado: la página en EEPROM (se borra escribiendo
+     * 0xFF) y el sector de 4 KB en Flash NOR. Es la granularidad del blank
+     * check.
+     *
+     * @param modelIndex Índice del modelo seleccionado
+     */
+    int getSectorSize(int modelIndex);
+
     /**
      * Devuelve la cantidad límite de memoria del chip seleccionado
      */
     int getTotalSize(int modelIndex);
 
+    /**
+     * Cantidad de modelos del protocolo (entradas del spinner)
+     */
+    int getModelCount();
+
+    /**
+     * Bytes de dirección de los comandos de lectura y escritura del modelo
+     * (3 en Flash NOR SPI)
+     */
+    int getAddressBytes(int modelIndex);
+
     /**
      * Construye el comando de borrado la memoria (si lo soporta el protocolo)
      */
@@ -11,7 +11,7 @@ public class I2cProtocol implements EepromProtocol {
 
     @Override
     public byte[] buildReadCommand(int address, int length, int modelIdx) {
-        byte addrLen = (byte) (modelIdx <= 4 ? 1 : 2);
+        byte addrLen = (byte) getAddressBytes(modelIdx);
         byte chipAddr = generateChipAddr(address, modelIdx);
         byte addrHi = (byte) ((address >> 8) & 0xFF);
         byte addrLo = (byte) (address & 0xFF);
@@ -23,7 +23,7 @@ public class I2cProtocol implements EepromProtocol {
 
     @Override
     public byte[] buildWriteCommandBase(int address, int length, int modelIdx) {
-        byte addrLen = (byte) (modelIdx <= 4 ? 1 : 2);
+        byte addrLen = (byte) getAddressBytes(modelIdx);
         byte chipAddr = generateChipAddr(address, modelIdx);
         byte addrHi = (byte) ((address >> 8) & 0xFF);
         byte addrLo = (byte) (address & 0xFF);
@@ -58,11 +58,26 @@ public class I2cProtocol implements EepromProtocol {
         return 256; // 1Mb, 2Mb
     }
 
+    @Override
+    public int getSectorSize(int modelIndex) {
+        return getPageSize(modelIndex); // se borra escribiendo 0xFF página a página
+    }
+
     @Override
     public int getTotalSize(int modelIndex) {
         return i2cSizes[modelIndex];
     }
 
+    @Override
+    public int getModelCount() {
+        return i2cSizes.length;
+    }
+
+    @Override
+    public int getAddressBytes(int modelIndex) {
+        return modelIndex <= 4 ? 1 : 2; // 24C01-24C16: 1 byte (bloque en la dirección del chip)
+    }
+
     @Override
     public byte[] buildEraseCommand(int modelIndex) {
         return null; // I2C no tiene comando nativo de borrado de chip en v3
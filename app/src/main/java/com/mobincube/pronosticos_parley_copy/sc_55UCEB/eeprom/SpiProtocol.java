@@ -35,7 +35,7 @@ public class SpiProtocol implements EepromProtocol {
 
     @Override
     public byte[] buildReadCommand(int address, int length, int modelIdx) {
-        byte addrLen   = getAddrLen(modelIdx);
+        byte addrLen   = (byte) getAddressBytes(modelIdx);
         byte spiOpcode = (byte) 0x03; // READ array
         if (modelIdx == 2) {
             spiOpcode |= ((address >> 8) & 0x01) << 3;
@@ -52,7 +52,7 @@ public class SpiProtocol implements EepromProtocol {
 
     @Override
     public byte[] buildWriteCommandBase(int address, int length, int modelIdx) {
-        byte addrLen   = getAddrLen(modelIdx);
+        byte addrLen   = (byte) getAddressBytes(modelIdx);
         byte spiOpcode = (byte) 0x02; // WRITE / PAGE PROGRAM
         if (modelIdx == 2) {
             spiOpcode |= ((address >> 8) & 0x01) << 3;
@@ -106,12 +106,24 @@ public class SpiProtocol implements EepromProtocol {
         return 256;                        // Flash NOR W25Qxx: 256 B/pagina
     }
 
+    @Override
+    public int getSectorSize(int modelIndex) {
+        if (modelIndex >= 13) return 4096;  // Flash NOR: sector de 4 KB
+        return getPageSize(modelIndex);
+    }
+
     @Override
     public int getTotalSize(int modelIndex) {
         return spiSizes[modelIndex];
     }
 
-    private byte getAddrLen(int modelIdx) {
+    @Override
+    public int getModelCount() {
+        return spiSizes.length;
+    }
+
+    @Override
+    public int getAddressBytes(int modelIdx) {
         if (modelIdx <  3) return 1;   // 25Cxx <= 4Kb: 1 byte
         if (modelIdx < 13) return 2;   // 25Cxx 8Kb-512Kb: 2 bytes
         return 3;                      // Flash NOR W25Qxx: 3 bytes (24 bits)
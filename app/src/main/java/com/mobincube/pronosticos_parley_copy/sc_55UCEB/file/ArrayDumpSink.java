@@ -0,0 +1,38 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import java.io.File;
+
+/** Volcado en el heap; adecuado para EEPROM I2C y Flash pequeñas. */
+public class ArrayDumpSink implements DumpSink {
+
+    private final byte[] data;
+    private int          watermark = 0;
+
+    public ArrayDumpSink(int size) {
+        this.data = new byte[size];
+    }
+
+    @Override public int size() { return data.length; }
+
+    @Override
+    public void write(int address, byte[] src, int offset, int length) {
+        System.arraycopy(src, offset, data, address, length);
+    }
+
+    @Override
+    public void read(int address, byte[] dst, int offset, int length) {
+        System.arraycopy(data, address, dst, offset, length);
+    }
+
+    @Override public void commit(int watermark) { this.watermark = watermark; }
+
+    @Override public int getWatermark() { return watermark; }
+
+    @Override public byte[] array() { return data; }
+
+    @Override public File getFile() { return null; }
+
+    @Override public void discard() { }
+
+    @Override public void close() { }
+}
@@ -0,0 +1,106 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import java.io.File;
+import java.util.BitSet;
+
+/**
+ * Destino de un blank check: no guarda los datos, solo marca qué sectores
+ * contienen algún byte distinto de 0xFF.
+ *
+ * En cuanto un sector resulta sucio se salta el resto de sus bytes, así que
+ * en un chip lleno el coste por byte es mínimo. {@link #read} devuelve 0xFF
+ * en los sectores limpios y falla en los sucios (su contenido no se conserva).
+ */
+public class BlankCheckSink implements DumpSink {
+
+    private static final byte ERASED = (byte) 0xFF;
+
+    private final int    size;
+    private final int    sectorSize;
+    private final BitSet dirty;
+    private int          firstDirty = -1;
+    private int          watermark  = 0;
+
+    public BlankCheckSink(int size, int sectorSize) {
+        if (sectorSize <= 0) throw new IllegalArgumentException("sectorSize debe ser > 0");
+        this.size       = size;
+        this.sectorSize = sectorSize;
+        this.dirty      = new BitSet((size + sectorSize - 1) / sectorSize);
+    }
+
+    @Override public int size() { return size; }
+
+    @Override
+    public void write(int address, byte[] src, int offset, int length) {
+        int i   = offset;
+        int end = offset + length;
+        while (i < end) {
+            int addr      = address + (i - offset);
+            int sector    = addr / sectorSize;
+            int sectorEnd = Math.min(end, i + (sector + 1) * sectorSize - addr);
+            if (dirty.get(sector)) {
+                i = sectorEnd;
+                continue;
+            }
+            for (; i < sectorEnd; i++) {
+                if (src[i] != ERASED) {
+                    dirty.set(sector);
+                    int at = address + (i - offset);
+                    if (firstDirty < 0 || at < firstDirty) firstDirty = at;
+                    i = sectorEnd;
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void read(int address, byte[] dst, int offset, int length) {
+        for (int k = 0; k < length; k++) {
+            if (dirty.get((address + k) / sectorSize))
+                throw new IllegalStateException("Sector sucio sin datos: 0x"
+                        + Integer.toHexString(address + k));
+            dst[offset + k] = ERASED;
+        }
+    }
+
+    @Override public void commit(int watermark) { this.watermark = watermark; }
+
+    @Override public int getWatermark() { return watermark; }
+
+    @Override public byte[] array() { return null; }
+
+    @Override public File getFile() { return null; }
+
+    @Override public void discard() { }
+
+    @Override public void close() { }
+
+    // ── Resultado ───────────────────────────────────────────────────────────
+
+    public int getSectorSize() {
+        return sectorSize;
+    }
+
+    public int getSectorCount() {
+        return (size + sectorSize - 1) / sectorSize;
+    }
+
+    /** Sectores con algún byte distinto de 0xFF (copia). */
+    public BitSet getDirtySectors() {
+        return (BitSet) dirty.clone();
+    }
+
+    public int getDirtySectorCount() {
+        return dirty.cardinality();
+    }
+
+    /** Primera dirección distinta de 0xFF encontrada, o -1. */
+    public int getFirstDirtyAddress() {
+        return firstDirty;
+    }
+
+    public boolean isBlank() {
+        return firstDirty < 0;
+    }
+}
@@ -0,0 +1,90 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Envuelve otro {@link DumpSink} y calcula las huellas ({@link DumpDigest})
+ * del prefijo contiguo recibido, chunk a chunk, a medida que se escribe.
+ *
+ * Lo habitual es que los chunks lleguen en orden y se procesen directamente
+ * desde el buffer de recepción. Si no (reanudación de un volcado parcial,
+ * reintentos fuera de orden), lo que falta se relee del destino en el
+ * siguiente {@link #commit} o en {@link #finish}.
+ */
+public class DigestingDumpSink implements DumpSink {
+
+    private static final int CATCH_UP_CHUNK = 4096;
+
+    private final DumpSink           target;
+    private final DumpDigest.Builder digest = new DumpDigest.Builder();
+
+    public DigestingDumpSink(DumpSink target) {
+        this.target = target;
+    }
+
+    /** Envuelve {@code sink} salvo que ya calcule huellas. */
+    public static DigestingDumpSink wrap(DumpSink sink) {
+        return sink instanceof DigestingDumpSink ? (DigestingDumpSink) sink : new DigestingDumpSink(sink);
+    }
+
+    @Override public int size() { return target.size(); }
+
+    @Override
+    public void write(int address, byte[] src, int offset, int length) {
+        target.write(address, src, offset, length);
+        int hashed = digest.getSize();
+        if (address <= hashed && address + length > hashed) {
+            int skip = hashed - address;
+            digest.update(src, offset + skip, length - skip);
+        }
+    }
+
+    @Override
+    public void read(int address, byte[] dst, int offset, int length) {
+        target.read(address, dst, offset, length);
+    }
+
+    @Override
+    public void commit(int watermark) throws IOException {
+        catchUp(watermark);
+        target.commit(watermark);
+    }
+
+    @Override
+    public void setOrigin(byte commandPrefix, int modelIndex) throws IOException {
+        target.setOrigin(commandPrefix, modelIndex);
+    }
+
+    @Override public int getWatermark() { return target.getWatermark(); }
+
+    @Override public byte[] array() { return target.array(); }
+
+    @Override public File getFile() { return target.getFile(); }
+
+    /**
+     * Huellas del volcado completo; llamar antes de {@link #close()}, con
+     * todos los bytes recibidos.
+     */
+    public DumpDigest finish() {
+        catchUp(target.size());
+        return digest.finish();
+    }
+
+    @Override public void discard() { target.discard(); }
+
+    @Override public void close() throws IOException { target.close(); }
+
+    /** Procesa {@code [hasta ahora, upTo)} leyéndolo del destino. */
+    private void catchUp(int upTo) {
+        int hashed = digest.getSize();
+        if (hashed >= upTo) return;
+        byte[] buf = new byte[Math.min(CATCH_UP_CHUNK, upTo - hashed)];
+        while (hashed < upTo) {
+            int n = Math.min(buf.length, upTo - hashed);
+            target.read(hashed, buf, 0, n);
+            digest.update(buf, 0, n);
+            hashed += n;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Huellas de un volcado: CRC32 y SHA-256 del total más un CRC32 por cada
+ * bloque de {@link #BLOCK_SIZE}, para comparar dos volcados mirando solo los
+ * bloques que cambian.
+ *
+ * Se calculan al vuelo con {@link Builder} (ver {@link DigestingDumpSink}) y
+ * se guardan como texto junto a los exportados ({@link #sidecarFor}):
+ * <pre>
+ *   size 32768
+ *   crc32 1a2b3c4d
+ *   sha256 9f86d0...
+ *   block 65536
+ *   0 1a2b3c4d
+ * </pre>
+ */
+public final class DumpDigest {
+
+    public static final int    BLOCK_SIZE     = 1 << 16;
+    public static final String SIDECAR_SUFFIX = ".digest";
+
+    private final int    size;
+    private final long   crc32;
+    private final byte[] sha256;
+    private final int[]  blockCrcs;
+
+    DumpDigest(int size, long crc32, byte[] sha256, int[] blockCrcs) {
+        this.size      = size;
+        this.crc32     = crc32;
+        this.sha256    = sha256;
+        this.blockCrcs = blockCrcs;
+    }
+
+    /** Huellas de un volcado completo en memoria (p. ej. un archivo de referencia). */
+    public static DumpDigest of(byte[] data) {
+        Builder b = new Builder();
+        b.update(data, 0, data.length);
+        return b.finish();
+    }
+
+    public int    getSize()          { return size; }
+    public long   getCrc32()         { return crc32; }
+    public byte[] getSha256()        { return sha256.clone(); }
+    public int    getBlockCount()    { return blockCrcs.length; }
+    public int    getBlockCrc(int i) { return blockCrcs[i]; }
+
+    public String getCrc32Hex() {
+        return String.format(Locale.ROOT, "%08x", crc32);
+    }
+
+    public String getSha256Hex() {
+        StringBuilder sb = new StringBuilder(64);
+        for (byte b : sha256) sb.append(String.format(Locale.ROOT, "%02x", b & 0xFF));
+        return sb.toString();
+    }
+
+    /** Mismo contenido (tamaño y SHA-256). */
+    public boolean matches(DumpDigest other) {
+        return size == other.size && Arrays.equals(sha256, other.sha256);
+    }
+
+    /**
+     * Bloques cuyo CRC difiere; los que solo existen en uno de los dos
+     * cuentan como cambiados.
+     */
+    public BitSet changedBlocks(DumpDigest other) {
+        BitSet changed = new BitSet();
+        int n = Math.max(blockCrcs.length, other.blockCrcs.length);
+        for (int i = 0; i < n; i++) {
+            if (i >= blockCrcs.length || i >= other.blockCrcs.length
+                    || blockCrcs[i] != other.blockCrcs[i]
+                    || blockLength(i) != other.blockLength(i)) {
+                changed.set(i);
+            }
+        }
+        return changed;
+    }
+
+    private int blockLength(int i) {
+        return Math.min(BLOCK_SIZE, size - i * BLOCK_SIZE);
+    }
+
+    // ── Sidecar ─────────────────────────────────────────────────────────────
+
+    /** {@code eeprom_dump_X.bin} → {@code eeprom_dump_X.digest}. */
+    public static File sidecarFor(File dump) {
+        String name = dump.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) name = name.substring(0, dot);
+        return new File(dump.getParentFile(), name + SIDECAR_SUFFIX);
+    }
+
+    /** Escribe el sidecar en un temporal y lo renombra al terminar. */
+    public void writeSidecar(File file) throws IOException {
+        File temp = new File(file.getParentFile(), "." + file.getName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            Writer w = new OutputStreamWriter(fos, StandardCharsets.US_ASCII);
+            w.write("size " + size + "\n");
+            w.write("crc32 " + getCrc32Hex() + "\n");
+            w.write("sha256 " + getSha256Hex() + "\n");
+            w.write("block " + BLOCK_SIZE + "\n");
+            for (int i = 0; i < blockCrcs.length; i++) {
+                w.write(String.format(Locale.ROOT, "%d %08x\n", i, blockCrcs[i]));
+            }
+            w.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new IOException("No se pudo renombrar " + temp.getName());
+        }
+    }
+
+    public static DumpDigest readSidecar(File file) throws IOException {
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.US_ASCII))) {
+            int    size   = Integer.parseInt(value(r, "size"));
+            long   crc    = Long.parseLong(value(r, "crc32"), 16);
+            String sha    = value(r, "sha256");
+            int    block  = Integer.parseInt(value(r, "block"));
+            if (block != BLOCK_SIZE || sha.length() != 64) {
+                throw new IOException("Sidecar no compatible: " + file.getName());
+            }
+            byte[] sha256 = new byte[32];
+            for (int i = 0; i < 32; i++) {
+                sha256[i] = (byte) Integer.parseInt(sha.substring(2 * i, 2 * i + 2), 16);
+            }
+            int[] blocks = new int[(size + BLOCK_SIZE - 1) / BLOCK_SIZE];
+            for (int i = 0; i < blocks.length; i++) {
+                String line = r.readLine();
+                int sp = line == null ? -1 : line.indexOf(' ');
+                if (sp < 0 || Integer.parseInt(line.substring(0, sp)) != i) {
+                    throw new IOException("Sidecar incompleto: " + file.getName());
+                }
+                blocks[i] = (int) Long.parseLong(line.substring(sp + 1).trim(), 16);
+            }
+            return new DumpDigest(size, crc, sha256, blocks);
+        } catch (NumberFormatException e) {
+            throw new IOException("Sidecar corrupto: " + file.getName(), e);
+        }
+    }
+
+    private static String value(BufferedReader r, String key) throws IOException {
+        String line = r.readLine();
+        if (line == null || !line.startsWith(key + " ")) {
+            throw new IOException("Falta '" + key + "' en el sidecar");
+        }
+        return line.substring(key.length() + 1).trim();
+    }
+
+    // ── Cálculo incremental ─────────────────────────────────────────────────
+
+    /**
+     * Acumula las huellas según llegan los bytes, en orden. No es
+     * thread-safe.
+     */
+    public static final class Builder {
+        private final CRC32         total  = new CRC32();
+        private final CRC32         block  = new CRC32();
+        private final MessageDigest sha    = sha256();
+        private int[]               blocks = new int[16];
+        private int                 size;
+
+        public void update(byte[] src, int offset, int length) {
+            total.update(src, offset, length);
+            sha.update(src, offset, length);
+            while (length > 0) {
+                int room = BLOCK_SIZE - (size & (BLOCK_SIZE - 1));
+                int n    = Math.min(room, length);
+                block.update(src, offset, n);
+                size   += n;
+                offset += n;
+                length -= n;
+                if (n == room) closeBlock();
+            }
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public DumpDigest finish() {
+            if ((size & (BLOCK_SIZE - 1)) != 0) closeBlock();
+            int count = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            return new DumpDigest(size, total.getValue(), sha.digest(), Arrays.copyOf(blocks, count));
+        }
+
+        private void closeBlock() {
+            int i = (size - 1) / BLOCK_SIZE;
+            if (i >= blocks.length) blocks = Arrays.copyOf(blocks, blocks.length * 2);
+            blocks[i] = (int) block.getValue();
+            block.reset();
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);            // obligatorio en toda JVM / Android
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Exporta una imagen en varios formatos a la vez: cada archivo se escribe en
+ * su propia tarea de {@code writers}, y los formatos que lo admiten reparten
+ * además la codificación en {@code encoders}.
+ *
+ * Cada archivo se escribe primero como {@code .<nombre>.tmp} en el mismo
+ * directorio, se fuerza a disco y solo cuando todos han terminado bien se
+ * renombran a su nombre final. Si algo falla se borran los temporales, y si
+ * falla un renombrado también los finales ya renombrados: nunca queda un
+ * volcado a medio escribir con el nombre definitivo, ni solo parte de los
+ * formatos.
+ */
+public class DumpExporter {
+
+    static final String TEMP_PREFIX = ".";
+    static final String TEMP_SUFFIX = ".tmp";
+
+    private final ExecutorService writers;
+    private final ExecutorService encoders;
+
+    /**
+     * @param writers  una tarea por archivo; debe admitir tantas en paralelo
+     *                 como formatos se exporten
+     * @param encoders bloques de codificación (p. ej. uno por núcleo); no
+     *                 debe ser el mismo pool que {@code writers}
+     */
+    public DumpExporter(ExecutorService writers, ExecutorService encoders) {
+        this.writers  = writers;
+        this.encoders = encoders;
+    }
+
+    /**
+     * @return los archivos creados, {@code <baseName>.<extensión>} en el
+     *         orden de {@code formats}
+     */
+    public List<File> export(File dir, String baseName, SparseImage image, List<ImageFormat> formats)
+            throws IOException {
+        List<File>      temps  = new ArrayList<>();
+        List<File>      finals = new ArrayList<>();
+        List<Future<?>> jobs   = new ArrayList<>();
+        for (ImageFormat format : formats) {
+            String name = baseName + "." + format.getExtension();
+            File   temp = new File(dir, TEMP_PREFIX + name + TEMP_SUFFIX);
+            temps.add(temp);
+            finals.add(new File(dir, name));
+            jobs.add(writers.submit(() -> {
+                writeFile(temp, format, image);
+                return null;
+            }));
+        }
+
+        // Se espera a todas (también tras un error) para no borrar un
+        // temporal que otra tarea sigue escribiendo
+        IOException failure     = null;
+        boolean     interrupted = false;
+        for (Future<?> job : jobs) {
+            while (true) {
+                try {
+                    job.get();
+                    break;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        Throwable cause = e.getCause();
+                        failure = cause instanceof IOException ? (IOException) cause
+                                : new IOException("Error exportando el volcado", cause);
+                    }
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    if (failure == null) failure = new InterruptedIOException("Exportación interrumpida");
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (failure != null) {
+            deleteAll(temps);
+            throw failure;
+        }
+
+        for (int i = 0; i < temps.size(); i++) {
+            if (!temps.get(i).renameTo(finals.get(i))) {
+                // Todos o ninguno: también se retiran los ya renombrados en esta pasada
+                deleteAll(temps);
+                deleteAll(finals.subList(0, i));
+                throw new IOException("No se pudo renombrar " + temps.get(i).getName()
+                        + (i > 0 ? "; se eliminaron los " + i + " formatos ya renombrados" : ""));
+            }
+        }
+        return finals;
+    }
+
+    /** Borra los temporales de exportaciones interrumpidas (p. ej. por un cierre de la app). */
+    public static void deleteStaleTemps(File dir, String basePrefix) {
+        File[] stale = dir.listFiles((d, name) ->
+                name.startsWith(TEMP_PREFIX + basePrefix) && name.endsWith(TEMP_SUFFIX));
+        if (stale == null) return;
+        for (File f : stale) {
+            //noinspection ResultOfMethodCallIgnored
+            f.delete();
+        }
+    }
+
+    // ── Internos ────────────────────────────────────────────────────────────
+
+    private void writeFile(File temp, ImageFormat format, SparseImage image) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            format.write(image, fos, encoders);
+            fos.getFD().sync();
+        }
+    }
+
+    private static void deleteAll(List<File> files) {
+        for (File f : files) {
+            //noinspection ResultOfMethodCallIgnored
+            f.delete();
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Biblioteca local de volcados, direccionada por contenido.
+ *
+ * Cada volcado se identifica por el SHA-256 de su contenido y se guarda
+ * troceado en bloques de {@link #BLOCK_SIZE}; los bloques iguales (también
+ * entre volcados distintos) se guardan una sola vez. Estructura del directorio:
+ * <pre>
+ *   blocks.pack      bloques: [sha256 (32)][longitud (4)][datos], solo se añade
+ *   dumps/&lt;hash&gt;    desplazamientos en blocks.pack de cada bloque del volcado
+ *   index.dat        metadatos: [longitud (4)][hash, fecha, tamaño, chip, JEDEC]
+ * </pre>
+ * El índice se carga entero al abrir, así que {@link #find} y {@link #get}
+ * no tocan disco. El mapa de bloques se construye la primera vez que se añade
+ * algo, leyendo solo las cabeceras de blocks.pack.
+ *
+ * Todo se escribe en orden bloques → manifiesto → índice, forzando a disco
+ * entre pasos: un corte deja como mucho bloques huérfanos o un registro a
+ * medias al final, que se descartan al abrir.
+ */
+public class DumpLibrary {
+
+    public static final int BLOCK_SIZE = 4096;
+
+    private static final int    HASH_LENGTH  = 32;
+    private static final int    BLOCK_HEADER = HASH_LENGTH + 4;
+    private static final String PACK_FILE    = "blocks.pack";
+    private static final String INDEX_FILE   = "index.dat";
+    private static final String DUMPS_DIR    = "dumps";
+
+    /** Metadatos de un volcado de la biblioteca. */
+    public static final class Entry {
+        private final String hash;
+        private final long   timestamp;
+        private final int    size;
+        private final String chip;
+        private final byte[] jedecId;
+
+        Entry(String hash, long timestamp, int size, String chip, byte[] jedecId) {
+            this.hash      = hash;
+            this.timestamp = timestamp;
+            this.size      = size;
+            this.chip      = chip;
+            this.jedecId   = jedecId;
+        }
+
+        /** SHA-256 del contenido, en hexadecimal. */
+        public String getHash()      { return hash; }
+        /** Cuándo se añadió a la biblioteca (ms). */
+        public long   getTimestamp() { return timestamp; }
+        public int    getSize()      { return size; }
+        /** Modelo seleccionado al leerlo, o "" si no se conoce. */
+        public String getChip()      { return chip; }
+        /** Fabricante, tipo y capacidad (SPI), o null. */
+        public byte[] getJedecId()   { return jedecId == null ? null : jedecId.clone(); }
+    }
+
+    private final File packFile;
+    private final File indexFile;
+    private final File dumpsDir;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    // hash del bloque → desplazamiento en blocks.pack; null hasta el primer add()
+    private Map<String, Long> blocks;
+
+    public DumpLibrary(File dir) throws IOException {
+        this.packFile  = new File(dir, PACK_FILE);
+        this.indexFile = new File(dir, INDEX_FILE);
+        this.dumpsDir  = new File(dir, DUMPS_DIR);
+        if (!dumpsDir.exists() && !dumpsDir.mkdirs()) {
+            throw new IOException("No se pudo crear la biblioteca en " + dir.getAbsolutePath());
+        }
+        loadIndex();
+    }
+
+    // ── Consultas ───────────────────────────────────────────────────────────
+
+    /** El volcado con este contenido, o null si no está en la biblioteca. */
+    public synchronized Entry find(byte[] data) {
+        return entries.get(sha256Hex(data, 0, data.length));
+    }
+
+    /** Por hash (hexadecimal, como {@link Entry#getHash()}), o null. */
+    public synchronized Entry get(String hash) {
+        return entries.get(hash);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Todos los volcados, del más antiguo al más reciente. */
+    public synchronized List<Entry> entries() {
+        return Collections.unmodifiableList(new ArrayList<>(entries.values()));
+    }
+
+    /** Bloques distintos guardados (construye el mapa si hace falta). */
+    public synchronized int getBlockCount() throws IOException {
+        return blocks().size();
+    }
+
+    // ── Alta ────────────────────────────────────────────────────────────────
+
+    public Entry add(byte[] data, String chip, byte[] jedecId) throws IOException {
+        return add(new ByteArrayInputStream(data), chip, jedecId);
+    }
+
+    /** Para volcados que ya están en disco (ver {@link MappedDumpSink}). */
+    public Entry add(File file, String chip, byte[] jedecId) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return add(in, chip, jedecId);
+        }
+    }
+
+    /**
+     * Añade el contenido de {@code in} hasta EOF, sin cerrarlo. Si ya había
+     * un volcado idéntico se devuelve ese y no se escribe nada más.
+     */
+    public synchronized Entry add(InputStream in, String chip, byte[] jedecId) throws IOException {
+        Map<String, Long> known = blocks();
+        MessageDigest whole = sha256();
+        MessageDigest part  = sha256();
+        List<Long> offsets = new ArrayList<>();
+        byte[] block = new byte[BLOCK_SIZE];
+        int size = 0;
+
+        try (RandomAccessFile raf = new RandomAccessFile(packFile, "rw")) {
+            FileChannel pack = raf.getChannel();
+            long end = pack.size();
+            ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER);
+            try {
+                int n;
+                while ((n = readBlock(in, block)) > 0) {
+                    whole.update(block, 0, n);
+                    part.update(block, 0, n);
+                    byte[] digest = part.digest();
+                    String key = hex(digest);
+                    Long offset = known.get(key);
+                    if (offset == null) {
+                        offset = end;
+                        header.clear();
+                        header.put(digest).putInt(n).flip();
+                        writeFully(pack, header, end);
+                        writeFully(pack, ByteBuffer.wrap(block, 0, n), end + BLOCK_HEADER);
+                        end += BLOCK_HEADER + n;
+                        known.put(key, offset);
+                    }
+                    offsets.add(offset);
+                    size += n;
+                }
+                pack.force(false);
+            } catch (IOException e) {
+                // Sin un bloque a medias en el pack: el siguiente alta seguiría detrás
+                try { pack.truncate(end); } catch (IOException ignored) { }
+                throw e;
+            }
+        }
+
+        String hash = hex(whole.digest());
+        Entry existing = entries.get(hash);
+        if (existing != null) return existing;
+
+        File manifest = new File(dumpsDir, hash);
+        try (FileOutputStream fos = new FileOutputStream(manifest)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(offsets.size());
+            for (long offset : offsets) out.writeLong(offset);
+            out.flush();
+            fos.getFD().sync();
+        }
+
+        Entry entry = new Entry(hash, System.currentTimeMillis(), size,
+                chip == null ? "" : chip, jedecId == null ? null : jedecId.clone());
+        appendIndex(entry);
+        entries.put(hash, entry);
+        return entry;
+    }
+
+    // ── Lectura ─────────────────────────────────────────────────────────────
+
+    /** Reconstruye el contenido del volcado a partir de sus bloques. */
+    public synchronized byte[] read(Entry entry) throws IOException {
+        long[] offsets;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(new File(dumpsDir, entry.hash))))) {
+            offsets = new long[in.readInt()];
+            for (int i = 0; i < offsets.length; i++) offsets[i] = in.readLong();
+        }
+
+        byte[] out = new byte[entry.size];
+        try (RandomAccessFile raf = new RandomAccessFile(packFile, "r")) {
+            int pos = 0;
+            for (long offset : offsets) {
+                raf.seek(offset + HASH_LENGTH);
+                int n = raf.readInt();
+                if (n > out.length - pos) throw new IOException("Bloque corrupto en la biblioteca");
+                raf.readFully(out, pos, n);
+                pos += n;
+            }
+            if (pos != out.length) throw new IOException("Volcado incompleto en la biblioteca: " + entry.hash);
+        }
+        return out;
+    }
+
+    // ── Índice ──────────────────────────────────────────────────────────────
+
+    private void loadIndex() throws IOException {
+        if (!indexFile.exists()) return;
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+            byte[] all = new byte[(int) raf.length()];
+            raf.readFully(all);
+            ByteBuffer buf = ByteBuffer.wrap(all);
+            while (buf.remaining() >= 4) {
+                int start = buf.position();
+                int len   = buf.getInt();
+                if (len < 0 || len > buf.remaining()) {
+                    buf.position(start);
+                    break;
+                }
+                Entry e = decodeEntry(all, buf.position(), len);
+                buf.position(buf.position() + len);
+                if (e != null && new File(dumpsDir, e.hash).exists()) entries.put(e.hash, e);
+            }
+            // Registro a medias de un alta interrumpida
+            if (buf.position() < all.length) raf.setLength(buf.position());
+        }
+    }
+
+    private static Entry decodeEntry(byte[] buf, int off, int len) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf, off, len));
+            String hash      = in.readUTF();
+            long   timestamp = in.readLong();
+            int    size      = in.readInt();
+            String chip      = in.readUTF();
+            int    jedecLen  = in.readUnsignedByte();
+            byte[] jedec     = null;
+            if (jedecLen > 0) {
+                jedec = new byte[jedecLen];
+                in.readFully(jedec);
+            }
+            return new Entry(hash, timestamp, size, chip, jedec);
+        } catch (IOException e) {
+            return null;                               // registro corrupto: se ignora
+        }
+    }
+
+    private void appendIndex(Entry e) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeInt(0);                               // longitud, se rellena abajo
+        out.writeUTF(e.hash);
+        out.writeLong(e.timestamp);
+        out.writeInt(e.size);
+        out.writeUTF(e.chip);
+        out.writeByte(e.jedecId == null ? 0 : e.jedecId.length);
+        if (e.jedecId != null) out.write(e.jedecId);
+        byte[] bytes = record.toByteArray();
+        ByteBuffer.wrap(bytes).putInt(0, bytes.length - 4);
+
+        try (FileOutputStream fos = new FileOutputStream(indexFile, true)) {
+            fos.write(bytes);
+            fos.getFD().sync();
+        }
+    }
+
+    // ── Bloques ─────────────────────────────────────────────────────────────
+
+    private Map<String, Long> blocks() throws IOException {
+        if (blocks != null) return blocks;
+        Map<String, Long> map = new HashMap<>();
+        if (packFile.exists()) {
+            try (RandomAccessFile raf = new RandomAccessFile(packFile, "rw")) {
+                FileChannel pack = raf.getChannel();
+                long length = pack.size();
+                long pos    = 0;
+                ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER);
+                byte[] digest = new byte[HASH_LENGTH];
+                while (pos + BLOCK_HEADER <= length) {
+                    header.clear();
+                    readFully(pack, header, pos);
+                    header.flip();
+                    header.get(digest);
+                    int n = header.getInt();
+                    if (n <= 0 || n > BLOCK_SIZE || pos + BLOCK_HEADER + n > length) break;
+                    map.put(hex(digest), pos);
+                    pos += BLOCK_HEADER + n;
+                }
+                // Bloque a medias de un alta interrumpida
+                if (pos < length) pack.truncate(pos);
+            }
+        }
+        blocks = map;
+        return blocks;
+    }
+
+    private static int readBlock(InputStream in, byte[] block) throws IOException {
+        int total = 0;
+        while (total < block.length) {
+            int n = in.read(block, total, block.length - total);
+            if (n == -1) break;
+            total += n;
+        }
+        return total;
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) position += ch.write(buf, position);
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, position);
+            if (n == -1) throw new EOFException();
+            position += n;
+        }
+    }
+
+    // ── Hash ────────────────────────────────────────────────────────────────
+
+    public static String sha256Hex(byte[] data, int offset, int length) {
+        MessageDigest md = sha256();
+        md.update(data, offset, length);
+        return hex(md.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);            // obligatorio en toda JVM / Android
+        }
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static String hex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[2 * i]     = HEX[(bytes[i] >> 4) & 0x0F];
+            out[2 * i + 1] = HEX[bytes[i] & 0x0F];
+        }
+        return new String(out);
+    }
+}
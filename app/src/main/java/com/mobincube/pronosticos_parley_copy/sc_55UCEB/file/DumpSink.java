@@ -0,0 +1,52 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Destino de los bytes recibidos durante una lectura o volcado.
+ * Las direcciones son absolutas desde el inicio de la memoria del chip.
+ *
+ * No es thread-safe: lo usa un único hilo (el del motor de protocolo). La
+ * excepción es {@link #read}, que el visor llama también desde el hilo UI
+ * sobre bytes ya escritos, mientras el motor sigue escribiendo más allá.
+ */
+public interface DumpSink extends Closeable {
+
+    /** Crea el destino adecuado para un volcado de {@code size} bytes. */
+    interface Factory {
+        DumpSink create(int size) throws IOException;
+    }
+
+    int size();
+
+    void write(int address, byte[] src, int offset, int length);
+
+    void read(int address, byte[] dst, int offset, int length);
+
+    /**
+     * Marca {@code [0, watermark)} como recibido. En disco, fuerza los datos
+     * y luego actualiza el marcador de progreso.
+     */
+    void commit(int watermark) throws IOException;
+
+    int getWatermark();
+
+    /**
+     * Anota de qué chip es el volcado (prefijo de protocolo y modelo) para
+     * poder reanudarlo tras reiniciar la app. Solo lo guardan los destinos
+     * en disco.
+     */
+    default void setOrigin(byte commandPrefix, int modelIndex) throws IOException {
+    }
+
+    /** Los datos en memoria, o null si el volcado vive en disco. */
+    byte[] array();
+
+    /** El archivo de destino, o null si el volcado vive en memoria. */
+    File getFile();
+
+    /** Cierra y descarta los datos parciales (archivo y marcador incluidos). */
+    void discard();
+}
@@ -2,42 +2,113 @@ package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
 
 import android.os.Environment;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class FileManager {
 
-    @SuppressWarnings("deprecation")
+    private static final String DUMP_PREFIX = "eeprom_dump_";
+
+    private static DumpExporter exporter;
+    private static DumpLibrary  library;
+
     public static File saveMemoryDump(byte[] eepromData) throws IOException {
+        return saveMemoryDump(eepromData, Arrays.asList(ImageFormats.RAW, ImageFormats.INTEL_HEX), null);
+    }
+
+    /**
+     * Guarda el volcado en cada uno de los formatos, con el mismo nombre base.
+     * Los archivos se generan en paralelo y aparecen todos a la vez al final
+     * (ver {@link DumpExporter}). Con {@code digest} se añade además el
+     * sidecar {@code .digest}; si es null se calcula aquí.
+     */
+    public static File saveMemoryDump(byte[] eepromData, List<ImageFormat> formats, DumpDigest digest)
+            throws IOException {
         if (eepromData == null || eepromData.length == 0) {
             throw new IllegalArgumentException("El buffer de datos está vacío.");
         }
 
-        File env = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
-        File romDir = new File(env, "rom");
-        if (!romDir.exists() && !romDir.mkdirs()) {
-            throw new IOException("No se pudo crear el directorio de destino en Descargas/rom");
-        }
+        File romDir = getRomDirectory();
+        DumpExporter.deleteStaleTemps(romDir, DUMP_PREFIX);
 
         long timestamp = System.currentTimeMillis();
+        String baseName = DUMP_PREFIX + timestamp;
+        exporter().export(romDir, baseName, SparseImage.dense(eepromData), formats);
+
+        if (digest == null || digest.getSize() != eepromData.length) digest = DumpDigest.of(eepromData);
+        digest.writeSidecar(new File(romDir, baseName + DumpDigest.SIDECAR_SUFFIX));
+
+        // Return the directory where files were saved
+        return romDir;
+    }
 
-        // Save BIN
-        String fileNameBin = "eeprom_dump_" + timestamp + ".bin";
-        File fileBin = new File(romDir, fileNameBin);
-        try (FileOutputStream fosBin = new FileOutputStream(fileBin)) {
-            fosBin.write(eepromData);
+    /**
+     * Biblioteca de volcados en Descargas/rom/library, abierta la primera vez
+     * que se pide (carga el índice de disco).
+     */
+    public static synchronized DumpLibrary getDumpLibrary() throws IOException {
+        if (library == null) library = new DumpLibrary(new File(getRomDirectory(), "library"));
+        return library;
+    }
+
+    private static synchronized DumpExporter exporter() {
+        if (exporter == null) {
+            int cores = Math.max(2, Runtime.getRuntime().availableProcessors());
+            exporter = new DumpExporter(
+                    Executors.newCachedThreadPool(daemonThreads("export")),
+                    Executors.newFixedThreadPool(cores, daemonThreads("hex-encoder")));
         }
+        return exporter;
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Archivo .bin nuevo en Descargas/rom para un volcado directo a disco
+     * (ver {@link MappedDumpSink}).
+     */
+    public static File createDumpFile() throws IOException {
+        return new File(getRomDirectory(), DUMP_PREFIX + System.currentTimeMillis() + ".bin");
+    }
 
-        // Save HEX
-        String fileNameHex = "eeprom_dump_" + timestamp + ".hex";
-        File fileHex = new File(romDir, fileNameHex);
-        try (FileOutputStream fosHex = new FileOutputStream(fileHex)) {
-            String hexData = IntelHexFormat.generateIntelHex(eepromData);
-            fosHex.write(hexData.getBytes(StandardCharsets.UTF_8));
+    /**
+     * Volcado directo a disco que quedó a medias en una sesión anterior (la
+     * app se cerró o murió durante el volcado). Si hay varios se conserva el
+     * más reciente y se borran los demás, igual que dentro de una sesión.
+     *
+     * @return el volcado reabierto en su marca de agua, o null si no hay ninguno
+     */
+    public static MappedDumpSink recoverInterruptedDump() throws IOException {
+        MappedDumpSink newest = null;
+        for (MappedDumpSink sink : MappedDumpSink.recover(getRomDirectory())) {
+            if (newest == null || sink.getFile().getName().compareTo(newest.getFile().getName()) > 0) {
+                if (newest != null) newest.discard();
+                newest = sink;
+            } else {
+                sink.discard();
+            }
         }
+        return newest;
+    }
 
-        // Return the directory where files were saved
+    @SuppressWarnings("deprecation")
+    private static File getRomDirectory() throws IOException {
+        File env = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
+        File romDir = new File(env, "rom");
+        if (!romDir.exists() && !romDir.mkdirs()) {
+            throw new IOException("No se pudo crear el directorio de destino en Descargas/rom");
+        }
         return romDir;
     }
 }
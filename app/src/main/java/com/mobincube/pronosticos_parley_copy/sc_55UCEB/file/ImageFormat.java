@@ -0,0 +1,43 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.exception.HexParseException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Formato de archivo de imagen de memoria (binario, Intel HEX, S-Record...).
+ * Las implementaciones están en {@link ImageFormats}.
+ */
+public interface ImageFormat {
+
+    /** Nombre para el log, p. ej. "Intel HEX". */
+    String getName();
+
+    /** Extensión al exportar, sin punto. */
+    String getExtension();
+
+    /**
+     * Si el archivo parece de este formato, por su nombre o por sus primeros
+     * bytes ({@code head} puede estar vacío).
+     */
+    boolean accepts(String fileName, byte[] head);
+
+    /**
+     * Lee la imagen sin cerrar el stream. Los formatos con direcciones
+     * descartan lo que cae en {@code limit} o más allá.
+     */
+    SparseImage read(InputStream in, int limit) throws IOException, HexParseException;
+
+    /** Escribe la imagen sin cerrar el stream. */
+    void write(SparseImage image, OutputStream out) throws IOException;
+
+    /**
+     * Como {@link #write(SparseImage, OutputStream)}, repartiendo la
+     * codificación en {@code pool} si el formato lo admite.
+     */
+    default void write(SparseImage image, OutputStream out, ExecutorService pool) throws IOException {
+        write(image, out);
+    }
+}
@@ -0,0 +1,122 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.exception.HexParseException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Formatos de imagen disponibles y detección por nombre / contenido.
+ */
+public final class ImageFormats {
+
+    private ImageFormats() { }
+
+    /**
+     * Binario plano desde la dirección 0. Sus 0xFF son contenido (dejan la
+     * memoria borrada), así que la imagen siempre es densa.
+     */
+    public static final ImageFormat RAW = new ImageFormat() {
+        @Override public String getName()      { return "Binario"; }
+        @Override public String getExtension() { return "bin"; }
+
+        @Override
+        public boolean accepts(String fileName, byte[] head) {
+            return true;
+        }
+
+        @Override
+        public SparseImage read(InputStream in, int limit) throws IOException {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            byte[] tmp = new byte[RecordLineReader.READ_BUFFER];
+            int n;
+            while ((n = in.read(tmp, 0, tmp.length)) != -1) buf.write(tmp, 0, n);
+            return SparseImage.dense(buf.toByteArray());
+        }
+
+        @Override
+        public void write(SparseImage image, OutputStream out) throws IOException {
+            if (image.isDense() && !image.isEmpty()) {
+                out.write(image.segmentData(0), 0, image.getSegmentLength(0));
+            } else {
+                out.write(image.toArray(image.getEnd()));
+            }
+        }
+    };
+
+    public static final ImageFormat INTEL_HEX = new ImageFormat() {
+        @Override public String getName()      { return "Intel HEX"; }
+        @Override public String getExtension() { return "hex"; }
+
+        @Override
+        public boolean accepts(String fileName, byte[] head) {
+            return hasExtension(fileName, ".hex", ".ihx", ".ihex")
+                    || (head.length > 0 && head[0] == ':');
+        }
+
+        @Override
+        public SparseImage read(InputStream in, int limit) throws IOException, HexParseException {
+            return IntelHexFormat.readSparse(in, limit);
+        }
+
+        @Override
+        public void write(SparseImage image, OutputStream out) throws IOException {
+            IntelHexFormat.writeIntelHex(image, out);
+        }
+
+        @Override
+        public void write(SparseImage image, OutputStream out, ExecutorService pool)
+                throws IOException {
+            IntelHexFormat.writeIntelHex(image, out, pool);
+        }
+    };
+
+    public static final ImageFormat S_RECORD = new ImageFormat() {
+        @Override public String getName()      { return "S-Record"; }
+        @Override public String getExtension() { return "srec"; }
+
+        @Override
+        public boolean accepts(String fileName, byte[] head) {
+            return hasExtension(fileName, ".s19", ".s28", ".s37", ".srec", ".mot")
+                    || (head.length > 1 && head[0] == 'S' && head[1] >= '0' && head[1] <= '9');
+        }
+
+        @Override
+        public SparseImage read(InputStream in, int limit) throws IOException, HexParseException {
+            return SRecordFormat.readSRecord(in, limit);
+        }
+
+        @Override
+        public void write(SparseImage image, OutputStream out) throws IOException {
+            SRecordFormat.writeSRecord(image, out);
+        }
+    };
+
+    /** Orden de detección: el binario acepta cualquier cosa y va el último. */
+    private static final List<ImageFormat> ALL = Arrays.asList(INTEL_HEX, S_RECORD, RAW);
+
+    public static List<ImageFormat> all() {
+        return ALL;
+    }
+
+    public static ImageFormat detect(String fileName, byte[] head) {
+        for (ImageFormat f : ALL) {
+            if (f.accepts(fileName, head)) return f;
+        }
+        return RAW;
+    }
+
+    private static boolean hasExtension(String fileName, String... extensions) {
+        if (fileName == null) return false;
+        String lower = fileName.toLowerCase(Locale.ROOT);
+        for (String ext : extensions) {
+            if (lower.endsWith(ext)) return true;
+        }
+        return false;
+    }
+}
@@ -1,127 +1,286 @@
 package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
 
 import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.exception.HexParseException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public class IntelHexFormat {
 
+    private static final int RECORD_MAX      = 1 + 2 * (5 + 16) + 1;
+    private static final int PARALLEL_WINDOW = 8;   // bloques de 64KB codificados en vuelo
+
     public static byte[] parseIntelHex(byte[] fileData, int targetSize) throws HexParseException {
-        String content = new String(fileData, StandardCharsets.UTF_8);
-        String[] lines = content.split("\\r?\\n");
+        HexParser parser = new HexParser(targetSize, false);
+        parser.feed(fileData, 0, fileData.length);
+        return parser.finish();
+    }
 
-        byte[] buffer = new byte[targetSize];
-        java.util.Arrays.fill(buffer, (byte) 0xFF);
+    public static byte[] parseIntelHex(ByteBuffer data, int targetSize) throws HexParseException {
+        HexParser parser = new HexParser(targetSize, false);
+        parser.feed(data);
+        return parser.finish();
+    }
 
-        int extendedLinearAddress = 0;
-        int extendedSegmentAddress = 0;
-        int highestAddress = 0;
+    /**
+     * Parsea el archivo según se lee, sin cargarlo entero en memoria. Deja de
+     * leer en cuanto encuentra el registro EOF; no cierra el stream.
+     */
+    public static byte[] parseIntelHex(InputStream in, int targetSize)
+            throws IOException, HexParseException {
+        HexParser parser = new HexParser(targetSize, false);
+        parser.feed(in);
+        return parser.finish();
+    }
 
-        for (String line : lines) {
-            line = line.trim();
-            if (line.isEmpty())
-                continue;
+    /**
+     * Como {@link #parseIntelHex(InputStream, int)}, pero conserva solo los
+     * rangos que define el archivo: los huecos no ocupan memoria ni se
+     * escriben después en el chip. Se descartan las direcciones &gt;= {@code limit}.
+     * Los checksums incorrectos se cuentan en {@link SparseImage#getChecksumWarnings()}.
+     */
+    public static SparseImage readSparse(InputStream in, int limit)
+            throws IOException, HexParseException {
+        HexParser parser = new HexParser(limit, true);
+        parser.feed(in);
+        parser.endInput();
+        parser.image.setChecksumWarnings(parser.badChecksums, parser.firstBadChecksumLine);
+        return parser.image;
+    }
 
-            if (!line.startsWith(":")) {
-                throw new HexParseException("Línea no inicia con ':': " + line);
-            }
-            if (line.length() < 11) {
-                throw new HexParseException("Línea muy corta: " + line);
+    /**
+     * Parser por bytes: decodifica cada línea con la tabla de
+     * {@link RecordLineReader} y copia los datos directamente al destino, sea
+     * un buffer plano relleno de 0xFF o una {@link SparseImage}.
+     */
+    private static final class HexParser extends RecordLineReader {
+        private final int         limit;
+        private final byte[]      buffer;
+        private final SparseImage image;
+
+        private int extendedLinearAddress  = 0;
+        private int extendedSegmentAddress = 0;
+        private int highestAddress         = 0;
+
+        HexParser(int targetSize, boolean sparse) {
+            limit = targetSize;
+            if (sparse) {
+                buffer = null;
+                image  = new SparseImage();
+            } else {
+                buffer = new byte[targetSize];
+                image  = null;
+                java.util.Arrays.fill(buffer, (byte) 0xFF);
             }
+        }
 
-            try {
-                int len = Integer.parseInt(line.substring(1, 3), 16);
-                int addr = Integer.parseInt(line.substring(3, 7), 16);
-                int type = Integer.parseInt(line.substring(7, 9), 16);
+        byte[] finish() throws HexParseException {
+            endInput();
 
-                // Checksum validation
-                int checksum = 0;
-                for (int i = 1; i < line.length() - 1; i += 2) {
-                    checksum += Integer.parseInt(line.substring(i, i + 2), 16);
-                }
-                if ((checksum & 0xFF) != 0) {
-                    // Ignorable or throw, returning warning via callback is harder here, let's keep
-                    // it quiet or print stack
-                    System.err.println("Advertencia del parser: Checksum inválido en línea -> " + line);
-                }
+            int actualSize = highestAddress + 1;
+            if (actualSize == 0)
+                return new byte[0];
 
-                if (type == 0x00) { // Data record
-                    int baseAddress = (extendedLinearAddress << 16) + (extendedSegmentAddress << 4);
-                    int finalAddress = baseAddress + addr;
-
-                    for (int i = 0; i < len; i++) {
-                        int dataByte = Integer.parseInt(line.substring(9 + i * 2, 11 + i * 2), 16);
-                        if (finalAddress + i < targetSize) {
-                            buffer[finalAddress + i] = (byte) dataByte;
-                            if (finalAddress + i > highestAddress) {
-                                highestAddress = finalAddress + i;
-                            }
-                        }
-                    }
-                } else if (type == 0x01) { // EOF
-                    break;
-                } else if (type == 0x02) { // Ext Segment
-                    extendedSegmentAddress = Integer.parseInt(line.substring(9, 13), 16);
-                } else if (type == 0x04) { // Ext Linear
-                    extendedLinearAddress = Integer.parseInt(line.substring(9, 13), 16);
-                }
-            } catch (Exception e) {
-                throw new HexParseException("Error parseando los valores de la línea: " + line, e);
+            // Ajustamos al bloque mínimo (16 bytes) para no romper el buffer UART de
+            // refilón
+            if (actualSize % 16 != 0) {
+                actualSize = ((actualSize / 16) + 1) * 16;
             }
+
+            byte[] trimmedBuffer = new byte[actualSize];
+            System.arraycopy(buffer, 0, trimmedBuffer, 0, actualSize);
+            return trimmedBuffer;
         }
 
-        int actualSize = highestAddress + 1;
-        if (actualSize == 0)
-            return new byte[0];
+        @Override
+        protected void onLine(int s, int e) throws HexParseException {
+            if (line[s] != ':') {
+                throw new HexParseException("Línea no inicia con ':': " + text(s, e));
+            }
+            if (e - s < 11) {
+                throw new HexParseException("Línea muy corta: " + text(s, e));
+            }
+
+            int count    = decode(s + 1, e, s, e);
+            int checksum = 0;
+            for (int k = 0; k < count; k++) checksum += record[k];
+
+            int len  = record[0] & 0xFF;
+            int addr = ((record[1] & 0xFF) << 8) | (record[2] & 0xFF);
+            int type = record[3] & 0xFF;
+            if (count < len + 5) {
+                throw new HexParseException("Registro incompleto en la línea " + lineNumber
+                        + ": " + len + " bytes declarados");
+            }
+            if ((checksum & 0xFF) != 0) badChecksum();
 
-        // Ajustamos al bloque mínimo (16 bytes) para no romper el buffer UART de
-        // refilón
-        if (actualSize % 16 != 0) {
-            actualSize = ((actualSize / 16) + 1) * 16;
+            if (type == 0x00) { // Data record
+                int baseAddress  = (extendedLinearAddress << 16) + (extendedSegmentAddress << 4);
+                int finalAddress = baseAddress + addr;
+                if (finalAddress < 0 || finalAddress >= limit) return;
+                int n = Math.min(len, limit - finalAddress);
+                if (n == 0) return;
+                if (image != null) image.put(finalAddress, record, 4, n);
+                else System.arraycopy(record, 4, buffer, finalAddress, n);
+                if (finalAddress + n - 1 > highestAddress) {
+                    highestAddress = finalAddress + n - 1;
+                }
+            } else if (type == 0x01) { // EOF
+                done = true;
+            } else if (type == 0x02) { // Ext Segment
+                extendedSegmentAddress = word(count);
+            } else if (type == 0x04) { // Ext Linear
+                extendedLinearAddress = word(count);
+            }
         }
 
-        byte[] trimmedBuffer = new byte[actualSize];
-        System.arraycopy(buffer, 0, trimmedBuffer, 0, actualSize);
-        return trimmedBuffer;
+        private int word(int count) throws HexParseException {
+            if (count < 6) {
+                throw new HexParseException("Registro de dirección incompleto en la línea " + lineNumber);
+            }
+            return ((record[4] & 0xFF) << 8) | (record[5] & 0xFF);
+        }
     }
 
     public static String generateIntelHex(byte[] data) {
-        // Pre-calcular capacidad: cada linea ~45 chars para 16 bytes de datos
-        // + registros Extended Linear Address cada 64KB
+        // Cada linea: 11 + 2 * 16 caracteres + '\n'; más un registro Type 04 cada 64KB
         int estimatedLines = (data.length + 15) / 16;
-        StringBuilder sb = new StringBuilder(estimatedLines * 46 + 100);
-        int address = 0;
-
-        while (address < data.length) {
-            int len = Math.min(16, data.length - address);
-            // Si pasamos los 64KB, generar registro Extended Linear Address (Type 04)
-            if ((address % 65536) == 0 && address > 0) {
-                int extAddr = address >> 16;
-                String extRec = String.format("02000004%04X", extAddr);
-                int extChecksum = calculateHexChecksum(extRec);
-                sb.append(":").append(extRec).append(String.format("%02X", extChecksum)).append("\n");
-            }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(estimatedLines * 44 + 100);
+        try {
+            writeIntelHex(data, out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);   // ByteArrayOutputStream no lanza
+        }
+        return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+    }
 
-            int addr16 = address & 0xFFFF;
-            StringBuilder rec = new StringBuilder();
-            rec.append(String.format("%02X%04X%02X", len, addr16, 0x00)); // Type 00 (Data)
-            for (int i = 0; i < len; i++) {
-                rec.append(String.format("%02X", data[address + i]));
-            }
-            int checksum = calculateHexChecksum(rec.toString());
-            sb.append(":").append(rec.toString()).append(String.format("%02X", checksum)).append("\n");
+    /**
+     * Escribe {@code data} en Intel HEX directamente en {@code out}, registro a
+     * registro, con un buffer fijo: la memoria no crece con el tamaño de la
+     * imagen. No cierra el stream.
+     */
+    public static void writeIntelHex(byte[] data, OutputStream out) throws IOException {
+        writeIntelHex(SparseImage.dense(data), new RecordLineWriter(out));
+    }
+
+    public static void writeIntelHex(byte[] data, WritableByteChannel channel) throws IOException {
+        writeIntelHex(SparseImage.dense(data), new RecordLineWriter(channel));
+    }
 
-            address += len;
+    /** Solo los segmentos de la imagen; los huecos no generan registros. */
+    public static void writeIntelHex(SparseImage image, OutputStream out) throws IOException {
+        writeIntelHex(image, new RecordLineWriter(out));
+    }
+
+    /**
+     * Como {@link #writeIntelHex(SparseImage, OutputStream)}, codificando cada
+     * bloque de 64KB en {@code pool}. Los bloques son independientes (cada uno
+     * abre con su Extended Linear Address), se escriben en orden y como mucho
+     * hay {@link #PARALLEL_WINDOW} codificados en memoria. La salida es
+     * idéntica a la secuencial.
+     */
+    public static void writeIntelHex(SparseImage image, OutputStream out, ExecutorService pool)
+            throws IOException {
+        int blocks = (int) ((image.getEnd() + 0xFFFFL) >>> 16);
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+        try {
+            for (int k = 0; k < blocks; k++) {
+                final int block = k;
+                pending.add(pool.submit(() -> encodeBlock(image, block)));
+                if (pending.size() >= PARALLEL_WINDOW) out.write(pending.removeFirst().get());
+            }
+            while (!pending.isEmpty()) out.write(pending.removeFirst().get());
+        } catch (ExecutionException e) {
+            throw new IOException("Error codificando Intel HEX", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Exportación interrumpida");
+        } finally {
+            for (Future<byte[]> f : pending) f.cancel(true);
         }
-        // EOF record
-        sb.append(":00000001FF\n");
-        return sb.toString();
+        RecordLineWriter w = new RecordLineWriter(out);
+        writeEof(w);
+        w.flush();
+    }
+
+    private static byte[] encodeBlock(SparseImage image, int block) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(0x10000 / 16 * RECORD_MAX);
+        RecordLineWriter w = new RecordLineWriter(buf);
+        long from = (long) block << 16;
+        writeRecords(image, from, from + 0x10000, block == 0 ? 0 : -1, w);
+        w.flush();
+        return buf.toByteArray();
     }
 
-    private static int calculateHexChecksum(String hexRecord) {
-        int sum = 0;
-        for (int i = 0; i < hexRecord.length(); i += 2) {
-            sum += Integer.parseInt(hexRecord.substring(i, i + 2), 16);
+    /** Registros de 16 bytes con checksum calculado al vuelo. */
+    private static void writeIntelHex(SparseImage image, RecordLineWriter w) throws IOException {
+        writeRecords(image, 0, Long.MAX_VALUE, 0, w);
+        writeEof(w);
+        w.flush();
+    }
+
+    /**
+     * Registros de datos de los segmentos dentro de {@code [from, to)}.
+     *
+     * @param upper bloque de 64KB vigente antes del primer registro
+     */
+    private static void writeRecords(SparseImage image, long from, long to, int upper,
+                                     RecordLineWriter w) throws IOException {
+        for (int s = 0; s < image.getSegmentCount(); s++) {
+            byte[] data    = image.segmentData(s);
+            int    base    = image.getSegmentAddress(s);
+            long   segEnd  = (long) base + image.getSegmentLength(s);
+            if (segEnd <= from) continue;
+            if (base >= to) break;
+            int    end     = (int) Math.min(segEnd, to);
+            int    address = (int) Math.max(base, from);
+            while (address < end) {
+                // Un registro no cruza un límite de 64KB
+                int len = Math.min(Math.min(16, end - address), 0x10000 - (address & 0xFFFF));
+                // Al cambiar de bloque de 64KB, registro Extended Linear Address (Type 04)
+                if ((address >>> 16) != upper) {
+                    upper = address >>> 16;
+                    beginRecord(w, 2, 0, 0x04);
+                    w.hexByte(upper >> 8);
+                    w.hexByte(upper & 0xFF);
+                    endRecord(w);
+                }
+                beginRecord(w, len, address & 0xFFFF, 0x00); // Type 00 (Data)
+                for (int i = 0; i < len; i++) {
+                    w.hexByte(data[address - base + i] & 0xFF);
+                }
+                endRecord(w);
+                address += len;
+            }
         }
-        return (256 - (sum & 0xFF)) & 0xFF; // Complemento a 2
+    }
+
+    /** Registro EOF (Type 01). */
+    private static void writeEof(RecordLineWriter w) throws IOException {
+        beginRecord(w, 0, 0, 0x01);
+        endRecord(w);
+    }
+
+    private static void beginRecord(RecordLineWriter w, int len, int addr16, int type) throws IOException {
+        w.begin(RECORD_MAX);
+        w.put(':');
+        w.hexByte(len);
+        w.hexByte(addr16 >> 8);
+        w.hexByte(addr16 & 0xFF);
+        w.hexByte(type);
+    }
+
+    private static void endRecord(RecordLineWriter w) {
+        w.hexByte(-w.sum() & 0xFF); // Complemento a 2
+        w.put('\n');
     }
 }
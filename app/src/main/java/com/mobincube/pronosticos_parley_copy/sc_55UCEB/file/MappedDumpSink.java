@@ -0,0 +1,238 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Volcado directo a disco a través de un {@link MappedByteBuffer}: el heap
+ * usado no depende del tamaño del chip.
+ *
+ * Mientras dura el volcado los datos viven en {@code .<archivo>.part} y solo
+ * al cerrarlo completo se renombran al nombre final: un volcado truncado
+ * nunca aparece con un nombre válido.
+ *
+ * Junto al temporal se mantiene {@code .<archivo>.part.progress} con el tamaño
+ * total, la marca de agua confirmada y el origen (prefijo de protocolo y
+ * modelo), cuatro int big-endian. Los datos se fuerzan a disco antes de
+ * avanzar la marca, así que tras un cierre inesperado todo lo anterior a la
+ * marca es válido y {@link #recover} puede reabrirlo para continuar.
+ */
+public class MappedDumpSink implements DumpSink {
+
+    public static final String PART_PREFIX     = ".";
+    public static final String PART_SUFFIX     = ".part";
+    public static final String PROGRESS_SUFFIX = ".progress";
+
+    private static final int NO_MODEL = -1;
+
+    private final File             file;
+    private final File             partFile;
+    private final File             progressFile;
+    private final int              size;
+    private final RandomAccessFile raf;
+    private final RandomAccessFile marker;
+    private final MappedByteBuffer map;
+    private final ByteBuffer       readView;      // posición propia: read() desde otro hilo
+
+    private int     watermark;
+    private byte    commandPrefix;
+    private int     modelIndex;
+    private boolean closed = false;
+
+    /** @param file nombre final; se crea al completar el volcado */
+    public MappedDumpSink(File file, int size) throws IOException {
+        this(file, size, 0, (byte) 0, NO_MODEL);
+    }
+
+    private MappedDumpSink(File file, int size, int watermark, byte commandPrefix, int modelIndex)
+            throws IOException {
+        this.file          = file;
+        this.partFile      = partFileFor(file);
+        this.progressFile  = new File(partFile.getPath() + PROGRESS_SUFFIX);
+        this.size          = size;
+        this.watermark     = watermark;
+        this.commandPrefix = commandPrefix;
+        this.modelIndex    = modelIndex;
+
+        raf = new RandomAccessFile(partFile, "rw");
+        try {
+            raf.setLength(size);
+            map      = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            readView = map.duplicate();
+            marker   = new RandomAccessFile(progressFile, "rw");
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        writeMarker();
+    }
+
+    /**
+     * Reabre los volcados interrumpidos de {@code dir} (temporal + marcador).
+     * Los pares ilegibles, sin origen o sin ningún byte confirmado se borran;
+     * si el marcador ya cubre todo el archivo (cierre entre el último commit
+     * y el renombrado) se completa el renombrado.
+     *
+     * @return los volcados que se pueden reanudar, abiertos en su marca de agua
+     */
+    public static List<MappedDumpSink> recover(File dir) {
+        List<MappedDumpSink> found = new ArrayList<>();
+        File[] files = dir.listFiles((d, name) -> name.startsWith(PART_PREFIX)
+                && (name.endsWith(PART_SUFFIX) || name.endsWith(PART_SUFFIX + PROGRESS_SUFFIX)));
+        if (files == null) return found;
+
+        for (File f : files) {
+            String name = f.getName();
+            if (name.endsWith(PROGRESS_SUFFIX)) {
+                // Marcador huérfano: su temporal ya no existe
+                File part = new File(dir, name.substring(0, name.length() - PROGRESS_SUFFIX.length()));
+                //noinspection ResultOfMethodCallIgnored
+                if (!part.exists()) f.delete();
+                continue;
+            }
+            MappedDumpSink sink = reopen(f);
+            if (sink != null) found.add(sink);
+        }
+        return found;
+    }
+
+    @Override public int size() { return size; }
+
+    @Override
+    public void write(int address, byte[] src, int offset, int length) {
+        map.position(address);
+        map.put(src, offset, length);
+    }
+
+    /** No toca la posición de {@link #write}; los lectores solo se sincronizan entre sí. */
+    @Override
+    public void read(int address, byte[] dst, int offset, int length) {
+        synchronized (readView) {
+            readView.position(address);
+            readView.get(dst, offset, length);
+        }
+    }
+
+    @Override
+    public void commit(int watermark) throws IOException {
+        if (watermark <= this.watermark) return;
+        map.force();
+        this.watermark = watermark;
+        writeMarker();
+    }
+
+    @Override
+    public void setOrigin(byte commandPrefix, int modelIndex) throws IOException {
+        this.commandPrefix = commandPrefix;
+        this.modelIndex    = modelIndex;
+        writeMarker();
+    }
+
+    @Override public int getWatermark() { return watermark; }
+
+    /** Prefijo de protocolo del chip volcado, o 0 si no se indicó. */
+    public byte getCommandPrefix() { return commandPrefix; }
+
+    public int getModelIndex() { return modelIndex; }
+
+    @Override public byte[] array() { return null; }
+
+    @Override public File getFile() { return file; }
+
+    /**
+     * Cierra el archivo. Si el volcado está completo, el temporal pasa a su
+     * nombre final y se elimina el marcador; si no, ambos se conservan.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            map.force();
+        } finally {
+            marker.close();
+            raf.close();
+        }
+        if (watermark < size) return;
+        if (!partFile.renameTo(file))
+            throw new IOException("No se pudo renombrar " + partFile.getName());
+        if (!progressFile.delete())
+            throw new IOException("No se pudo eliminar " + progressFile.getName());
+    }
+
+    @Override
+    public void discard() {
+        try {
+            close();
+        } catch (IOException ignored) {
+            // Se borran igualmente
+        }
+        progressFile.delete();
+        partFile.delete();
+    }
+
+    // ── Internos ────────────────────────────────────────────────────────────
+
+    static File partFileFor(File file) {
+        return new File(file.getParentFile(), PART_PREFIX + file.getName() + PART_SUFFIX);
+    }
+
+    /** @return el volcado reabierto, o null si no se puede reanudar (ya borrado o renombrado) */
+    private static MappedDumpSink reopen(File part) {
+        File   progress = new File(part.getPath() + PROGRESS_SUFFIX);
+        String name     = part.getName();
+        File   file     = new File(part.getParentFile(),
+                name.substring(PART_PREFIX.length(), name.length() - PART_SUFFIX.length()));
+
+        int size, watermark, prefix, model;
+        try (RandomAccessFile m = new RandomAccessFile(progress, "r")) {
+            size      = m.readInt();
+            watermark = m.readInt();
+            prefix    = m.readInt();
+            model     = m.readInt();
+        } catch (IOException e) {
+            deletePair(part, progress);
+            return null;
+        }
+        if (size <= 0 || part.length() != size || watermark <= 0 || watermark > size) {
+            deletePair(part, progress);
+            return null;
+        }
+        if (watermark == size) {
+            if (part.renameTo(file)) progress.delete();
+            return null;
+        }
+        if (prefix == 0 || model == NO_MODEL) {
+            deletePair(part, progress);
+            return null;
+        }
+        try {
+            return new MappedDumpSink(file, size, watermark, (byte) prefix, model);
+        } catch (IOException e) {
+            deletePair(part, progress);
+            return null;
+        }
+    }
+
+    private static void deletePair(File part, File progress) {
+        //noinspection ResultOfMethodCallIgnored
+        part.delete();
+        //noinspection ResultOfMethodCallIgnored
+        progress.delete();
+    }
+
+    private void writeMarker() throws IOException {
+        marker.seek(0);
+        marker.writeInt(size);
+        marker.writeInt(watermark);
+        marker.writeInt(commandPrefix);
+        marker.writeInt(modelIndex);
+        marker.getFD().sync();
+    }
+}
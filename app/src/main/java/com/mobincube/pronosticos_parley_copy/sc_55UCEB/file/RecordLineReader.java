@@ -0,0 +1,127 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.exception.HexParseException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Base de los parsers de formatos de texto por registros (Intel HEX,
+ * S-Record): acumula cada línea en un buffer fijo, le quita los espacios de
+ * los extremos y la entrega a {@link #onLine}. Los dígitos se decodifican con
+ * una tabla; no se crean Strings salvo para los mensajes de error.
+ */
+abstract class RecordLineReader {
+
+    static final int MAX_LINE    = 1 + 2 * (5 + 255) + 16;   // registro máximo + holgura
+    static final int READ_BUFFER = 8192;
+
+    /** Valor de cada dígito hex indexado por byte ASCII; -1 si no es hex. */
+    static final byte[] NIBBLE = new byte[256];
+
+    static final byte[] HEX_DIGITS = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+    };
+
+    static {
+        java.util.Arrays.fill(NIBBLE, (byte) -1);
+        for (int c = '0'; c <= '9'; c++) NIBBLE[c] = (byte) (c - '0');
+        for (int c = 'A'; c <= 'F'; c++) NIBBLE[c] = (byte) (c - 'A' + 10);
+        for (int c = 'a'; c <= 'f'; c++) NIBBLE[c] = (byte) (c - 'a' + 10);
+    }
+
+    protected final byte[] line   = new byte[MAX_LINE];
+    protected final byte[] record = new byte[MAX_LINE / 2];
+    protected int          lineNumber;
+    /** Registro de fin encontrado: el resto de la entrada se ignora. */
+    protected boolean      done;
+    /** Checksums incorrectos tolerados y línea del primero. */
+    protected int          badChecksums;
+    protected int          firstBadChecksumLine;
+    private int            lineLen;
+
+    /**
+     * Línea no vacía en {@code line[start, end)}, sin espacios en los extremos.
+     */
+    protected abstract void onLine(int start, int end) throws HexParseException;
+
+    final void feed(byte[] src, int offset, int length) throws HexParseException {
+        int end = offset + length;
+        for (int i = offset; i < end && !done; i++) feed(src[i]);
+    }
+
+    final void feed(byte b) throws HexParseException {
+        if (b == '\n') {
+            endLine();
+            return;
+        }
+        if (lineLen == MAX_LINE) {
+            throw new HexParseException("Línea muy larga: " + text(0, 32) + "...");
+        }
+        line[lineLen++] = b;
+    }
+
+    final void feed(ByteBuffer data) throws HexParseException {
+        if (data.hasArray()) {
+            feed(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+        } else {
+            while (data.hasRemaining() && !done) feed(data.get());
+        }
+    }
+
+    /** Lee hasta el final o hasta el registro de fin; no cierra el stream. */
+    final void feed(InputStream in) throws IOException, HexParseException {
+        byte[] chunk = new byte[READ_BUFFER];
+        int n;
+        while (!done && (n = in.read(chunk, 0, chunk.length)) != -1) {
+            feed(chunk, 0, n);
+        }
+    }
+
+    /** Procesa la última línea si no terminaba en salto de línea. */
+    final void endInput() throws HexParseException {
+        if (!done && lineLen > 0) endLine();
+    }
+
+    private void endLine() throws HexParseException {
+        lineNumber++;
+        int s = 0;
+        int e = lineLen;
+        lineLen = 0;
+        while (s < e && (line[s] & 0xFF) <= ' ') s++;   // mismo criterio que String.trim()
+        while (e > s && (line[e - 1] & 0xFF) <= ' ') e--;
+        if (s < e) onLine(s, e);
+    }
+
+    /**
+     * Decodifica los dígitos de {@code line[from, to)} en {@link #record}.
+     *
+     * @return número de bytes decodificados
+     */
+    protected final int decode(int from, int to, int start, int end) throws HexParseException {
+        if (((to - from) & 1) != 0) {
+            throw new HexParseException("Número impar de dígitos en la línea: " + text(start, end));
+        }
+        int count = (to - from) / 2;
+        for (int k = 0, c = from; k < count; k++, c += 2) {
+            int hi = NIBBLE[line[c] & 0xFF];
+            int lo = NIBBLE[line[c + 1] & 0xFF];
+            if ((hi | lo) < 0) {
+                throw new HexParseException("Error parseando los valores de la línea: " + text(start, end));
+            }
+            record[k] = (byte) ((hi << 4) | lo);
+        }
+        return count;
+    }
+
+    /** El registro de la línea actual no cuadra: se cuenta y se sigue. */
+    protected final void badChecksum() {
+        if (badChecksums++ == 0) firstBadChecksumLine = lineNumber;
+    }
+
+    protected final String text(int from, int to) {
+        return new String(line, from, to - from, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,64 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Salida de registros de texto (Intel HEX, S-Record) a través de un buffer
+ * fijo: la memoria no crece con el tamaño de la imagen. Los dígitos salen de
+ * una tabla y la suma de los bytes del registro se acumula al escribirlos.
+ */
+class RecordLineWriter {
+
+    static final int WRITE_BUFFER = 8192;
+
+    private final OutputStream        out;
+    private final WritableByteChannel channel;
+    private final byte[]              buf = new byte[WRITE_BUFFER];
+    private int                       pos = 0;
+    private int                       sum;
+
+    RecordLineWriter(OutputStream out) {
+        this.out     = out;
+        this.channel = null;
+    }
+
+    RecordLineWriter(WritableByteChannel channel) {
+        this.out     = null;
+        this.channel = channel;
+    }
+
+    /** Empieza un registro de hasta {@code maxChars} caracteres y pone la suma a 0. */
+    void begin(int maxChars) throws IOException {
+        if (pos > buf.length - maxChars) flush();
+        sum = 0;
+    }
+
+    void put(int c) {
+        buf[pos++] = (byte) c;
+    }
+
+    void hexByte(int v) {
+        sum       += v;
+        buf[pos++] = RecordLineReader.HEX_DIGITS[(v >> 4) & 0x0F];
+        buf[pos++] = RecordLineReader.HEX_DIGITS[v & 0x0F];
+    }
+
+    /** Suma de los bytes escritos con {@link #hexByte} desde {@link #begin}. */
+    int sum() {
+        return sum;
+    }
+
+    void flush() throws IOException {
+        if (pos == 0) return;
+        if (out != null) {
+            out.write(buf, 0, pos);
+        } else {
+            ByteBuffer bb = ByteBuffer.wrap(buf, 0, pos);
+            while (bb.hasRemaining()) channel.write(bb);
+        }
+        pos = 0;
+    }
+}
@@ -0,0 +1,142 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.exception.HexParseException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Motorola S-Record (S19 / S28 / S37).
+ *
+ * Lectura: S1/S2/S3 son datos con direcciones de 16/24/32 bits; S7/S8/S9
+ * terminan el archivo; S0 (cabecera) y S5/S6 (cuenta de registros) se
+ * ignoran. Escritura: se elige el ancho de dirección más pequeño que cubre
+ * la imagen y solo se emiten sus segmentos.
+ */
+public class SRecordFormat {
+
+    private static final int    RECORD_DATA = 16;
+    private static final int    RECORD_MAX  = 2 + 2 * (1 + 4 + RECORD_DATA + 1) + 1;
+    private static final byte[] HEADER      = { 'e', 'e', 'p', 'r', 'o', 'm' };
+
+    /**
+     * Parsea el archivo según se lee y devuelve los rangos que define. Se
+     * descartan las direcciones &gt;= {@code limit}; no cierra el stream.
+     * Los checksums incorrectos no detienen la lectura: se cuentan en
+     * {@link SparseImage#getChecksumWarnings()}.
+     */
+    public static SparseImage readSRecord(InputStream in, int limit)
+            throws IOException, HexParseException {
+        SRecordParser parser = new SRecordParser(limit);
+        parser.feed(in);
+        parser.endInput();
+        parser.image.setChecksumWarnings(parser.badChecksums, parser.firstBadChecksumLine);
+        return parser.image;
+    }
+
+    public static void writeSRecord(SparseImage image, OutputStream out) throws IOException {
+        RecordLineWriter w = new RecordLineWriter(out);
+        int last  = Math.max(0, image.getEnd() - 1);
+        int width = last <= 0xFFFF ? 2 : last <= 0xFFFFFF ? 3 : 4;
+        int type  = width - 1;                         // S1 / S2 / S3
+
+        beginRecord(w, 0, 2, HEADER.length);
+        w.hexByte(0);
+        w.hexByte(0);
+        for (byte b : HEADER) w.hexByte(b);
+        endRecord(w);
+
+        for (int s = 0; s < image.getSegmentCount(); s++) {
+            byte[] data    = image.segmentData(s);
+            int    base    = image.getSegmentAddress(s);
+            int    end     = base + image.getSegmentLength(s);
+            for (int address = base; address < end; address += RECORD_DATA) {
+                int len = Math.min(RECORD_DATA, end - address);
+                beginRecord(w, type, width, len);
+                address(w, address, width);
+                for (int i = 0; i < len; i++) w.hexByte(data[address - base + i] & 0xFF);
+                endRecord(w);
+            }
+        }
+
+        beginRecord(w, 10 - type, width, 0);           // S9 / S8 / S7
+        address(w, 0, width);
+        endRecord(w);
+        w.flush();
+    }
+
+    // ── Internos ────────────────────────────────────────────────────────────
+
+    private static void beginRecord(RecordLineWriter w, int type, int width, int dataLength)
+            throws IOException {
+        w.begin(RECORD_MAX);
+        w.put('S');
+        w.put('0' + type);
+        w.hexByte(width + dataLength + 1);
+    }
+
+    private static void address(RecordLineWriter w, int address, int width) {
+        for (int shift = (width - 1) * 8; shift >= 0; shift -= 8) {
+            w.hexByte((address >>> shift) & 0xFF);
+        }
+    }
+
+    private static void endRecord(RecordLineWriter w) {
+        w.hexByte(~w.sum() & 0xFF);                    // complemento a 1
+        w.put('\n');
+    }
+
+    private static final class SRecordParser extends RecordLineReader {
+        private final int         limit;
+        private final SparseImage image = new SparseImage();
+
+        SRecordParser(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        protected void onLine(int s, int e) throws HexParseException {
+            if (line[s] != 'S' && line[s] != 's') {
+                throw new HexParseException("Línea no inicia con 'S': " + text(s, e));
+            }
+            if (e - s < 10) {
+                throw new HexParseException("Línea muy corta: " + text(s, e));
+            }
+            int type = line[s + 1] - '0';
+            if (type < 0 || type > 9) {
+                throw new HexParseException("Tipo de registro inválido: " + text(s, e));
+            }
+
+            int count = decode(s + 2, e, s, e);
+            int sum   = 0;
+            for (int k = 0; k < count; k++) sum += record[k];
+            if ((record[0] & 0xFF) != count - 1) {
+                throw new HexParseException("Registro incompleto en la línea " + lineNumber);
+            }
+            if ((sum & 0xFF) != 0xFF) badChecksum();
+
+            switch (type) {
+                case 1: case 2: case 3:
+                    data(type + 1, count);
+                    break;
+                case 7: case 8: case 9:
+                    done = true;
+                    break;
+                default:                               // S0, S4, S5, S6
+                    break;
+            }
+        }
+
+        private void data(int width, int count) throws HexParseException {
+            int len = count - 2 - width;               // sin cuenta, dirección ni checksum
+            if (len < 0) {
+                throw new HexParseException("Registro de datos incompleto en la línea " + lineNumber);
+            }
+            long address = 0;
+            for (int k = 1; k <= width; k++) address = (address << 8) | (record[k] & 0xFF);
+            if (address >= limit) return;
+            int n = (int) Math.min(len, limit - address);
+            image.put((int) address, record, 1 + width, n);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Imagen de memoria dispersa: solo guarda los rangos de direcciones que el
+ * archivo define, como segmentos ordenados, sin solapes y no contiguos (dos
+ * segmentos que se tocan se unen). Lo que queda fuera de los segmentos no se
+ * escribe en el chip.
+ *
+ * No es thread-safe.
+ */
+public class SparseImage {
+
+    private static final byte ERASED = (byte) 0xFF;
+
+    private static final class Segment {
+        final int address;
+        byte[]    data;
+        int       length;
+
+        Segment(int address, byte[] data, int length) {
+            this.address = address;
+            this.data    = data;
+            this.length  = length;
+        }
+
+        int end() {
+            return address + length;
+        }
+    }
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    // Registros aceptados con checksum incorrecto al leer el archivo
+    private int checksumWarnings;
+    private int firstChecksumWarningLine;
+
+    /** Imagen de un solo segmento desde 0 que usa {@code data} sin copiarlo. */
+    public static SparseImage dense(byte[] data) {
+        SparseImage image = new SparseImage();
+        if (data.length > 0) image.segments.add(new Segment(0, data, data.length));
+        return image;
+    }
+
+    /**
+     * Copia {@code length} bytes en {@code address}. Los datos nuevos pisan a
+     * los que ya hubiera en ese rango.
+     */
+    public void put(int address, byte[] src, int offset, int length) {
+        if (length <= 0) return;
+        int end = address + length;
+
+        // Caso habitual: registros consecutivos en orden ascendente
+        Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (last == null || address > last.end()) {
+            byte[] data = new byte[Math.max(length, 256)];
+            System.arraycopy(src, offset, data, 0, length);
+            segments.add(new Segment(address, data, length));
+            return;
+        }
+        if (address == last.end()) {
+            ensureCapacity(last, last.length + length);
+            System.arraycopy(src, offset, last.data, last.length, length);
+            last.length += length;
+            return;
+        }
+
+        // Solapa o toca segmentos existentes: se unen en uno
+        int first = firstEndingAtOrAfter(address);
+        int past  = first;
+        while (past < segments.size() && segments.get(past).address <= end) past++;
+        if (past == first) {                        // cae en un hueco
+            byte[] data = Arrays.copyOfRange(src, offset, offset + length);
+            segments.add(first, new Segment(address, data, length));
+            return;
+        }
+        int start    = Math.min(address, segments.get(first).address);
+        int mergeEnd = Math.max(end, segments.get(past - 1).end());
+        byte[] merged = new byte[mergeEnd - start];
+        for (int i = first; i < past; i++) {
+            Segment s = segments.get(i);
+            System.arraycopy(s.data, 0, merged, s.address - start, s.length);
+        }
+        System.arraycopy(src, offset, merged, address - start, length);
+        segments.subList(first, past).clear();
+        segments.add(first, new Segment(start, merged, merged.length));
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public int getSegmentAddress(int i) {
+        return segments.get(i).address;
+    }
+
+    public int getSegmentLength(int i) {
+        return segments.get(i).length;
+    }
+
+    /** Datos del segmento {@code i}; válidos en {@code [0, getSegmentLength(i))}. */
+    byte[] segmentData(int i) {
+        return segments.get(i).data;
+    }
+
+    public boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    /** Dirección siguiente al último byte definido, o 0 si está vacía. */
+    public int getEnd() {
+        return segments.isEmpty() ? 0 : segments.get(segments.size() - 1).end();
+    }
+
+    /** Bytes definidos en total (sin contar los huecos). */
+    public int getPopulatedBytes() {
+        int total = 0;
+        for (Segment s : segments) total += s.length;
+        return total;
+    }
+
+    /**
+     * Registros del archivo cuyo checksum no cuadraba; sus datos se aceptaron
+     * igualmente. Quien carga la imagen decide si avisar.
+     */
+    public int getChecksumWarnings() {
+        return checksumWarnings;
+    }
+
+    /** Línea del primer checksum incorrecto (desde 1), o 0 si no hubo. */
+    public int getFirstChecksumWarningLine() {
+        return firstChecksumWarningLine;
+    }
+
+    void setChecksumWarnings(int count, int firstLine) {
+        this.checksumWarnings         = count;
+        this.firstChecksumWarningLine = firstLine;
+    }
+
+    /** Un único segmento que empieza en 0: no hay nada que saltar. */
+    public boolean isDense() {
+        return segments.size() <= 1 && (segments.isEmpty() || segments.get(0).address == 0);
+    }
+
+    /**
+     * Copia {@code [address, address + length)} a {@code dst}; lo que cae en
+     * un hueco sale como 0xFF.
+     */
+    public void read(int address, byte[] dst, int offset, int length) {
+        Arrays.fill(dst, offset, offset + length, ERASED);
+        int end = address + length;
+        for (int i = firstEndingAtOrAfter(address + 1); i < segments.size(); i++) {
+            Segment s = segments.get(i);
+            if (s.address >= end) break;
+            int from = Math.max(address, s.address);
+            int to   = Math.min(end, s.end());
+            System.arraycopy(s.data, from - s.address, dst, offset + from - address, to - from);
+        }
+    }
+
+    /** Imagen plana de {@code size} bytes con los huecos a 0xFF. */
+    public byte[] toArray(int size) {
+        byte[] out = new byte[size];
+        Arrays.fill(out, ERASED);
+        for (Segment s : segments) {
+            if (s.address >= size) break;
+            System.arraycopy(s.data, 0, out, s.address, Math.min(s.length, size - s.address));
+        }
+        return out;
+    }
+
+    /** Bloques de {@code blockSize} bytes con algún byte definido. */
+    public BitSet blocks(int blockSize) {
+        BitSet touched = new BitSet();
+        for (Segment s : segments) {
+            touched.set(s.address / blockSize, (s.end() - 1) / blockSize + 1);
+        }
+        return touched;
+    }
+
+    // ── Internos ────────────────────────────────────────────────────────────
+
+    /** Primer segmento cuyo final es &gt;= {@code address} (búsqueda binaria). */
+    private int firstEndingAtOrAfter(int address) {
+        int lo = 0;
+        int hi = segments.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (segments.get(mid).end() < address) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private static void ensureCapacity(Segment s, int needed) {
+        if (needed <= s.data.length) return;
+        int capacity = Math.max(needed, s.data.length * 2);
+        s.data = Arrays.copyOf(s.data, capacity);
+    }
+}
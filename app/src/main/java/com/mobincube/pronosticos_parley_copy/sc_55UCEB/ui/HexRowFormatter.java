@@ -0,0 +1,79 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.ui;
+
+/**
+ * Formato de una fila del visor hex (dirección, 16 bytes en hex y ASCII)
+ * escrito en un {@code char[]} que el llamador reutiliza: al hacer scroll no
+ * se crea ningún String ni StringBuilder por fila.
+ */
+public final class HexRowFormatter {
+
+    public static final int BYTES_PER_ROW = 16;
+
+    // "0000FFF0  | " + 16 × "XX " + "| " + 16 caracteres ASCII
+    public static final int ROW_CHARS = 8 + 4 + 3 * BYTES_PER_ROW + 2 + BYTES_PER_ROW;
+
+    public static final String HEADER =
+            "Direccion | 00 01 02 03 04 05 06 07 08 09 0A 0B 0C 0D 0E 0F | ASCII";
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private HexRowFormatter() { }
+
+    /** Filas necesarias para {@code size} bytes (la última puede ir incompleta). */
+    public static int rowCount(int size) {
+        return (size + BYTES_PER_ROW - 1) / BYTES_PER_ROW;
+    }
+
+    /**
+     * Escribe en {@code out} (al menos {@link #ROW_CHARS}) la fila que empieza
+     * en {@code address} con los {@code length} primeros bytes de {@code row}.
+     *
+     * @return caracteres escritos
+     */
+    public static int format(int address, byte[] row, int length, char[] out) {
+        int p = 0;
+        for (int n = 28; n >= 0; n -= 4) out[p++] = HEX[(address >>> n) & 0x0F];
+        out[p++] = ' ';
+        out[p++] = ' ';
+        out[p++] = '|';
+        out[p++] = ' ';
+
+        for (int j = 0; j < BYTES_PER_ROW; j++) {
+            if (j < length) {
+                int b = row[j] & 0xFF;
+                out[p++] = HEX[b >>> 4];
+                out[p++] = HEX[b & 0x0F];
+            } else {
+                out[p++] = ' ';
+                out[p++] = ' ';
+            }
+            out[p++] = ' ';
+        }
+        out[p++] = '|';
+        out[p++] = ' ';
+
+        for (int j = 0; j < length; j++) {
+            int b = row[j] & 0xFF;
+            out[p++] = b >= 32 && b <= 126 ? (char) b : '.';
+        }
+        return p;
+    }
+
+    /**
+     * Dirección escrita por el usuario ("1F00", "0x1F00", "1f00h") o -1 si
+     * no es hexadecimal válida.
+     */
+    public static int parseAddress(String text) {
+        if (text == null) return -1;
+        String s = text.trim();
+        if (s.startsWith("0x") || s.startsWith("0X")) s = s.substring(2);
+        else if (s.endsWith("h") || s.endsWith("H")) s = s.substring(0, s.length() - 1);
+        if (s.isEmpty() || s.length() > 8) return -1;
+        try {
+            long v = Long.parseLong(s, 16);
+            return v > Integer.MAX_VALUE ? -1 : (int) v;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
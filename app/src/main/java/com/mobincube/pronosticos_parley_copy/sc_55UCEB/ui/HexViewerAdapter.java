@@ -0,0 +1,86 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.ui;
+
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.R;
+
+/**
+ * Filas del visor hex. Solo se formatean las filas visibles, leyendo sus 16
+ * bytes de la {@link Source} al enlazarlas; cada ViewHolder reutiliza sus
+ * buffers, así que el scroll no asigna memoria y el tamaño del volcado no
+ * importa (16 MB = 1M filas virtuales).
+ */
+public class HexViewerAdapter extends RecyclerView.Adapter<HexViewerAdapter.RowHolder> {
+
+    /** De dónde salen los bytes: buffer, archivo mapeado o transferencia en curso. */
+    public interface Source {
+        void read(int address, byte[] dst, int offset, int length);
+    }
+
+    static final class RowHolder extends RecyclerView.ViewHolder {
+        final TextView text;
+        final byte[]   bytes = new byte[HexRowFormatter.BYTES_PER_ROW];
+        final char[]   chars = new char[HexRowFormatter.ROW_CHARS];
+
+        RowHolder(TextView text) {
+            super(text);
+            this.text = text;
+        }
+    }
+
+    private Source source;
+    private int    size;
+
+    /** Cambia de datos (p. ej. de la transferencia al buffer final). */
+    public void setSource(Source source, int size) {
+        this.source = source;
+        this.size   = size;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Misma fuente con más bytes disponibles: solo se refresca la última fila
+     * (si estaba incompleta) y se añaden las nuevas.
+     */
+    public void grow(int newSize) {
+        if (newSize <= size) return;
+        int before = HexRowFormatter.rowCount(size);
+        boolean partialLast = size % HexRowFormatter.BYTES_PER_ROW != 0;
+        size = newSize;
+        int after = HexRowFormatter.rowCount(size);
+        if (partialLast) notifyItemChanged(before - 1);
+        if (after > before) notifyItemRangeInserted(before, after - before);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public int getItemCount() {
+        return source == null ? 0 : HexRowFormatter.rowCount(size);
+    }
+
+    @NonNull
+    @Override
+    public RowHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        TextView tv = (TextView) LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_hex_row, parent, false);
+        return new RowHolder(tv);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull RowHolder h, int position) {
+        int address = position * HexRowFormatter.BYTES_PER_ROW;
+        int n       = Math.min(HexRowFormatter.BYTES_PER_ROW, size - address);
+        source.read(address, h.bytes, 0, n);
+        int len = HexRowFormatter.format(address, h.bytes, n, h.chars);
+        // El TextView guarda el char[]: solo se modifica justo antes de otro setText
+        h.text.setText(h.chars, 0, len);
+    }
+}
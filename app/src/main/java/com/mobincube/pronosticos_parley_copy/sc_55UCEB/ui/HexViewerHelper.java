@@ -2,33 +2,70 @@ package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.ui;
 
 import android.app.Activity;
 import android.graphics.drawable.ColorDrawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.InputType;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.EditText;
 import android.widget.PopupWindow;
 import android.widget.ProgressBar;
 import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.R;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
 public class HexViewerHelper {
 
+    /**
+     * Transferencia en curso vista desde la UI. El visor la consulta cuando
+     * toca pintar un frame, nunca al revés: el hilo USB no hace copias ni
+     * publica Runnables para la pantalla.
+     */
+    public interface Transfer extends HexViewerAdapter.Source {
+        /** Bytes contiguos recibidos hasta ahora. */
+        int received();
+
+        /** Tamaño total, o 0 si la transferencia ya no está en curso. */
+        int total();
+    }
+
     private final Activity activity;
+    private final Handler  uiHandler = new Handler(Looper.getMainLooper());
     private PopupWindow popupWindow;
-    private TextView tvHexViewer;
     private ProgressBar progressBar;
     private TextView tvTitle;
+    private TextView tvStatus;
 
-    private long lastUiUpdateTime = 0;
-    private static final int UI_THROTTLE_MS = 300;
+    private RecyclerView        rvHex;
+    private LinearLayoutManager layoutManager;
+    private HexViewerAdapter    adapter;
 
-    // ── FIX #7 ────────────────────────────────────────────────────────────────
-    // Limitar el hex viewer a las últimas MAX_RENDER_BYTES durante la
-    // transferencia. Para dumps de 4 MB+ un StringBuilder completo genera
-    // cadenas de 20 MB+ en el hilo UI → ANR garantizado.
-    // ─────────────────────────────────────────────────────────────────────────
-    private static final int MAX_RENDER_BYTES = 4096; // 4 KB visibles
+    // Durante la transferencia se sigue la última fila hasta que el usuario
+    // desplaza la lista; vuelve a seguirla al llegar de nuevo al final.
+    private boolean followTail = true;
+
+    // Transferencia que se está siguiendo; null fuera de lecturas y volcados
+    private Transfer live;
+    private int      liveShown;
+
+    // Cadencia de refresco durante la transferencia
+    private static final int FRAME_MS = 300;
+
+    private final Runnable frame = this::onFrame;
 
     public HexViewerHelper(Activity activity) {
         this.activity = activity;
@@ -40,6 +77,7 @@ public class HexViewerHelper {
                 tvTitle.setText(title);
                 progressBar.setMax(maxProgress);
                 progressBar.setProgress(0);
+                stopFollowing();
                 return;
             }
 
@@ -52,17 +90,42 @@ public class HexViewerHelper {
             popupWindow.setBackgroundDrawable(new ColorDrawable(android.graphics.Color.TRANSPARENT));
             popupWindow.setOutsideTouchable(false);
 
-            tvHexViewer = popupView.findViewById(R.id.tvHexViewerPopup);
             progressBar = popupView.findViewById(R.id.popupProgressBar);
             tvTitle     = popupView.findViewById(R.id.tvPopupTitle);
+            tvStatus    = popupView.findViewById(R.id.tvHexStatus);
+            rvHex       = popupView.findViewById(R.id.rvHexViewer);
+            ((TextView) popupView.findViewById(R.id.tvHexHeader)).setText(HexRowFormatter.HEADER
+                    + "\n------------------------------------------------------------------");
+
+            adapter       = new HexViewerAdapter();
+            layoutManager = new LinearLayoutManager(activity);
+            rvHex.setLayoutManager(layoutManager);
+            rvHex.setAdapter(adapter);
+            rvHex.setHasFixedSize(true);
+            rvHex.setItemAnimator(null);     // filas nuevas sin animación durante la transferencia
+            rvHex.addOnScrollListener(new RecyclerView.OnScrollListener() {
+                @Override
+                public void onScrollStateChanged(@NonNull RecyclerView rv, int state) {
+                    if (state == RecyclerView.SCROLL_STATE_DRAGGING) followTail = false;
+                }
+
+                @Override
+                public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+                    int last = adapter.getItemCount() - 1;
+                    if (last >= 0 && layoutManager.findLastVisibleItemPosition() >= last) followTail = true;
+                }
+            });
+            stopFollowing();
 
             tvTitle.setText(title);
             progressBar.setMax(maxProgress);
             progressBar.setProgress(0);
-            tvHexViewer.setText("Iniciando transferencia...");
+            tvStatus.setText("Iniciando transferencia...");
 
             popupView.findViewById(R.id.btnClosePopup)
                     .setOnClickListener(v -> popupWindow.dismiss());
+            popupView.findViewById(R.id.btnJumpPopup)
+                    .setOnClickListener(v -> askJumpAddress());
 
             // Mostrar en la parte superior para no tapar el log
             popupWindow.showAtLocation(
@@ -76,115 +139,145 @@ public class HexViewerHelper {
         });
     }
 
-    public void dismiss() {
+    /** Como {@link #updateProgress(int)}, ajustando el máximo si cambió. */
+    public void updateProgress(int progress, int maxProgress) {
         activity.runOnUiThread(() -> {
-            if (popupWindow != null) popupWindow.dismiss();
+            if (progressBar == null) return;
+            if (progressBar.getMax() != maxProgress) progressBar.setMax(maxProgress);
+            progressBar.setProgress(progress);
         });
     }
 
-    // ── renderThrottled ───────────────────────────────────────────────────────
-    // Llamado frecuentemente durante la transferencia. Aplica throttle temporal
-    // Y ventana de datos para evitar ANR.
-    // ─────────────────────────────────────────────────────────────────────────
-    public void renderThrottled(byte[] data) {
-        long now = System.currentTimeMillis();
-        if (now - lastUiUpdateTime > UI_THROTTLE_MS) {
-            lastUiUpdateTime = now;
-            renderNow(data);
-        }
+    public void dismiss() {
+        activity.runOnUiThread(() -> {
+            stopFollowing();
+            if (popupWindow != null) popupWindow.dismiss();
+        });
     }
 
     // ── renderFinal ───────────────────────────────────────────────────────────
-    // FIX #7: llamado desde finishRead() / finishWrite() en MainActivity.
-    // Muestra las últimas MAX_RENDER_BYTES del dump y añade un aviso si el
-    // archivo es más grande, para que el usuario sepa que debe exportarlo.
+    // Llamado desde finishRead() / finishWrite() en MainActivity. El visor
+    // recorre el buffer completo; las filas se formatean al hacerse visibles.
     // ─────────────────────────────────────────────────────────────────────────
     public void renderFinal(byte[] data) {
         if (data == null || data.length == 0) return;
-        final boolean truncated = data.length > MAX_RENDER_BYTES;
-        final int offset = truncated ? data.length - MAX_RENDER_BYTES : 0;
-        final byte[] window = new byte[Math.min(data.length, MAX_RENDER_BYTES)];
-        System.arraycopy(data, offset, window, 0, window.length);
+        show((address, dst, offset, length) -> System.arraycopy(data, address, dst, offset, length),
+                data.length);
+    }
+
+    // ── renderFile ────────────────────────────────────────────────────────────
+    // Volcados guardados directamente a disco: el archivo se mapea en solo
+    // lectura y las filas visibles se leen del mapeo, sin cargarlo en el heap.
+    // ─────────────────────────────────────────────────────────────────────────
+    public void renderFile(File file, int size) {
+        final MappedByteBuffer map;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException e) {
+            setText("No se pudo abrir " + file.getName() + ": " + e.getMessage());
+            return;
+        }
+        // Solo el hilo UI lee del mapeo (onBindViewHolder)
+        show((address, dst, offset, length) -> {
+            map.position(address);
+            map.get(dst, offset, length);
+        }, size);
+    }
 
+    // ── followTransfer ────────────────────────────────────────────────────────
+    // Llamar tras showPopup() al empezar una lectura o volcado. Cada FRAME_MS
+    // el hilo UI pregunta cuánto se ha recibido y, si cambió, actualiza la
+    // barra y añade filas; solo las filas visibles leen bytes de la fuente.
+    // Termina con renderFinal()/renderFile(), dismiss() o cuando total() es 0.
+    // ─────────────────────────────────────────────────────────────────────────
+    public void followTransfer(Transfer transfer) {
         activity.runOnUiThread(() -> {
-            if (tvHexViewer == null) return;
-            StringBuilder sb = new StringBuilder();
-            if (truncated) {
-                sb.append(String.format(
-                        "[ Mostrando últimos %d B de %d B totales — usa Exportar para el archivo completo ]\n\n",
-                        MAX_RENDER_BYTES, data.length));
-            }
-            appendHexDump(sb, window, offset);
-            tvHexViewer.setText(sb.toString());
+            if (adapter == null) return;
+            stopFollowing();
+            live      = transfer;
+            liveShown = 0;
+            adapter.setSource(transfer, 0);
+            uiHandler.postDelayed(frame, FRAME_MS);
         });
     }
 
-    // ── renderNow ─────────────────────────────────────────────────────────────
-    // FIX #7: usa windowedData() para limitar el tamaño del string generado.
-    // Solo muestra las últimas MAX_RENDER_BYTES → seguro para dumps >1 MB.
-    // ─────────────────────────────────────────────────────────────────────────
-    public void renderNow(final byte[] data) {
-        if (data == null || tvHexViewer == null) return;
+    private void onFrame() {
+        if (live == null || adapter == null) return;
+        int total = live.total();
+        if (total == 0) {
+            live = null;                               // terminó o se interrumpió
+            return;
+        }
+        int received = live.received();
+        if (received != liveShown) {
+            liveShown = received;
+            if (progressBar.getMax() != total) progressBar.setMax(total);
+            progressBar.setProgress(received);
+            adapter.grow(received);
+            tvStatus.setText(String.format("Recibidos %d de %d B", received, total));
+            if (followTail && adapter.getItemCount() > 0) {
+                rvHex.scrollToPosition(adapter.getItemCount() - 1);
+            }
+        }
+        uiHandler.postDelayed(frame, FRAME_MS);
+    }
 
-        final boolean truncated = data.length > MAX_RENDER_BYTES;
-        final int offset = truncated ? data.length - MAX_RENDER_BYTES : 0;
-        final byte[] window = new byte[Math.min(data.length, MAX_RENDER_BYTES)];
-        System.arraycopy(data, offset, window, 0, window.length);
+    private void stopFollowing() {
+        uiHandler.removeCallbacks(frame);
+        live       = null;
+        liveShown  = 0;
+        followTail = true;
+    }
 
+    private void show(HexViewerAdapter.Source source, int size) {
         activity.runOnUiThread(() -> {
-            if (tvHexViewer == null) return;
-            StringBuilder sb = new StringBuilder();
-            if (truncated) {
-                sb.append(String.format("[ ... %d B — mostrando últimos %d B ]\n\n",
-                        data.length, MAX_RENDER_BYTES));
+            if (adapter == null) return;
+            boolean stayAtEnd = liveShown > 0 && followTail;
+            uiHandler.removeCallbacks(frame);
+            live      = null;
+            liveShown = 0;
+            adapter.setSource(source, size);
+            tvStatus.setText(String.format("%d B · 0x%08X–0x%08X · IR A para saltar a una dirección",
+                    size, 0, Math.max(0, size - 1)));
+            // Tras una transferencia seguida hasta el final, se queda al final
+            if (stayAtEnd && adapter.getItemCount() > 0) {
+                rvHex.scrollToPosition(adapter.getItemCount() - 1);
             }
-            appendHexDump(sb, window, offset);
-            tvHexViewer.setText(sb.toString());
         });
     }
 
-    // ── appendHexDump ─────────────────────────────────────────────────────────
-    // Genera el volcado hex+ASCII de 'data' con direcciones absolutas
-    // (baseOffset indica la dirección real del primer byte de la ventana).
+    // ── Ir a dirección ────────────────────────────────────────────────────────
+    // El popup no es enfocable (no bloquea la pantalla), así que la dirección
+    // se pide en un diálogo aparte.
     // ─────────────────────────────────────────────────────────────────────────
-    private void appendHexDump(StringBuilder sb, byte[] data, int baseOffset) {
-        sb.append("Direccion | 00 01 02 03 04 05 06 07 08 09 0A 0B 0C 0D 0E 0F | ASCII\n");
-        sb.append("------------------------------------------------------------------\n");
-
-        final char[] H = "0123456789ABCDEF".toCharArray();
-        for (int i = 0; i < data.length; i += 16) {
-            // Dirección absoluta (baseOffset + i)
-            int addr = baseOffset + i;
-            for (int n = 28; n >= 0; n -= 4) sb.append(H[(addr >> n) & 0x0F]);
-            sb.append("  | ");
-
-            // Hex
-            for (int j = 0; j < 16; j++) {
-                if (i + j < data.length) {
-                    int b = data[i + j] & 0xFF;
-                    sb.append(H[b >>> 4]);
-                    sb.append(H[b & 0x0F]);
-                    sb.append(' ');
-                } else {
-                    sb.append("   ");
-                }
-            }
-            sb.append("| ");
+    private void askJumpAddress() {
+        if (adapter == null || adapter.getItemCount() == 0) return;
+        final EditText input = new EditText(activity);
+        input.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS);
+        input.setHint("Dirección hex, p. ej. 1F00");
+        input.setSingleLine(true);
 
-            // ASCII
-            for (int j = 0; j < 16; j++) {
-                if (i + j < data.length) {
-                    int b = data[i + j] & 0xFF;
-                    sb.append(b >= 32 && b <= 126 ? (char) b : '.');
-                }
-            }
-            sb.append('\n');
+        new AlertDialog.Builder(activity)
+                .setTitle("Ir a dirección")
+                .setView(input)
+                .setPositiveButton("Ir", (d, w) -> jumpTo(HexRowFormatter.parseAddress(input.getText().toString())))
+                .setNegativeButton("Cancelar", null)
+                .show();
+    }
+
+    private void jumpTo(int address) {
+        if (address < 0 || address >= adapter.getSize()) {
+            Toast.makeText(activity, "Dirección fuera de rango", Toast.LENGTH_SHORT).show();
+            return;
         }
+        followTail = false;
+        layoutManager.scrollToPositionWithOffset(address / HexRowFormatter.BYTES_PER_ROW, 0);
     }
 
+    /** Mensaje en la línea de estado del visor. */
     public void setText(String text) {
         activity.runOnUiThread(() -> {
-            if (tvHexViewer != null) tvHexViewer.setText(text);
+            if (tvStatus != null) tvStatus.setText(text);
         });
     }
 }
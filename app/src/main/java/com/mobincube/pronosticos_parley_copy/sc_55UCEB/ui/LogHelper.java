@@ -1,42 +1,157 @@
 package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.ui;
 
 import android.app.Activity;
-import android.view.View;
-import android.widget.ScrollView;
+import android.view.Choreographer;
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
 import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.R;
+
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Log de la pantalla principal. {@link #log} se puede llamar desde cualquier
+ * hilo: deja la entrada en un {@link LogRing} y, como mucho una vez por
+ * frame (Choreographer), el hilo UI añade a la lista lo nuevo. Se conservan
+ * las últimas {@link #CAPACITY} líneas y solo se pintan las visibles.
+ */
 public class LogHelper {
 
-    private final Activity activity;
-    private final TextView tvLog;
-    private final ScrollView scrollLog;
-    private final SimpleDateFormat dateFormat;
+    public static final int CAPACITY = 2048;
+
+    private final Activity            activity;
+    private final RecyclerView        rvLog;
+    private final LinearLayoutManager layoutManager;
+    private final LogRing             ring    = new LogRing(CAPACITY);
+    private final LogAdapter          adapter = new LogAdapter();
+    private final SimpleDateFormat    dateFormat;
+
+    // Hay un frame pedido que aún no ha vaciado el buffer
+    private final AtomicBoolean frameScheduled = new AtomicBoolean();
+
+    // Entradas anteriores a esta secuencia se borraron con clear()
+    private volatile long clearedUpTo;
+
+    private final Choreographer.FrameCallback frameCallback = frameTimeNanos -> drain();
+    private final Runnable postFrame =
+            () -> Choreographer.getInstance().postFrameCallback(frameCallback);
+
+    // Solo hilo UI: tramo [shownStart, shownEnd) del buffer que está en la lista
+    private long    shownStart;
+    private long    shownEnd;
+    private boolean followTail = true;
 
-    public LogHelper(Activity activity, TextView tvLog, ScrollView scrollLog) {
-        this.activity = activity;
-        this.tvLog = tvLog;
-        this.scrollLog = scrollLog;
+    public LogHelper(Activity activity, RecyclerView rvLog) {
+        this.activity   = activity;
+        this.rvLog      = rvLog;
         this.dateFormat = new SimpleDateFormat("HH:mm:ss", Locale.getDefault());
+
+        layoutManager = new LinearLayoutManager(activity);
+        layoutManager.setStackFromEnd(true);
+        rvLog.setLayoutManager(layoutManager);
+        rvLog.setAdapter(adapter);
+        rvLog.setItemAnimator(null);
+        rvLog.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(@NonNull RecyclerView rv, int state) {
+                if (state == RecyclerView.SCROLL_STATE_DRAGGING) followTail = false;
+            }
+
+            @Override
+            public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+                int last = adapter.getItemCount() - 1;
+                if (last >= 0 && layoutManager.findLastVisibleItemPosition() >= last) followTail = true;
+            }
+        });
     }
 
     public void log(final String message) {
-        activity.runOnUiThread(() -> {
-            if (tvLog == null || scrollLog == null)
-                return;
-            String time = dateFormat.format(new Date());
-            tvLog.append("[" + time + "] " + message + "\n");
+        ring.append(message);
+        scheduleFrame();
+    }
 
-            // Auto scroll down
-            scrollLog.post(() -> scrollLog.fullScroll(View.FOCUS_DOWN));
-        });
+    private void scheduleFrame() {
+        if (frameScheduled.compareAndSet(false, true)) activity.runOnUiThread(postFrame);
     }
 
+    /** Quita de la lista todo lo registrado hasta ahora. */
     public void clear() {
-        activity.runOnUiThread(() -> {
-            if (tvLog != null) tvLog.setText("");
-        });
+        clearedUpTo = ring.end();
+        scheduleFrame();
+    }
+
+    // ── Frame ─────────────────────────────────────────────────────────────────
+
+    /** Hilo UI: pasa a la lista todo lo publicado desde el último frame. */
+    private void drain() {
+        // Antes de leer: lo que llegue a partir de aquí pedirá otro frame
+        frameScheduled.set(false);
+
+        long start = Math.max(shownStart, clearedUpTo);
+        long end   = Math.max(ring.publishedEnd(shownEnd), start);
+        start = Math.max(start, end - ring.capacity());
+        if (start == shownStart && end == shownEnd) return;
+
+        int oldCount = (int) (shownEnd - shownStart);
+        int removed  = (int) (start - shownStart);
+        int added    = (int) (end - shownEnd);
+        shownStart = start;
+        shownEnd   = end;
+        if (removed >= oldCount) {
+            adapter.notifyDataSetChanged();
+        } else {
+            if (removed > 0) adapter.notifyItemRangeRemoved(0, removed);
+            if (added   > 0) adapter.notifyItemRangeInserted(oldCount - removed, added);
+        }
+        if (followTail && adapter.getItemCount() > 0) {
+            rvLog.scrollToPosition(adapter.getItemCount() - 1);
+        }
+    }
+
+    // ── Lista ─────────────────────────────────────────────────────────────────
+
+    private final class LogAdapter extends RecyclerView.Adapter<LogAdapter.Holder> {
+
+        final class Holder extends RecyclerView.ViewHolder {
+            final TextView text;
+
+            Holder(TextView text) {
+                super(text);
+                this.text = text;
+            }
+        }
+
+        private final Date date = new Date();
+
+        @Override
+        public int getItemCount() {
+            return (int) (shownEnd - shownStart);
+        }
+
+        @NonNull
+        @Override
+        public Holder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            return new Holder((TextView) LayoutInflater.from(parent.getContext())
+                    .inflate(R.layout.item_log_row, parent, false));
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull Holder h, int position) {
+            LogRing.Entry e = ring.get(shownStart + position);
+            if (e == null) {
+                h.text.setText("…");               // sobrescrita; sale de la lista en el próximo frame
+                return;
+            }
+            date.setTime(e.timeMs);
+            h.text.setText("[" + dateFormat.format(date) + "] " + e.message);
+        }
     }
 }
@@ -0,0 +1,74 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.ui;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Buffer circular de entradas de log, de capacidad fija y sin locks.
+ *
+ * Cualquier hilo añade con {@link #append}: reserva un número de secuencia
+ * con un incremento atómico y publica la entrada en su hueco. Las más
+ * antiguas se sobrescriben. El lector (el hilo UI) recorre por número de
+ * secuencia y comprueba que el hueco aún contiene esa entrada, así que nunca
+ * ve una entrada a medias ni otra distinta de la que pidió.
+ */
+public final class LogRing {
+
+    public static final class Entry {
+        public final long   seq;
+        public final long   timeMs;
+        public final String message;
+
+        Entry(long seq, long timeMs, String message) {
+            this.seq     = seq;
+            this.timeMs  = timeMs;
+            this.message = message;
+        }
+    }
+
+    private final int                         mask;
+    private final AtomicReferenceArray<Entry> slots;
+    private final AtomicLong                  next = new AtomicLong();
+
+    /** @param capacity se redondea a la siguiente potencia de 2 */
+    public LogRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.mask  = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /** Desde cualquier hilo. @return número de secuencia de la entrada */
+    public long append(String message) {
+        long seq = next.getAndIncrement();
+        slots.set((int) (seq & mask), new Entry(seq, System.currentTimeMillis(), message));
+        return seq;
+    }
+
+    /** Secuencia siguiente a la última reservada (publicada o no). */
+    public long end() {
+        return next.get();
+    }
+
+    /** La entrada {@code seq}, o null si aún no se publicó o ya se sobrescribió. */
+    public Entry get(long seq) {
+        Entry e = slots.get((int) (seq & mask));
+        return e != null && e.seq == seq ? e : null;
+    }
+
+    /**
+     * Fin del tramo contiguo de entradas publicadas a partir de {@code from}
+     * (o de la más antigua que sigue en el buffer, si {@code from} ya se
+     * sobrescribió). Una entrada reservada pero aún no publicada corta el
+     * tramo: se verá en la siguiente llamada.
+     */
+    public long publishedEnd(long from) {
+        long end = next.get();
+        long seq = Math.max(from, end - capacity());
+        while (seq < end && get(seq) != null) seq++;
+        return seq;
+    }
+}
@@ -0,0 +1,295 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Negociación de velocidad del puerto serie tras el primer ping.
+ *
+ * Primero hace un ping de referencia a la velocidad actual y guarda la línea
+ * de respuesta. Después prueba velocidades más altas en orden ascendente:
+ * cambia la del adaptador, envía {@link #PINGS_PER_RATE} pings seguidos y
+ * exige que cada respuesta sea idéntica a la de referencia. Ante la primera
+ * respuesta corrupta o ausente vuelve a la última velocidad buena, espera a
+ * que el PIC descarte el comando a medias (timeout de UART_Read, ~262 ms) y
+ * confirma el enlace con otro ping.
+ *
+ * Si hay una velocidad recordada para el adaptador se verifica solo esa; si
+ * falla se vuelve a la base y se negocia desde cero.
+ *
+ * El firmware v3 tiene SPBRG fijo (9600 baudios): con él todas las pruebas
+ * fallan y el enlace se queda en la velocidad base. Independiente de Android;
+ * los timeouts los programa el {@link Listener} y llegan por {@link #onTimeout()}.
+ * Cambiar de velocidad espera a la cola de envío ({@link Port#setBaudRate}):
+ * {@link #onBytes} y {@link #onTimeout()} no deben llamarse desde el hilo UI.
+ */
+public class BaudRateNegotiator {
+
+    /** Adaptador serie cuya velocidad puede cambiarse con el puerto abierto. */
+    public interface Port extends CommandSender {
+        void setBaudRate(int baudRate) throws IOException;
+    }
+
+    public interface Listener {
+        /** Empieza la prueba de {@code baudRate}. */
+        void onBaudProbe(int baudRate);
+
+        /** {@code baudRate} no es estable; se vuelve a la anterior. */
+        void onBaudRejected(int baudRate, String reason);
+
+        /** Negociación terminada: el enlace funciona a {@code baudRate}. */
+        void onBaudSelected(int baudRate);
+
+        /** Ni siquiera la velocidad de partida responde tras volver a ella. */
+        void onBaudFailed(int baudRate, String reason);
+
+        void onTimeoutReset(long ms);
+
+        void onTimeoutCancel();
+    }
+
+    public static final int   BASE_BAUD_RATE  = 9600;
+    public static final int[] CANDIDATE_RATES = { 19200, 38400, 57600, 115200 };
+
+    static final int  PINGS_PER_RATE  = 3;
+    static final long PING_TIMEOUT_MS = 300;
+    static final long RESYNC_MS       = 400;   // > timeout de UART_Read en el PIC
+
+    private static final byte[] PING     = { 0x3F };
+    private static final int    MAX_ECHO = 64;
+
+    private enum Phase { IDLE, REFERENCE, PROBING, RESYNCING, CONFIRMING }
+
+    private final Port     port;
+    private final Listener listener;
+
+    private final byte[]    reference = new byte[MAX_ECHO];
+    private volatile Phase  phase     = Phase.IDLE;   // isActive() sin el monitor
+    private volatile int    timerSeq;                 // cambia al programar o cancelar
+    private boolean         timerArmed;
+    private byte[]          expected;
+    private int             matched;
+    private int             pingsLeft;
+
+    private int[] queue;
+    private int   next;
+    private int[] renegotiate;   // candidatas si falla la velocidad recordada
+
+    private int goodRate;
+    private int currentRate;
+
+    public BaudRateNegotiator(Port port, Listener listener) {
+        this.port     = port;
+        this.listener = listener;
+    }
+
+    /** Sin bloqueo: el hilo UI lo consulta mientras otro hilo cambia de velocidad. */
+    public boolean isActive() {
+        return phase != Phase.IDLE;
+    }
+
+    /**
+     * @param currentRate    velocidad a la que el PIC ya respondió al ping
+     * @param rememberedRate velocidad recordada para el adaptador, o 0
+     * @param candidates     velocidades a probar (se ignoran las &lt;= actual)
+     */
+    public synchronized void start(int currentRate, int rememberedRate, int[] candidates) {
+        this.goodRate    = currentRate;
+        this.currentRate = currentRate;
+        this.next        = 0;
+
+        if (rememberedRate == currentRate) {
+            listener.onBaudSelected(currentRate);
+            return;
+        }
+        if (rememberedRate > currentRate) {
+            queue       = new int[] { rememberedRate };
+            renegotiate = above(candidates, currentRate);
+        } else {
+            queue       = above(candidates, currentRate);
+            renegotiate = null;
+        }
+        phase = Phase.REFERENCE;
+        sendPing();
+    }
+
+    public synchronized void abort() {
+        if (phase == Phase.IDLE) return;
+        phase = Phase.IDLE;
+        cancelTimeout();
+    }
+
+    public synchronized void onBytes(byte[] data, int offset, int length) {
+        if (phase == Phase.REFERENCE) {
+            onReferenceBytes(data, offset, length);
+            return;
+        }
+        if (phase != Phase.PROBING && phase != Phase.CONFIRMING) return;   // RESYNCING: basura
+        for (int i = offset; i < offset + length; i++) {
+            if (data[i] != expected[matched]) {
+                onPingFailed("respuesta corrupta");
+                return;
+            }
+            if (++matched == expected.length) {
+                onPingOk();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Identifica el timer en vigor. Quien despacha el timeout a otro hilo lo
+     * toma al vencer y lo pasa a {@link #onTimeout(int)}.
+     */
+    public int getTimeoutToken() {
+        return timerSeq;
+    }
+
+    /** Vence el timer en vigor (mismo hilo que lo programó). */
+    public synchronized void onTimeout() {
+        onTimeout(timerSeq);
+    }
+
+    /**
+     * Vence el timer identificado por {@code token}. Si entretanto llegó la
+     * respuesta (timer cancelado o reprogramado para otro ping) no hace nada.
+     */
+    public synchronized void onTimeout(int token) {
+        if (!timerArmed || token != timerSeq) return;
+        timerArmed = false;
+        switch (phase) {
+            case REFERENCE:
+                phase = Phase.IDLE;
+                listener.onBaudFailed(currentRate, "sin respuesta al ping de referencia");
+                break;
+            case PROBING:
+            case CONFIRMING:
+                onPingFailed(matched == 0 ? "sin respuesta" : "respuesta incompleta");
+                break;
+            case RESYNCING:
+                phase = Phase.CONFIRMING;
+                sendPing();
+                break;
+            default:
+                break;
+        }
+    }
+
+    // ── Internos ────────────────────────────────────────────────────────────
+
+    /** Acumula la línea de respuesta (hasta el LF) a la velocidad de partida. */
+    private void onReferenceBytes(byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (matched == MAX_ECHO) {
+                phase = Phase.IDLE;
+                cancelTimeout();
+                listener.onBaudFailed(currentRate, "respuesta de referencia demasiado larga");
+                return;
+            }
+            reference[matched++] = data[i];
+            if (data[i] == '\n') {
+                cancelTimeout();
+                expected = Arrays.copyOf(reference, matched);
+                probeNext();
+                return;
+            }
+        }
+    }
+
+    private void probeNext() {
+        if (next >= queue.length) {
+            select();
+            return;
+        }
+        int rate = queue[next++];
+        try {
+            port.setBaudRate(rate);
+        } catch (IOException e) {
+            listener.onBaudRejected(rate, e.getMessage());
+            resync();
+            return;
+        }
+        currentRate = rate;
+        pingsLeft   = PINGS_PER_RATE;
+        phase       = Phase.PROBING;
+        listener.onBaudProbe(rate);
+        sendPing();
+    }
+
+    private void sendPing() {
+        matched = 0;
+        armTimeout(PING_TIMEOUT_MS);
+        port.sendData(PING);
+    }
+
+    private void onPingOk() {
+        cancelTimeout();
+        if (phase == Phase.CONFIRMING) {
+            if (renegotiate != null) {
+                queue       = renegotiate;
+                renegotiate = null;
+                next        = 0;
+                probeNext();
+            } else {
+                select();
+            }
+            return;
+        }
+        if (--pingsLeft > 0) {
+            sendPing();
+            return;
+        }
+        goodRate = currentRate;
+        probeNext();
+    }
+
+    private void onPingFailed(String reason) {
+        cancelTimeout();
+        if (phase == Phase.CONFIRMING) {
+            phase = Phase.IDLE;
+            listener.onBaudFailed(goodRate, reason);
+            return;
+        }
+        listener.onBaudRejected(currentRate, reason);
+        resync();
+    }
+
+    /** Vuelve a la última velocidad buena y deja pasar la basura en vuelo. */
+    private void resync() {
+        try {
+            port.setBaudRate(goodRate);
+        } catch (IOException e) {
+            phase = Phase.IDLE;
+            listener.onBaudFailed(goodRate, e.getMessage());
+            return;
+        }
+        currentRate = goodRate;
+        phase       = Phase.RESYNCING;
+        armTimeout(RESYNC_MS);
+    }
+
+    private void select() {
+        phase = Phase.IDLE;
+        listener.onBaudSelected(goodRate);
+    }
+
+    private void armTimeout(long ms) {
+        timerSeq++;
+        timerArmed = true;
+        listener.onTimeoutReset(ms);
+    }
+
+    private void cancelTimeout() {
+        timerSeq++;
+        timerArmed = false;
+        listener.onTimeoutCancel();
+    }
+
+    private static int[] above(int[] rates, int floor) {
+        int[] sorted = rates.clone();
+        Arrays.sort(sorted);
+        int from = 0;
+        while (from < sorted.length && sorted[from] <= floor) from++;
+        return Arrays.copyOfRange(sorted, from, sorted.length);
+    }
+}
@@ -0,0 +1,175 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb;
+
+import java.util.Arrays;
+
+/**
+ * Tamaño de chunk de lectura adaptativo según el throughput medido.
+ *
+ * Empieza en el tamaño inicial y lo duplica tras {@link #GROW_AFTER} chunks
+ * completos seguidos que llegan a tiempo, siempre que el tamaño actual no rinda
+ * peor que la mitad. Un RESP_ERR, un timeout o un chunk que tarda más de
+ * {@code lateNanos} lo reducen a la mitad.
+ *
+ * Cada chunk queda registrado (longitud y latencia) en un buffer circular y
+ * acumulado por tamaño, para poder revisar las decisiones y elegir el mejor
+ * tamaño a recordar ({@link #getBestChunkSize()}).
+ *
+ * No es thread-safe: lo usa el hilo del motor de protocolo.
+ */
+public class ChunkSizeController {
+
+    public static final int GROW_AFTER = 4;
+
+    private static final int SAMPLE_CAPACITY      = 256;
+    private static final int MIN_SAMPLES_FOR_BEST = 2;
+    private static final int BUCKETS              = 17;   // 2^0 .. 2^16
+
+    private final int  minSize;
+    private final int  maxSize;
+    private final long lateNanos;
+
+    private int chunkSize;
+    private int streak;
+
+    // ── Últimos chunks (buffer circular) ────────────────────────────────────
+    private final int[]  sampleLen   = new int[SAMPLE_CAPACITY];
+    private final long[] sampleNanos = new long[SAMPLE_CAPACITY];
+    private int          sampleHead  = 0;
+    private int          sampleCount = 0;
+
+    // ── Acumulado por tamaño (índice = log2 de la longitud) ─────────────────
+    private final long[] bucketBytes   = new long[BUCKETS];
+    private final long[] bucketNanos   = new long[BUCKETS];
+    private final int[]  bucketSamples = new int[BUCKETS];
+
+    public ChunkSizeController(int minSize, int maxSize, int initialSize, long lateNanos) {
+        if (minSize <= 0 || maxSize < minSize || maxSize > 0xFFFF)
+            throw new IllegalArgumentException("Rango de chunk inválido: " + minSize + ".." + maxSize);
+        this.minSize   = minSize;
+        this.maxSize   = maxSize;
+        this.lateNanos = lateNanos;
+        reset(initialSize);
+    }
+
+    /** Tamaño fijo: nunca crece ni se reduce. */
+    public static ChunkSizeController fixed(int size) {
+        return new ChunkSizeController(size, size, size, Long.MAX_VALUE);
+    }
+
+    /** Nuevo punto de partida (p. ej. el mejor tamaño recordado); descarta las muestras. */
+    public void reset(int initialSize) {
+        chunkSize   = clamp(initialSize);
+        streak      = 0;
+        sampleHead  = 0;
+        sampleCount = 0;
+        Arrays.fill(bucketBytes, 0);
+        Arrays.fill(bucketNanos, 0);
+        Arrays.fill(bucketSamples, 0);
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /** Un chunk de {@code length} bytes llegó completo tras {@code latencyNanos}. */
+    public void onChunkComplete(int length, long latencyNanos) {
+        record(length, latencyNanos);
+
+        if (latencyNanos > lateNanos) {
+            shrink();
+            return;
+        }
+        // El último chunk de la memoria puede ser más corto: no cuenta para crecer
+        if (length < chunkSize) return;
+        if (++streak < GROW_AFTER || chunkSize >= maxSize) return;
+        streak = 0;
+
+        int cur = bucket(chunkSize);
+        if (cur > 0 && bucketSamples[cur - 1] >= MIN_SAMPLES_FOR_BEST
+                && throughput(cur) < throughput(cur - 1)) {
+            return;   // Más grande no compensa
+        }
+        chunkSize = clamp(chunkSize * 2);
+    }
+
+    /** RESP_ERR o timeout. */
+    public void onError() {
+        shrink();
+    }
+
+    /**
+     * Tamaño con mejor throughput medido (con al menos dos muestras), o el
+     * actual si aún no hay datos suficientes.
+     */
+    public int getBestChunkSize() {
+        int best = -1;
+        for (int b = 0; b < BUCKETS; b++) {
+            if (bucketSamples[b] < MIN_SAMPLES_FOR_BEST) continue;
+            if (best < 0 || throughput(b) > throughput(best)) best = b;
+        }
+        return best < 0 ? chunkSize : clamp(1 << best);
+    }
+
+    // ── Muestras ────────────────────────────────────────────────────────────
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /** @param i 0 = muestra más antigua conservada */
+    public int getSampleLength(int i) {
+        return sampleLen[index(i)];
+    }
+
+    public long getSampleLatencyNanos(int i) {
+        return sampleNanos[index(i)];
+    }
+
+    public long getSampleBytesPerSecond(int i) {
+        long nanos = Math.max(1, sampleNanos[index(i)]);
+        return sampleLen[index(i)] * 1_000_000_000L / nanos;
+    }
+
+    /** Throughput medio de los chunks de {@code size} bytes, o 0 sin datos. */
+    public long getBytesPerSecond(int size) {
+        int b = bucket(size);
+        return bucketSamples[b] == 0 ? 0
+                : bucketBytes[b] * 1_000_000_000L / Math.max(1, bucketNanos[b]);
+    }
+
+    // ── Internos ────────────────────────────────────────────────────────────
+
+    private void record(int length, long nanos) {
+        int tail = (sampleHead + sampleCount) % SAMPLE_CAPACITY;
+        sampleLen[tail]   = length;
+        sampleNanos[tail] = nanos;
+        if (sampleCount < SAMPLE_CAPACITY) sampleCount++;
+        else sampleHead = (sampleHead + 1) % SAMPLE_CAPACITY;
+
+        int b = bucket(length);
+        bucketBytes[b]   += length;
+        bucketNanos[b]   += nanos;
+        bucketSamples[b] += 1;
+    }
+
+    private void shrink() {
+        streak    = 0;
+        chunkSize = clamp(chunkSize / 2);
+    }
+
+    private double throughput(int bucket) {
+        return (double) bucketBytes[bucket] / Math.max(1, bucketNanos[bucket]);
+    }
+
+    private int index(int i) {
+        return (sampleHead + i) % SAMPLE_CAPACITY;
+    }
+
+    private int clamp(int size) {
+        return Math.max(minSize, Math.min(maxSize, size));
+    }
+
+    private static int bucket(int size) {
+        return 31 - Integer.numberOfLeadingZeros(Math.max(1, size));
+    }
+}
@@ -0,0 +1,28 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb;
+
+import java.io.IOException;
+
+/**
+ * Destino de los comandos binarios hacia el PIC.
+ * Lo implementa {@link UsbSerialManager}; en los tests se sustituye por un
+ * dispositivo simulado.
+ */
+public interface CommandSender {
+
+    /** Fin de la transferencia de un comando. */
+    interface Completion {
+        /** @param error null si el comando salió por el puerto */
+        void onComplete(IOException error);
+    }
+
+    void sendData(byte[] data);
+
+    /**
+     * Envía {@code data} y avisa a {@code done} al terminar. Por defecto el
+     * envío es síncrono y el aviso llega antes de retornar.
+     */
+    default void sendData(byte[] data, Completion done) {
+        sendData(data);
+        done.onComplete(null);
+    }
+}
@@ -0,0 +1,390 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb;
+
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.eeprom.EepromProtocol;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.BlankCheckSink;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.DumpDigest;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.SparseImage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Programación en lote: la misma imagen en varios PICMEM a la vez, cada uno
+ * con su propio {@link ProtocolEngine} (y su propio hilo de protocolo, el de
+ * su {@link SerialPipeline}). Independiente de Android.
+ *
+ * Primero {@link #probe} hace ping a todas las estaciones; las que responden
+ * con "PICMEM" quedan listas. Después {@link #startWrite} escribe (y
+ * verifica página a página) en todas las listas, con un avance combinado y
+ * un {@link Result} por estación.
+ *
+ * Orden de locks: los callbacks de cada motor llegan con el monitor del
+ * motor tomado y después toman el de esta clase; por eso aquí nunca se llama
+ * a un motor con el monitor propio tomado.
+ */
+public class GangProgrammer {
+
+    public interface Listener {
+        /** La estación respondió al ping y entra en el lote. */
+        void onStationReady(String station, String banner);
+
+        /** La estación no respondió al ping o se perdió antes de empezar. */
+        void onStationLost(String station, String reason);
+
+        /** Todas las estaciones respondieron o fallaron el ping. */
+        void onProbeComplete(int readyStations);
+
+        /** Avance combinado: suma de lo escrito en todas las estaciones. */
+        void onGangProgress(int done, int total);
+
+        void onStationFinished(Result result);
+
+        /** Todas las estaciones terminaron, bien o mal. */
+        void onGangComplete(List<Result> results);
+    }
+
+    /** Resultado de una estación. */
+    public static final class Result {
+        public final String  station;
+        public final boolean ok;
+        public final String  message;        // motivo del fallo, o null
+        public final int     bytes;
+        public final int     pagesWritten;
+        public final int     pageRetries;
+        public final long    elapsedMs;
+
+        Result(String station, boolean ok, String message, int bytes,
+               int pagesWritten, int pageRetries, long elapsedMs) {
+            this.station      = station;
+            this.ok           = ok;
+            this.message      = message;
+            this.bytes        = bytes;
+            this.pagesWritten = pagesWritten;
+            this.pageRetries  = pageRetries;
+            this.elapsedMs    = elapsedMs;
+        }
+    }
+
+    private enum Phase { IDLE, PROBING, READY, WRITING, DONE, FAILED }
+
+    private final ScheduledExecutorService timers;
+    private final Listener                 listener;
+    private final List<Station>            stations = new ArrayList<>();
+    private final List<Result>             results  = new ArrayList<>();
+
+
+    /** @param timers hilo para los timeouts de todas las estaciones */
+    public GangProgrammer(ScheduledExecutorService timers, Listener listener) {
+        this.timers   = timers;
+        this.listener = listener;
+    }
+
+    /** Registra un dispositivo abierto; {@code sender} es su cola de envío. */
+    public synchronized Station addStation(String name, CommandSender sender) {
+        Station s = new Station(name, sender);
+        stations.add(s);
+        return s;
+    }
+
+    public synchronized int getStationCount() {
+        return stations.size();
+    }
+
+    /** Hay un ping o una escritura en curso en alguna estación. */
+    public synchronized boolean isRunning() {
+        for (Station s : stations) {
+            if (s.phase == Phase.PROBING || s.phase == Phase.WRITING) return true;
+        }
+        return false;
+    }
+
+    /** Resultados de la última escritura, en el orden en que terminaron. */
+    public synchronized List<Result> getResults() {
+        return new ArrayList<>(results);
+    }
+
+    // =========================================================================
+    // OPERACIONES
+    // =========================================================================
+
+    /** Ping a todas las estaciones que aún no están listas. */
+    public void probe(EepromProtocol protocol) {
+        List<Station> toProbe = new ArrayList<>();
+        synchronized (this) {
+            for (Station s : stations) {
+                if (s.phase == Phase.IDLE || s.phase == Phase.FAILED) {
+                    s.phase = Phase.PROBING;
+                    toProbe.add(s);
+                }
+            }
+            if (toProbe.isEmpty()) {
+                listener.onProbeComplete(countReady());
+                return;
+            }
+        }
+        for (Station s : toProbe) s.engine.startPing(protocol);
+    }
+
+    /**
+     * Escribe {@code image} en todas las estaciones listas a la vez.
+     *
+     * @param verify releer y comparar cada página tras escribirla
+     * @return estaciones que empiezan
+     */
+    public int startWrite(EepromProtocol protocol, int modelIndex, SparseImage image, boolean verify) {
+        return startWrite(null, protocol, modelIndex, image, verify);
+    }
+
+    /**
+     * Como {@link #startWrite(EepromProtocol, int, SparseImage, boolean)} pero
+     * solo en las estaciones nombradas (null = todas). Las demás siguen con lo
+     * suyo: cada puerto se programa por su cuenta, con su propio modelo e
+     * imagen, y el lote termina cuando ninguna estación está escribiendo.
+     */
+    public int startWrite(Collection<String> only, EepromProtocol protocol, int modelIndex,
+                          SparseImage image, boolean verify) {
+        List<Station> toWrite = new ArrayList<>();
+        synchronized (this) {
+            boolean newBatch = true;
+            for (Station s : stations) if (s.phase == Phase.WRITING) newBatch = false;
+            if (newBatch) {
+                results.clear();
+                for (Station s : stations) s.written = false;
+            }
+            long now = System.nanoTime();
+            for (Station s : stations) {
+                if (only != null && !only.contains(s.name)) continue;
+                if (s.phase != Phase.READY && s.phase != Phase.DONE) continue;
+                s.phase       = Phase.WRITING;
+                s.written     = true;
+                s.done        = 0;
+                s.total       = image.getPopulatedBytes();
+                s.startedAt   = now;
+                s.pageRetries = 0;
+                toWrite.add(s);
+            }
+        }
+        for (Station s : toWrite) {
+            s.engine.setVerifyWrites(verify);
+            s.engine.startWrite(protocol, modelIndex, image);
+        }
+        return toWrite.size();
+    }
+
+    /** Cancela lo que esté en curso; las estaciones afectadas terminan con error. */
+    public void abort() {
+        List<Station> all;
+        synchronized (this) {
+            all = new ArrayList<>(stations);
+        }
+        for (Station s : all) {
+            s.engine.abort();
+            s.fail("Cancelado");
+        }
+    }
+
+    // ── Internos (con el monitor tomado) ──────────────────────────────────────
+
+    private int countReady() {
+        int n = 0;
+        for (Station s : stations) if (s.phase == Phase.READY) n++;
+        return n;
+    }
+
+    private void progressChanged() {
+        int done = 0, total = 0;
+        for (Station s : stations) {
+            if (s.written) {
+                done  += s.done;
+                total += s.total;
+            }
+        }
+        listener.onGangProgress(done, total);
+    }
+
+    private void probeSettled() {
+        for (Station s : stations) if (s.phase == Phase.PROBING) return;
+        listener.onProbeComplete(countReady());
+    }
+
+    private void writeSettled() {
+        for (Station s : stations) if (s.phase == Phase.WRITING) return;
+        listener.onGangComplete(Collections.unmodifiableList(new ArrayList<>(results)));
+    }
+
+    // =========================================================================
+    // ESTACIÓN
+    // =========================================================================
+
+    /** Un PICMEM del lote. Sus bytes llegan por {@link #onBytes} desde su hilo de protocolo. */
+    public final class Station {
+
+        private final String         name;
+        private final ProtocolEngine engine;
+
+        // Con el monitor de GangProgrammer
+        private Phase   phase = Phase.IDLE;
+        private int     done;
+        private int     total;            // bytes de su imagen
+        private long    startedAt;
+        private int     pageRetries;
+        private boolean written;          // participó en la última escritura
+
+        // Desde el hilo de protocolo de la estación y el de timers
+        private volatile ScheduledFuture<?> timeout;
+        private volatile ScheduledFuture<?> lineIdle;
+
+        Station(String name, CommandSender sender) {
+            this.name   = name;
+            this.engine = new ProtocolEngine(sender, engineListener);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void onBytes(byte[] data, int offset, int length) {
+            engine.onBytes(data, offset, length);
+        }
+
+        /** Error de I/O o desconexión del dispositivo. */
+        public void fail(String reason) {
+            engine.abort();
+            cancelTimers();
+            synchronized (GangProgrammer.this) {
+                if (phase == Phase.PROBING) {
+                    phase = Phase.FAILED;
+                    listener.onStationLost(name, reason);
+                    probeSettled();
+                } else if (phase == Phase.WRITING) {
+                    finish(false, reason, 0, 0);
+                } else if (phase == Phase.READY || phase == Phase.IDLE) {
+                    phase = Phase.FAILED;
+                    listener.onStationLost(name, reason);
+                }
+            }
+        }
+
+        /** Con el monitor tomado. */
+        private void finish(boolean ok, String message, int bytes, int pagesWritten) {
+            phase = ok ? Phase.DONE : Phase.FAILED;
+            if (ok) done = total;
+            long ms = (System.nanoTime() - startedAt) / 1_000_000L;
+            Result r = new Result(name, ok, message, bytes, pagesWritten, pageRetries, ms);
+            results.add(r);
+            listener.onStationFinished(r);
+            progressChanged();
+            writeSettled();
+        }
+
+        private void onTimeout() {
+            ProtocolState st = engine.getState();
+            if (st == ProtocolState.IDLE) return;
+            engine.abort();
+            synchronized (GangProgrammer.this) {
+                if (phase == Phase.PROBING) {
+                    phase = Phase.FAILED;
+                    listener.onStationLost(name, "sin respuesta al ping");
+                    probeSettled();
+                } else if (phase == Phase.WRITING) {
+                    finish(false, "Timeout sin respuesta (estado: " + st + ")", 0, 0);
+                }
+            }
+        }
+
+        private void cancelTimers() {
+            ScheduledFuture<?> t = timeout, l = lineIdle;
+            if (t != null) t.cancel(false);
+            if (l != null) l.cancel(false);
+        }
+
+        private final ProtocolEngine.Listener engineListener = new ProtocolEngine.Listener() {
+            @Override
+            public void onPingOk(String banner) {
+                synchronized (GangProgrammer.this) {
+                    if (phase != Phase.PROBING) return;
+                    phase = Phase.READY;
+                    listener.onStationReady(name, banner);
+                    probeSettled();
+                }
+            }
+
+            @Override
+            public void onProgress(int d, int t) {
+                synchronized (GangProgrammer.this) {
+                    if (phase != Phase.WRITING) return;
+                    done = d;
+                    progressChanged();
+                }
+            }
+
+            @Override
+            public void onWriteComplete(int length, int pagesWritten, int pagesSkipped, long savedMs) {
+                synchronized (GangProgrammer.this) {
+                    if (phase == Phase.WRITING) finish(true, null, length, pagesWritten);
+                }
+            }
+
+            @Override
+            public void onWritePageRetry(int address, int attempt) {
+                synchronized (GangProgrammer.this) {
+                    pageRetries++;
+                }
+            }
+
+            @Override
+            public void onError(ProtocolState failedState, String message) {
+                synchronized (GangProgrammer.this) {
+                    if (phase == Phase.WRITING) {
+                        finish(false, message, 0, 0);
+                    } else if (phase == Phase.PROBING) {
+                        phase = Phase.FAILED;
+                        listener.onStationLost(name, message);
+                        probeSettled();
+                    }
+                }
+            }
+
+            @Override
+            public void onTimeoutReset(long ms) {
+                ScheduledFuture<?> t = timeout;
+                if (t != null) t.cancel(false);
+                timeout = timers.schedule(Station.this::onTimeout, ms, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public void onTimeoutCancel() {
+                ScheduledFuture<?> t = timeout;
+                if (t != null) t.cancel(false);
+            }
+
+            @Override
+            public void onLineIdleCheck(long ms) {
+                ScheduledFuture<?> l = lineIdle;
+                if (l != null) l.cancel(false);
+                lineIdle = timers.schedule(engine::onLineIdle, ms, TimeUnit.MILLISECONDS);
+            }
+
+            // El lote solo hace ping y escritura
+            @Override public void onReadComplete(byte[] data, DumpDigest digest)         { }
+            @Override public void onDumpSaved(File file, int size, DumpDigest digest)    { }
+            @Override public void onReadFallback(int address)                            { }
+            @Override public void onReadChunkChanged(int chunkSize, long bytesPerSecond) { }
+            @Override public void onReadError(int address)                               { }
+            @Override public void onEraseComplete()                                      { }
+            @Override public void onBlankCheckComplete(BlankCheckSink result, int n)     { }
+            @Override public void onI2cScanResult(byte[] addresses)                      { }
+            @Override public void onJedecId(byte mfr, byte memType, byte cap, boolean v) { }
+            @Override public void onScanComplete(byte[] i2c, byte[] jedecId)             { }
+            @Override public void onFullDumpStarted(int total, byte m, byte t, byte c)   { }
+            @Override public void onResumeStarted(int address, int totalSize)            { }
+            @Override public void onResumeRejected(int address)                          { }
+        };
+    }
+}
@@ -0,0 +1,229 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb;
+
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbManager;
+import android.os.Build;
+import android.util.Log;
+
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+import com.hoho.android.usbserial.driver.UsbSerialProber;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Abre todos los puertos USB-serie conectados (varios CH340 o CP2102 en un
+ * hub, y cada puerto de un FT2232/FT4232) y registra cada uno como estación
+ * de un {@link GangProgrammer}. Cada puerto tiene su propio
+ * {@link SerialPipeline} (hilos de lectura, protocolo y escritura) y sus
+ * propios {@link SerialParams}, así que el rendimiento crece con el número
+ * de UARTs.
+ *
+ * Los que no tienen permiso lo piden uno a uno; cuando todos han respondido
+ * se avisa con {@link Listener#onSessionsOpened}.
+ */
+public class GangSessionManager {
+
+    private static final String TAG = "GangSessionManager";
+    private static final String ACTION_GANG_PERMISSION = "com.mobincube.keystore.jks_parley_copy.sc_55UCEB.GANG_PERMISSION";
+
+    public interface Listener {
+        /** Todos los dispositivos se abrieron o fallaron; {@code count} abiertos. */
+        void onSessionsOpened(int count);
+
+        void onSessionError(String device, Exception e);
+    }
+
+    private final Context        context;
+    private final UsbManager     usbManager;
+    private final GangProgrammer gang;
+    private final Listener       listener;
+
+    private final List<SerialPipeline>      sessions = new ArrayList<>();   // dueños de sus puertos
+    private final Set<UsbDevice>            pending  = new HashSet<>();   // esperando permiso
+    private final Map<String, SerialParams> params   = new HashMap<>();   // por nombre de puerto
+    private SerialParams                    defaults = SerialParams.DEFAULT;
+    private boolean                         receiverRegistered;
+
+    public GangSessionManager(Context context, GangProgrammer gang, Listener listener) {
+        this.context    = context.getApplicationContext();
+        this.usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
+        this.gang       = gang;
+        this.listener   = listener;
+    }
+
+    /** Nombres de todos los puertos conectados (ver {@link #nameOf}), sin abrirlos. */
+    public List<String> listPorts() {
+        List<String> names = new ArrayList<>();
+        for (UsbSerialDriver driver : UsbSerialProber.getDefaultProber().findAllDrivers(usbManager)) {
+            for (UsbSerialPort port : driver.getPorts()) names.add(nameOf(driver.getDevice(), port));
+        }
+        return names;
+    }
+
+    /** Parámetros propios de un puerto; el resto usa los de {@link #openAll}. */
+    public synchronized void setParams(String port, SerialParams p) {
+        params.put(port, p);
+    }
+
+    /** Abre todos los puertos de todos los adaptadores. */
+    public synchronized void openAll(SerialParams defaults) {
+        this.defaults = defaults;
+        List<UsbSerialDriver> drivers = UsbSerialProber.getDefaultProber().findAllDrivers(usbManager);
+        for (UsbSerialDriver driver : drivers) {
+            UsbDevice device = driver.getDevice();
+            if (usbManager.hasPermission(device)) {
+                open(driver);
+            } else {
+                pending.add(device);
+                requestPermission(device);
+            }
+        }
+        if (pending.isEmpty()) listener.onSessionsOpened(sessions.size());
+    }
+
+    public synchronized int getSessionCount() {
+        return sessions.size();
+    }
+
+    /** Para los hilos y cierra los puertos. Puede tardar: no llamar desde el hilo UI. */
+    public void closeAll() {
+        List<SerialPipeline> all;
+        synchronized (this) {
+            all = new ArrayList<>(sessions);
+            sessions.clear();
+            pending.clear();
+            if (receiverRegistered) {
+                try {
+                    context.unregisterReceiver(permissionReceiver);
+                } catch (Exception ignored) {
+                }
+                receiverRegistered = false;
+            }
+        }
+        // Los puertos de un mismo adaptador comparten conexión: cerrar uno corta
+        // la lectura de los demás, que ya deben estar marcados para parar
+        for (SerialPipeline p : all) p.requestStop();
+        for (SerialPipeline p : all) p.stop();
+    }
+
+    // ── Apertura ──────────────────────────────────────────────────────────────
+
+    /** Abre cada puerto del adaptador; todos comparten la conexión USB. */
+    private void open(UsbSerialDriver driver) {
+        UsbDevice device = driver.getDevice();
+        UsbDeviceConnection connection = usbManager.openDevice(device);
+        if (connection == null) {
+            listener.onSessionError(nameOf(device, null),
+                    new IOException("No se pudo abrir el dispositivo USB"));
+            return;
+        }
+        for (UsbSerialPort port : driver.getPorts()) openPort(port, connection, nameOf(device, port));
+    }
+
+    private void openPort(UsbSerialPort port, UsbDeviceConnection connection, String name) {
+        SerialParams p = params.containsKey(name) ? params.get(name) : defaults;
+        try {
+            port.open(connection);
+            port.setParameters(p.baudRate, p.dataBits, p.stopBits, p.parity);
+        } catch (IOException e) {
+            Log.e(TAG, "Error abriendo " + name, e);
+            listener.onSessionError(name, e);
+            return;
+        }
+
+        // La estación necesita la cola de envío y la cola necesita la estación:
+        // el callback la busca cuando llegan datos, ya asignada
+        final GangProgrammer.Station[] station = new GangProgrammer.Station[1];
+        SerialPipeline pipeline = UsbSerialManager.newPipeline("gang-" + sessions.size(), port,
+                new SerialPipeline.Callback() {
+                    @Override
+                    public void onData(ByteBuffer data) {
+                        station[0].onBytes(data.array(), data.arrayOffset() + data.position(),
+                                data.remaining());
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        Log.e(TAG, "Error en " + name, e);
+                        station[0].fail("Error I/O: " + e.getMessage());
+                    }
+                });
+        station[0] = gang.addStation(name, pipeline);
+        pipeline.start();
+        sessions.add(pipeline);
+    }
+
+    /**
+     * Nombre del puerto: VID:PID, ruta en el bus (distingue adaptadores
+     * iguales) y número de puerto en los adaptadores de varios puertos.
+     */
+    static String nameOf(UsbDevice d, UsbSerialPort port) {
+        String name = String.format("%04X:%04X %s", d.getVendorId(), d.getProductId(), d.getDeviceName());
+        if (port != null && port.getDriver().getPorts().size() > 1) name += " #" + port.getPortNumber();
+        return name;
+    }
+
+    /** VID:PID de un nombre de {@link #nameOf}, como {@link UsbSerialManager#getDeviceKey()}. */
+    public static String deviceKeyOf(String portName) {
+        int space = portName.indexOf(' ');
+        return space < 0 ? portName : portName.substring(0, space);
+    }
+
+    private void requestPermission(UsbDevice device) {
+        if (!receiverRegistered) {
+            androidx.core.content.ContextCompat.registerReceiver(context, permissionReceiver,
+                    new IntentFilter(ACTION_GANG_PERMISSION),
+                    androidx.core.content.ContextCompat.RECEIVER_NOT_EXPORTED);
+            receiverRegistered = true;
+        }
+        Intent intent = new Intent(ACTION_GANG_PERMISSION);
+        intent.setPackage(context.getPackageName());
+        int flags = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_MUTABLE : 0;
+        usbManager.requestPermission(device,
+                PendingIntent.getBroadcast(context, device.getDeviceId(), intent, flags));
+    }
+
+    private final BroadcastReceiver permissionReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context ctx, Intent intent) {
+            if (!ACTION_GANG_PERMISSION.equals(intent.getAction())) return;
+
+            UsbDevice device;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                device = intent.getParcelableExtra(UsbManager.EXTRA_DEVICE, UsbDevice.class);
+            } else {
+                device = intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
+            }
+            if (device == null) return;
+
+            synchronized (GangSessionManager.this) {
+                if (!pending.remove(device)) return;
+                if (intent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, false)) {
+                    for (UsbSerialDriver d : UsbSerialProber.getDefaultProber().findAllDrivers(usbManager)) {
+                        if (d.getDevice().equals(device)) {
+                            open(d);
+                            break;
+                        }
+                    }
+                } else {
+                    listener.onSessionError(nameOf(device, null), new Exception("Permiso USB denegado"));
+                }
+                if (pending.isEmpty()) listener.onSessionsOpened(sessions.size());
+            }
+        }
+    };
+}
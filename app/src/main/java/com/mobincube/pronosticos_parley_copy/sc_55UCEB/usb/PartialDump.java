@@ -0,0 +1,85 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb;
+
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.eeprom.EepromProtocol;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.DumpSink;
+
+import java.util.zip.CRC32;
+
+/**
+ * Lectura o volcado interrumpido (timeout, error de I/O o desconexión).
+ *
+ * Conserva el destino abierto con los bytes {@code [0, watermark)} y el CRC32
+ * de unos pocos chunks de control: el primero, el del medio y el último antes
+ * de la marca. Al reanudar, {@link ProtocolEngine} vuelve a leerlos del chip y
+ * solo continúa desde {@code watermark} si coinciden; si no, el chip cambió y
+ * el volcado parcial se descarta.
+ */
+public final class PartialDump {
+
+    private static final int RESP_ERR = 0x58;
+
+    final EepromProtocol protocol;
+    final int            modelIndex;
+    final DumpSink       sink;
+    final int            watermark;
+
+    final int[] probeAddr;
+    final int[] probeLen;
+    final int[] probeCrc;
+    final int   probeCount;
+
+    private PartialDump(EepromProtocol protocol, int modelIndex, DumpSink sink, int watermark,
+                        int[] probeAddr, int[] probeLen, int[] probeCrc, int probeCount) {
+        this.protocol   = protocol;
+        this.modelIndex = modelIndex;
+        this.sink       = sink;
+        this.watermark  = watermark;
+        this.probeAddr  = probeAddr;
+        this.probeLen   = probeLen;
+        this.probeCrc   = probeCrc;
+        this.probeCount = probeCount;
+    }
+
+    /**
+     * Calcula los chunks de control a partir de lo ya recibido en {@code sink}.
+     * Se omiten los chunks que empiezan por 0x58 (ambiguo con RESP_ERR).
+     *
+     * @return null si no hay ningún chunk de control utilizable
+     */
+    static PartialDump capture(EepromProtocol protocol, int modelIndex, DumpSink sink,
+                               int watermark, int chunkSize, byte[] scratch) {
+        int lastChunk = (watermark - 1) / chunkSize;
+        int[] candidates = {0, lastChunk / 2, lastChunk};
+
+        int[] addr = new int[3], len = new int[3], crc = new int[3];
+        int count = 0;
+        CRC32 c = new CRC32();
+
+        for (int k = 0; k < candidates.length; k++) {
+            if (k > 0 && candidates[k] == candidates[k - 1]) continue;
+            int a = candidates[k] * chunkSize;
+            int n = Math.min(chunkSize, watermark - a);
+            sink.read(a, scratch, 0, n);
+            if ((scratch[0] & 0xFF) == RESP_ERR) continue;
+
+            c.reset();
+            c.update(scratch, 0, n);
+            addr[count] = a;
+            len[count]  = n;
+            crc[count]  = (int) c.getValue();
+            count++;
+        }
+        if (count == 0) return null;
+        return new PartialDump(protocol, modelIndex, sink, watermark, addr, len, crc, count);
+    }
+
+    boolean matches(EepromProtocol protocol, int modelIndex, int totalSize) {
+        return this.protocol.getCommandPrefix() == protocol.getCommandPrefix()
+                && this.modelIndex == modelIndex
+                && sink.size() == totalSize;
+    }
+
+    public int getWatermark() { return watermark; }
+
+    public int getTotalSize() { return sink.size(); }
+}
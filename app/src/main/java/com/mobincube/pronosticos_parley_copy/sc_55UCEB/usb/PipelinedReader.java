@@ -0,0 +1,245 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb;
+
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.eeprom.EepromProtocol;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.DumpSink;
+
+/**
+ * Lectura por chunks con hasta {@code window} comandos de lectura en vuelo.
+ *
+ * El PIC atiende los comandos en orden, así que cada respuesta
+ * ({@code [len bytes] 55} o {@code 58}) corresponde a la petición más antigua
+ * pendiente. Los datos se escriben directamente en {@code target} según la
+ * dirección de esa petición.
+ *
+ * Las respuestas no llevan longitud: un 0x58 al inicio de un chunk puede ser
+ * RESP_ERR o un dato legítimo. Con varias peticiones en vuelo esa duda
+ * desalinearía todas las respuestas siguientes, así que ante un RESP_ERR (o un
+ * chunk que no termina en RESP_END) el lector descarta todo lo que llegue hasta
+ * que la línea quede en silencio ({@link #onLineIdle()}) y continúa en modo
+ * stop-and-wait desde el chunk fallido. En stop-and-wait un RESP_ERR aborta la
+ * lectura, igual que el flujo clásico.
+ *
+ * El tamaño de cada chunk lo decide un {@link ChunkSizeController} en el
+ * momento de enviarlo; el lector le informa de la latencia de cada chunk y de
+ * los errores.
+ *
+ * No es thread-safe: todos los métodos deben llamarse desde el mismo hilo.
+ */
+public class PipelinedReader {
+
+    public interface Listener {
+        /** Un chunk completo (datos + RESP_END) quedó copiado en el buffer. */
+        void onChunkComplete(int address, int length, int bytesDone);
+
+        /**
+         * Error con varias peticiones en vuelo: se descartan las respuestas
+         * pendientes y, cuando la línea quede en silencio, se reanuda con
+         * ventana 1 desde {@code address}.
+         */
+        void onFallbackToStopAndWait(int address);
+
+        void onReadComplete(DumpSink target);
+
+        /** RESP_ERR en modo stop-and-wait: la lectura queda abortada. */
+        void onReadError(int address);
+    }
+
+    private static final int RESP_END = 0x55;
+    private static final int RESP_ERR = 0x58;
+
+    private final EepromProtocol      protocol;
+    private final int                 modelIndex;
+    private final int                 totalSize;
+    private final ChunkSizeController chunks;
+    private final DumpSink            target;
+    private final CommandSender       sender;
+    private final Listener            listener;
+
+    private int window;
+
+    // ── Peticiones en vuelo (cola circular, orden de envío) ─────────────────
+    private final int[]  pendingAddr;
+    private final int[]  pendingLen;
+    private final long[] pendingSentAt;
+    private int pendingHead  = 0;
+    private int pendingCount = 0;
+
+    private int     nextAddress     = 0;
+    private int     headReceived    = 0;   // bytes de datos recibidos del chunk en cabeza
+    private int     bytesDone       = 0;
+    private int     unexpectedBytes = 0;
+    private int     discardedBytes  = 0;
+    private boolean stopAndWait;
+    private boolean draining        = false;
+    private boolean finished        = false;
+
+    /** Chunks de tamaño fijo. */
+    public PipelinedReader(EepromProtocol protocol, int modelIndex, int totalSize,
+                           int chunkSize, int window, DumpSink target,
+                           CommandSender sender, Listener listener) {
+        this(protocol, modelIndex, totalSize, ChunkSizeController.fixed(chunkSize),
+                window, target, sender, listener);
+    }
+
+    public PipelinedReader(EepromProtocol protocol, int modelIndex, int totalSize,
+                           ChunkSizeController chunks, int window, DumpSink target,
+                           CommandSender sender, Listener listener) {
+        if (window <= 0)
+            throw new IllegalArgumentException("window debe ser >= 1");
+        if (target.size() < totalSize)
+            throw new IllegalArgumentException("Buffer destino menor que totalSize");
+
+        this.protocol   = protocol;
+        this.modelIndex = modelIndex;
+        this.totalSize  = totalSize;
+        this.chunks     = chunks;
+        this.window     = window;
+        this.target     = target;
+        this.sender     = sender;
+        this.listener   = listener;
+
+        this.pendingAddr   = new int[window];
+        this.pendingLen    = new int[window];
+        this.pendingSentAt = new long[window];
+
+        // Con ventana 1 ya es stop-and-wait: el primer RESP_ERR aborta
+        this.stopAndWait = window == 1;
+    }
+
+    /** Envía los primeros {@code window} comandos de lectura. */
+    public void start() {
+        start(0);
+    }
+
+    /**
+     * Empieza (o reanuda) la lectura en {@code fromAddress}; lo anterior se
+     * da por recibido en {@code target}.
+     */
+    public void start(int fromAddress) {
+        nextAddress = fromAddress;
+        bytesDone   = fromAddress;
+        if (bytesDone >= totalSize) {
+            finished = true;
+            listener.onReadComplete(target);
+            return;
+        }
+        fillWindow();
+    }
+
+    /**
+     * Procesa bytes recibidos del puerto serie. Puede llamarse con fragmentos
+     * de cualquier tamaño; no asigna memoria.
+     */
+    public void feed(byte[] data, int offset, int length) {
+        if (draining) {
+            discardedBytes += length;
+            return;
+        }
+        int i   = offset;
+        int end = offset + length;
+
+        while (i < end && !finished && !draining && pendingCount > 0) {
+            int addr = pendingAddr[pendingHead];
+            int len  = pendingLen[pendingHead];
+
+            if (headReceived < len) {
+                if (headReceived == 0 && (data[i] & 0xFF) == RESP_ERR) {
+                    i++;
+                    onChunkError(addr);
+                    continue;
+                }
+                int n = Math.min(len - headReceived, end - i);
+                target.write(addr + headReceived, data, i, n);
+                headReceived += n;
+                i += n;
+            } else {
+                // Todos los datos del chunk recibidos: esperamos RESP_END
+                if ((data[i++] & 0xFF) == RESP_END) {
+                    onChunkComplete(addr, len);
+                } else {
+                    unexpectedBytes++;
+                    if (!stopAndWait) onChunkError(addr);
+                }
+            }
+        }
+        if (draining) discardedBytes += end - i;
+    }
+
+    /**
+     * Debe llamarse cuando no llegan bytes durante un intervalo mayor que el de
+     * una respuesta completa. Si el lector estaba descartando respuestas tras
+     * un error, reanuda en stop-and-wait desde el chunk fallido.
+     */
+    public void onLineIdle() {
+        if (!draining || finished) return;
+        draining = false;
+        fillWindow();
+    }
+
+    /**
+     * Deja de pedir chunks (p. ej. desde {@link Listener#onChunkComplete} para
+     * cortar un blank check). Lo que aún esté en vuelo se ignora.
+     */
+    public void cancel() {
+        finished = true;
+    }
+
+    private void onChunkComplete(int addr, int len) {
+        chunks.onChunkComplete(len, System.nanoTime() - pendingSentAt[pendingHead]);
+        pendingHead  = (pendingHead + 1) % pendingAddr.length;
+        pendingCount--;
+        headReceived = 0;
+        bytesDone += len;
+        listener.onChunkComplete(addr, len, bytesDone);
+
+        if (bytesDone >= totalSize) {
+            finished = true;
+            listener.onReadComplete(target);
+            return;
+        }
+        fillWindow();
+    }
+
+    private void onChunkError(int addr) {
+        chunks.onError();
+        if (stopAndWait) {
+            finished = true;
+            listener.onReadError(addr);
+            return;
+        }
+        // Todo lo que está en vuelo desde 'addr' se vuelve a pedir de uno en uno
+        stopAndWait  = true;
+        window       = 1;
+        draining     = true;
+        pendingCount = 0;
+        headReceived = 0;
+        nextAddress  = addr;
+        listener.onFallbackToStopAndWait(addr);
+    }
+
+    private void fillWindow() {
+        while (!finished && !draining && pendingCount < window && nextAddress < totalSize) {
+            int len  = Math.min(chunks.getChunkSize(), totalSize - nextAddress);
+            int tail = (pendingHead + pendingCount) % pendingAddr.length;
+            pendingAddr[tail]   = nextAddress;
+            pendingLen[tail]    = len;
+            pendingSentAt[tail] = System.nanoTime();
+            pendingCount++;
+            sender.sendData(protocol.buildReadCommand(nextAddress, len, modelIndex));
+            nextAddress += len;
+        }
+    }
+
+    public boolean isFinished()         { return finished; }
+    public boolean isStopAndWait()      { return stopAndWait; }
+    public boolean isDraining()         { return draining; }
+    public int     getBytesDone()       { return bytesDone; }
+    public int     getTotalSize()       { return totalSize; }
+    public int     getUnexpectedBytes() { return unexpectedBytes; }
+    public int     getDiscardedBytes()  { return discardedBytes; }
+
+    /** Dirección del chunk cuya respuesta se está esperando (o -1). */
+    public int getCurrentAddress() {
+        return pendingCount > 0 ? pendingAddr[pendingHead] : -1;
+    }
+}
@@ -0,0 +1,1200 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb;
+
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.eeprom.EepromProtocol;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.ArrayDumpSink;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.BlankCheckSink;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.DigestingDumpSink;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.DumpDigest;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.DumpSink;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.SparseImage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+/**
+ * Máquina de estados del protocolo PICMEM v3, independiente de Android.
+ *
+ * Recibe los bytes del puerto serie en {@link #onBytes}, envía los comandos
+ * por un {@link CommandSender} y notifica el avance a un {@link Listener}.
+ * Las respuestas cortas (ping, I2C scan, JEDEC) se acumulan en un buffer fijo,
+ * sin asignar memoria por paquete. Las lecturas y volcados se escriben en un
+ * {@link DumpSink} creado por la fábrica configurada (heap por defecto). Si se
+ * interrumpen, lo recibido se conserva como {@link PartialDump} y se reanuda
+ * desde la marca de agua tras comprobar que el chip es el mismo.
+ *
+ * Todos los métodos públicos están sincronizados: los {@code start*} llegan
+ * desde el hilo UI y {@link #onBytes} desde el hilo de protocolo
+ * ({@link SerialPipeline}). Los comandos solo se encolan, así que ningún
+ * método espera a una transferencia USB con el monitor tomado.
+ */
+public class ProtocolEngine {
+
+    public interface Listener {
+        /** Respuesta al ping con la cadena "PICMEM". */
+        void onPingOk(String banner);
+
+        /**
+         * Avance de una escritura, borrado o blank check. Las lecturas y
+         * volcados no lo notifican: la UI consulta {@link #getReceivedCount()}
+         * y {@link #readReceived} cuando le toca pintar, sin bloquear.
+         */
+        void onProgress(int done, int total);
+
+        /** Lectura o volcado completo en memoria, con sus huellas ya calculadas. */
+        void onReadComplete(byte[] data, DumpDigest digest);
+
+        /** Lectura o volcado completo escrito directamente en {@code file}. */
+        void onDumpSaved(File file, int size, DumpDigest digest);
+
+        void onReadFallback(int address);
+
+        /** El tamaño adaptativo de chunk de lectura cambió. */
+        void onReadChunkChanged(int chunkSize, long bytesPerSecond);
+
+        void onReadError(int address);
+
+        /**
+         * Escritura terminada. En modo diferencial {@code pagesSkipped} son las
+         * páginas que ya coincidían y {@code savedMs} el tiempo estimado ahorrado
+         * (puede ser negativo si leer para comparar costó más de lo que se ahorró).
+         */
+        void onWriteComplete(int length, int pagesWritten, int pagesSkipped, long savedMs);
+
+        /** La página releída no coincidía y se reescribe ({@code attempt} = 1, 2...). */
+        void onWritePageRetry(int address, int attempt);
+
+        void onEraseComplete();
+
+        /**
+         * Blank check terminado tras leer {@code checkedBytes}. Si se pidió
+         * cortar en el primer byte != 0xFF, el mapa solo cubre lo leído.
+         */
+        void onBlankCheckComplete(BlankCheckSink result, int checkedBytes);
+
+        void onI2cScanResult(byte[] addresses);
+
+        void onJedecId(byte mfr, byte memType, byte cap, boolean valid);
+
+        /**
+         * Fin del scan. {@code i2cAddresses} es null si no se escaneó I2C y
+         * {@code jedecId} es null si no hay un JEDEC válido.
+         */
+        void onScanComplete(byte[] i2cAddresses, byte[] jedecId);
+
+        /** JEDEC válido: empieza la recepción de {@code totalSize} bytes. */
+        void onFullDumpStarted(int totalSize, byte mfr, byte memType, byte cap);
+
+        /** Los chunks de control coinciden: se continúa desde {@code address}. */
+        void onResumeStarted(int address, int totalSize);
+
+        /** El chip no coincide con el volcado parcial: se descarta y se lee desde 0. */
+        void onResumeRejected(int address);
+
+        /** Error de protocolo; el motor ya volvió a IDLE. */
+        void onError(ProtocolState failedState, String message);
+
+        void onTimeoutReset(long ms);
+
+        void onTimeoutCancel();
+
+        /** Pide llamar a {@link #onLineIdle()} si no llegan bytes en {@code ms}. */
+        void onLineIdleCheck(long ms);
+    }
+
+    public static final int READ_CHUNK      = 64;    // chunk inicial de lectura
+    public static final int MAX_WRITE_CHUNK = 64;
+
+    // Lecturas en vuelo por defecto. El firmware v3 (PIC16F628A) no lee la
+    // UART mientras transmite y su FIFO RX es de 2 bytes: un segundo comando
+    // llegaría corrupto. Subir (setReadWindow) solo con un firmware que
+    // almacene comandos entrantes.
+    public static final int DEFAULT_READ_WINDOW = 1;
+
+    private static final long LINE_IDLE_MS = 300;
+
+    // Cada 64 KB se fuerza el volcado a disco y se avanza el marcador
+    private static final int COMMIT_SHIFT = 16;
+
+    // Chunk de lectura adaptativo. IR/PR aceptan longitud uint16; con 4 KB un
+    // chunk tarda ~4,3 s a 9600 baud, por debajo del watchdog de 10 s. Un
+    // chunk que tarda más de 5 s se considera tardío y reduce el tamaño.
+    public  static final int  MIN_READ_CHUNK   = 16;
+    public  static final int  MAX_READ_CHUNK   = 4096;
+    private static final long LATE_CHUNK_NANOS = 5_000_000_000L;
+
+    private static final int RESP_OK  = 0x4B;
+    private static final int RESP_ERR = 0x58;
+    private static final int RESP_END = 0x55;
+
+    private static final byte[] PING_SIGNATURE = "PICMEM".getBytes(StandardCharsets.US_ASCII);
+    private static final int    SCRATCH_SIZE   = 128;   // > 112 direcciones I2C posibles
+
+    private final CommandSender sender;
+    private final Listener      listener;
+
+    private volatile ProtocolState state = ProtocolState.IDLE;
+
+    private EepromProtocol protocol;
+    private int            modelIndex;
+    private int            pageSize;
+
+    // ── Respuestas cortas: ping, I2C scan, JEDEC ────────────────────────────
+    private final byte[] scratch = new byte[SCRATCH_SIZE];
+    private int          scratchLen;
+    private byte[]       scanI2cAddresses;
+    private boolean      pendingFullDump;
+
+    // ── Destino de lecturas y volcados ──────────────────────────────────────
+    private DumpSink.Factory  sinkFactory = ArrayDumpSink::new;
+    private DigestingDumpSink sink;              // calcula CRC32/SHA-256 al vuelo
+
+    // ── Progreso publicado para el visor ────────────────────────────────────
+    // Copia de sink/tamaño/recibido que se actualiza al salir de cada entrada
+    // al motor. El hilo UI la lee cada frame sin tomar el monitor, que puede
+    // estar ocupado mientras un commit espera al fsync del volcado a disco.
+    // liveReceived se escribe el último: publica los bytes ya escritos.
+    private volatile DumpSink liveSink;
+    private volatile int      liveTotal;
+    private volatile int      liveReceived;
+
+    // ── Lectura por chunks ──────────────────────────────────────────────────
+    private PipelinedReader reader;
+    private int             readWindow = DEFAULT_READ_WINDOW;
+    private final ChunkSizeController readChunks = new ChunkSizeController(
+            MIN_READ_CHUNK, MAX_READ_CHUNK, READ_CHUNK, LATE_CHUNK_NANOS);
+    private int lastReadChunk = READ_CHUNK;
+
+    // ── Escritura por páginas ───────────────────────────────────────────────
+    // Solo se recorren los segmentos de la imagen; cada página se escribe con
+    // los bytes que el archivo define en ella, sin rellenar los huecos.
+    private SparseImage writeImage;
+    private int         writeSegment;
+    private int         writeSegmentEnd;
+    private int         writeAddress;
+    private int         writePageStart;
+    private int         writePageEnd;
+    private byte[]      pageData;           // bytes a escribir de la página en curso
+    private int         writeDone;          // bytes de la imagen escritos o saltados
+    private int         writeTotal;
+    private long        writeSentAt;
+
+    // ── Escritura diferencial ───────────────────────────────────────────────
+    // Cada página se compara con el contenido conocido del chip (un volcado
+    // reciente) o con una lectura previa de la página, y solo se escribe si
+    // difiere. Ahorra el ciclo de escritura (~5 ms en 24Cxx) y desgaste.
+    private boolean differential;
+    private byte[]  writeCurrent;           // contenido conocido, o null
+    private byte[]  pageBuffer;
+    private int     pageReceived;
+    private int     pagesWritten;
+    private int     pagesSkipped;
+    private long    writeNanos;
+    private long    compareNanos;
+
+    // ── Verificación por página ─────────────────────────────────────────────
+    // Tras el RESP_OK de una página se relee y se compara antes de pasar a la
+    // siguiente; si no coincide se reescribe. Evita la segunda pasada completa.
+    public static final int MAX_PAGE_RETRIES = 2;
+
+    private static final int PAGE_READ_NONE    = 0;
+    private static final int PAGE_READ_COMPARE = 1;   // antes de escribir (diferencial)
+    private static final int PAGE_READ_VERIFY  = 2;   // después de escribir
+
+    private boolean verifyWrites;
+    private int     pageRead = PAGE_READ_NONE;
+    private int     pageRetries;
+    private int     pagesRetried;
+
+    // ── Blank check ─────────────────────────────────────────────────────────
+    private BlankCheckSink blankCheck;
+    private boolean        blankStopAtFirst;
+
+    // ── Volcado completo SPI ────────────────────────────────────────────────
+    // Tamaño conocido por JEDEC (1 << cap): el destino se reserva una sola
+    // vez y se entrega tal cual al terminar, sin copia final. El 50 46 no
+    // lleva dirección: si se interrumpe, se reanuda por chunks con
+    // dumpReadModel (ver fullDumpReadModel).
+    private int dumpLen;
+    private int dumpReadModel;
+
+    // ── Volcado interrumpido ────────────────────────────────────────────────
+    private PartialDump partial;
+    private int         probeIndex;
+    private final CRC32 probeCrc = new CRC32();
+
+    public ProtocolEngine(CommandSender sender, Listener listener) {
+        this.sender   = sender;
+        this.listener = listener;
+    }
+
+    public ProtocolState getState() {
+        return state;
+    }
+
+    public boolean isBusy() {
+        return state != ProtocolState.IDLE;
+    }
+
+    /** Controlador del tamaño de chunk de lectura (muestras y mejor tamaño). */
+    public synchronized ChunkSizeController getReadChunks() {
+        return readChunks;
+    }
+
+    /** Punto de partida del chunk de lectura, p. ej. el mejor recordado para el chip. */
+    public synchronized void setInitialReadChunk(int size) {
+        readChunks.reset(size);
+        lastReadChunk = readChunks.getChunkSize();
+    }
+
+    /**
+     * Comandos de lectura en vuelo a la vez; se aplica desde la siguiente
+     * lectura, blank check o reanudación. Con 1 es stop-and-wait.
+     */
+    public synchronized void setReadWindow(int window) {
+        if (window <= 0) throw new IllegalArgumentException("window debe ser >= 1");
+        readWindow = window;
+    }
+
+    public synchronized int getReadWindow() {
+        return readWindow;
+    }
+
+    /** Releer y comparar cada página tras escribirla (reintenta si no coincide). */
+    public synchronized void setVerifyWrites(boolean verifyWrites) {
+        this.verifyWrites = verifyWrites;
+    }
+
+    /** Decide dónde se guardan las lecturas y volcados (heap o disco). */
+    public synchronized void setSinkFactory(DumpSink.Factory sinkFactory) {
+        this.sinkFactory = sinkFactory;
+    }
+
+    // =========================================================================
+    // OPERACIONES
+    // =========================================================================
+
+    public synchronized void startPing(EepromProtocol protocol) {
+        setProtocol(protocol, 0);
+        scratchLen = 0;
+        state = ProtocolState.PINGING;
+        sender.sendData(protocol.buildPingCommand());
+        listener.onTimeoutReset(3000);
+    }
+
+    /** Lectura por chunks; si hay un volcado parcial del mismo modelo, se reanuda. */
+    public synchronized void startRead(EepromProtocol protocol, int modelIndex, int size) {
+        setProtocol(protocol, modelIndex);
+        if (partial != null) {
+            if (partial.matches(protocol, modelIndex, size)) {
+                beginResumeCheck();
+                return;
+            }
+            discardPartialDump();
+        }
+        try {
+            sink = new DigestingDumpSink(sinkFactory.create(size));
+            sink.setOrigin(protocol.getCommandPrefix(), modelIndex);
+        } catch (IOException e) {
+            if (sink != null) sink.discard();
+            sink = null;
+            listener.onError(ProtocolState.READING,
+                    "✗ No se pudo crear el destino del volcado: " + e.getMessage());
+            return;
+        }
+        reader = new PipelinedReader(protocol, modelIndex, size,
+                readChunks, readWindow, sink, sender, readListener);
+        state = ProtocolState.READING;
+        reader.start();
+        publishProgress();
+        listener.onTimeoutReset(10000);
+    }
+
+    public synchronized void startWrite(EepromProtocol protocol, int modelIndex, byte[] data) {
+        beginWrite(protocol, modelIndex, SparseImage.dense(data), false, null);
+    }
+
+    /** Escribe solo los segmentos de {@code image}; los huecos no se transmiten. */
+    public synchronized void startWrite(EepromProtocol protocol, int modelIndex, SparseImage image) {
+        beginWrite(protocol, modelIndex, image, false, null);
+    }
+
+    /**
+     * Escribe solo las páginas de los sectores marcados en {@code sectors}
+     * (p. ej. los sucios de un blank check al borrar con 0xFF).
+     */
+    public synchronized void startMaskedWrite(EepromProtocol protocol, int modelIndex,
+                                              byte[] data, BitSet sectors) {
+        int sectorSize = protocol.getSectorSize(modelIndex);
+        SparseImage image = new SparseImage();
+        for (int i = sectors.nextSetBit(0); i >= 0; i = sectors.nextSetBit(i + 1)) {
+            int start = i * sectorSize;
+            if (start >= data.length) break;
+            image.put(start, data, start, Math.min(sectorSize, data.length - start));
+        }
+        beginWrite(protocol, modelIndex, image, false, null);
+    }
+
+    /**
+     * Escritura diferencial: solo se escriben las páginas que difieren.
+     *
+     * @param current contenido actual del chip (p. ej. un volcado reciente del
+     *                mismo chip) o null para leer cada página antes de escribirla
+     */
+    public synchronized void startDifferentialWrite(EepromProtocol protocol, int modelIndex,
+                                                    byte[] data, byte[] current) {
+        startDifferentialWrite(protocol, modelIndex, SparseImage.dense(data), current);
+    }
+
+    /** Escritura diferencial de los segmentos de {@code image}. */
+    public synchronized void startDifferentialWrite(EepromProtocol protocol, int modelIndex,
+                                                    SparseImage image, byte[] current) {
+        if (current != null && current.length < image.getEnd()) current = null;
+        beginWrite(protocol, modelIndex, image, true, current);
+    }
+
+    private void beginWrite(EepromProtocol protocol, int modelIndex, SparseImage image,
+                            boolean differential, byte[] current) {
+        discardPartialDump();
+        setProtocol(protocol, modelIndex);
+        writeImage        = image;
+        writeSegment      = -1;
+        writeSegmentEnd   = 0;
+        writeAddress      = 0;
+        writeDone         = 0;
+        writeTotal        = image.getPopulatedBytes();
+        this.differential = differential;
+        writeCurrent      = current;
+        pageRead          = PAGE_READ_NONE;
+        pagesWritten      = 0;
+        pagesSkipped      = 0;
+        pagesRetried      = 0;
+        writeNanos        = 0;
+        compareNanos      = 0;
+        boolean readsPages = verifyWrites || (differential && current == null);
+        if (readsPages && (pageBuffer == null || pageBuffer.length < pageSize)) {
+            pageBuffer = new byte[pageSize];
+        }
+        if (pageData == null || pageData.length < pageSize) {
+            pageData = new byte[pageSize];
+        }
+        state = ProtocolState.WRITING;
+        nextWritePage();
+    }
+
+    /** Chip Erase nativo (solo Flash NOR); el resto se borra con {@link #startWrite}. */
+    public synchronized void startChipErase(byte[] eraseCommand) {
+        discardPartialDump();
+        state = ProtocolState.ERASING;
+        sender.sendData(eraseCommand);
+        listener.onTimeoutReset(300000);
+    }
+
+    /**
+     * Lee el chip sin guardar los datos y marca los sectores con algún byte
+     * distinto de 0xFF ({@link EepromProtocol#getSectorSize}).
+     *
+     * @param stopAtFirstDirty cortar en el primer chunk con datos: responde
+     *                         "¿está en blanco?" sin leer el resto del chip
+     */
+    public synchronized void startBlankCheck(EepromProtocol protocol, int modelIndex, int size,
+                                             boolean stopAtFirstDirty) {
+        setProtocol(protocol, modelIndex);
+        blankCheck       = new BlankCheckSink(size, protocol.getSectorSize(modelIndex));
+        blankStopAtFirst = stopAtFirstDirty;
+        reader = new PipelinedReader(protocol, modelIndex, size,
+                readChunks, readWindow, blankCheck, sender, blankCheckListener);
+        state = ProtocolState.BLANK_CHECKING;
+        reader.start();
+        listener.onTimeoutReset(10000);
+    }
+
+    /** Scan combinado: primero I2C (49 53), luego JEDEC SPI (50 4A). */
+    public synchronized void startScan() {
+        scanI2cAddresses = null;
+        scratchLen = 0;
+        state = ProtocolState.SCANNING_BOTH_I2C;
+        sender.sendData(new byte[]{0x49, 0x53});
+        listener.onTimeoutReset(12000);
+    }
+
+    /** Volcado SPI: detecta el chip por JEDEC y luego envía 50 46. */
+    public synchronized void startSpiFullDump(EepromProtocol protocol, int modelIndex) {
+        setProtocol(protocol, modelIndex);
+        pendingFullDump = true;
+        scratchLen = 0;
+        state = ProtocolState.SCANNING_ID;
+        sender.sendData(new byte[]{0x50, 0x4A});
+        listener.onTimeoutReset(3000);
+    }
+
+    /**
+     * Timeout, error de I/O o desconexión: vuelve a IDLE sin notificar. Una
+     * lectura a medias queda disponible en {@link #getPartialDump()}.
+     */
+    public synchronized void abort() {
+        ProtocolState was = state;
+        state = ProtocolState.IDLE;
+        pendingFullDump = false;
+        suspendDump(was);
+        publishProgress();
+    }
+
+    public synchronized PartialDump getPartialDump() {
+        return partial;
+    }
+
+    /** Comprueba el chip y reanuda el volcado parcial. @return false si no hay ninguno */
+    public synchronized boolean resumePartialDump() {
+        if (partial == null) return false;
+        setProtocol(partial.protocol, partial.modelIndex);
+        beginResumeCheck();
+        return true;
+    }
+
+    /**
+     * Adopta un volcado parcial que sobrevivió a un reinicio de la app (ver
+     * {@code MappedDumpSink.recover}); se reanuda igual que uno interrumpido
+     * en esta sesión.
+     *
+     * @return false si no tiene chunks de control utilizables (se descarta)
+     */
+    public synchronized boolean restorePartialDump(EepromProtocol protocol, int modelIndex, DumpSink sink) {
+        PartialDump p = PartialDump.capture(protocol, modelIndex, sink,
+                sink.getWatermark(), READ_CHUNK, scratch);
+        if (p == null) {
+            sink.discard();
+            return false;
+        }
+        discardPartialDump();
+        partial = p;
+        return true;
+    }
+
+    public synchronized void discardPartialDump() {
+        if (partial == null) return;
+        partial.sink.discard();
+        partial = null;
+    }
+
+    /**
+     * Bytes contiguos recibidos en la lectura o volcado en curso. No toma el
+     * monitor del motor: se puede llamar cada frame desde el hilo UI.
+     */
+    public int getReceivedCount() {
+        return liveReceived;
+    }
+
+    /** Tamaño total de la lectura o volcado en curso, o 0 si no hay ninguno. Sin bloqueo. */
+    public int getTransferSize() {
+        return liveTotal;
+    }
+
+    private int transferSize(ProtocolState st) {
+        if (st == ProtocolState.READING && reader != null) return reader.getTotalSize();
+        if (st == ProtocolState.FULL_DUMPING && sink != null) return sink.size();
+        return 0;
+    }
+
+    private int receivedCount(ProtocolState st) {
+        if (st == ProtocolState.READING && reader != null) return reader.getBytesDone();
+        if (st == ProtocolState.FULL_DUMPING && sink != null) return dumpLen;
+        return 0;
+    }
+
+    /**
+     * Copia {@code [address, address + length)} de la lectura o volcado en
+     * curso (para el visor hex). Lo que aún no se ha recibido sale a 0. Sin
+     * bloqueo, como {@link #getReceivedCount()}: solo lee lo ya publicado.
+     */
+    public void readReceived(int address, byte[] dst, int offset, int length) {
+        int      received = liveReceived;
+        DumpSink s        = liveSink;
+        int n = s == null ? 0 : Math.max(0, Math.min(length, received - address));
+        if (n > 0) s.read(address, dst, offset, n);
+        Arrays.fill(dst, offset + n, offset + length, (byte) 0);
+    }
+
+    /** Actualiza la copia que lee el visor; llamar con el monitor, al cambiar el avance. */
+    private void publishProgress() {
+        int total = transferSize(state);
+        liveSink     = total > 0 ? sink : null;
+        liveTotal    = total;
+        liveReceived = total > 0 ? receivedCount(state) : 0;
+    }
+
+    public synchronized void onLineIdle() {
+        if (state == ProtocolState.WRITING && pageRead != PAGE_READ_NONE) {
+            onPageReadIdle();
+            return;
+        }
+        if (state != ProtocolState.READING && state != ProtocolState.BLANK_CHECKING) return;
+        if (reader == null) return;
+        reader.onLineIdle();
+        if (!reader.isFinished()) listener.onTimeoutReset(10000);
+    }
+
+    private void setProtocol(EepromProtocol protocol, int modelIndex) {
+        this.protocol   = protocol;
+        this.modelIndex = modelIndex;
+        this.pageSize   = protocol.getPageSize(modelIndex);
+    }
+
+    // =========================================================================
+    // RECEPCIÓN
+    // =========================================================================
+
+    public synchronized void onBytes(byte[] data, int offset, int length) {
+        if (data == null || length == 0) return;
+
+        switch (state) {
+            case PINGING:           onPingBytes(data, offset, length);      break;
+            case READING:           onReadBytes(data, offset, length);      break;
+            case WRITING:           onWriteBytes(data, offset, length);     break;
+            case ERASING:           onEraseBytes(data, offset, length);     break;
+            case SCANNING_ID:       onScanIdBytes(data, offset, length);    break;
+            case SCANNING_BOTH_I2C: onScanI2cBytes(data, offset, length);   break;
+            case SCANNING_BOTH_SPI: onScanSpiBytes(data, offset, length);   break;
+            case FULL_DUMPING:      onFullDumpBytes(data, offset, length);  break;
+            case RESUME_CHECKING:   onResumeCheckBytes(data, offset, length); break;
+            case BLANK_CHECKING:    onReadBytes(data, offset, length);      break;
+            default: break;
+        }
+        publishProgress();
+    }
+
+    // ── PINGING ───────────────────────────────────────────────────────────
+    private void onPingBytes(byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (scratchLen == scratch.length) {
+                // Conservar solo lo necesario para no partir la firma
+                int keep = PING_SIGNATURE.length - 1;
+                System.arraycopy(scratch, scratchLen - keep, scratch, 0, keep);
+                scratchLen = keep;
+            }
+            scratch[scratchLen++] = data[i];
+        }
+        if (indexOf(scratch, scratchLen, PING_SIGNATURE) < 0) return;
+
+        state = ProtocolState.IDLE;
+        listener.onTimeoutCancel();
+        String banner = new String(scratch, 0, scratchLen, StandardCharsets.UTF_8);
+        listener.onPingOk(banner.replace("\r", "").replace("\n", " ").trim());
+    }
+
+    // ── READING ───────────────────────────────────────────────────────────
+    private void onReadBytes(byte[] data, int offset, int length) {
+        PipelinedReader r = reader;
+        if (r == null) return;
+
+        r.feed(data, offset, length);
+
+        if (r.isDraining())       listener.onLineIdleCheck(LINE_IDLE_MS);
+        else if (!r.isFinished()) listener.onTimeoutReset(10000);
+    }
+
+    private final PipelinedReader.Listener readListener = new PipelinedReader.Listener() {
+        @Override
+        public void onChunkComplete(int address, int length, int bytesDone) {
+            if (!commitProgress(bytesDone - length, bytesDone)) return;
+            checkReadChunk(readChunks.getBytesPerSecond(length));
+        }
+
+        @Override
+        public void onFallbackToStopAndWait(int address) {
+            listener.onReadFallback(address);
+            checkReadChunk(0);
+            listener.onLineIdleCheck(LINE_IDLE_MS);
+        }
+
+        @Override
+        public void onReadComplete(DumpSink target) {
+            reader = null;
+            finishDump();
+        }
+
+        @Override
+        public void onReadError(int address) {
+            ProtocolState was = state;
+            state = ProtocolState.IDLE;
+            suspendDump(was);
+            listener.onTimeoutCancel();
+            listener.onReadError(address);
+        }
+    };
+
+    // ── BLANK_CHECKING ────────────────────────────────────────────────────
+    private final PipelinedReader.Listener blankCheckListener = new PipelinedReader.Listener() {
+        @Override
+        public void onChunkComplete(int address, int length, int bytesDone) {
+            listener.onProgress(bytesDone, reader.getTotalSize());
+            if (blankStopAtFirst && !blankCheck.isBlank()) {
+                reader.cancel();
+                finishBlankCheck(bytesDone);
+            }
+        }
+
+        @Override
+        public void onFallbackToStopAndWait(int address) {
+            listener.onReadFallback(address);
+            listener.onLineIdleCheck(LINE_IDLE_MS);
+        }
+
+        @Override
+        public void onReadComplete(DumpSink target) {
+            finishBlankCheck(reader.getBytesDone());
+        }
+
+        @Override
+        public void onReadError(int address) {
+            reader     = null;
+            blankCheck = null;
+            state = ProtocolState.IDLE;
+            listener.onTimeoutCancel();
+            listener.onReadError(address);
+        }
+    };
+
+    private void finishBlankCheck(int checkedBytes) {
+        BlankCheckSink result = blankCheck;
+        reader     = null;
+        blankCheck = null;
+        state = ProtocolState.IDLE;
+        listener.onTimeoutCancel();
+        listener.onBlankCheckComplete(result, checkedBytes);
+    }
+
+    // ── WRITING ───────────────────────────────────────────────────────────
+
+    /**
+     * Pasa a la siguiente página con datos: al acabar un segmento salta al
+     * inicio del siguiente. Una página solo se recorta al principio o al final
+     * de un segmento. En modo diferencial salta las que ya coinciden.
+     */
+    private void nextWritePage() {
+        if (state != ProtocolState.WRITING) return;
+        pageRetries = 0;
+        while (true) {
+            if (writeAddress >= writeSegmentEnd) {
+                if (++writeSegment >= writeImage.getSegmentCount()) {
+                    finishWrite();
+                    return;
+                }
+                writeAddress    = writeImage.getSegmentAddress(writeSegment);
+                writeSegmentEnd = writeAddress + writeImage.getSegmentLength(writeSegment);
+            }
+            writePageStart = writeAddress;
+            writePageEnd   = Math.min(writeSegmentEnd, (writeAddress / pageSize + 1) * pageSize);
+            writeImage.read(writePageStart, pageData, 0, writePageEnd - writePageStart);
+            if (!differential) break;
+            if (writeCurrent == null) {
+                sendPageRead(PAGE_READ_COMPARE);
+                return;
+            }
+            if (!regionEquals(writeCurrent, writePageStart, pageData, 0,
+                    writePageEnd - writePageStart)) break;
+            skipWritePage();
+        }
+        sendNextWriteChunk();
+    }
+
+    private void skipWritePage() {
+        pagesSkipped++;
+        writeDone   += writePageEnd - writeAddress;
+        writeAddress = writePageEnd;
+        listener.onProgress(writeDone, writeTotal);
+    }
+
+    private void sendNextWriteChunk() {
+        if (state != ProtocolState.WRITING) return;
+
+        int len = writeChunkLength();
+        byte[] base = protocol.buildWriteCommandBase(writeAddress, len, modelIndex);
+        byte[] cmd  = Arrays.copyOf(base, base.length + len);
+        System.arraycopy(pageData, writeAddress - writePageStart, cmd, base.length, len);
+        writeSentAt = System.nanoTime();
+        sender.sendData(cmd);
+        listener.onTimeoutReset(10000);
+    }
+
+    private int writeChunkLength() {
+        int toNext = pageSize - (writeAddress % pageSize);
+        int limit  = Math.min(toNext, MAX_WRITE_CHUNK);
+        return Math.min(limit, writePageEnd - writeAddress);
+    }
+
+    private void onWriteBytes(byte[] data, int offset, int length) {
+        if (pageRead != PAGE_READ_NONE) {
+            onPageReadBytes(data, offset, length);
+            return;
+        }
+        for (int i = offset; i < offset + length; i++) {
+            int val = data[i] & 0xFF;
+            if (val == RESP_OK) {
+                int len = writeChunkLength();
+                writeNanos   += System.nanoTime() - writeSentAt;
+                writeAddress += len;
+                writeDone    += len;
+                listener.onProgress(writeDone, writeTotal);
+                if (writeAddress < writePageEnd) {
+                    sendNextWriteChunk();
+                } else if (verifyWrites) {
+                    sendPageRead(PAGE_READ_VERIFY);
+                } else {
+                    pagesWritten++;
+                    nextWritePage();
+                }
+                return;
+            } else if (val == RESP_ERR) {
+                fail("✗ Error de escritura (NACK del dispositivo).");
+                return;
+            }
+        }
+        listener.onTimeoutReset(10000);
+    }
+
+    private void finishWrite() {
+        state = ProtocolState.IDLE;
+        listener.onTimeoutCancel();
+        long saved = pagesSkipped * pageWriteNanos() - compareNanos;
+        listener.onWriteComplete(writeTotal, pagesWritten, pagesSkipped, saved / 1_000_000);
+    }
+
+    /**
+     * Tiempo medio de escritura de una página: medido si ya se escribió alguna,
+     * si no estimado (transferencia a 9600 baud + ciclo de escritura de 5 ms).
+     */
+    private long pageWriteNanos() {
+        if (pagesWritten > 0) return writeNanos / pagesWritten;
+        return (pageSize + 9) * 1_041_667L + 5_000_000L;
+    }
+
+    // ── Lectura de página: comparación previa y verificación ───────────────
+    private void sendPageRead(int kind) {
+        pageRead     = kind;
+        pageReceived = 0;
+        int len = writePageEnd - writePageStart;
+        writeSentAt = System.nanoTime();
+        sender.sendData(protocol.buildReadCommand(writePageStart, len, modelIndex));
+        listener.onTimeoutReset(10000);
+    }
+
+    private void onPageReadBytes(byte[] data, int offset, int length) {
+        int len = writePageEnd - writePageStart;
+        for (int i = offset; i < offset + length; i++) {
+            if (pageReceived < len) {
+                pageBuffer[pageReceived++] = data[i];
+                // 0x58 al inicio puede ser RESP_ERR o un dato: lo decide el silencio
+                if (pageReceived == 1 && (data[i] & 0xFF) == RESP_ERR)
+                    listener.onLineIdleCheck(LINE_IDLE_MS);
+                continue;
+            }
+            int kind = pageRead;
+            pageRead = PAGE_READ_NONE;
+            if (kind == PAGE_READ_COMPARE) compareNanos += System.nanoTime() - writeSentAt;
+            if ((data[i] & 0xFF) != RESP_END) {
+                fail(String.format("✗ Respuesta inesperada al leer la página 0x%06X.",
+                        writePageStart));
+                return;
+            }
+            boolean same = regionEquals(pageBuffer, 0, pageData, 0, len);
+            if (kind == PAGE_READ_COMPARE) {
+                if (same) {
+                    skipWritePage();
+                    nextWritePage();
+                } else {
+                    sendNextWriteChunk();
+                }
+            } else if (same) {
+                pagesWritten++;
+                nextWritePage();
+            } else {
+                retryWritePage();
+            }
+            return;
+        }
+        listener.onTimeoutReset(10000);
+    }
+
+    /** Solo llegó 0x58 y la línea quedó en silencio: RESP_ERR a la lectura. */
+    private void onPageReadIdle() {
+        if (pageReceived != 1 || (pageBuffer[0] & 0xFF) != RESP_ERR) return;
+        int kind = pageRead;
+        pageRead = PAGE_READ_NONE;
+        if (kind == PAGE_READ_COMPARE) {
+            // Sin datos para comparar: se escribe la página
+            compareNanos += System.nanoTime() - writeSentAt;
+            sendNextWriteChunk();
+        } else if (pageRetries++ < MAX_PAGE_RETRIES) {
+            sendPageRead(PAGE_READ_VERIFY);
+        } else {
+            fail(String.format("✗ No se pudo releer la página 0x%06X para verificarla.",
+                    writePageStart));
+        }
+    }
+
+    /** La página releída no coincide: se reescribe entera. */
+    private void retryWritePage() {
+        if (pageRetries++ >= MAX_PAGE_RETRIES) {
+            fail(String.format("✗ Verificación fallida en la página 0x%06X tras %d reintentos.",
+                    writePageStart, MAX_PAGE_RETRIES));
+            return;
+        }
+        pagesRetried++;
+        listener.onWritePageRetry(writePageStart, pageRetries);
+        writeDone   -= writeAddress - writePageStart;
+        writeAddress = writePageStart;
+        sendNextWriteChunk();
+    }
+
+    private static boolean regionEquals(byte[] a, int aFrom, byte[] b, int bFrom, int len) {
+        for (int i = 0; i < len; i++) {
+            if (a[aFrom + i] != b[bFrom + i]) return false;
+        }
+        return true;
+    }
+
+    // ── ERASING ───────────────────────────────────────────────────────────
+    private void onEraseBytes(byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            int val = data[i] & 0xFF;
+            if (val == RESP_OK) {
+                state = ProtocolState.IDLE;
+                listener.onTimeoutCancel();
+                listener.onEraseComplete();
+                return;
+            }
+            if (val == RESP_ERR) {
+                fail("✗ Error Chip Erase (RESP_ERR).");
+                return;
+            }
+        }
+        listener.onTimeoutReset(300000);
+    }
+
+    // ── SCANNING_ID ───────────────────────────────────────────────────────
+    private void onScanIdBytes(byte[] data, int offset, int length) {
+        if (protocol != null && protocol.getCommandPrefix() == 'I') {
+            if (!collectI2cScan(data, offset, length)) return;
+            state = ProtocolState.IDLE;
+            listener.onTimeoutCancel();
+            listener.onI2cScanResult(Arrays.copyOf(scratch, scratchLen));
+            return;
+        }
+
+        if (!collectJedec(data, offset, length)) return;
+        state = ProtocolState.IDLE;
+        listener.onTimeoutCancel();
+
+        if (pendingFullDump) {
+            startFullDumpAfterJedec(scratch[0], scratch[1], scratch[2]);
+        } else {
+            reportJedec(null);
+        }
+    }
+
+    // ── SCANNING_BOTH_I2C — Fase 1: recibir resultado I2C Scan ────────────
+    private void onScanI2cBytes(byte[] data, int offset, int length) {
+        if (!collectI2cScan(data, offset, length)) return;
+        listener.onTimeoutCancel();
+        scanI2cAddresses = Arrays.copyOf(scratch, scratchLen);
+
+        // Fase 2: ahora JEDEC SPI
+        state = ProtocolState.SCANNING_BOTH_SPI;
+        scratchLen = 0;
+        listener.onI2cScanResult(scanI2cAddresses);
+        sender.sendData(new byte[]{0x50, 0x4A});
+        listener.onTimeoutReset(5000);
+    }
+
+    // ── SCANNING_BOTH_SPI — Fase 2: recibir JEDEC ID ──────────────────────
+    private void onScanSpiBytes(byte[] data, int offset, int length) {
+        if (!collectJedec(data, offset, length)) return;
+        state = ProtocolState.IDLE;
+        listener.onTimeoutCancel();
+        reportJedec(scanI2cAddresses);
+    }
+
+    private void reportJedec(byte[] i2cAddresses) {
+        boolean valid = isValidJedec(scratch[0], scratch[2]);
+        listener.onJedecId(scratch[0], scratch[1], scratch[2], valid);
+        listener.onScanComplete(i2cAddresses, valid ? Arrays.copyOf(scratch, 3) : null);
+    }
+
+    /** Acumula direcciones I2C hasta el 0xFF final. @return true al terminar la lista */
+    private boolean collectI2cScan(byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            int val = data[i] & 0xFF;
+            if (val == 0xFF) return true;
+            if (val != RESP_END && val != RESP_ERR && scratchLen < scratch.length)
+                scratch[scratchLen++] = data[i];
+        }
+        return false;
+    }
+
+    /** Acumula los 3 bytes del JEDEC ID. @return true cuando están completos */
+    private boolean collectJedec(byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length && scratchLen < 3; i++)
+            scratch[scratchLen++] = data[i];
+        return scratchLen >= 3;
+    }
+
+    public static boolean isValidJedec(byte mfr, byte cap) {
+        int m = mfr & 0xFF, c = cap & 0xFF;
+        return m != 0xFF && m != 0x00 && c >= 0x10 && c <= 0x1C;
+    }
+
+    // ── FULL_DUMPING ──────────────────────────────────────────────────────
+    private void startFullDumpAfterJedec(byte mfr, byte memType, byte cap) {
+        pendingFullDump = false;
+        if (!isValidJedec(mfr, cap)) {
+            fail(String.format("✗ JEDEC inválido (%02X %02X %02X). Verifica CS/SCK/MOSI/MISO.",
+                    mfr & 0xFF, memType & 0xFF, cap & 0xFF));
+            return;
+        }
+
+        int size = 1 << (cap & 0xFF);
+        if (partial != null) {
+            if (partial.protocol.getCommandPrefix() == protocol.getCommandPrefix()
+                    && partial.getTotalSize() == size) {
+                setProtocol(partial.protocol, partial.modelIndex);
+                beginResumeCheck();
+                return;
+            }
+            discardPartialDump();
+        }
+        dumpReadModel = fullDumpReadModel(protocol, size);
+        try {
+            sink = new DigestingDumpSink(sinkFactory.create(size));
+            sink.setOrigin(protocol.getCommandPrefix(), dumpReadModel);
+        } catch (IOException e) {
+            fail("✗ No se pudo crear el destino del volcado: " + e.getMessage());
+            return;
+        }
+        dumpLen = 0;
+        state   = ProtocolState.FULL_DUMPING;
+
+        listener.onFullDumpStarted(size, mfr, memType, cap);
+        sender.sendData(new byte[]{0x50, 0x46});
+        listener.onTimeoutReset(20000);
+    }
+
+    private void onFullDumpBytes(byte[] data, int offset, int length) {
+        if (sink == null) return;
+
+        int size = sink.size();
+        int i    = offset;
+        int end  = offset + length;
+
+        if (dumpLen == 0 && (data[i] & 0xFF) == RESP_ERR) {
+            fail("✗ Full Dump abortado: chip no detectado o JEDEC inválido.");
+            return;
+        }
+
+        if (dumpLen < size) {
+            int before = dumpLen;
+            int n = Math.min(size - dumpLen, end - i);
+            sink.write(dumpLen, data, i, n);
+            dumpLen += n;
+            i       += n;
+
+            if (!commitProgress(before, dumpLen)) return;
+        }
+
+        // Datos completos: solo queda esperar el RESP_END
+        for (; i < end; i++) {
+            if ((data[i] & 0xFF) == RESP_END) {
+                finishDump();
+                return;
+            }
+        }
+        listener.onTimeoutReset(5000);
+    }
+
+    // ── RESUME_CHECKING ───────────────────────────────────────────────────
+    private void beginResumeCheck() {
+        probeIndex = 0;
+        state = ProtocolState.RESUME_CHECKING;
+        sendProbe();
+    }
+
+    private void sendProbe() {
+        scratchLen = 0;
+        sender.sendData(partial.protocol.buildReadCommand(
+                partial.probeAddr[probeIndex], partial.probeLen[probeIndex], partial.modelIndex));
+        listener.onTimeoutReset(10000);
+    }
+
+    private void onResumeCheckBytes(byte[] data, int offset, int length) {
+        PartialDump p = partial;
+        if (p == null) return;
+
+        for (int i = offset; i < offset + length; i++) {
+            int need = p.probeLen[probeIndex];
+            int val  = data[i] & 0xFF;
+
+            if (scratchLen == 0 && val == RESP_ERR) {
+                // El volcado parcial se conserva para otro intento
+                state = ProtocolState.IDLE;
+                listener.onTimeoutCancel();
+                listener.onError(ProtocolState.RESUME_CHECKING,
+                        "✗ RESP_ERR comprobando el volcado parcial. Verifica chip y conexiones.");
+                return;
+            }
+            if (scratchLen < need) {
+                scratch[scratchLen++] = data[i];
+                continue;
+            }
+
+            // Chunk de control completo: debe seguir RESP_END y coincidir el CRC
+            probeCrc.reset();
+            probeCrc.update(scratch, 0, need);
+            if (val != RESP_END || (int) probeCrc.getValue() != p.probeCrc[probeIndex]) {
+                rejectPartialDump(p.probeAddr[probeIndex]);
+                return;
+            }
+            if (++probeIndex == p.probeCount) {
+                resumeFromPartial();
+                return;
+            }
+            sendProbe();
+            return;
+        }
+        listener.onTimeoutReset(10000);
+    }
+
+    private void resumeFromPartial() {
+        PartialDump p = partial;
+        partial = null;
+        sink    = DigestingDumpSink.wrap(p.sink);
+        setProtocol(p.protocol, p.modelIndex);
+
+        reader = new PipelinedReader(p.protocol, p.modelIndex, sink.size(),
+                readChunks, readWindow, sink, sender, readListener);
+        state = ProtocolState.READING;
+        listener.onResumeStarted(p.watermark, sink.size());
+        reader.start(p.watermark);
+        listener.onTimeoutReset(10000);
+    }
+
+    private void rejectPartialDump(int address) {
+        PartialDump p = partial;
+        listener.onResumeRejected(address);
+        discardPartialDump();
+        state = ProtocolState.IDLE;
+        startRead(p.protocol, p.modelIndex, p.getTotalSize());
+    }
+
+    // =========================================================================
+    // AUXILIARES
+    // =========================================================================
+
+    private void checkReadChunk(long bytesPerSecond) {
+        int size = readChunks.getChunkSize();
+        if (size == lastReadChunk) return;
+        lastReadChunk = size;
+        listener.onReadChunkChanged(size, bytesPerSecond);
+    }
+
+    /** Confirma el progreso cada 64 KB. @return false si falló la escritura */
+    private boolean commitProgress(int before, int after) {
+        if ((before >>> COMMIT_SHIFT) == (after >>> COMMIT_SHIFT)) return true;
+        try {
+            sink.commit(after);
+            return true;
+        } catch (IOException e) {
+            fail("✗ Error escribiendo el volcado: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void finishDump() {
+        DigestingDumpSink done = sink;
+        sink = null;
+        DumpDigest digest;
+        try {
+            done.commit(done.size());
+            digest = done.finish();
+            done.close();
+        } catch (IOException e) {
+            fail("✗ Error cerrando el volcado: " + e.getMessage());
+            return;
+        }
+        state = ProtocolState.IDLE;
+        listener.onTimeoutCancel();
+
+        if (done.array() != null) listener.onReadComplete(done.array(), digest);
+        else                      listener.onDumpSaved(done.getFile(), done.size(), digest);
+    }
+
+    /**
+     * Lectura o volcado interrumpido en el estado {@code was}: lo recibido pasa
+     * a {@link #partial} (con el destino abierto) o, si no hay nada útil, se
+     * descarta.
+     */
+    private void suspendDump(ProtocolState was) {
+        if (was == ProtocolState.READING) readChunks.onError();
+        int done = receivedCount(was);
+        reader = null;
+        if (sink == null) return;
+
+        DumpSink s = sink;
+        sink = null;
+        int model = was == ProtocolState.FULL_DUMPING ? dumpReadModel : modelIndex;
+        if (model >= 0 && done > 0 && done < s.size()) {
+            PartialDump p = PartialDump.capture(protocol, model, s, done, READ_CHUNK, scratch);
+            if (p != null) {
+                try {
+                    s.commit(done);
+                } catch (IOException ignored) {
+                    // En disco, el marcador conserva el último commit válido
+                }
+                discardPartialDump();
+                partial = p;
+                return;
+            }
+        }
+        s.discard();
+    }
+
+    /**
+     * Modelo para leer por chunks un chip de {@code size} bytes detectado por
+     * JEDEC: el menor con direcciones de 3 bytes (Flash NOR) que lo cubre o,
+     * si ninguno llega, el mayor de ellos.
+     *
+     * @return -1 si el protocolo no tiene modelos con direcciones de 3 bytes
+     */
+    static int fullDumpReadModel(EepromProtocol protocol, int size) {
+        int fit = -1, largest = -1;
+        for (int i = 0; i < protocol.getModelCount(); i++) {
+            if (protocol.getAddressBytes(i) < 3) continue;
+            int total = protocol.getTotalSize(i);
+            if (total >= size && (fit < 0 || total < protocol.getTotalSize(fit))) fit = i;
+            if (largest < 0 || total > protocol.getTotalSize(largest)) largest = i;
+        }
+        return fit >= 0 ? fit : largest;
+    }
+
+    private void fail(String message) {
+        ProtocolState failed = state;
+        state = ProtocolState.IDLE;
+        pendingFullDump = false;
+        suspendDump(failed);
+        listener.onTimeoutCancel();
+        listener.onError(failed, message);
+    }
+
+    private static int indexOf(byte[] haystack, int length, byte[] needle) {
+        outer:
+        for (int i = 0; i <= length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+}
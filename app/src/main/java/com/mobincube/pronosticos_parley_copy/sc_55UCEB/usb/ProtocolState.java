@@ -10,5 +10,7 @@ public enum ProtocolState {
     SCANNING_ID,
     SCANNING_BOTH_I2C,   // Fase 1: escaneo I2C del scan combinado
     SCANNING_BOTH_SPI,   // Fase 2: JEDEC SPI del scan combinado
-    FULL_DUMPING
+    FULL_DUMPING,
+    RESUME_CHECKING,     // Relectura de chunks de control antes de reanudar
+    BLANK_CHECKING       // Lectura sin guardar datos buscando bytes != 0xFF
 }
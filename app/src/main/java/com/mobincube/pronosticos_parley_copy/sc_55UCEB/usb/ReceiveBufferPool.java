@@ -0,0 +1,53 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Juego fijo de búferes de recepción que se reutilizan paquete a paquete,
+ * para no crear un {@code byte[]} por cada transferencia USB.
+ *
+ * Los búferes libres viajan en un {@link SpscRing} en sentido contrario a
+ * los datos: el hilo de protocolo los devuelve con {@link #release} y el
+ * hilo de lectura los recoge con {@link #acquire}. Son de heap porque
+ * {@code UsbSerialPort.read} escribe en un {@code byte[]}; así el paquete
+ * llega al protocolo sin ninguna copia.
+ */
+public final class ReceiveBufferPool {
+
+    private final SpscRing<ByteBuffer> free;
+    private final int                  bufferSize;
+    private final int                  count;
+
+    public ReceiveBufferPool(int count, int bufferSize) {
+        this.free       = new SpscRing<>(count);
+        this.bufferSize = bufferSize;
+        this.count      = free.capacity();
+        for (int i = 0; i < this.count; i++) free.offer(ByteBuffer.wrap(new byte[bufferSize]));
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /** Búferes en total (la capacidad pedida redondeada a potencia de 2). */
+    public int getCount() {
+        return count;
+    }
+
+    /** Solo el hilo de lectura. @return búfer vacío, o null si todos están en uso */
+    public ByteBuffer acquire() {
+        ByteBuffer b = free.poll();
+        if (b != null) b.clear();
+        return b;
+    }
+
+    /** Solo el hilo de protocolo, cuando ya consumió el contenido. */
+    public void release(ByteBuffer buffer) {
+        free.offer(buffer);
+    }
+
+    /** Aproximado fuera del hilo de lectura. */
+    public int available() {
+        return free.size();
+    }
+}
@@ -0,0 +1,38 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb;
+
+import java.util.Locale;
+
+/** Parámetros de línea de un puerto serie (velocidad y formato de trama). */
+public final class SerialParams {
+
+    public static final int PARITY_NONE = 0;   // mismos valores que UsbSerialPort
+    public static final int STOPBITS_1  = 1;
+
+    /** 9600 8N1: la velocidad base del firmware PICMEM. */
+    public static final SerialParams DEFAULT =
+            new SerialParams(BaudRateNegotiator.BASE_BAUD_RATE, 8, STOPBITS_1, PARITY_NONE);
+
+    public final int baudRate;
+    public final int dataBits;
+    public final int stopBits;
+    public final int parity;
+
+    public SerialParams(int baudRate, int dataBits, int stopBits, int parity) {
+        this.baudRate = baudRate;
+        this.dataBits = dataBits;
+        this.stopBits = stopBits;
+        this.parity   = parity;
+    }
+
+    /** Los mismos parámetros a otra velocidad. */
+    public SerialParams withBaudRate(int baudRate) {
+        return new SerialParams(baudRate, dataBits, stopBits, parity);
+    }
+
+    @Override
+    public String toString() {
+        char p = "NOEMS".charAt(Math.max(0, Math.min(4, parity)));
+        return String.format(Locale.ROOT, "%d %d%c%s", baudRate, dataBits, p,
+                stopBits == 3 ? "1.5" : String.valueOf(stopBits));
+    }
+}
@@ -0,0 +1,331 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Modelo de hilos del puerto serie, independiente de Android:
+ * <ul>
+ *   <li>El hilo de lectura lee cada paquete USB en un búfer del
+ *       {@link ReceiveBufferPool} y lo deja en un {@link SpscRing}; no
+ *       ejecuta nada del protocolo ni asigna memoria por paquete. Lee sin
+ *       timeout, como SerialInputOutputManager: se para cerrando el
+ *       puerto.</li>
+ *   <li>Un único hilo de protocolo vacía el anillo, entrega los paquetes en
+ *       orden a {@link Callback#onData} y devuelve cada búfer al pool. La
+ *       máquina de estados y el siguiente comando se procesan siempre en
+ *       ese hilo.</li>
+ *   <li>{@link #sendData} encola el comando y vuelve enseguida; un hilo de
+ *       escritura hace la transferencia bloqueante, así que un timeout de
+ *       escritura nunca retrasa la recepción ni el hilo UI. Los comandos
+ *       cortos que esperan juntos en la cola salen en una sola transferencia
+ *       de hasta un paquete del endpoint de salida.</li>
+ * </ul>
+ */
+public class SerialPipeline implements CommandSender {
+
+    /**
+     * Puerto de entrada. La lectura no tiene timeout: en usb-serial-for-android
+     * una lectura con timeout usa bulkTransfer y pierde datos con tráfico
+     * continuo.
+     */
+    public interface Input {
+        /** Lectura bloqueante de un paquete; puede devolver 0 (paquete vacío). */
+        int read(byte[] dst, int length) throws IOException;
+
+        /** Cierra el puerto; la lectura bloqueada vuelve con una excepción. */
+        void close() throws IOException;
+    }
+
+    /** Escritura bloqueante de {@code data[0, length)} en el puerto (con su propio timeout). */
+    public interface Output {
+        void write(byte[] data, int length) throws IOException;
+    }
+
+    public interface Callback {
+        /**
+         * Paquete recibido, en el hilo de protocolo, entre {@code position} y
+         * {@code limit}. El búfer vuelve al pool al retornar: no guardarlo.
+         */
+        void onData(ByteBuffer data);
+
+        /** Fallo de lectura, de escritura o excepción del protocolo. */
+        void onError(Exception e);
+    }
+
+    public static final int INBOUND_BUFFERS = 256;   // paquetes USB en espera
+
+    private static final long BACKPRESSURE_NANOS = 50_000;
+
+    private final Input    input;
+    private final Output   output;
+    private final Callback callback;
+
+    // Tantos huecos como búferes: el anillo nunca se llena antes que el pool
+    private final ReceiveBufferPool             pool;
+    private final SpscRing<ByteBuffer>          inbound  = new SpscRing<>(INBOUND_BUFFERS);
+    private final LinkedBlockingQueue<Pending>  outbound = new LinkedBlockingQueue<>();
+
+    // Agrupación de comandos cortos; solo la usa el hilo de escritura
+    private final byte[]    batch;
+    private final Pending[] batched;
+    private long            transfers;
+
+    // Comandos encolados o en curso; flush() espera a que llegue a 0
+    private final Object idleLock = new Object();
+    private int          pendingWrites;
+
+    private final Thread readerThread;
+    private final Thread protocolThread;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    /**
+     * @param packetSize    tamaño de cada lectura (el del endpoint de entrada)
+     * @param outPacketSize máximo de una transferencia agrupada (el del endpoint de salida)
+     */
+    public SerialPipeline(String name, Input input, Output output, Callback callback,
+                          int packetSize, int outPacketSize) {
+        this.input    = input;
+        this.output   = output;
+        this.callback = callback;
+        this.pool     = new ReceiveBufferPool(INBOUND_BUFFERS, packetSize);
+        this.batch    = new byte[outPacketSize];
+        this.batched  = new Pending[outPacketSize];     // cada comando ocupa al menos 1 byte
+        readerThread   = new Thread(this::readLoop,     name + "-reader");
+        protocolThread = new Thread(this::protocolLoop, name + "-protocol");
+        writerThread   = new Thread(this::writerLoop,   name + "-writer");
+        readerThread.setDaemon(true);
+        protocolThread.setDaemon(true);
+        writerThread.setDaemon(true);
+    }
+
+    public void start() {
+        protocolThread.start();
+        writerThread.start();
+        readerThread.start();
+    }
+
+    /**
+     * Para los tres hilos y cierra el puerto, que es lo que desbloquea la
+     * lectura. Lo recibido y lo pendiente de enviar se descarta. Se puede
+     * llamar desde cualquier hilo, también desde el de protocolo.
+     */
+    public void stop() {
+        requestStop();
+        try {
+            input.close();
+        } catch (IOException ignored) {
+            // Ya cerrado (p. ej. por otro puerto de la misma conexión)
+        }
+        join(readerThread);
+        join(protocolThread);
+        join(writerThread);
+        outbound.clear();
+        synchronized (idleLock) {
+            pendingWrites = 0;
+            idleLock.notifyAll();
+        }
+    }
+
+    /**
+     * Marca la parada sin cerrar el puerto ni esperar. Con varios puertos
+     * sobre una misma conexión USB se llama en todos antes del primer
+     * {@link #stop()}: cerrar uno corta la lectura de los demás, y así no lo
+     * notifican como error.
+     */
+    public void requestStop() {
+        running = false;
+        LockSupport.unpark(protocolThread);
+        writerThread.interrupt();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public boolean isProtocolThread() {
+        return Thread.currentThread() == protocolThread;
+    }
+
+    // ── Recepción ─────────────────────────────────────────────────────────────
+
+    private void readLoop() {
+        ByteBuffer buf = null;
+        while (running) {
+            if (buf == null) buf = pool.acquire();
+            if (buf == null) {
+                // Todos los búferes esperan al protocolo: no leer más del puerto
+                LockSupport.unpark(protocolThread);
+                LockSupport.parkNanos(BACKPRESSURE_NANOS);
+                continue;
+            }
+            int n;
+            try {
+                n = input.read(buf.array(), buf.capacity());
+            } catch (IOException e) {
+                if (running) callback.onError(e);
+                return;
+            }
+            if (n <= 0) continue;                      // paquete vacío: el búfer sigue siendo nuestro
+            buf.limit(n);
+            while (!inbound.offer(buf)) {
+                if (!running) return;
+                LockSupport.parkNanos(BACKPRESSURE_NANOS);
+            }
+            buf = null;
+            LockSupport.unpark(protocolThread);
+        }
+    }
+
+    private void protocolLoop() {
+        while (running) {
+            ByteBuffer data = inbound.poll();
+            if (data == null) {
+                // Un unpark anterior deja el permiso: no se pierde el aviso
+                LockSupport.park(this);
+                continue;
+            }
+            try {
+                callback.onData(data);
+            } catch (RuntimeException e) {
+                callback.onError(e);
+            } finally {
+                pool.release(data);
+            }
+        }
+    }
+
+    // ── Envío ─────────────────────────────────────────────────────────────────
+
+    /** Comando en la cola de salida con su aviso de fin, si lo tiene. */
+    private static final class Pending {
+        final byte[]                   data;
+        final CommandSender.Completion done;
+
+        Pending(byte[] data, CommandSender.Completion done) {
+            this.data = data;
+            this.done = done;
+        }
+    }
+
+    /** Encola el comando sin bloquear; lo envía el hilo de escritura, en orden. */
+    @Override
+    public void sendData(byte[] data) {
+        sendData(data, null);
+    }
+
+    /**
+     * Como {@link #sendData(byte[])}; {@code done} se llama en el hilo de
+     * escritura cuando el comando salió por el puerto o se descartó.
+     */
+    @Override
+    public void sendData(byte[] data, CommandSender.Completion done) {
+        if (!running || data == null || data.length == 0) {
+            if (done != null) done.onComplete(new IOException("Puerto serial cerrado"));
+            return;
+        }
+        synchronized (idleLock) {
+            pendingWrites++;
+        }
+        outbound.offer(new Pending(data, done));
+    }
+
+    /**
+     * Espera a que se hayan escrito todos los comandos encolados, p. ej.
+     * antes de cambiar la velocidad del puerto.
+     *
+     * @return false si no terminó en {@code timeoutMs}
+     */
+    public boolean flush(long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (idleLock) {
+            while (pendingWrites > 0) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) return false;
+                idleLock.wait(left);
+            }
+        }
+        return true;
+    }
+
+    /** Transferencias USB de salida hechas (varios comandos agrupados cuentan como una). */
+    public long getWriteTransfers() {
+        synchronized (idleLock) {
+            return transfers;
+        }
+    }
+
+    private void writerLoop() {
+        while (running) {
+            Pending first;
+            try {
+                first = outbound.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            int count = 1;
+            batched[0] = first;
+            try {
+                if (first.data.length >= batch.length || outbound.peek() == null) {
+                    output.write(first.data, first.data.length);
+                } else {
+                    // Solo este hilo retira de la cola: lo que se ve con peek sigue ahí
+                    System.arraycopy(first.data, 0, batch, 0, first.data.length);
+                    int used = first.data.length;
+                    Pending next;
+                    while ((next = outbound.peek()) != null && used + next.data.length <= batch.length) {
+                        outbound.poll();
+                        System.arraycopy(next.data, 0, batch, used, next.data.length);
+                        used += next.data.length;
+                        batched[count++] = next;
+                    }
+                    output.write(batch, used);
+                }
+                writeDone(count, null);
+            } catch (IOException e) {
+                writeDone(count, e);
+                // Lo que quedaba detrás de un comando fallido ya no tiene sentido
+                int dropped = 0;
+                Pending p;
+                while ((p = outbound.poll()) != null) {
+                    if (p.done != null) p.done.onComplete(e);
+                    dropped++;
+                }
+                settle(dropped);
+                if (running) callback.onError(e);
+            }
+        }
+    }
+
+    /** Avisa a los {@code count} comandos de {@link #batched} y los descuenta. */
+    private void writeDone(int count, IOException error) {
+        for (int i = 0; i < count; i++) {
+            if (batched[i].done != null) batched[i].done.onComplete(error);
+            batched[i] = null;
+        }
+        synchronized (idleLock) {
+            if (error == null) transfers++;
+        }
+        settle(count);
+    }
+
+    private void settle(int count) {
+        synchronized (idleLock) {
+            pendingWrites = Math.max(0, pendingWrites - count);
+            if (pendingWrites == 0) idleLock.notifyAll();
+        }
+    }
+
+    private static void join(Thread t) {
+        if (t == Thread.currentThread() || !t.isAlive()) return;
+        try {
+            t.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
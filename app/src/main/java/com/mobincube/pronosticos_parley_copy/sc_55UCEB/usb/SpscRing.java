@@ -0,0 +1,60 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cola circular acotada y sin locks para exactamente un productor y un
+ * consumidor (p. ej. el hilo de lectura USB y el hilo del protocolo).
+ *
+ * Cada lado solo escribe su propio índice: el productor publica el elemento
+ * y después avanza {@code tail}; el consumidor lo recoge, libera el hueco y
+ * avanza {@code head}. Ni {@link #offer} ni {@link #poll} bloquean nunca.
+ */
+public final class SpscRing<T> {
+
+    private final Object[]   slots;
+    private final int        mask;
+    private final AtomicLong head = new AtomicLong();   // siguiente a leer (consumidor)
+    private final AtomicLong tail = new AtomicLong();   // siguiente a escribir (productor)
+
+    /** @param capacity se redondea a la siguiente potencia de 2 */
+    public SpscRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.slots = new Object[size];
+        this.mask  = size - 1;
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /** Solo el productor. @return false si está llena */
+    public boolean offer(T item) {
+        long t = tail.get();
+        if (t - head.get() == slots.length) return false;
+        slots[(int) (t & mask)] = item;
+        tail.lazySet(t + 1);                    // publica el hueco ya escrito
+        return true;
+    }
+
+    /** Solo el consumidor. @return el elemento más antiguo, o null si está vacía */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long h = head.get();
+        if (h == tail.get()) return null;
+        int i = (int) (h & mask);
+        T item = (T) slots[i];
+        slots[i] = null;
+        head.lazySet(h + 1);                    // devuelve el hueco al productor
+        return item;
+    }
+
+    /** Aproximado si se consulta desde un tercer hilo. */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+}
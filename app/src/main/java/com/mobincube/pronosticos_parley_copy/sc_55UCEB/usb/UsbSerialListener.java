@@ -1,12 +1,27 @@
 package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb;
 
+import java.nio.ByteBuffer;
+
 public interface UsbSerialListener {
     void onSerialConnect();
 
     void onSerialConnectError(Exception e);
 
+    /** Siempre en el hilo de protocolo, un paquete detrás de otro. */
     void onSerialRead(byte[] data);
 
+    /**
+     * Variante sin copia: {@code data} es un búfer del pool de recepción,
+     * válido entre {@code position} y {@code limit} solo durante la llamada
+     * (al retornar se reutiliza). Por defecto lo copia y llama a
+     * {@link #onSerialRead(byte[])}.
+     */
+    default void onSerialRead(ByteBuffer data) {
+        byte[] copy = new byte[data.remaining()];
+        data.get(copy);
+        onSerialRead(copy);
+    }
+
     void onSerialIoError(Exception e);
 
     void onSerialDisconnect();
@@ -14,14 +14,16 @@ import android.util.Log;
 import com.hoho.android.usbserial.driver.UsbSerialDriver;
 import com.hoho.android.usbserial.driver.UsbSerialPort;
 import com.hoho.android.usbserial.driver.UsbSerialProber;
-import com.hoho.android.usbserial.util.SerialInputOutputManager;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 
-public class UsbSerialManager implements SerialInputOutputManager.Listener {
+public class UsbSerialManager implements BaudRateNegotiator.Port {
 
     private static final String TAG = "UsbSerialManager";
+    private static final int    WRITE_TIMEOUT_MS = 1000;
+    private static final long   FLUSH_TIMEOUT_MS = 2000;
     private static final String ACTION_USB_PERMISSION = "com.mobincube.keystore.jks_parley_copy.sc_55UCEB.USB_PERMISSION";
 
     private final Context context;
@@ -29,7 +31,9 @@ public class UsbSerialManager implements SerialInputOutputManager.Listener {
     private final UsbSerialListener listener;
 
     private UsbSerialPort usbSerialPort;
-    private SerialInputOutputManager ioManager;
+    private UsbDevice usbDevice;
+    // Lector, hilo de protocolo y cola de envío; existe mientras el puerto está abierto
+    private volatile SerialPipeline pipeline;
 
     private int baudRate = 9600;
     private int dataBits = 8;
@@ -51,6 +55,31 @@ public class UsbSerialManager implements SerialInputOutputManager.Listener {
         this.parity = parity;
     }
 
+    /**
+     * Cambia la velocidad con el puerto abierto (negociación tras el ping).
+     * Espera a que se vacíe la cola de envío: no llamar desde el hilo UI.
+     * Si falla, {@link #getBaudRate()} sigue dando la velocidad anterior.
+     */
+    @Override
+    public void setBaudRate(int baudRate) throws IOException {
+        // Lo encolado debe salir a la velocidad con la que se envió
+        SerialPipeline p = pipeline;
+        try {
+            if (p != null && !p.flush(FLUSH_TIMEOUT_MS))
+                throw new IOException("La cola de envío no se vació a tiempo");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrumpido esperando la cola de envío");
+        }
+        if (usbSerialPort != null)
+            usbSerialPort.setParameters(baudRate, dataBits, stopBits, parity);
+        this.baudRate = baudRate;
+    }
+
+    public int getBaudRate() {
+        return baudRate;
+    }
+
     public void connect() {
         List<UsbSerialDriver> availableDrivers = UsbSerialProber.getDefaultProber().findAllDrivers(usbManager);
         if (availableDrivers.isEmpty()) {
@@ -129,12 +158,13 @@ public class UsbSerialManager implements SerialInputOutputManager.Listener {
         }
 
         try {
+            usbDevice = driver.getDevice();
             usbSerialPort = driver.getPorts().get(0);
             usbSerialPort.open(connection);
             usbSerialPort.setParameters(baudRate, dataBits, stopBits, parity);
 
-            ioManager = new SerialInputOutputManager(usbSerialPort, this);
-            ioManager.start();
+            pipeline = newPipeline("usb-serial", usbSerialPort, pipelineCallback);
+            pipeline.start();
 
             connected = true;
             if (listener != null)
@@ -147,20 +177,53 @@ public class UsbSerialManager implements SerialInputOutputManager.Listener {
         }
     }
 
+    /**
+     * Hilos de lectura, protocolo y escritura de un puerto ya abierto. Una
+     * lectura por paquete del endpoint y sin timeout, como hacía
+     * SerialInputOutputManager, pero sobre búferes reutilizados en lugar de
+     * un byte[] nuevo cada vez; los comandos cortos seguidos se agrupan hasta
+     * un paquete de salida. El pipeline es dueño del puerto: su stop() lo cierra.
+     */
+    static SerialPipeline newPipeline(String name, UsbSerialPort port, SerialPipeline.Callback callback) {
+        return new SerialPipeline(name,
+                new SerialPipeline.Input() {
+                    @Override
+                    public int read(byte[] dst, int length) throws IOException {
+                        return port.read(dst, length, 0);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        port.close();
+                    }
+                },
+                (data, length) -> port.write(data, length, WRITE_TIMEOUT_MS),
+                callback,
+                port.getReadEndpoint().getMaxPacketSize(),
+                port.getWriteEndpoint().getMaxPacketSize());
+    }
+
+    /** Encola el comando y vuelve sin esperar a la transferencia USB. */
+    @Override
     public void sendData(byte[] data) {
-        if (!connected || usbSerialPort == null) {
+        SerialPipeline p = pipeline;
+        if (!connected || p == null) {
             if (listener != null)
                 listener.onSerialIoError(new Exception("Puerto serial no conectado"));
             return;
         }
+        p.sendData(data);
+    }
 
-        try {
-            usbSerialPort.write(data, 1000);
-        } catch (IOException e) {
-            Log.e(TAG, "Error enviando datos", e);
-            if (listener != null)
-                listener.onSerialIoError(e);
+    /** Como {@link #sendData(byte[])}; {@code done} llega en el hilo de escritura. */
+    @Override
+    public void sendData(byte[] data, Completion done) {
+        SerialPipeline p = pipeline;
+        if (!connected || p == null) {
+            done.onComplete(new IOException("Puerto serial no conectado"));
+            return;
         }
+        p.sendData(data, done);
     }
 
     public void sendText(String text) {
@@ -168,19 +231,17 @@ public class UsbSerialManager implements SerialInputOutputManager.Listener {
     }
 
     public void disconnect() {
-        if (ioManager != null) {
-            ioManager.stop();
-            ioManager = null;
-        }
-
-        if (usbSerialPort != null) {
+        if (pipeline != null) {
+            pipeline.stop();                    // cierra también el puerto
+            pipeline = null;
+        } else if (usbSerialPort != null) {
             try {
                 usbSerialPort.close();
             } catch (IOException e) {
                 Log.e(TAG, "Error cerrando puerto", e);
             }
-            usbSerialPort = null;
         }
+        usbSerialPort = null;
 
         connected = false;
         if (listener != null)
@@ -191,6 +252,13 @@ public class UsbSerialManager implements SerialInputOutputManager.Listener {
         return connected;
     }
 
+    /** "VID:PID" del adaptador conectado (hex), o null si no hay ninguno. */
+    public String getDeviceKey() {
+        UsbDevice d = usbDevice;
+        if (d == null) return null;
+        return String.format("%04X:%04X", d.getVendorId(), d.getProductId());
+    }
+
     public void cleanup() {
         try {
             context.unregisterReceiver(usbPermissionReceiver);
@@ -199,16 +267,18 @@ public class UsbSerialManager implements SerialInputOutputManager.Listener {
         disconnect();
     }
 
-    @Override
-    public void onNewData(byte[] data) {
-        if (listener != null)
-            listener.onSerialRead(data);
-    }
+    private final SerialPipeline.Callback pipelineCallback = new SerialPipeline.Callback() {
+        @Override
+        public void onData(ByteBuffer data) {
+            if (listener != null)
+                listener.onSerialRead(data);
+        }
 
-    @Override
-    public void onRunError(Exception e) {
-        Log.e(TAG, "Error en SerialInputOutputManager", e);
-        if (listener != null)
-            listener.onSerialIoError(e);
-    }
+        @Override
+        public void onError(Exception e) {
+            Log.e(TAG, "Error en el hilo serie", e);
+            if (listener != null)
+                listener.onSerialIoError(e);
+        }
+    };
 }
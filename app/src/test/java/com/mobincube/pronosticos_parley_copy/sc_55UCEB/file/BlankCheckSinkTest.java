@@ -0,0 +1,61 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BlankCheckSinkTest {
+
+    private static byte[] erased(int size) {
+        byte[] b = new byte[size];
+        Arrays.fill(b, (byte) 0xFF);
+        return b;
+    }
+
+    @Test
+    public void marksSectorsAcrossUnalignedWrites() {
+        BlankCheckSink sink = new BlankCheckSink(256, 16);
+        byte[] data = erased(256);
+        data[17]  = 0;                                  // sector 1
+        data[31]  = 0;                                  // sector 1 (ya sucio)
+        data[200] = 0x7F;                               // sector 12
+
+        // Fragmentos que cruzan límites de sector
+        sink.write(0, data, 0, 10);
+        sink.write(10, data, 10, 100);
+        sink.write(110, data, 110, 146);
+
+        assertFalse(sink.isBlank());
+        assertEquals(17, sink.getFirstDirtyAddress());
+        assertEquals(2, sink.getDirtySectorCount());
+        assertTrue(sink.getDirtySectors().get(1));
+        assertTrue(sink.getDirtySectors().get(12));
+        assertEquals(16, sink.getSectorCount());
+    }
+
+    @Test
+    public void erasedChipIsBlankAndReadsBackAsFf() {
+        BlankCheckSink sink = new BlankCheckSink(100, 32);   // último sector parcial
+        sink.write(0, erased(100), 0, 100);
+
+        assertTrue(sink.isBlank());
+        assertEquals(-1, sink.getFirstDirtyAddress());
+        assertEquals(4, sink.getSectorCount());
+
+        byte[] back = new byte[100];
+        sink.read(0, back, 0, 100);
+        assertArrayEquals(erased(100), back);
+        assertNull(sink.array());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void dirtySectorHasNoData() {
+        BlankCheckSink sink = new BlankCheckSink(64, 32);
+        byte[] data = erased(64);
+        data[40] = 1;
+        sink.write(0, data, 0, 64);
+        sink.read(32, new byte[1], 0, 1);
+    }
+}
@@ -0,0 +1,98 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class DumpDigestTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static byte[] random(long seed, int size) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void incrementalMatchesWholeBuffer() throws Exception {
+        byte[] data = random(1, 3 * DumpDigest.BLOCK_SIZE + 123);
+        DumpDigest.Builder b = new DumpDigest.Builder();
+        Random rnd = new Random(2);
+        for (int off = 0; off < data.length; ) {
+            int n = Math.min(1 + rnd.nextInt(5000), data.length - off);
+            b.update(data, off, n);
+            off += n;
+        }
+        DumpDigest d = b.finish();
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        assertEquals(crc.getValue(), d.getCrc32());
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(data), d.getSha256());
+        assertEquals(4, d.getBlockCount());
+        CRC32 last = new CRC32();
+        last.update(data, 3 * DumpDigest.BLOCK_SIZE, 123);
+        assertEquals((int) last.getValue(), d.getBlockCrc(3));
+        assertTrue(DumpDigest.of(data).matches(d));
+    }
+
+    @Test
+    public void changedBlocksPointsAtTheDifferences() {
+        byte[] a = random(3, 4 * DumpDigest.BLOCK_SIZE);
+        byte[] b = a.clone();
+        b[DumpDigest.BLOCK_SIZE + 10] ^= 1;
+        b[3 * DumpDigest.BLOCK_SIZE] ^= 1;
+
+        BitSet changed = DumpDigest.of(a).changedBlocks(DumpDigest.of(b));
+        assertEquals("{1, 3}", changed.toString());
+        assertTrue(DumpDigest.of(a).changedBlocks(DumpDigest.of(a)).isEmpty());
+
+        byte[] shorter = Arrays.copyOf(a, 2 * DumpDigest.BLOCK_SIZE + 5);
+        assertEquals("{2, 3}", DumpDigest.of(a).changedBlocks(DumpDigest.of(shorter)).toString());
+    }
+
+    @Test
+    public void sidecarRoundTrip() throws Exception {
+        byte[] data = random(4, DumpDigest.BLOCK_SIZE + 1);
+        DumpDigest d = DumpDigest.of(data);
+        File dump = new File(tmp.getRoot(), "eeprom_dump_1.bin");
+        File side = DumpDigest.sidecarFor(dump);
+        assertEquals("eeprom_dump_1.digest", side.getName());
+
+        d.writeSidecar(side);
+        DumpDigest back = DumpDigest.readSidecar(side);
+        assertTrue(d.matches(back));
+        assertEquals(d.getCrc32(), back.getCrc32());
+        assertTrue(d.changedBlocks(back).isEmpty());
+        assertEquals(1, tmp.getRoot().list().length);
+    }
+
+    @Test
+    public void sinkHashesOutOfOrderAndResumedWrites() {
+        byte[] data = random(5, 10000);
+        DigestingDumpSink sink = new DigestingDumpSink(new ArrayDumpSink(data.length));
+
+        sink.write(0, data, 0, 1000);
+        sink.write(3000, data, 3000, 7000);            // fuera de orden
+        sink.write(1000, data, 1000, 2000);            // rellena el hueco
+        assertTrue(DumpDigest.of(data).matches(sink.finish()));
+
+        // Reanudación: el destino ya trae datos que no pasaron por write()
+        ArrayDumpSink partial = new ArrayDumpSink(data.length);
+        partial.write(0, data, 0, 4096);
+        DigestingDumpSink resumed = DigestingDumpSink.wrap(partial);
+        resumed.write(4096, data, 4096, data.length - 4096);
+        assertTrue(DumpDigest.of(data).matches(resumed.finish()));
+    }
+}
@@ -0,0 +1,119 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class DumpExporterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final ExecutorService writers  = Executors.newCachedThreadPool();
+    private final ExecutorService encoders = Executors.newFixedThreadPool(2);
+
+    @After
+    public void shutdown() {
+        writers.shutdownNow();
+        encoders.shutdownNow();
+    }
+
+    /** Escribe la mitad de la imagen y falla. */
+    private static final ImageFormat BROKEN = new ImageFormat() {
+        @Override public String getName()      { return "Roto"; }
+        @Override public String getExtension() { return "broken"; }
+        @Override public boolean accepts(String fileName, byte[] head) { return false; }
+        @Override public SparseImage read(InputStream in, int limit) { return null; }
+
+        @Override
+        public void write(SparseImage image, OutputStream out) throws IOException {
+            out.write(new byte[1024]);
+            throw new IOException("disco lleno");
+        }
+    };
+
+    @Test
+    public void exportsEveryFormatAndLeavesNoTemps() throws Exception {
+        byte[] dump = new byte[3 * 65536 + 5];
+        new Random(16).nextBytes(dump);
+        File dir = tmp.newFolder();
+        DumpExporter exporter = new DumpExporter(writers, encoders);
+
+        List<File> files = exporter.export(dir, "eeprom_dump_1", SparseImage.dense(dump),
+                Arrays.asList(ImageFormats.RAW, ImageFormats.INTEL_HEX, ImageFormats.S_RECORD));
+
+        assertEquals(3, files.size());
+        assertEquals("eeprom_dump_1.bin", files.get(0).getName());
+        assertArrayEquals(dump, Files.readAllBytes(files.get(0).toPath()));
+        assertArrayEquals(IntelHexFormat.generateIntelHex(dump).getBytes("US-ASCII"),
+                Files.readAllBytes(files.get(1).toPath()));
+        try (InputStream in = new FileInputStream(files.get(2))) {
+            assertArrayEquals(dump, SRecordFormat.readSRecord(in, dump.length).toArray(dump.length));
+        }
+        assertEquals(3, dir.list().length);
+    }
+
+    @Test
+    public void failedFormatLeavesNothingBehind() throws Exception {
+        File dir = tmp.newFolder();
+        DumpExporter exporter = new DumpExporter(writers, encoders);
+
+        try {
+            exporter.export(dir, "eeprom_dump_2", SparseImage.dense(new byte[100000]),
+                    Arrays.asList(ImageFormats.RAW, BROKEN, ImageFormats.INTEL_HEX));
+            fail("Debía fallar");
+        } catch (IOException e) {
+            assertEquals("disco lleno", e.getMessage());
+        }
+        assertEquals(0, dir.list().length);
+    }
+
+    @Test
+    public void failedRenameRemovesFormatsAlreadyRenamed() throws Exception {
+        File dir = tmp.newFolder();
+        // Un directorio no vacío con el nombre final del .hex hace fallar su renombrado
+        File blocker = new File(dir, "eeprom_dump_4.hex");
+        assertTrue(blocker.mkdir());
+        assertTrue(new File(blocker, "x").createNewFile());
+        DumpExporter exporter = new DumpExporter(writers, encoders);
+
+        try {
+            exporter.export(dir, "eeprom_dump_4", SparseImage.dense(new byte[100000]),
+                    Arrays.asList(ImageFormats.RAW, ImageFormats.INTEL_HEX));
+            fail("Debía fallar");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("ya renombrados"));
+        }
+        assertArrayEquals(new String[]{"eeprom_dump_4.hex"}, dir.list());
+    }
+
+    @Test
+    public void staleTempsAreDeleted() throws Exception {
+        File dir = tmp.newFolder();
+        assertTrue(new File(dir, ".eeprom_dump_3.hex.tmp").createNewFile());
+        assertTrue(new File(dir, "eeprom_dump_3.bin").createNewFile());
+        assertTrue(new File(dir, ".otro.tmp").createNewFile());
+
+        DumpExporter.deleteStaleTemps(dir, "eeprom_dump_");
+
+        List<String> left = Arrays.asList(dir.list());
+        assertEquals(2, left.size());
+        assertTrue(left.contains("eeprom_dump_3.bin"));
+        assertTrue(left.contains(".otro.tmp"));
+    }
+}
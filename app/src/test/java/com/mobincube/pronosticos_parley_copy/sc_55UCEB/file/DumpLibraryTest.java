@@ -0,0 +1,121 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DumpLibraryTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static byte[] random(long seed, int size) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void identicalDumpIsStoredOnce() throws Exception {
+        File dir = tmp.newFolder();
+        DumpLibrary library = new DumpLibrary(dir);
+        byte[] dump = random(1, 10 * DumpLibrary.BLOCK_SIZE + 100);
+
+        DumpLibrary.Entry first = library.add(dump, "24C512", null);
+        long packSize = new File(dir, "blocks.pack").length();
+        DumpLibrary.Entry again = library.add(dump.clone(), "24C512", null);
+
+        assertSame(first, again);
+        assertEquals(1, library.size());
+        assertEquals(11, library.getBlockCount());
+        assertEquals(packSize, new File(dir, "blocks.pack").length());
+        assertArrayEquals(dump, library.read(first));
+    }
+
+    @Test
+    public void sharedBlocksAreDeduplicatedAcrossDumps() throws Exception {
+        DumpLibrary library = new DumpLibrary(tmp.newFolder());
+        byte[] a = random(2, 8 * DumpLibrary.BLOCK_SIZE);
+        byte[] b = a.clone();
+        b[3 * DumpLibrary.BLOCK_SIZE + 7] ^= 1;            // cambia un solo bloque
+        byte[] erased = new byte[4 * DumpLibrary.BLOCK_SIZE];
+        Arrays.fill(erased, (byte) 0xFF);        // bloques iguales dentro del volcado
+
+        DumpLibrary.Entry ea = library.add(a, "W25Q80", new byte[]{ (byte) 0xEF, 0x40, 0x14 });
+        DumpLibrary.Entry eb = library.add(b, "W25Q80", null);
+        DumpLibrary.Entry ee = library.add(erased, "", null);
+
+        assertEquals(3, library.size());
+        assertEquals(8 + 1 + 1, library.getBlockCount());
+        assertArrayEquals(a, library.read(ea));
+        assertArrayEquals(b, library.read(eb));
+        assertArrayEquals(erased, library.read(ee));
+    }
+
+    @Test
+    public void indexSurvivesReopenAndFindsByContent() throws Exception {
+        File dir = tmp.newFolder();
+        byte[] dump = random(3, 5000);
+        DumpLibrary.Entry added = new DumpLibrary(dir).add(dump, "25LC640", new byte[]{ 0x20, 0x20, 0x17 });
+
+        DumpLibrary reopened = new DumpLibrary(dir);
+        DumpLibrary.Entry found = reopened.find(dump);
+        assertNotNull(found);
+        assertEquals(added.getHash(), found.getHash());
+        assertEquals(DumpLibrary.sha256Hex(dump, 0, dump.length), found.getHash());
+        assertEquals("25LC640", found.getChip());
+        assertEquals(5000, found.getSize());
+        assertEquals(added.getTimestamp(), found.getTimestamp());
+        assertArrayEquals(new byte[]{ 0x20, 0x20, 0x17 }, found.getJedecId());
+        assertNull(reopened.find(random(4, 5000)));
+        assertArrayEquals(dump, reopened.read(found));
+    }
+
+    @Test
+    public void addFromFileMatchesArray() throws Exception {
+        File dir = tmp.newFolder();
+        byte[] dump = random(5, 3 * DumpLibrary.BLOCK_SIZE + 1);
+        File bin = tmp.newFile("dump.bin");
+        try (FileOutputStream out = new FileOutputStream(bin)) {
+            out.write(dump);
+        }
+        DumpLibrary library = new DumpLibrary(dir);
+        DumpLibrary.Entry fromFile = library.add(bin, "W25Q16", null);
+        assertSame(fromFile, library.add(dump, "W25Q16", null));
+        assertSame(fromFile, library.find(dump));
+    }
+
+    @Test
+    public void truncatedTailsAreDiscarded() throws Exception {
+        File dir = tmp.newFolder();
+        byte[] dump = random(6, 2 * DumpLibrary.BLOCK_SIZE);
+        new DumpLibrary(dir).add(dump, "24C256", null);
+
+        // Alta interrumpida: medio bloque en el pack y medio registro en el índice
+        try (RandomAccessFile pack = new RandomAccessFile(new File(dir, "blocks.pack"), "rw")) {
+            pack.seek(pack.length());
+            pack.write(new byte[50]);
+        }
+        try (RandomAccessFile index = new RandomAccessFile(new File(dir, "index.dat"), "rw")) {
+            index.seek(index.length());
+            index.writeInt(200);
+            index.write(new byte[10]);
+        }
+
+        DumpLibrary reopened = new DumpLibrary(dir);
+        assertEquals(1, reopened.size());
+        assertEquals(2, reopened.getBlockCount());
+        byte[] other = random(7, 1000);
+        DumpLibrary.Entry e = reopened.add(other, "24C256", null);
+        assertEquals(2, new DumpLibrary(dir).size());
+        assertArrayEquals(other, new DumpLibrary(dir).read(e));
+    }
+}
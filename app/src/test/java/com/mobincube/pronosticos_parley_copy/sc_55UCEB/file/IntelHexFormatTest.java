@@ -0,0 +1,295 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.exception.HexParseException;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class IntelHexFormatTest {
+
+    /** Parser anterior (String + split + parseInt), como referencia. */
+    private static byte[] legacyParse(byte[] fileData, int targetSize) throws HexParseException {
+        String[] lines = new String(fileData, StandardCharsets.UTF_8).split("\\r?\\n");
+        byte[] buffer = new byte[targetSize];
+        Arrays.fill(buffer, (byte) 0xFF);
+        int ela = 0, esa = 0, highest = 0;
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            if (!line.startsWith(":") || line.length() < 11) throw new HexParseException(line);
+            try {
+                int len  = Integer.parseInt(line.substring(1, 3), 16);
+                int addr = Integer.parseInt(line.substring(3, 7), 16);
+                int type = Integer.parseInt(line.substring(7, 9), 16);
+                for (int i = 1; i < line.length() - 1; i += 2) Integer.parseInt(line.substring(i, i + 2), 16);
+                if (type == 0x00) {
+                    int fin = (ela << 16) + (esa << 4) + addr;
+                    for (int i = 0; i < len; i++) {
+                        int b = Integer.parseInt(line.substring(9 + i * 2, 11 + i * 2), 16);
+                        if (fin + i < targetSize) {
+                            buffer[fin + i] = (byte) b;
+                            if (fin + i > highest) highest = fin + i;
+                        }
+                    }
+                } else if (type == 0x01) {
+                    break;
+                } else if (type == 0x02) {
+                    esa = Integer.parseInt(line.substring(9, 13), 16);
+                } else if (type == 0x04) {
+                    ela = Integer.parseInt(line.substring(9, 13), 16);
+                }
+            } catch (Exception e) {
+                throw new HexParseException(line, e);
+            }
+        }
+        int actual = highest + 1;
+        if (actual % 16 != 0) actual = ((actual / 16) + 1) * 16;
+        return Arrays.copyOf(buffer, actual);
+    }
+
+    /** Generador anterior (String.format por byte), como referencia. */
+    private static String legacyGenerate(byte[] data) {
+        StringBuilder sb = new StringBuilder();
+        for (int address = 0; address < data.length; address += 16) {
+            int len = Math.min(16, data.length - address);
+            if ((address % 65536) == 0 && address > 0) {
+                String ext = String.format("02000004%04X", address >> 16);
+                sb.append(":").append(ext).append(String.format("%02X", legacyChecksum(ext))).append("\n");
+            }
+            StringBuilder rec = new StringBuilder(String.format("%02X%04X%02X", len, address & 0xFFFF, 0));
+            for (int i = 0; i < len; i++) rec.append(String.format("%02X", data[address + i]));
+            sb.append(":").append(rec).append(String.format("%02X", legacyChecksum(rec.toString()))).append("\n");
+        }
+        return sb.append(":00000001FF\n").toString();
+    }
+
+    private static int legacyChecksum(String rec) {
+        int sum = 0;
+        for (int i = 0; i < rec.length(); i += 2) sum += Integer.parseInt(rec.substring(i, i + 2), 16);
+        return (256 - (sum & 0xFF)) & 0xFF;
+    }
+
+    /** Entrega el contenido en trozos de 1..7 bytes. */
+    private static class TrickleStream extends InputStream {
+        private final byte[] data;
+        private final Random rnd;
+        private int pos;
+
+        TrickleStream(byte[] data, long seed) {
+            this.data = data;
+            this.rnd  = new Random(seed);
+        }
+
+        @Override public int read() {
+            return pos < data.length ? data[pos++] & 0xFF : -1;
+        }
+
+        @Override public int read(byte[] b, int off, int len) {
+            if (pos >= data.length) return -1;
+            int n = Math.min(Math.min(len, 1 + rnd.nextInt(7)), data.length - pos);
+            System.arraycopy(data, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+
+    private static byte[] randomImage(Random rnd, int size) {
+        byte[] data = new byte[size];
+        rnd.nextBytes(data);
+        // Huecos sin programar
+        for (int i = 0; i < size; i += 512) {
+            if (rnd.nextBoolean()) Arrays.fill(data, i, Math.min(size, i + 256), (byte) 0xFF);
+        }
+        return data;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void matchesLegacyParserOnGeneratedImages() throws Exception {
+        Random rnd = new Random(11);
+        int[] sizes = { 1, 15, 16, 100, 4096, 65536 + 40, 3 * 65536 + 7 };
+        for (int size : sizes) {
+            byte[] image = randomImage(rnd, size);
+            byte[] hex   = ascii(IntelHexFormat.generateIntelHex(image));
+            int target   = size + 64;
+
+            byte[] expected = legacyParse(hex, target);
+            assertArrayEquals("array " + size, expected, IntelHexFormat.parseIntelHex(hex, target));
+            assertArrayEquals("stream " + size, expected,
+                    IntelHexFormat.parseIntelHex(new TrickleStream(hex, size), target));
+            ByteBuffer direct = ByteBuffer.allocateDirect(hex.length);
+            direct.put(hex).flip();
+            assertArrayEquals("direct " + size, expected, IntelHexFormat.parseIntelHex(direct, target));
+            // Destino más pequeño que la imagen: se recorta igual que antes
+            int half = (size / 32 + 1) * 16;
+            assertArrayEquals("recorte " + size, legacyParse(hex, half),
+                    IntelHexFormat.parseIntelHex(hex, half));
+        }
+    }
+
+    @Test
+    public void handlesCrLfBlankLinesSegmentsAndLowercase() throws Exception {
+        String hex = "\r\n"
+                + "  :0400100001020304E2\r\n"
+                + "\r\n"
+                + ":020000021000EC\r\n"            // segmento 0x1000 → base 0x10000
+                + ":02000000aabb99\r\n"
+                + ":020000020000FC\r\n"
+                + ":0200000000000000\r\n"            // checksum malo: solo aviso
+                + ":00000001FF\r\n"
+                + "esto ya no se lee\r\n";
+        byte[] data = ascii(hex);
+        byte[] expected = legacyParse(data, 0x20000);
+        byte[] parsed   = IntelHexFormat.parseIntelHex(data, 0x20000);
+
+        assertArrayEquals(expected, parsed);
+        assertEquals(0x10010, parsed.length);
+        assertEquals(0x01, parsed[0x10]);
+        assertEquals((byte) 0xAA, parsed[0x10000]);
+        assertEquals(0x00, parsed[0x00]);
+        assertArrayEquals(expected,
+                IntelHexFormat.parseIntelHex(new TrickleStream(data, 1), 0x20000));
+    }
+
+    @Test
+    public void rejectsMalformedLines() {
+        String[] bad = {
+                "0400100001020304E2\n",             // sin ':'
+                ":0400\n",                           // muy corta
+                ":04001000010G0304E2\n",             // dígito no hex
+                ":10001000010203\n",                 // menos datos de los declarados
+                ":0400100001020304E\n",              // dígitos impares
+        };
+        for (String line : bad) {
+            try {
+                IntelHexFormat.parseIntelHex(ascii(line), 256);
+                fail("Aceptada: " + line.trim());
+            } catch (HexParseException expected) {
+                // ok
+            }
+        }
+    }
+
+    @Test
+    public void generatorMatchesLegacyOutput() throws Exception {
+        Random rnd = new Random(12);
+        int[] sizes = { 0, 1, 16, 17, 65536, 65536 + 16, 2 * 65536 + 3 };
+        for (int size : sizes) {
+            byte[] image = randomImage(rnd, size);
+            byte[] expected = ascii(legacyGenerate(image));
+
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            IntelHexFormat.writeIntelHex(image, stream);
+            assertArrayEquals("stream " + size, expected, stream.toByteArray());
+
+            ByteArrayOutputStream viaChannel = new ByteArrayOutputStream();
+            IntelHexFormat.writeIntelHex(image, Channels.newChannel(viaChannel));
+            assertArrayEquals("channel " + size, expected, viaChannel.toByteArray());
+
+            assertArrayEquals("string " + size, expected, ascii(IntelHexFormat.generateIntelHex(image)));
+        }
+    }
+
+    @Test
+    public void generatedHexRoundTrips() throws Exception {
+        byte[] image = randomImage(new Random(13), 3 * 65536);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IntelHexFormat.writeIntelHex(image, out);
+
+        byte[] parsed = IntelHexFormat.parseIntelHex(
+                new ByteArrayInputStream(out.toByteArray()), image.length);
+        assertArrayEquals(image, parsed);
+    }
+
+    @Test
+    public void sparseReadKeepsOnlyDefinedRanges() throws Exception {
+        String hex = ":020000040000FA\n"
+                + ":0400000001020304F2\n"             // bootloader en 0x0000
+                + ":04F0000005060708F2\n"             // configuración en 0xF000
+                + ":020000040001F9\n"
+                + ":0200000009AA4B\n"                 // 0x10000
+                + ":00000001FF\n";
+        SparseImage image = IntelHexFormat.readSparse(
+                new ByteArrayInputStream(ascii(hex)), 0x20000);
+
+        assertEquals(3, image.getSegmentCount());
+        assertEquals(0xF000, image.getSegmentAddress(1));
+        assertEquals(4, image.getSegmentLength(1));
+        assertEquals(0x10000, image.getSegmentAddress(2));
+        assertEquals(0x10002, image.getEnd());
+        assertEquals(10, image.getPopulatedBytes());
+
+        // Escribir solo los segmentos y volver a leer da la misma imagen
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IntelHexFormat.writeIntelHex(image, out);
+        String written = new String(out.toByteArray(), StandardCharsets.US_ASCII);
+        assertEquals(5, written.split("\n").length);  // 3 de datos + Type 04 + EOF
+        SparseImage back = IntelHexFormat.readSparse(new ByteArrayInputStream(out.toByteArray()), 0x20000);
+        assertArrayEquals(image.toArray(0x10002), back.toArray(0x10002));
+    }
+
+    @Test
+    public void parallelWriterMatchesSequential() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            Random rnd = new Random(15);
+            SparseImage sparse = new SparseImage();
+            byte[] chunk = new byte[70000];
+            rnd.nextBytes(chunk);
+            sparse.put(0xFFF8, chunk, 0, 40);              // cruza el primer límite de 64KB
+            sparse.put(0x30000, chunk, 0, chunk.length);   // ocupa dos bloques
+            sparse.put(0x80005, chunk, 0, 3);              // bloques vacíos en medio
+
+            SparseImage[] images = {
+                    SparseImage.dense(new byte[0]),
+                    SparseImage.dense(randomImage(rnd, 100)),
+                    SparseImage.dense(randomImage(rnd, 20 * 65536 + 9)),   // > ventana de bloques
+                    sparse,
+            };
+            for (SparseImage image : images) {
+                ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+                IntelHexFormat.writeIntelHex(image, sequential);
+                ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+                IntelHexFormat.writeIntelHex(image, parallel, pool);
+                assertArrayEquals(sequential.toByteArray(), parallel.toByteArray());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Imagen de 1 MB: mismo resultado que el parser anterior también a tamaño real. */
+    @Test
+    public void matchesLegacyParserOnLargeImage() throws Exception {
+        byte[] image = randomImage(new Random(5), 1 << 20);
+        byte[] hex   = ascii(IntelHexFormat.generateIntelHex(image));
+
+        assertArrayEquals(legacyParse(hex, image.length),
+                IntelHexFormat.parseIntelHex(new ByteArrayInputStream(hex), image.length));
+    }
+
+    /** Igual que el anterior, para el generador. */
+    @Test
+    public void matchesLegacyGeneratorOnLargeImage() throws Exception {
+        byte[] image = randomImage(new Random(6), 1 << 20);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(3 << 20);
+        IntelHexFormat.writeIntelHex(image, out);
+        assertArrayEquals(ascii(legacyGenerate(image)), out.toByteArray());
+    }
+}
@@ -0,0 +1,101 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MappedDumpSinkTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void incompleteDumpNeverAppearsUnderItsFinalName() throws Exception {
+        File dir  = tmp.newFolder();
+        File file = new File(dir, "eeprom_dump_1.bin");
+        MappedDumpSink sink = new MappedDumpSink(file, 4096);
+        sink.write(0, new byte[1024], 0, 1024);
+        sink.commit(1024);
+        sink.close();
+
+        assertFalse(file.exists());
+        assertTrue(new File(dir, ".eeprom_dump_1.bin.part").exists());
+        assertTrue(new File(dir, ".eeprom_dump_1.bin.part.progress").exists());
+    }
+
+    @Test
+    public void completeDumpIsRenamedAndLeavesNoSidecars() throws Exception {
+        byte[] data = new byte[4096];
+        new Random(4).nextBytes(data);
+        File dir  = tmp.newFolder();
+        File file = new File(dir, "eeprom_dump_1.bin");
+        MappedDumpSink sink = new MappedDumpSink(file, data.length);
+        sink.write(0, data, 0, data.length);
+        sink.commit(data.length);
+        sink.close();
+
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+        assertArrayEquals(new String[]{"eeprom_dump_1.bin"}, dir.list());
+    }
+
+    @Test
+    public void recoversCommittedPrefixAndOrigin() throws Exception {
+        byte[] data = new byte[8192];
+        new Random(5).nextBytes(data);
+        File dir  = tmp.newFolder();
+        File file = new File(dir, "eeprom_dump_1.bin");
+        MappedDumpSink sink = new MappedDumpSink(file, data.length);
+        sink.setOrigin((byte) 'P', 7);
+        sink.write(0, data, 0, 5000);
+        sink.commit(4096);
+        sink.close();   // como si la app muriera aquí
+
+        List<MappedDumpSink> found = MappedDumpSink.recover(dir);
+        assertEquals(1, found.size());
+        MappedDumpSink back = found.get(0);
+        assertEquals(file, back.getFile());
+        assertEquals(data.length, back.size());
+        assertEquals(4096, back.getWatermark());
+        assertEquals('P', back.getCommandPrefix());
+        assertEquals(7, back.getModelIndex());
+
+        byte[] prefix = new byte[4096];
+        back.read(0, prefix, 0, prefix.length);
+        assertArrayEquals(Arrays.copyOf(data, 4096), prefix);
+
+        back.write(4096, data, 4096, data.length - 4096);
+        back.commit(data.length);
+        back.close();
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+        assertArrayEquals(new String[]{"eeprom_dump_1.bin"}, dir.list());
+    }
+
+    @Test
+    public void recoverDeletesUnusablePairs() throws Exception {
+        File dir = tmp.newFolder();
+
+        // Sin origen: no se sabría con qué chip comprobarlo
+        MappedDumpSink noOrigin = new MappedDumpSink(new File(dir, "eeprom_dump_1.bin"), 4096);
+        noOrigin.commit(1024);
+        noOrigin.close();
+
+        // Nada confirmado
+        MappedDumpSink empty = new MappedDumpSink(new File(dir, "eeprom_dump_2.bin"), 4096);
+        empty.setOrigin((byte) 'I', 0);
+        empty.close();
+
+        // Marcador huérfano
+        assertTrue(new File(dir, ".eeprom_dump_3.bin.part.progress").createNewFile());
+
+        assertTrue(MappedDumpSink.recover(dir).isEmpty());
+        assertEquals(0, dir.list().length);
+    }
+}
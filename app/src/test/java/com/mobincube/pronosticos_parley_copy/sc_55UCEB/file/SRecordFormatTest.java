@@ -0,0 +1,121 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.exception.HexParseException;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SRecordFormatTest {
+
+    private static final String HELLO =
+            "S00F000068656C6C6F202020202000003C\n"
+            + "S11F00007C0802A6900100049421FFF07C6C1B787C8C23783C6000003863000026\n"
+            + "S11F001C4BFFFFE5398000007D83637880010014382100107C0803A64E800020E9\n"
+            + "S111003848656C6C6F20776F726C642E0A0042\n"
+            + "S5030003F9\n"
+            + "S9030000FC\n";
+
+    private static SparseImage read(String text, int limit) throws Exception {
+        return SRecordFormat.readSRecord(
+                new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII)), limit);
+    }
+
+    private static String write(SparseImage image) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SRecordFormat.writeSRecord(image, out);
+        return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void parsesS19Example() throws Exception {
+        SparseImage image = read(HELLO.replace("\n", "\r\n"), 1024);
+
+        assertEquals(1, image.getSegmentCount());
+        assertEquals(0x46, image.getEnd());
+        byte[] flat = image.toArray(image.getEnd());
+        assertEquals(0x7C, flat[0] & 0xFF);
+        assertEquals("Hello world.\n",
+                new String(flat, 0x38, 13, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void countsBadChecksumsWithoutRejectingData() throws Exception {
+        assertEquals(0, read(HELLO, 1024).getChecksumWarnings());
+
+        String bad = HELLO.replace("0A0042\n", "0A0043\n").replace("S5030003F9", "S5030003F8");
+        SparseImage image = read(bad, 1024);
+
+        assertEquals(2, image.getChecksumWarnings());
+        assertEquals(4, image.getFirstChecksumWarningLine());
+        assertArrayEquals(read(HELLO, 1024).toArray(0x46), image.toArray(0x46));
+    }
+
+    @Test
+    public void roundTripsSparseImagesAtEveryAddressWidth() throws Exception {
+        Random rnd = new Random(13);
+        int[][] layouts = {
+                { 0x0000, 100, 0xF000, 40 },           // S19
+                { 0x1000, 16, 0x2FFF0, 300 },          // S28
+                { 0x10, 1, 0x1000000, 33 },            // S37
+        };
+        String[] expectedType = { "S1", "S2", "S3" };
+        for (int i = 0; i < layouts.length; i++) {
+            SparseImage image = new SparseImage();
+            for (int k = 0; k < layouts[i].length; k += 2) {
+                byte[] data = new byte[layouts[i][k + 1]];
+                rnd.nextBytes(data);
+                image.put(layouts[i][k], data, 0, data.length);
+            }
+            String text = write(image);
+            assertTrue(text.startsWith("S0"));
+            assertTrue(text.contains("\n" + expectedType[i]));
+            assertTrue(text.contains("\nS" + (10 - (i + 1))));
+
+            SparseImage back = read(text, Integer.MAX_VALUE);
+            assertEquals(image.getSegmentCount(), back.getSegmentCount());
+            assertArrayEquals(image.toArray(image.getEnd()), back.toArray(back.getEnd()));
+        }
+    }
+
+    @Test
+    public void dropsDataBeyondLimitAndStopsAtTermination() throws Exception {
+        SparseImage image = read(HELLO + "esto ya no se lee\n", 0x40);
+        assertEquals(0x40, image.getEnd());
+    }
+
+    @Test
+    public void rejectsMalformedLines() {
+        String[] bad = {
+                ":00000001FF\n",                       // Intel HEX
+                "S1\n",                                // muy corta
+                "S11F00007C0802A6900100049421FFF07C\n", // cuenta mayor que la línea
+                "SX030000FC\n",                        // tipo inválido
+        };
+        for (String text : bad) {
+            try {
+                read(text, 1024);
+                fail("Aceptada: " + text.trim());
+            } catch (HexParseException expected) {
+                // ok
+            } catch (Exception other) {
+                fail(other.toString());
+            }
+        }
+    }
+
+    @Test
+    public void detectsFormatByNameOrContent() {
+        byte[] none = new byte[0];
+        assertSame(ImageFormats.S_RECORD, ImageFormats.detect("boot.s19", none));
+        assertSame(ImageFormats.S_RECORD, ImageFormats.detect("Archivo", "S00F".getBytes()));
+        assertSame(ImageFormats.INTEL_HEX, ImageFormats.detect("fw.HEX", none));
+        assertSame(ImageFormats.INTEL_HEX, ImageFormats.detect("Archivo", ":10".getBytes()));
+        assertSame(ImageFormats.RAW, ImageFormats.detect("dump.bin", new byte[] { 0, 1 }));
+    }
+}
@@ -0,0 +1,105 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SparseImageTest {
+
+    private static byte[] fill(int length, int value) {
+        byte[] b = new byte[length];
+        Arrays.fill(b, (byte) value);
+        return b;
+    }
+
+    @Test
+    public void consecutiveRecordsFormOneSegment() {
+        SparseImage image = new SparseImage();
+        for (int a = 0x100; a < 0x500; a += 16) image.put(a, fill(16, a >> 4), 0, 16);
+        image.put(0xF000, fill(32, 0x42), 0, 32);
+
+        assertEquals(2, image.getSegmentCount());
+        assertEquals(0x100, image.getSegmentAddress(0));
+        assertEquals(0x400, image.getSegmentLength(0));
+        assertEquals(0xF000, image.getSegmentAddress(1));
+        assertEquals(0xF020, image.getEnd());
+        assertEquals(0x420, image.getPopulatedBytes());
+        assertFalse(image.isDense());
+    }
+
+    @Test
+    public void outOfOrderAndOverlappingPutsMerge() {
+        SparseImage image = new SparseImage();
+        image.put(100, fill(10, 1), 0, 10);            // [100,110)
+        image.put(0, fill(10, 2), 0, 10);              // [0,10)   hueco antes
+        image.put(50, fill(10, 3), 0, 10);             // [50,60)  hueco en medio
+        assertEquals(3, image.getSegmentCount());
+
+        image.put(5, fill(50, 4), 0, 50);              // [5,55): une los dos primeros
+        assertEquals(2, image.getSegmentCount());
+        assertEquals(0, image.getSegmentAddress(0));
+        assertEquals(60, image.getSegmentLength(0));
+
+        image.put(60, fill(40, 5), 0, 40);             // [60,100): toca ambos lados
+        assertEquals(1, image.getSegmentCount());
+        assertTrue(image.isDense());
+
+        byte[] flat = image.toArray(120);
+        assertEquals(2, flat[4]);
+        assertEquals(4, flat[5]);                      // los datos nuevos pisan
+        assertEquals(4, flat[54]);
+        assertEquals(3, flat[55]);
+        assertEquals(5, flat[99]);
+        assertEquals(1, flat[109]);
+        assertEquals((byte) 0xFF, flat[110]);
+    }
+
+    @Test
+    public void matchesFlatModelOnRandomPuts() {
+        Random rnd = new Random(14);
+        for (int round = 0; round < 50; round++) {
+            SparseImage image = new SparseImage();
+            byte[] flat    = fill(4096, 0xFF);
+            BitSet defined = new BitSet();
+            for (int i = 0; i < 30; i++) {
+                int addr = rnd.nextInt(4000);
+                byte[] data = new byte[1 + rnd.nextInt(96)];
+                rnd.nextBytes(data);
+                int len = Math.min(data.length, 4096 - addr);
+                image.put(addr, data, 0, len);
+                System.arraycopy(data, 0, flat, addr, len);
+                defined.set(addr, addr + len);
+            }
+            assertArrayEquals(flat, image.toArray(4096));
+            for (int w = 0; w < 10; w++) {
+                int from = rnd.nextInt(4096);
+                int len  = rnd.nextInt(4096 - from + 1);
+                byte[] window = new byte[len + 2];
+                image.read(from, window, 1, len);
+                assertArrayEquals(Arrays.copyOfRange(flat, from, from + len),
+                        Arrays.copyOfRange(window, 1, len + 1));
+            }
+            assertEquals(defined.cardinality(), image.getPopulatedBytes());
+            for (int s = 1; s < image.getSegmentCount(); s++) {
+                int prevEnd = image.getSegmentAddress(s - 1) + image.getSegmentLength(s - 1);
+                assertTrue(image.getSegmentAddress(s) > prevEnd);
+            }
+        }
+    }
+
+    @Test
+    public void blocksCoverOnlyTouchedRanges() {
+        SparseImage image = new SparseImage();
+        image.put(0x0000, fill(0x200, 0), 0, 0x200);   // bootloader
+        image.put(0xF000, fill(0x10, 0), 0, 0x10);     // configuración
+
+        BitSet pages = image.blocks(64);
+        assertEquals(8 + 1, pages.cardinality());
+        assertTrue(pages.get(0xF000 / 64));
+        assertFalse(pages.get(8));
+    }
+}
@@ -0,0 +1,75 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.ui;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HexRowFormatterTest {
+
+    /** Fila tal como la generaba el visor anterior (StringBuilder por volcado). */
+    private static String legacyRow(byte[] data, int i, int baseOffset) {
+        StringBuilder sb = new StringBuilder();
+        final char[] H = "0123456789ABCDEF".toCharArray();
+        int addr = baseOffset + i;
+        for (int n = 28; n >= 0; n -= 4) sb.append(H[(addr >> n) & 0x0F]);
+        sb.append("  | ");
+        for (int j = 0; j < 16; j++) {
+            if (i + j < data.length) {
+                int b = data[i + j] & 0xFF;
+                sb.append(H[b >>> 4]).append(H[b & 0x0F]).append(' ');
+            } else {
+                sb.append("   ");
+            }
+        }
+        sb.append("| ");
+        for (int j = 0; j < 16; j++) {
+            if (i + j < data.length) {
+                int b = data[i + j] & 0xFF;
+                sb.append(b >= 32 && b <= 126 ? (char) b : '.');
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void rowsMatchLegacyRendering() {
+        byte[] data = new byte[16 * 40 + 7];           // última fila incompleta
+        new Random(18).nextBytes(data);
+        int base = 0x00FFF000;
+        byte[] row = new byte[HexRowFormatter.BYTES_PER_ROW];
+        char[] out = new char[HexRowFormatter.ROW_CHARS];
+
+        for (int i = 0; i < data.length; i += 16) {
+            int n = Math.min(16, data.length - i);
+            System.arraycopy(data, i, row, 0, n);
+            int len = HexRowFormatter.format(base + i, row, n, out);
+            assertEquals(legacyRow(data, i, base), new String(out, 0, len));
+        }
+        assertEquals(41, HexRowFormatter.rowCount(data.length));
+        assertEquals(0, HexRowFormatter.rowCount(0));
+    }
+
+    @Test
+    public void fullRowFillsBuffer() {
+        byte[] row = new byte[16];
+        char[] out = new char[HexRowFormatter.ROW_CHARS];
+        assertEquals(HexRowFormatter.ROW_CHARS, HexRowFormatter.format(0x7FFFFFF0, row, 16, out));
+        assertEquals(HexRowFormatter.HEADER.indexOf("| ASCII") + 2,
+                new String(out).indexOf("| .") + 2);       // columnas alineadas con la cabecera
+    }
+
+    @Test
+    public void parsesUserAddresses() {
+        assertEquals(0x1F00, HexRowFormatter.parseAddress("1F00"));
+        assertEquals(0x1F00, HexRowFormatter.parseAddress(" 0x1f00 "));
+        assertEquals(0x1F00, HexRowFormatter.parseAddress("1f00h"));
+        assertEquals(0xFFFFFF, HexRowFormatter.parseAddress("FFFFFF"));
+        assertEquals(-1, HexRowFormatter.parseAddress(""));
+        assertEquals(-1, HexRowFormatter.parseAddress("0x"));
+        assertEquals(-1, HexRowFormatter.parseAddress("12G4"));
+        assertEquals(-1, HexRowFormatter.parseAddress("FFFFFFFF"));
+        assertEquals(-1, HexRowFormatter.parseAddress(null));
+    }
+}
@@ -0,0 +1,67 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.ui;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class LogRingTest {
+
+    @Test
+    public void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(2048, new LogRing(2048).capacity());
+        assertEquals(4, new LogRing(3).capacity());
+        assertEquals(2, new LogRing(1).capacity());
+    }
+
+    @Test
+    public void keepsOnlyLastCapacityEntries() {
+        LogRing ring = new LogRing(8);
+        for (int i = 0; i < 20; i++) assertEquals(i, ring.append("m" + i));
+
+        assertEquals(20, ring.end());
+        assertNull(ring.get(11));                        // sobrescrita
+        assertEquals("m12", ring.get(12).message);
+        assertEquals("m19", ring.get(19).message);
+        assertNull(ring.get(20));                        // aún no existe
+
+        // Un lector que se quedó atrás salta a la más antigua que queda
+        assertEquals(20, ring.publishedEnd(3));
+        assertEquals(20, ring.publishedEnd(15));
+        assertEquals(20, ring.publishedEnd(20));
+    }
+
+    @Test
+    public void concurrentProducersLoseNothingWithinCapacity() throws Exception {
+        final int threads = 4, perThread = 500;
+        final LogRing ring = new LogRing(threads * perThread);
+        final CountDownLatch go = new CountDownLatch(1);
+        Thread[] producers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            producers[t] = new Thread(() -> {
+                try { go.await(); } catch (InterruptedException e) { return; }
+                for (int i = 0; i < perThread; i++) ring.append(id + ":" + i);
+            });
+            producers[t].start();
+        }
+
+        // Lector concurrente: el tramo publicado nunca retrocede
+        go.countDown();
+        long seen = 0;
+        while (seen < threads * perThread) {
+            long end = ring.publishedEnd(seen);
+            assertTrue(end >= seen);
+            for (long s = seen; s < end; s++) assertNotNull(ring.get(s));
+            seen = end;
+        }
+        for (Thread p : producers) p.join();
+
+        Set<String> messages = new HashSet<>();
+        for (long s = 0; s < ring.end(); s++) messages.add(ring.get(s).message);
+        assertEquals(threads * perThread, messages.size());
+    }
+}
@@ -0,0 +1,245 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class BaudRateNegotiatorTest {
+
+    /**
+     * Adaptador + PIC: el PIC solo entiende las velocidades de
+     * {@code deviceRates} (v3: solo 9600). A otra velocidad los bytes llegan
+     * con error de trama y lo que contesta el PIC es basura para el host.
+     */
+    private static class SimulatedLink implements BaudRateNegotiator.Port {
+        final SimulatedPicmem pic = new SimulatedPicmem(new byte[256]);
+        final Set<Integer>    deviceRates = new HashSet<>();
+        int hostRate = BaudRateNegotiator.BASE_BAUD_RATE;
+
+        /** Velocidad que funciona unas cuantas respuestas y luego corrompe. */
+        int unstableRate = -1;
+        int unstableAfter;
+
+        /** Velocidad que el adaptador no admite. */
+        int unsupportedRate = -1;
+
+        private final ByteArrayOutputStream garbage = new ByteArrayOutputStream();
+
+        SimulatedLink(int... rates) {
+            for (int r : rates) deviceRates.add(r);
+        }
+
+        @Override
+        public void setBaudRate(int baudRate) throws IOException {
+            if (baudRate == unsupportedRate) throw new IOException("velocidad no soportada");
+            hostRate = baudRate;
+        }
+
+        @Override
+        public void sendData(byte[] data) {
+            if (!deviceRates.contains(hostRate)) {
+                garbage.write(0xF8);                   // RESP_ERR a otra velocidad
+                return;
+            }
+            if (hostRate == unstableRate && unstableAfter-- <= 0) {
+                pic.sendData(data);
+                byte[] resp = pic.drain(pic.available());
+                resp[3] ^= 0x20;                       // bit perdido
+                garbage.write(resp, 0, resp.length);
+                return;
+            }
+            pic.sendData(data);
+        }
+
+        int available() {
+            return pic.available() + garbage.size();
+        }
+
+        byte[] drain(int max) {
+            if (garbage.size() > 0) {
+                byte[] g = garbage.toByteArray();
+                garbage.reset();
+                return g;
+            }
+            return pic.drain(max);
+        }
+    }
+
+    private static class Recorder implements BaudRateNegotiator.Listener {
+        final List<Integer> probed   = new ArrayList<>();
+        final List<Integer> rejected = new ArrayList<>();
+        int    selected = -1;
+        int    failed   = -1;
+        int    timeouts = 0;
+
+        @Override public void onBaudProbe(int baudRate)                   { probed.add(baudRate); }
+        @Override public void onBaudRejected(int baudRate, String reason) { rejected.add(baudRate); }
+        @Override public void onBaudSelected(int baudRate)                { selected = baudRate; }
+        @Override public void onBaudFailed(int baudRate, String reason)   { failed = baudRate; }
+        @Override public void onTimeoutReset(long ms)                     { }
+        @Override public void onTimeoutCancel()                           { }
+    }
+
+    /** Entrega las respuestas en fragmentos; sin bytes pendientes vence el timeout. */
+    private static void pump(SimulatedLink link, BaudRateNegotiator neg, Recorder rec, long seed) {
+        Random rnd = new Random(seed);
+        for (int guard = 0; neg.isActive() && guard < 10_000; guard++) {
+            if (link.available() == 0) {
+                rec.timeouts++;
+                neg.onTimeout();
+                continue;
+            }
+            byte[] packet = link.drain(1 + rnd.nextInt(6));
+            neg.onBytes(packet, 0, packet.length);
+        }
+        assertFalse(neg.isActive());
+    }
+
+    @Test
+    public void firmwareV3StaysAtBaseRate() {
+        SimulatedLink link = new SimulatedLink(9600);
+        Recorder rec = new Recorder();
+        BaudRateNegotiator neg = new BaudRateNegotiator(link, rec);
+
+        neg.start(9600, 0, BaudRateNegotiator.CANDIDATE_RATES);
+        pump(link, neg, rec, 1);
+
+        assertEquals(9600, rec.selected);
+        assertEquals(-1, rec.failed);
+        // Se detiene en la primera que falla
+        assertEquals(Arrays.asList(19200), rec.probed);
+        assertEquals(Arrays.asList(19200), rec.rejected);
+        assertEquals(9600, link.hostRate);
+    }
+
+    @Test
+    public void climbsToHighestStableRate() {
+        SimulatedLink link = new SimulatedLink(9600, 19200, 38400, 57600);
+        Recorder rec = new Recorder();
+        BaudRateNegotiator neg = new BaudRateNegotiator(link, rec);
+
+        neg.start(9600, 0, BaudRateNegotiator.CANDIDATE_RATES);
+        pump(link, neg, rec, 2);
+
+        assertEquals(57600, rec.selected);
+        assertEquals(Arrays.asList(19200, 38400, 57600, 115200), rec.probed);
+        assertEquals(Arrays.asList(115200), rec.rejected);
+        assertEquals(57600, link.hostRate);
+        // Ping de referencia + 3 por cada velocidad buena + 1 de confirmación
+        assertEquals(1 + 3 * BaudRateNegotiator.PINGS_PER_RATE + 1, link.pic.commandsReceived);
+    }
+
+    @Test
+    public void unstableRateFallsBackAfterCorruptEcho() {
+        SimulatedLink link = new SimulatedLink(9600, 19200, 38400, 57600);
+        link.unstableRate  = 38400;
+        link.unstableAfter = 1;                        // el segundo ping se corrompe
+        Recorder rec = new Recorder();
+        BaudRateNegotiator neg = new BaudRateNegotiator(link, rec);
+
+        neg.start(9600, 0, BaudRateNegotiator.CANDIDATE_RATES);
+        pump(link, neg, rec, 3);
+
+        assertEquals(19200, rec.selected);
+        assertEquals(Arrays.asList(38400), rec.rejected);
+        assertEquals(19200, link.hostRate);
+    }
+
+    @Test
+    public void unsupportedAdapterRateIsSkipped() {
+        SimulatedLink link = new SimulatedLink(9600, 19200);
+        link.unsupportedRate = 19200;
+        Recorder rec = new Recorder();
+        BaudRateNegotiator neg = new BaudRateNegotiator(link, rec);
+
+        neg.start(9600, 0, new int[] { 19200 });
+        pump(link, neg, rec, 4);
+
+        assertEquals(9600, rec.selected);
+        assertEquals(Arrays.asList(19200), rec.rejected);
+        assertTrue(rec.probed.isEmpty());
+    }
+
+    @Test
+    public void rememberedRateIsVerifiedAlone() {
+        SimulatedLink link = new SimulatedLink(9600, 19200, 38400, 57600, 115200);
+        Recorder rec = new Recorder();
+        BaudRateNegotiator neg = new BaudRateNegotiator(link, rec);
+
+        neg.start(9600, 57600, BaudRateNegotiator.CANDIDATE_RATES);
+        pump(link, neg, rec, 5);
+
+        assertEquals(57600, rec.selected);
+        assertEquals(Arrays.asList(57600), rec.probed);
+        assertEquals(0, rec.timeouts);
+    }
+
+    @Test
+    public void rememberedBaseRateSkipsNegotiation() {
+        SimulatedLink link = new SimulatedLink(9600);
+        Recorder rec = new Recorder();
+        BaudRateNegotiator neg = new BaudRateNegotiator(link, rec);
+
+        neg.start(9600, 9600, BaudRateNegotiator.CANDIDATE_RATES);
+
+        assertFalse(neg.isActive());
+        assertEquals(9600, rec.selected);
+        assertEquals(0, link.pic.commandsReceived);
+    }
+
+    @Test
+    public void staleRememberedRateRenegotiatesFromBase() {
+        SimulatedLink link = new SimulatedLink(9600, 19200);   // otro PIC en el mismo adaptador
+        Recorder rec = new Recorder();
+        BaudRateNegotiator neg = new BaudRateNegotiator(link, rec);
+
+        neg.start(9600, 115200, BaudRateNegotiator.CANDIDATE_RATES);
+        pump(link, neg, rec, 6);
+
+        assertEquals(19200, rec.selected);
+        assertEquals(Arrays.asList(115200, 19200, 38400), rec.probed);
+        assertEquals(Arrays.asList(115200, 38400), rec.rejected);
+    }
+
+    @Test
+    public void lateTimeoutAfterEchoIsIgnored() {
+        SimulatedLink link = new SimulatedLink(9600);
+        Recorder rec = new Recorder();
+        BaudRateNegotiator neg = new BaudRateNegotiator(link, rec);
+
+        neg.start(9600, 0, BaudRateNegotiator.CANDIDATE_RATES);
+        int token = neg.getTimeoutToken();             // vence el timer de la referencia...
+        byte[] echo = link.drain(link.available());
+        neg.onBytes(echo, 0, echo.length);             // ...pero el eco se procesa antes
+        int probes = rec.probed.size();
+
+        neg.onTimeout(token);
+        assertEquals(probes, rec.probed.size());
+        assertTrue(rec.rejected.isEmpty());
+
+        pump(link, neg, rec, 8);
+        assertEquals(9600, rec.selected);
+    }
+
+    @Test
+    public void deadLinkReportsFailure() {
+        SimulatedLink link = new SimulatedLink();              // el PIC no contesta a nada
+        Recorder rec = new Recorder();
+        BaudRateNegotiator neg = new BaudRateNegotiator(link, rec);
+
+        neg.start(9600, 0, BaudRateNegotiator.CANDIDATE_RATES);
+        pump(link, neg, rec, 7);
+
+        assertEquals(9600, rec.failed);
+        assertEquals(-1, rec.selected);
+    }
+}
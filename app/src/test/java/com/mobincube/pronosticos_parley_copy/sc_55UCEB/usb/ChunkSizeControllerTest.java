@@ -0,0 +1,91 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ChunkSizeControllerTest {
+
+    private static final long MS = 1_000_000L;
+
+    /** Chunk a 9600 baudios: ~1 ms por byte más la latencia fija del PIC. */
+    private static long latency(int length, long overheadMs) {
+        return (length + overheadMs) * MS;
+    }
+
+    @Test
+    public void growsAfterConsecutiveOnTimeChunks() {
+        ChunkSizeController c = new ChunkSizeController(16, 4096, 64, 5000 * MS);
+
+        for (int i = 0; i < ChunkSizeController.GROW_AFTER - 1; i++) {
+            c.onChunkComplete(64, latency(64, 20));
+            assertEquals(64, c.getChunkSize());
+        }
+        c.onChunkComplete(64, latency(64, 20));
+        assertEquals(128, c.getChunkSize());
+    }
+
+    @Test
+    public void shortLastChunkDoesNotCountForGrowth() {
+        ChunkSizeController c = new ChunkSizeController(16, 4096, 64, 5000 * MS);
+
+        for (int i = 0; i < 3; i++) c.onChunkComplete(64, latency(64, 20));
+        c.onChunkComplete(10, latency(10, 20));
+        assertEquals(64, c.getChunkSize());
+    }
+
+    @Test
+    public void errorAndLateChunkHalveTheSize() {
+        ChunkSizeController c = new ChunkSizeController(16, 4096, 256, 1000 * MS);
+
+        c.onError();
+        assertEquals(128, c.getChunkSize());
+        c.onChunkComplete(128, 2000 * MS);
+        assertEquals(64, c.getChunkSize());
+        c.onError();
+        c.onError();
+        c.onError();
+        assertEquals(16, c.getChunkSize());
+    }
+
+    @Test
+    public void stopsGrowingWhenBiggerChunksAreSlower() {
+        ChunkSizeController c = new ChunkSizeController(16, 4096, 64, 5000 * MS);
+
+        for (int i = 0; i < 4; i++) c.onChunkComplete(64, latency(64, 10));
+        assertEquals(128, c.getChunkSize());
+        // El adaptador se atraganta con 128: peor throughput que con 64
+        for (int i = 0; i < 4; i++) c.onChunkComplete(128, latency(128, 200));
+        assertEquals(128, c.getChunkSize());
+        assertEquals(64, c.getBestChunkSize());
+        assertTrue(c.getBytesPerSecond(64) > c.getBytesPerSecond(128));
+    }
+
+    @Test
+    public void recordsEverySample() {
+        ChunkSizeController c = new ChunkSizeController(16, 4096, 64, 5000 * MS);
+
+        c.onChunkComplete(64, 100 * MS);
+        c.onChunkComplete(64, 50 * MS);
+
+        assertEquals(2, c.getSampleCount());
+        assertEquals(64, c.getSampleLength(0));
+        assertEquals(100 * MS, c.getSampleLatencyNanos(0));
+        assertEquals(640, c.getSampleBytesPerSecond(0));
+        assertEquals(1280, c.getSampleBytesPerSecond(1));
+
+        c.reset(32);
+        assertEquals(0, c.getSampleCount());
+        assertEquals(32, c.getChunkSize());
+    }
+
+    @Test
+    public void fixedNeverChanges() {
+        ChunkSizeController c = ChunkSizeController.fixed(64);
+
+        for (int i = 0; i < 20; i++) c.onChunkComplete(64, latency(64, 0));
+        c.onError();
+        c.onChunkComplete(64, Long.MAX_VALUE / 2);
+        assertEquals(64, c.getChunkSize());
+    }
+}
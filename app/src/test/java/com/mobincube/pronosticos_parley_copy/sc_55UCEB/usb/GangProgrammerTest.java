@@ -0,0 +1,214 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb;
+
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.eeprom.I2cProtocol;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.SparseImage;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+public class GangProgrammerTest {
+
+    private final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        timers.shutdownNow();
+    }
+
+    private static class Recorder implements GangProgrammer.Listener {
+        final List<String>                ready    = new ArrayList<>();
+        final List<String>                lost     = new ArrayList<>();
+        final List<GangProgrammer.Result> finished = new ArrayList<>();
+        int          probeReady = -1;
+        int          lastDone, lastTotal;
+        boolean      progressWentBack;
+        List<GangProgrammer.Result> complete;
+        int          completeCalls;
+
+        @Override public void onStationReady(String s, String banner)   { ready.add(s); }
+        @Override public void onStationLost(String s, String reason)    { lost.add(s); }
+        @Override public void onProbeComplete(int n)                    { probeReady = n; }
+        @Override public void onGangProgress(int done, int total) {
+            if (done < lastDone) progressWentBack = true;
+            lastDone  = done;
+            lastTotal = total;
+        }
+        @Override public void onStationFinished(GangProgrammer.Result r) { finished.add(r); }
+        @Override public void onGangComplete(List<GangProgrammer.Result> results) {
+            complete = results;
+            completeCalls++;
+        }
+    }
+
+    /** Entrega respuestas de todos los dispositivos intercaladas, como hilos en paralelo. */
+    private static void pumpAll(SimulatedPicmem[] devices, GangProgrammer.Station[] stations, long seed) {
+        Random rnd = new Random(seed);
+        boolean any = true;
+        while (any) {
+            any = false;
+            for (int i = 0; i < devices.length; i++) {
+                if (devices[i].available() == 0) continue;
+                any = true;
+                byte[] packet = devices[i].drain(1 + rnd.nextInt(64));
+                stations[i].onBytes(packet, 0, packet.length);
+            }
+        }
+    }
+
+    private static byte[] image(int size, long seed) {
+        byte[] b = new byte[size];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    @Test
+    public void writesAllStationsAndReportsEachResult() {
+        Recorder rec = new Recorder();
+        GangProgrammer gang = new GangProgrammer(timers, rec);
+        byte[][] chips = { new byte[4096], new byte[4096], new byte[4096] };
+        SimulatedPicmem[] devices = new SimulatedPicmem[3];
+        GangProgrammer.Station[] stations = new GangProgrammer.Station[3];
+        for (int i = 0; i < 3; i++) {
+            devices[i]  = new SimulatedPicmem(chips[i]);
+            stations[i] = gang.addStation("dev" + i, devices[i]);
+        }
+        devices[1].corruptWriteOnce(7 * 32);                // se recupera al verificar
+        devices[2].corruptWriteAlways(64);                  // falla
+
+        gang.probe(new I2cProtocol());
+        pumpAll(devices, stations, 1);
+        assertEquals(3, rec.probeReady);
+        assertEquals(3, rec.ready.size());
+
+        byte[] data = image(4096, 24);
+        assertEquals(3, gang.startWrite(new I2cProtocol(), 6, SparseImage.dense(data), true));
+        assertTrue(gang.isRunning());
+        pumpAll(devices, stations, 2);
+
+        assertFalse(gang.isRunning());
+        assertEquals(1, rec.completeCalls);
+        assertEquals(3, rec.complete.size());
+        assertArrayEquals(data, chips[0]);
+        assertArrayEquals(data, chips[1]);
+
+        GangProgrammer.Result r0 = result(rec.complete, "dev0");
+        GangProgrammer.Result r1 = result(rec.complete, "dev1");
+        GangProgrammer.Result r2 = result(rec.complete, "dev2");
+        assertTrue(r0.ok);
+        assertEquals(4096, r0.bytes);
+        assertEquals(0, r0.pageRetries);
+        assertTrue(r1.ok);
+        assertEquals(1, r1.pageRetries);
+        assertFalse(r2.ok);
+        assertTrue(r2.message.contains("0x000040"));
+
+        // Avance combinado de las tres estaciones, sin retrocesos
+        assertEquals(3 * 4096, rec.lastTotal);
+        assertFalse(rec.progressWentBack);
+    }
+
+    @Test
+    public void silentStationIsLeftOutOfTheBatch() {
+        Recorder rec = new Recorder();
+        GangProgrammer gang = new GangProgrammer(timers, rec);
+        SimulatedPicmem ok = new SimulatedPicmem(new byte[4096]);
+        GangProgrammer.Station s0 = gang.addStation("ok", ok);
+        GangProgrammer.Station s1 = gang.addStation("mudo", data -> { });
+
+        gang.probe(new I2cProtocol());
+        pumpAll(new SimulatedPicmem[]{ ok }, new GangProgrammer.Station[]{ s0 }, 3);
+        assertEquals(-1, rec.probeReady);                   // falta la segunda
+
+        s1.fail("desconectado");
+        assertEquals(1, rec.probeReady);
+        assertEquals(1, rec.lost.size());
+
+        byte[] data = image(1024, 25);
+        assertEquals(1, gang.startWrite(new I2cProtocol(), 6, SparseImage.dense(data), false));
+        pumpAll(new SimulatedPicmem[]{ ok }, new GangProgrammer.Station[]{ s0 }, 4);
+        assertEquals(1, rec.complete.size());
+        assertTrue(rec.complete.get(0).ok);
+        assertEquals(1024, rec.lastTotal);
+    }
+
+    @Test
+    public void disconnectDuringWriteFailsOnlyThatStation() {
+        Recorder rec = new Recorder();
+        GangProgrammer gang = new GangProgrammer(timers, rec);
+        SimulatedPicmem a = new SimulatedPicmem(new byte[4096]);
+        SimulatedPicmem b = new SimulatedPicmem(new byte[4096]);
+        GangProgrammer.Station sa = gang.addStation("a", a);
+        GangProgrammer.Station sb = gang.addStation("b", b);
+        gang.probe(new I2cProtocol());
+        pumpAll(new SimulatedPicmem[]{ a, b }, new GangProgrammer.Station[]{ sa, sb }, 5);
+
+        gang.startWrite(new I2cProtocol(), 6, SparseImage.dense(image(4096, 26)), false);
+        sb.fail("Dispositivo desconectado");
+        assertNull(rec.complete);                           // "a" sigue escribiendo
+        pumpAll(new SimulatedPicmem[]{ a }, new GangProgrammer.Station[]{ sa }, 6);
+
+        assertEquals(2, rec.complete.size());
+        assertTrue(result(rec.complete, "a").ok);
+        assertEquals("Dispositivo desconectado", result(rec.complete, "b").message);
+    }
+
+    @Test
+    public void portsAreScheduledIndependently() {
+        Recorder rec = new Recorder();
+        GangProgrammer gang = new GangProgrammer(timers, rec);
+        byte[] chipA = new byte[4096], chipB = new byte[4096];
+        SimulatedPicmem a = new SimulatedPicmem(chipA);
+        SimulatedPicmem b = new SimulatedPicmem(chipB);
+        GangProgrammer.Station sa = gang.addStation("FT4232 #0", a);
+        GangProgrammer.Station sb = gang.addStation("FT4232 #1", b);
+        gang.probe(new I2cProtocol());
+        pumpAll(new SimulatedPicmem[]{ a, b }, new GangProgrammer.Station[]{ sa, sb }, 7);
+        assertEquals(2, rec.probeReady);
+
+        // El puerto 0 empieza solo; el 1 se programa después con otra imagen
+        byte[] imgA = image(4096, 27), imgB = image(1024, 28);
+        assertEquals(1, gang.startWrite(Collections.singleton("FT4232 #0"),
+                new I2cProtocol(), 6, SparseImage.dense(imgA), true));
+        byte[] part = a.drain(200);
+        sa.onBytes(part, 0, part.length);
+        assertEquals(1, gang.startWrite(Collections.singleton("FT4232 #1"),
+                new I2cProtocol(), 6, SparseImage.dense(imgB), false));
+        assertEquals(0, gang.startWrite(Collections.singleton("FT4232 #1"),
+                new I2cProtocol(), 6, SparseImage.dense(imgB), false));   // ya está ocupado
+
+        pumpAll(new SimulatedPicmem[]{ b }, new GangProgrammer.Station[]{ sb }, 8);
+        assertNull(rec.complete);                           // el puerto 0 sigue
+        assertEquals(1, rec.finished.size());
+        assertEquals("FT4232 #1", rec.finished.get(0).station);
+
+        pumpAll(new SimulatedPicmem[]{ a }, new GangProgrammer.Station[]{ sa }, 9);
+        assertEquals(1, rec.completeCalls);
+        assertEquals(2, rec.complete.size());
+        assertEquals(4096 + 1024, rec.lastTotal);
+        assertEquals(4096 + 1024, rec.lastDone);
+        assertArrayEquals(imgA, chipA);
+        assertArrayEquals(imgB, Arrays.copyOf(chipB, 1024));
+    }
+
+    @Test
+    public void serialParamsDescribeTheLine() {
+        assertEquals("9600 8N1", SerialParams.DEFAULT.toString());
+        assertEquals("115200 8E2", new SerialParams(115200, 8, 2, 2).toString());
+        assertEquals(57600, SerialParams.DEFAULT.withBaudRate(57600).baudRate);
+    }
+
+    private static GangProgrammer.Result result(List<GangProgrammer.Result> results, String name) {
+        for (GangProgrammer.Result r : results) if (r.station.equals(name)) return r;
+        throw new AssertionError("sin resultado para " + name);
+    }
+}
@@ -0,0 +1,156 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb;
+
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.eeprom.I2cProtocol;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.eeprom.SpiProtocol;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.ArrayDumpSink;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.DumpSink;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PipelinedReaderTest {
+
+    private static class Recorder implements PipelinedReader.Listener {
+        byte[] result;
+        int errorAddress = -1;
+        int fallbackAddress = -1;
+        int chunks = 0;
+
+        @Override public void onChunkComplete(int address, int length, int bytesDone) { chunks++; }
+        @Override public void onFallbackToStopAndWait(int address) { fallbackAddress = address; }
+        @Override public void onReadComplete(DumpSink target) { result = target.array(); }
+        @Override public void onReadError(int address) { errorAddress = address; }
+    }
+
+    /** Imagen aleatoria sin 0x58 al inicio de chunk (ambiguo con RESP_ERR). */
+    private static byte[] randomImage(int size) {
+        byte[] img = new byte[size];
+        new Random(size).nextBytes(img);
+        for (int i = 0; i < size; i += 64) {
+            if (img[i] == 0x58) img[i] = 0;
+        }
+        return img;
+    }
+
+    /**
+     * Entrega las respuestas del simulador en fragmentos de tamaño aleatorio;
+     * cuando no quedan bytes se notifica el silencio de la línea.
+     */
+    private static void pump(SimulatedPicmem device, PipelinedReader reader, long seed) {
+        Random rnd = new Random(seed);
+        while (!reader.isFinished()) {
+            if (device.available() == 0) {
+                if (!reader.isDraining()) return;
+                reader.onLineIdle();
+                continue;
+            }
+            byte[] packet = device.drain(1 + rnd.nextInt(96));
+            reader.feed(packet, 0, packet.length);
+        }
+    }
+
+    @Test
+    public void readsWholeI2cChipWithWindowOfFour() {
+        byte[] image = randomImage(32768);           // 24C256, índice 8
+        SimulatedPicmem device = new SimulatedPicmem(image.clone());
+        Recorder rec = new Recorder();
+        PipelinedReader reader = new PipelinedReader(new I2cProtocol(), 8, image.length,
+                64, 4, new ArrayDumpSink(image.length), device, rec);
+
+        reader.start();
+        pump(device, reader, 1);
+
+        assertArrayEquals(image, rec.result);
+        assertEquals(image.length / 64, rec.chunks);
+        assertEquals(4, device.maxInFlight);
+        assertFalse(reader.isStopAndWait());
+    }
+
+    @Test
+    public void readsSpiFlashAcrossThreeByteAddresses() {
+        byte[] image = randomImage(1 << 18);
+        SimulatedPicmem device = new SimulatedPicmem(image.clone());
+        Recorder rec = new Recorder();
+        PipelinedReader reader = new PipelinedReader(new SpiProtocol(), 13, image.length,
+                256, 8, new ArrayDumpSink(image.length), device, rec);
+
+        reader.start();
+        pump(device, reader, 2);
+
+        assertArrayEquals(image, rec.result);
+    }
+
+    @Test
+    public void respErrFallsBackToStopAndWaitAndRetries() {
+        byte[] image = randomImage(4096);
+        SimulatedPicmem device = new SimulatedPicmem(image.clone());
+        device.failReadOnce(640);
+        Recorder rec = new Recorder();
+        PipelinedReader reader = new PipelinedReader(new I2cProtocol(), 5, image.length,
+                64, 4, new ArrayDumpSink(image.length), device, rec);
+
+        reader.start();
+        pump(device, reader, 3);
+
+        assertEquals(640, rec.fallbackAddress);
+        assertTrue(reader.isStopAndWait());
+        assertTrue(reader.getDiscardedBytes() > 0);
+        assertEquals(-1, rec.errorAddress);
+        assertArrayEquals(image, rec.result);
+    }
+
+    @Test
+    public void dataByte0x58AtChunkStartNeverCorruptsBuffer() {
+        byte[] image = randomImage(2048);
+        image[512] = 0x58;                           // dato legítimo, no RESP_ERR
+        SimulatedPicmem device = new SimulatedPicmem(image.clone());
+        Recorder rec = new Recorder();
+        PipelinedReader reader = new PipelinedReader(new I2cProtocol(), 4, image.length,
+                64, 4, new ArrayDumpSink(image.length), device, rec);
+
+        reader.start();
+        pump(device, reader, 6);
+
+        // Igual que el flujo clásico: se aborta en vez de desalinear respuestas
+        assertEquals(512, rec.fallbackAddress);
+        assertEquals(512, rec.errorAddress);
+        assertNull(rec.result);
+        assertEquals(512, reader.getBytesDone());
+    }
+
+    @Test
+    public void persistentErrorAbortsRead() {
+        byte[] image = randomImage(4096);
+        SimulatedPicmem device = new SimulatedPicmem(image.clone());
+        device.failReadAlways(1024);
+        Recorder rec = new Recorder();
+        PipelinedReader reader = new PipelinedReader(new I2cProtocol(), 5, image.length,
+                64, 4, new ArrayDumpSink(image.length), device, rec);
+
+        reader.start();
+        pump(device, reader, 4);
+
+        assertEquals(1024, rec.errorAddress);
+        assertNull(rec.result);
+        assertTrue(reader.isFinished());
+    }
+
+    @Test
+    public void windowOfOneAbortsOnFirstError() {
+        byte[] image = randomImage(1024);
+        SimulatedPicmem device = new SimulatedPicmem(image.clone());
+        device.failReadOnce(128);
+        Recorder rec = new Recorder();
+        PipelinedReader reader = new PipelinedReader(new I2cProtocol(), 3, image.length,
+                64, 1, new ArrayDumpSink(image.length), device, rec);
+
+        reader.start();
+        pump(device, reader, 5);
+
+        assertEquals(128, rec.errorAddress);
+        assertEquals(1, device.maxInFlight);
+    }
+}
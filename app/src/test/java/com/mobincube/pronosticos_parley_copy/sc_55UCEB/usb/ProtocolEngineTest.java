@@ -0,0 +1,587 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb;
+
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.eeprom.I2cProtocol;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.eeprom.SpiProtocol;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.BlankCheckSink;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.DumpDigest;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.MappedDumpSink;
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file.SparseImage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ProtocolEngineTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static class Recorder implements ProtocolEngine.Listener {
+        String  banner;
+        byte[]  readResult;
+        File    savedFile;
+        DumpDigest digest;
+        int     writtenLength = -1;
+        int     pagesWritten  = -1;
+        int     pagesSkipped  = -1;
+        int     pageRetries;
+        BlankCheckSink blank;
+        int     blankChecked = -1;
+        byte[]  scanI2c;
+        byte[]  scanJedec;
+        boolean scanDone;
+        String  error;
+        int     resumedAt = -1;
+        int     rejectedAt = -1;
+        int     progressCalls;
+
+        @Override public void onPingOk(String b)                            { banner = b; }
+        @Override public void onProgress(int done, int total)               { progressCalls++; }
+        @Override public void onReadComplete(byte[] data, DumpDigest d)     { readResult = data; digest = d; }
+        @Override public void onDumpSaved(File file, int size, DumpDigest d) { savedFile = file; digest = d; }
+        @Override public void onReadFallback(int address)                   { }
+        @Override public void onReadChunkChanged(int chunkSize, long bps)   { }
+        @Override public void onReadError(int address)                      { error = "read@" + address; }
+        @Override public void onWriteComplete(int length, int written, int skipped, long savedMs) {
+            writtenLength = length;
+            pagesWritten  = written;
+            pagesSkipped  = skipped;
+        }
+        @Override public void onWritePageRetry(int address, int attempt)    { pageRetries++; }
+        @Override public void onEraseComplete()                             { }
+        @Override public void onBlankCheckComplete(BlankCheckSink r, int n) { blank = r; blankChecked = n; }
+        @Override public void onI2cScanResult(byte[] addresses)             { scanI2c = addresses; }
+        @Override public void onJedecId(byte m, byte t, byte c, boolean v)  { }
+        @Override public void onScanComplete(byte[] i2c, byte[] jedec)      { scanJedec = jedec; scanDone = true; }
+        @Override public void onFullDumpStarted(int size, byte m, byte t, byte c) { }
+        @Override public void onResumeStarted(int address, int total)       { resumedAt = address; }
+        @Override public void onResumeRejected(int address)                 { rejectedAt = address; }
+        @Override public void onError(ProtocolState s, String message)      { error = message; }
+        @Override public void onTimeoutReset(long ms)                       { }
+        @Override public void onTimeoutCancel()                             { }
+        @Override public void onLineIdleCheck(long ms)                      { }
+    }
+
+    /** Entrega las respuestas en fragmentos aleatorios, como el hilo USB. */
+    private static void pump(SimulatedPicmem device, ProtocolEngine engine, long seed) {
+        Random rnd = new Random(seed);
+        while (device.available() > 0) {
+            byte[] packet = device.drain(1 + rnd.nextInt(64));
+            engine.onBytes(packet, 0, packet.length);
+        }
+    }
+
+    @Test
+    public void pingDetectsBannerAcrossFragments() {
+        SimulatedPicmem device = new SimulatedPicmem(new byte[16]);
+        Recorder rec = new Recorder();
+        ProtocolEngine engine = new ProtocolEngine(device, rec);
+
+        engine.startPing(new I2cProtocol());
+        while (device.available() > 0) {
+            byte[] one = device.drain(1);
+            engine.onBytes(one, 0, 1);
+        }
+
+        assertNotNull(rec.banner);
+        assertTrue(rec.banner.startsWith("PICMEM"));
+        assertEquals(ProtocolState.IDLE, engine.getState());
+    }
+
+    @Test
+    public void readThenWriteRoundTrip() {
+        byte[] image = new byte[4096];                 // 24C32, índice 6
+        new Random(7).nextBytes(image);
+        for (int i = 0; i < image.length; i += ProtocolEngine.READ_CHUNK)
+            if (image[i] == 0x58) image[i] = 0;
+        SimulatedPicmem device = new SimulatedPicmem(image.clone());
+        Recorder rec = new Recorder();
+        ProtocolEngine engine = new ProtocolEngine(device, rec);
+
+        engine.startRead(new I2cProtocol(), 6, image.length);
+        pump(device, engine, 1);
+        assertArrayEquals(image, rec.readResult);
+
+        byte[] update = new byte[image.length];
+        new Random(8).nextBytes(update);
+        engine.startWrite(new I2cProtocol(), 6, update);
+        pump(device, engine, 2);
+        assertEquals(update.length, rec.writtenLength);
+
+        engine.startRead(new I2cProtocol(), 6, update.length);
+        pump(device, engine, 3);
+        assertNull(rec.error);
+        assertEquals(ProtocolState.IDLE, engine.getState());
+        assertTrue(rec.progressCalls > 0);
+    }
+
+    @Test
+    public void readWindowIsConfigurable() {
+        byte[] image = image(4096, 23);
+        SimulatedPicmem device = new SimulatedPicmem(image.clone());
+        Recorder rec = new Recorder();
+        ProtocolEngine engine = new ProtocolEngine(device, rec);
+        assertEquals(ProtocolEngine.DEFAULT_READ_WINDOW, engine.getReadWindow());
+
+        engine.setReadWindow(4);
+        engine.startRead(new I2cProtocol(), 6, image.length);
+        pump(device, engine, 23);
+
+        assertNull(rec.error);
+        assertArrayEquals(image, rec.readResult);
+        assertEquals(4, device.maxInFlight);
+    }
+
+    @Test
+    public void combinedScanReportsBothBuses() {
+        SimulatedPicmem device = new SimulatedPicmem(new byte[16]);
+        Recorder rec = new Recorder();
+        ProtocolEngine engine = new ProtocolEngine(device, rec);
+
+        engine.startScan();
+        pump(device, engine, 4);
+
+        assertTrue(rec.scanDone);
+        assertArrayEquals(new byte[]{0x50}, rec.scanI2c);
+        assertArrayEquals(new byte[]{(byte) 0xEF, 0x40, 0x18}, rec.scanJedec);
+        assertEquals(ProtocolState.IDLE, engine.getState());
+    }
+
+    @Test
+    public void spiFullDumpFillsPreallocatedBuffer() {
+        byte[] image = new byte[1 << 16];
+        new Random(9).nextBytes(image);
+        image[0] = 0x12;                               // no confundir con RESP_ERR
+        SimulatedPicmem device = new SimulatedPicmem(image.clone());
+        device.jedecCap = 0x10;
+        Recorder rec = new Recorder();
+        ProtocolEngine engine = new ProtocolEngine(device, rec);
+
+        engine.startSpiFullDump(new SpiProtocol(), 13);
+        byte[] jedec = device.drain(3);
+        engine.onBytes(jedec, 0, jedec.length);
+        byte[] head = device.drain(5000);
+        engine.onBytes(head, 0, head.length);
+
+        // El avance no se notifica: la UI lo consulta cuando le toca pintar
+        assertEquals(0, rec.progressCalls);
+        assertEquals(5000, engine.getReceivedCount());
+        assertEquals(image.length, engine.getTransferSize());
+        byte[] row = new byte[16];
+        engine.readReceived(4992, row, 0, 16);          // fila a medio recibir
+        assertArrayEquals(Arrays.copyOfRange(image, 4992, 5000), Arrays.copyOf(row, 8));
+        assertArrayEquals(new byte[8], Arrays.copyOfRange(row, 8, 16));
+
+        pump(device, engine, 5);
+
+        assertNull(rec.error);
+        assertArrayEquals(image, rec.readResult);
+        assertEquals(0, rec.progressCalls);
+        assertEquals(0, engine.getTransferSize());
+        assertEquals(ProtocolState.IDLE, engine.getState());
+    }
+
+    @Test
+    public void fullDumpStreamsToMappedFile() throws Exception {
+        byte[] image = new byte[1 << 18];
+        new Random(10).nextBytes(image);
+        image[0] = 0x12;
+        SimulatedPicmem device = new SimulatedPicmem(image.clone());
+        device.jedecCap = 0x12;
+        Recorder rec = new Recorder();
+        ProtocolEngine engine = new ProtocolEngine(device, rec);
+        File out = new File(tmp.getRoot(), "dump.bin");
+        engine.setSinkFactory(size -> new MappedDumpSink(out, size));
+
+        engine.startSpiFullDump(new SpiProtocol(), 15);
+        pump(device, engine, 6);
+
+        assertNull(rec.error);
+        assertNull(rec.readResult);
+        assertEquals(out, rec.savedFile);
+        assertArrayEquals(image, Files.readAllBytes(out.toPath()));
+        assertTrue(DumpDigest.of(image).matches(rec.digest));
+        assertEquals(4, rec.digest.getBlockCount());
+        assertFalse(new File(out.getPath() + MappedDumpSink.PROGRESS_SUFFIX).exists());
+    }
+
+    @Test
+    public void abortedDumpKeepsProgressMarker() throws Exception {
+        byte[] image = new byte[1 << 18];
+        new Random(11).nextBytes(image);
+        image[0] = 0x12;
+        SimulatedPicmem device = new SimulatedPicmem(image.clone());
+        device.jedecCap = 0x12;
+        Recorder rec = new Recorder();
+        ProtocolEngine engine = new ProtocolEngine(device, rec);
+        File out = new File(tmp.getRoot(), "partial.bin");
+        engine.setSinkFactory(size -> new MappedDumpSink(out, size));
+
+        engine.startSpiFullDump(new SpiProtocol(), 15);
+        byte[] jedec = device.drain(3);
+        engine.onBytes(jedec, 0, jedec.length);
+        byte[] part = device.drain(150000);
+        engine.onBytes(part, 0, part.length);
+        engine.abort();                                // desconexión a mitad
+
+        assertFalse(out.exists());                     // nunca con el nombre final a medias
+        File temp   = new File(tmp.getRoot(), ".partial.bin" + MappedDumpSink.PART_SUFFIX);
+        File marker = new File(temp.getPath() + MappedDumpSink.PROGRESS_SUFFIX);
+        try (DataInputStream in = new DataInputStream(new FileInputStream(marker))) {
+            assertEquals(image.length, in.readInt());
+            assertEquals(150000, in.readInt());        // commit al cruzar 64 KB
+            assertEquals('P', in.readInt());
+        }
+        byte[] written = Files.readAllBytes(temp.toPath());
+        for (int i = 0; i < 150000; i++) assertEquals(image[i], written[i]);
+    }
+
+    @Test
+    public void diskDumpResumesAfterAppRestart() throws Exception {
+        byte[] image = image(1 << 16, 14);
+        SimulatedPicmem device = new SimulatedPicmem(image.clone());
+        device.jedecCap = 0x10;
+        File out = new File(tmp.getRoot(), "partial.bin");
+        ProtocolEngine first = new ProtocolEngine(device, new Recorder());
+        first.setSinkFactory(size -> new MappedDumpSink(out, size));
+
+        first.startSpiFullDump(new SpiProtocol(), 15);
+        byte[] jedec = device.drain(3);
+        first.onBytes(jedec, 0, jedec.length);
+        byte[] part = device.drain(40000);
+        first.onBytes(part, 0, part.length);
+        first.abort();                                 // la app muere aquí
+        device.drain(device.available());
+
+        // Nueva sesión: el volcado se recupera del disco
+        List<MappedDumpSink> found = MappedDumpSink.recover(tmp.getRoot());
+        assertEquals(1, found.size());
+        MappedDumpSink sink = found.get(0);
+        Recorder rec = new Recorder();
+        ProtocolEngine engine = new ProtocolEngine(device, rec);
+        assertTrue(engine.restorePartialDump(new SpiProtocol(), sink.getModelIndex(), sink));
+
+        engine.startSpiFullDump(new SpiProtocol(), 15);
+        pump(device, engine, 22);
+
+        assertEquals(40000, rec.resumedAt);
+        assertEquals(out, rec.savedFile);
+        assertArrayEquals(image, Files.readAllBytes(out.toPath()));
+        assertTrue(DumpDigest.of(image).matches(rec.digest));
+        assertArrayEquals(new String[]{"partial.bin"}, tmp.getRoot().list());
+    }
+
+    /** Imagen sin 0x58 al inicio de chunk (ambiguo con RESP_ERR). */
+    private static byte[] image(int size, long seed) {
+        byte[] img = new byte[size];
+        new Random(seed).nextBytes(img);
+        for (int i = 0; i < size; i += ProtocolEngine.READ_CHUNK)
+            if (img[i] == 0x58) img[i] = 0;
+        return img;
+    }
+
+    /** Entrega exactamente {@code chunks} respuestas de lectura y desconecta. */
+    private static void readThenDisconnect(SimulatedPicmem device, ProtocolEngine engine, int chunks) {
+        for (int k = 0; k < chunks; k++) {
+            // Ventana de 1: la petición en vuelo usa el tamaño actual
+            byte[] resp = device.drain(engine.getReadChunks().getChunkSize() + 1);
+            engine.onBytes(resp, 0, resp.length);
+        }
+        engine.abort();
+        device.drain(device.available());
+    }
+
+    @Test
+    public void interruptedReadResumesFromWatermark() {
+        byte[] image = image(4096, 12);
+        SimulatedPicmem device = new SimulatedPicmem(image.clone());
+        Recorder rec = new Recorder();
+        ProtocolEngine engine = new ProtocolEngine(device, rec);
+
+        engine.startRead(new I2cProtocol(), 6, image.length);
+        readThenDisconnect(device, engine, 10);
+        // El chunk puede haber crecido (depende del throughput medido)
+        int watermark = engine.getPartialDump().getWatermark();
+        assertTrue(watermark >= 10 * 64 && watermark % 64 == 0);
+
+        int before = device.commandsReceived;
+        assertTrue(engine.resumePartialDump());
+        pump(device, engine, 7);
+
+        assertEquals(watermark, rec.resumedAt);
+        assertArrayEquals(image, rec.readResult);
+        assertNull(engine.getPartialDump());
+        assertEquals(DumpDigest.of(image).getCrc32(), rec.digest.getCrc32());
+        assertTrue(DumpDigest.of(image).matches(rec.digest));
+        // 3 chunks de control + como mucho los chunks de 64 que faltaban
+        assertTrue(device.commandsReceived - before <= 3 + (4096 - watermark) / 64);
+    }
+
+    @Test
+    public void changedChipDiscardsPartialDump() {
+        byte[] image = image(4096, 13);
+        byte[] chip  = image.clone();
+        SimulatedPicmem device = new SimulatedPicmem(chip);
+        Recorder rec = new Recorder();
+        ProtocolEngine engine = new ProtocolEngine(device, rec);
+
+        engine.startRead(new I2cProtocol(), 6, image.length);
+        readThenDisconnect(device, engine, 10);
+
+        chip[5] ^= 0x01;                                // otro chip en el zócalo
+        engine.startRead(new I2cProtocol(), 6, image.length);
+        pump(device, engine, 8);
+
+        assertEquals(0, rec.rejectedAt);
+        assertEquals(-1, rec.resumedAt);
+        assertArrayEquals(chip, rec.readResult);
+    }
+
+    @Test
+    public void interruptedSpiFullDumpResumesWithChunkedReads() {
+        byte[] image = image(1 << 16, 14);
+        SimulatedPicmem device = new SimulatedPicmem(image.clone());
+        device.jedecCap = 0x10;
+        Recorder rec = new Recorder();
+        ProtocolEngine engine = new ProtocolEngine(device, rec);
+
+        engine.startSpiFullDump(new SpiProtocol(), 9);
+        byte[] jedec = device.drain(3);
+        engine.onBytes(jedec, 0, jedec.length);
+        byte[] part = device.drain(40000);
+        engine.onBytes(part, 0, part.length);
+        engine.abort();
+        device.drain(device.available());
+
+        engine.startSpiFullDump(new SpiProtocol(), 9);
+        pump(device, engine, 9);
+
+        assertEquals(40000, rec.resumedAt);
+        assertArrayEquals(image, rec.readResult);
+        assertTrue(DumpDigest.of(image).matches(rec.digest));
+    }
+
+    @Test
+    public void fullDumpResumesWithSmallestFlashModelThatFits() {
+        SpiProtocol spi = new SpiProtocol();
+        for (int cap = 0x10; cap <= 0x18; cap++) {
+            int model = ProtocolEngine.fullDumpReadModel(spi, 1 << cap);
+            assertEquals(3, spi.getAddressBytes(model));
+            assertTrue(spi.getTotalSize(model) >= Math.min(1 << cap, 1 << 24));
+        }
+        assertEquals(1 << 22, spi.getTotalSize(ProtocolEngine.fullDumpReadModel(spi, 1 << 22)));
+        assertEquals(1 << 24, spi.getTotalSize(ProtocolEngine.fullDumpReadModel(spi, 1 << 26)));
+        assertEquals(-1, ProtocolEngine.fullDumpReadModel(new I2cProtocol(), 1 << 16));
+    }
+
+    /** Copia de {@code image} con un byte cambiado en cada una de las {@code pages}. */
+    private static byte[] touchPages(byte[] image, int pageSize, int... pages) {
+        byte[] update = image.clone();
+        for (int p : pages) update[p * pageSize + 7] ^= 0x5A;
+        return update;
+    }
+
+    @Test
+    public void differentialWriteReadsAndSkipsMatchingPages() {
+        byte[] image = image(4096, 15);                 // 24C32: páginas de 32 B
+        image[64] = 0x58;                               // dato, no RESP_ERR, al inicio de página
+        byte[] chip = image.clone();
+        SimulatedPicmem device = new SimulatedPicmem(chip);
+        Recorder rec = new Recorder();
+        ProtocolEngine engine = new ProtocolEngine(device, rec);
+
+        byte[] update = touchPages(image, 32, 0, 17, 127);
+        engine.startDifferentialWrite(new I2cProtocol(), 6, update, null);
+        pump(device, engine, 10);
+
+        assertNull(rec.error);
+        assertEquals(update.length, rec.writtenLength);
+        assertEquals(3, rec.pagesWritten);
+        assertEquals(125, rec.pagesSkipped);
+        assertEquals(3, device.writesReceived);
+        assertArrayEquals(update, chip);
+    }
+
+    @Test
+    public void differentialWriteWithKnownContentSendsOnlyChangedPages() {
+        byte[] image = image(8192, 16);                 // 25640: páginas de 32 B
+        SimulatedPicmem device = new SimulatedPicmem(image.clone());
+        Recorder rec = new Recorder();
+        ProtocolEngine engine = new ProtocolEngine(device, rec);
+
+        byte[] update = touchPages(image, 32, 3, 4, 200);
+        engine.startDifferentialWrite(new SpiProtocol(), 6, update, image);
+        pump(device, engine, 12);
+
+        assertEquals(3, rec.pagesWritten);
+        assertEquals(253, rec.pagesSkipped);
+        assertEquals(3, device.commandsReceived);       // ninguna lectura
+        assertEquals(ProtocolState.IDLE, engine.getState());
+    }
+
+    @Test
+    public void differentialWriteWritesPageWhenCompareReadFails() {
+        byte[] image = image(4096, 17);
+        SimulatedPicmem device = new SimulatedPicmem(image.clone());
+        device.failReadOnce(256);
+        Recorder rec = new Recorder();
+        ProtocolEngine engine = new ProtocolEngine(device, rec);
+
+        engine.startDifferentialWrite(new I2cProtocol(), 6, image.clone(), null);
+        pump(device, engine, 13);
+        // Solo llegó 0x58: el silencio de la línea lo confirma como RESP_ERR
+        assertEquals(ProtocolState.WRITING, engine.getState());
+        engine.onLineIdle();
+        pump(device, engine, 14);
+
+        assertNull(rec.error);
+        assertEquals(1, rec.pagesWritten);
+        assertEquals(127, rec.pagesSkipped);
+    }
+
+    @Test
+    public void verifiedWriteRewritesPageThatReadsBackWrong() {
+        byte[] chip = new byte[4096];                   // 24C32: páginas de 32 B
+        SimulatedPicmem device = new SimulatedPicmem(chip);
+        device.corruptWriteOnce(5 * 32);
+        Recorder rec = new Recorder();
+        ProtocolEngine engine = new ProtocolEngine(device, rec);
+        engine.setVerifyWrites(true);
+
+        byte[] data = image(4096, 18);
+        engine.startWrite(new I2cProtocol(), 6, data);
+        pump(device, engine, 15);
+
+        assertNull(rec.error);
+        assertEquals(1, rec.pageRetries);
+        assertEquals(128, rec.pagesWritten);
+        assertArrayEquals(data, chip);
+        // Una escritura y una relectura por página, más el reintento
+        assertEquals(128 + 1, device.writesReceived);
+        assertEquals(2 * (128 + 1), device.commandsReceived);
+    }
+
+    @Test
+    public void verifiedWriteGivesUpOnPersistentMismatch() {
+        SimulatedPicmem device = new SimulatedPicmem(new byte[4096]);
+        device.corruptWriteAlways(64);
+        Recorder rec = new Recorder();
+        ProtocolEngine engine = new ProtocolEngine(device, rec);
+        engine.setVerifyWrites(true);
+
+        engine.startWrite(new I2cProtocol(), 6, image(4096, 19));
+        pump(device, engine, 16);
+
+        assertNotNull(rec.error);
+        assertTrue(rec.error.contains("0x000040"));
+        assertEquals(ProtocolEngine.MAX_PAGE_RETRIES, rec.pageRetries);
+        assertEquals(-1, rec.writtenLength);
+        assertEquals(ProtocolState.IDLE, engine.getState());
+    }
+
+    @Test
+    public void blankCheckMapsDirtyPagesAndEraseSkipsTheRest() {
+        byte[] chip = new byte[4096];                   // 24C32: páginas de 32 B
+        Arrays.fill(chip, (byte) 0xFF);
+        chip[100]  = 0x12;                              // página 3
+        chip[101]  = 0x34;
+        chip[4095] = 0x00;                              // página 127
+        SimulatedPicmem device = new SimulatedPicmem(chip);
+        Recorder rec = new Recorder();
+        ProtocolEngine engine = new ProtocolEngine(device, rec);
+
+        engine.startBlankCheck(new I2cProtocol(), 6, chip.length, false);
+        pump(device, engine, 17);
+
+        assertEquals(4096, rec.blankChecked);
+        assertFalse(rec.blank.isBlank());
+        assertEquals(100, rec.blank.getFirstDirtyAddress());
+        assertEquals(2, rec.blank.getDirtySectorCount());
+        assertTrue(rec.blank.getDirtySectors().get(3));
+        assertTrue(rec.blank.getDirtySectors().get(127));
+
+        byte[] ff = new byte[4096];
+        Arrays.fill(ff, (byte) 0xFF);
+        engine.startMaskedWrite(new I2cProtocol(), 6, ff, rec.blank.getDirtySectors());
+        pump(device, engine, 18);
+
+        assertEquals(2, rec.pagesWritten);
+        assertEquals(0, rec.pagesSkipped);              // las páginas limpias ni se recorren
+        assertEquals(64, rec.writtenLength);
+        assertEquals(2, device.writesReceived);
+        assertArrayEquals(ff, chip);
+    }
+
+    @Test
+    public void sparseWriteSendsOnlyPopulatedPages() {
+        byte[] chip = image(65536, 19);                 // 24C512: páginas de 64 B
+        byte[] before = chip.clone();
+        SimulatedPicmem device = new SimulatedPicmem(chip);
+        Recorder rec = new Recorder();
+        ProtocolEngine engine = new ProtocolEngine(device, rec);
+
+        byte[] boot = new byte[300];
+        byte[] cfg  = new byte[20];
+        new Random(20).nextBytes(boot);
+        Arrays.fill(cfg, (byte) 0x5A);
+        SparseImage update = new SparseImage();
+        update.put(0x0000, boot, 0, boot.length);       // páginas 0..4 (la 4 a medias)
+        update.put(0xF0F0, cfg, 0, cfg.length);         // cruza el límite de página 0xF100
+        engine.startWrite(new I2cProtocol(), 9, update);
+        pump(device, engine, 21);
+
+        assertNull(rec.error);
+        assertEquals(boot.length + cfg.length, rec.writtenLength);
+        assertEquals(5 + 2, rec.pagesWritten);
+        assertEquals(5 + 2, device.writesReceived);
+
+        byte[] expected = before.clone();
+        System.arraycopy(boot, 0, expected, 0, boot.length);
+        System.arraycopy(cfg, 0, expected, 0xF0F0, cfg.length);
+        assertArrayEquals(expected, chip);              // los huecos conservan su contenido
+    }
+
+    @Test
+    public void blankCheckCanStopAtFirstDirtyChunk() {
+        byte[] chip = new byte[32768];
+        Arrays.fill(chip, (byte) 0xFF);
+        chip[70] = 0x00;
+        SimulatedPicmem device = new SimulatedPicmem(chip);
+        Recorder rec = new Recorder();
+        ProtocolEngine engine = new ProtocolEngine(device, rec);
+
+        engine.startBlankCheck(new I2cProtocol(), 8, chip.length, true);
+        pump(device, engine, 19);
+
+        assertEquals(70, rec.blank.getFirstDirtyAddress());
+        assertEquals(128, rec.blankChecked);            // dos chunks de 64
+        assertEquals(2, device.commandsReceived);
+        assertEquals(ProtocolState.IDLE, engine.getState());
+    }
+
+    @Test
+    public void writeNackReportsError() {
+        SimulatedPicmem device = new SimulatedPicmem(new byte[16]);
+        Recorder rec = new Recorder();
+        ProtocolEngine engine = new ProtocolEngine(device, rec);
+
+        engine.startWrite(new SpiProtocol(), 0, new byte[8]);
+        byte[] nack = {0x58};
+        device.drain(device.available());
+        engine.onBytes(nack, 0, 1);
+
+        assertNotNull(rec.error);
+        assertEquals(-1, rec.writtenLength);
+        assertEquals(ProtocolState.IDLE, engine.getState());
+    }
+}
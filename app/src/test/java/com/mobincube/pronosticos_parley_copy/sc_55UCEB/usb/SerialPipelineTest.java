@@ -0,0 +1,268 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SerialPipelineTest {
+
+    private static final int PACKET = 64;
+
+    /**
+     * Puerto simulado: cada elemento de la cola es un paquete USB. Como el
+     * puerto real, la lectura no tiene timeout y solo vuelve al cerrarlo.
+     */
+    private static final class FakeInput implements SerialPipeline.Input {
+        private static final byte[] CLOSED = new byte[0];
+
+        final BlockingQueue<byte[]> packets = new LinkedBlockingQueue<>();
+        volatile boolean closed;
+
+        @Override
+        public int read(byte[] dst, int length) throws IOException {
+            try {
+                byte[] p = packets.take();
+                if (p == CLOSED) throw new IOException("Puerto cerrado");
+                System.arraycopy(p, 0, dst, 0, p.length);
+                return p.length;
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            packets.add(CLOSED);
+        }
+    }
+
+    @Test
+    public void spscRingKeepsOrderAndBounds() {
+        SpscRing<Integer> ring = new SpscRing<>(3);
+        assertEquals(4, ring.capacity());
+        for (int i = 0; i < 4; i++) assertTrue(ring.offer(i));
+        assertFalse(ring.offer(4));                        // llena
+        assertEquals(Integer.valueOf(0), ring.poll());
+        assertTrue(ring.offer(4));
+        for (int i = 1; i <= 4; i++) assertEquals(Integer.valueOf(i), ring.poll());
+        assertNull(ring.poll());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void spscRingAcrossThreads() throws Exception {
+        final int count = 200_000;
+        final SpscRing<Integer> ring = new SpscRing<>(64);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                while (!ring.offer(i)) Thread.yield();
+            }
+        });
+        producer.start();
+        for (int expected = 0; expected < count; ) {
+            Integer v = ring.poll();
+            if (v == null) { Thread.yield(); continue; }
+            assertEquals(expected++, v.intValue());
+        }
+        producer.join();
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void packetsReachProtocolThreadInOrder() throws Exception {
+        final int packets = 5000;                          // más que el pool: hay contrapresión
+        final FakeInput in = new FakeInput();
+        final ByteArrayOutputStream got = new ByteArrayOutputStream();
+        final CountDownLatch done = new CountDownLatch(packets);
+        final List<String> threads = new ArrayList<>();
+        final Map<ByteBuffer, Boolean> buffers = new IdentityHashMap<>();
+        SerialPipeline p = new SerialPipeline("test", in, (data, length) -> { }, new SerialPipeline.Callback() {
+            @Override public void onData(ByteBuffer data) {
+                if (threads.isEmpty()) threads.add(Thread.currentThread().getName());
+                buffers.put(data, Boolean.TRUE);
+                got.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+                done.countDown();
+            }
+            @Override public void onError(Exception e) { fail(e.toString()); }
+        }, PACKET, PACKET);
+        for (int i = 0; i < packets; i++) in.packets.add(new byte[]{ (byte) i, (byte) (i >> 8) });
+        p.start();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        p.stop();
+
+        byte[] all = got.toByteArray();
+        for (int i = 0; i < packets; i++) {
+            assertEquals((byte) i, all[2 * i]);
+            assertEquals((byte) (i >> 8), all[2 * i + 1]);
+        }
+        assertEquals("test-protocol", threads.get(0));
+        // Los paquetes llegaron en búferes reutilizados, no uno nuevo por paquete
+        assertTrue(buffers.size() <= SerialPipeline.INBOUND_BUFFERS);
+    }
+
+    @Test
+    public void stopClosesPortToUnblockReader() throws Exception {
+        final FakeInput in = new FakeInput();
+        final List<Exception> errors = new ArrayList<>();
+        SerialPipeline p = new SerialPipeline("test", in, (data, length) -> { }, new SerialPipeline.Callback() {
+            @Override public void onData(ByteBuffer data) { }
+            @Override public void onError(Exception e) { errors.add(e); }
+        }, PACKET, PACKET);
+        p.start();
+        Thread.sleep(20);                                  // lector bloqueado en read()
+
+        p.stop();
+        assertTrue(in.closed);
+        assertFalse(p.isRunning());
+        for (Thread t : Thread.getAllStackTraces().keySet())
+            assertNotEquals("test-reader", t.getName());
+        assertTrue(errors.isEmpty());                      // cerrar al parar no es un error
+    }
+
+    @Test
+    public void slowWriteDoesNotStallReception() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch received = new CountDownLatch(1);
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final FakeInput in = new FakeInput();
+        SerialPipeline p = new SerialPipeline("test", in, (data, length) -> {
+            writing.countDown();
+            try { release.await(); } catch (InterruptedException e) { throw new IOException(e); }
+            written.write(data, 0, length);
+        }, new SerialPipeline.Callback() {
+            @Override public void onData(ByteBuffer data) { received.countDown(); }
+            @Override public void onError(Exception e) { fail(e.toString()); }
+        }, PACKET, PACKET);
+        p.start();
+
+        long t0 = System.nanoTime();
+        p.sendData(new byte[]{ 0x50, 0x46 });
+        p.sendData(new byte[]{ 0x3F });
+        assertTrue(System.nanoTime() - t0 < TimeUnit.MILLISECONDS.toNanos(100));   // no bloquea
+        assertTrue(writing.await(1, TimeUnit.SECONDS));
+
+        // El escritor está parado en mitad de una transferencia
+        in.packets.add(new byte[]{ 0x4B });
+        assertTrue(received.await(1, TimeUnit.SECONDS));
+        assertFalse(p.flush(50));
+
+        release.countDown();
+        assertTrue(p.flush(1000));
+        assertArrayEquals(new byte[]{ 0x50, 0x46, 0x3F }, written.toByteArray());
+        p.stop();
+    }
+
+    @Test
+    public void writeErrorDropsQueueAndReports() throws Exception {
+        final CountDownLatch error = new CountDownLatch(1);
+        SerialPipeline p = new SerialPipeline("test", new FakeInput(), (data, length) -> {
+            throw new IOException("timeout");
+        }, new SerialPipeline.Callback() {
+            @Override public void onData(ByteBuffer data) { }
+            @Override public void onError(Exception e) { error.countDown(); }
+        }, PACKET, PACKET);
+        p.start();
+        for (int i = 0; i < 10; i++) p.sendData(new byte[]{ 1 });
+        assertTrue(error.await(1, TimeUnit.SECONDS));
+        assertTrue(p.flush(1000));                         // lo pendiente se descartó
+        p.stop();
+        assertFalse(p.isRunning());
+    }
+
+    @Test
+    public void poolRecyclesBuffersInBothDirections() {
+        ReceiveBufferPool pool = new ReceiveBufferPool(4, PACKET);
+        assertEquals(4, pool.getCount());
+        ByteBuffer[] held = new ByteBuffer[4];
+        for (int i = 0; i < 4; i++) {
+            held[i] = pool.acquire();
+            assertEquals(PACKET, held[i].remaining());
+        }
+        assertNull(pool.acquire());                        // todos en uso
+
+        held[2].limit(3);
+        pool.release(held[2]);
+        ByteBuffer again = pool.acquire();
+        assertSame(held[2], again);
+        assertEquals(PACKET, again.remaining());           // vuelve limpio
+    }
+
+    @Test
+    public void queuedShortCommandsShareOneTransfer() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<byte[]> transfers = new ArrayList<>();
+        SerialPipeline p = new SerialPipeline("test", new FakeInput(), (data, length) -> {
+            writing.countDown();
+            try { release.await(); } catch (InterruptedException e) { throw new IOException(e); }
+            synchronized (transfers) { transfers.add(Arrays.copyOf(data, length)); }
+        }, new SerialPipeline.Callback() {
+            @Override public void onData(ByteBuffer data) { }
+            @Override public void onError(Exception e) { fail(e.toString()); }
+        }, PACKET, 8);
+        p.start();
+
+        final int[] completed = new int[1];
+        CommandSender.Completion done = error -> {
+            assertNull(error);
+            synchronized (completed) { completed[0]++; }
+        };
+        // El primero ocupa al escritor; los demás esperan juntos en la cola
+        p.sendData(new byte[]{ 0x3F }, done);
+        assertTrue(writing.await(1, TimeUnit.SECONDS));
+        p.sendData(new byte[]{ 1, 2, 3 }, done);
+        p.sendData(new byte[]{ 4, 5, 6 }, done);
+        p.sendData(new byte[]{ 7, 8, 9 }, done);                     // ya no cabe en 8 bytes
+        p.sendData(new byte[]{ 10, 11, 12, 13, 14, 15, 16, 17, 18 }, done);   // mayor que el paquete
+        release.countDown();
+        assertTrue(p.flush(1000));
+        p.stop();
+
+        assertEquals(4, transfers.size());
+        assertArrayEquals(new byte[]{ 0x3F }, transfers.get(0));
+        assertArrayEquals(new byte[]{ 1, 2, 3, 4, 5, 6 }, transfers.get(1));
+        assertArrayEquals(new byte[]{ 7, 8, 9 }, transfers.get(2));
+        assertEquals(9, transfers.get(3).length);
+        assertEquals(4, p.getWriteTransfers());
+        assertEquals(5, completed[0]);
+    }
+
+    @Test
+    public void completionReportsDiscardedCommands() throws Exception {
+        final CountDownLatch failed = new CountDownLatch(3);
+        SerialPipeline p = new SerialPipeline("test", new FakeInput(), (data, length) -> {
+            throw new IOException("timeout");
+        }, new SerialPipeline.Callback() {
+            @Override public void onData(ByteBuffer data) { }
+            @Override public void onError(Exception e) { }
+        }, PACKET, PACKET);
+        CommandSender.Completion done = error -> {
+            if (error != null) failed.countDown();
+        };
+        p.sendData(new byte[]{ 1 }, done);                 // antes de arrancar: quedan en cola
+        p.sendData(new byte[PACKET], done);
+        p.sendData(new byte[]{ 2 }, done);
+        p.start();
+        assertTrue(failed.await(1, TimeUnit.SECONDS));
+        p.stop();
+
+        final IOException[] closed = new IOException[1];
+        p.sendData(new byte[]{ 3 }, error -> closed[0] = error);
+        assertNotNull(closed[0]);
+    }
+}
@@ -0,0 +1,155 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.usb;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Emulación mínima del firmware PICMEM v3 para tests en la JVM.
+ *
+ * Interpreta los comandos de lectura/escritura I2C ('I') y SPI ('P'), el
+ * ping, el I2C scan (una EEPROM en 0x50), el JEDEC ID y el volcado SPI, y acumula las respuestas en una cola que el test entrega al código
+ * bajo prueba en fragmentos de tamaño arbitrario (como llegan por USB).
+ */
+public class SimulatedPicmem implements CommandSender {
+
+    private final byte[] memory;
+    private final ByteArrayOutputStream rx = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private int outPos = 0;
+
+    private final Set<Integer> failOnce   = new HashSet<>();
+    private final Set<Integer> failAlways = new HashSet<>();
+    private final Set<Integer> badWriteOnce   = new HashSet<>();
+    private final Set<Integer> badWriteAlways = new HashSet<>();
+
+    /** Fin (en la cola de salida) de la respuesta de cada comando aún no entregado. */
+    private final ArrayDeque<Integer> responseEnds = new ArrayDeque<>();
+
+    /** Byte de capacidad devuelto en el JEDEC ID (2^cap bytes). */
+    public int jedecCap = 0x18;
+
+    public int commandsReceived = 0;
+    public int writesReceived = 0;
+    public int maxInFlight = 0;
+
+    public SimulatedPicmem(byte[] memory) {
+        this.memory = memory;
+    }
+
+    /** La próxima lectura que empiece en {@code address} responde RESP_ERR. */
+    public void failReadOnce(int address)   { failOnce.add(address); }
+
+    public void failReadAlways(int address) { failAlways.add(address); }
+
+    /** La próxima escritura que empiece en {@code address} responde OK pero graba un bit mal. */
+    public void corruptWriteOnce(int address)   { badWriteOnce.add(address); }
+
+    public void corruptWriteAlways(int address) { badWriteAlways.add(address); }
+
+    @Override
+    public void sendData(byte[] data) {
+        rx.write(data, 0, data.length);
+        parse();
+    }
+
+    /** Bytes de respuesta pendientes de entregar al host. */
+    public int available() {
+        return out.size() - outPos;
+    }
+
+    /** Entrega hasta {@code max} bytes de respuesta. */
+    public byte[] drain(int max) {
+        byte[] all = out.toByteArray();
+        int n = Math.min(max, all.length - outPos);
+        byte[] chunk = new byte[n];
+        System.arraycopy(all, outPos, chunk, 0, n);
+        outPos += n;
+        while (!responseEnds.isEmpty() && responseEnds.peekFirst() <= outPos)
+            responseEnds.pollFirst();
+        return chunk;
+    }
+
+    private void parse() {
+        byte[] b = rx.toByteArray();
+        int i = 0;
+        while (i < b.length) {
+            int consumed = handle(b, i);
+            if (consumed == 0) break;
+            i += consumed;
+            commandsReceived++;
+            responseEnds.addLast(out.size());
+            maxInFlight = Math.max(maxInFlight, responseEnds.size());
+        }
+        rx.reset();
+        rx.write(b, i, b.length - i);
+    }
+
+    private int handle(byte[] b, int i) {
+        int avail = b.length - i;
+        if (b[i] == '?') {
+            writeText("PICMEM v3 OK\r\n");
+            return 1;
+        }
+        if (avail < 2) return 0;
+        byte cmd = b[i], op = b[i + 1];
+
+        if (op == 'R' || op == 'W') {
+            int hdr = cmd == 'I' ? 8 : 9;
+            if (avail < hdr) return 0;
+            int addr = decodeAddress(b, i);
+            int len  = ((b[i + hdr - 2] & 0xFF) << 8) | (b[i + hdr - 1] & 0xFF);
+            if (op == 'R') {
+                if (failAlways.contains(addr) || failOnce.remove(addr)) {
+                    out.write(0x58);
+                } else {
+                    out.write(memory, addr, len);
+                    out.write(0x55);
+                }
+                return hdr;
+            }
+            if (avail < hdr + len) return 0;
+            System.arraycopy(b, i + hdr, memory, addr, len);
+            if (badWriteAlways.contains(addr) || badWriteOnce.remove(addr)) memory[addr] ^= 0x01;
+            writesReceived++;
+            out.write(0x4B);
+            return hdr + len;
+        }
+        if (cmd == 'I' && op == 'S') {
+            out.write(0x50);
+            out.write(0xFF);
+            return 2;
+        }
+        if (cmd == 'P' && op == 'J') {
+            out.write(0xEF); out.write(0x40); out.write(jedecCap);
+            return 2;
+        }
+        if (cmd == 'P' && op == 'F') {
+            out.write(memory, 0, memory.length);
+            out.write(0x55);
+            return 2;
+        }
+        writeText("CMD?\r\n");
+        return 1;
+    }
+
+    private int decodeAddress(byte[] b, int i) {
+        int addrLen = b[i + 2] & 0xFF;
+        if (b[i] == 'I') {
+            int chip = b[i + 3] & 0xFF;
+            int hi = b[i + 4] & 0xFF, lo = b[i + 5] & 0xFF;
+            if (addrLen == 1) return (((chip >> 1) & 0x07) << 8) | lo;
+            return (((chip >> 1) & 0x03) << 16) | (hi << 8) | lo;
+        }
+        int opcode = b[i + 3] & 0xFF;
+        int hi = b[i + 4] & 0xFF, mid = b[i + 5] & 0xFF, lo = b[i + 6] & 0xFF;
+        if (addrLen == 1) return (((opcode >> 3) & 0x01) << 8) | lo;
+        if (addrLen == 2) return (mid << 8) | lo;
+        return (hi << 16) | (mid << 8) | lo;
+    }
+
+    private void writeText(String s) {
+        for (int k = 0; k < s.length(); k++) out.write(s.charAt(k));
+    }
+}
@@ -0,0 +1,54 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Generador Intel HEX: anterior (String.format) frente al de búfer fijo. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IntelHexGenerateBenchmark {
+
+    /** Tamaño de la imagen: EEPROM 24C512 y flash SPI de 8 Mbit. */
+    @Param({ "65536", "1048576" })
+    public int size;
+
+    private byte[]                image;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setUp() {
+        image = new byte[size];
+        new Random(12).nextBytes(image);
+        out = new ByteArrayOutputStream(3 * size);
+    }
+
+    @Benchmark
+    public String legacy() {
+        return LegacyIntelHex.generate(image);
+    }
+
+    @Benchmark
+    public String streamingString() {
+        return IntelHexFormat.generateIntelHex(image);
+    }
+
+    /** Como al exportar: directo al stream, sin el texto completo en memoria. */
+    @Benchmark
+    public int streamingOutputStream() throws IOException {
+        out.reset();
+        IntelHexFormat.writeIntelHex(image, out);
+        return out.size();
+    }
+}
@@ -0,0 +1,53 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.exception.HexParseException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Parser Intel HEX: anterior (String) frente al de flujo de bytes. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IntelHexParseBenchmark {
+
+    /** Tamaño de la imagen: EEPROM 24C512 y flash SPI de 8 Mbit. */
+    @Param({ "65536", "1048576" })
+    public int size;
+
+    private byte[] hex;
+
+    @Setup
+    public void setUp() {
+        byte[] image = new byte[size];
+        new Random(11).nextBytes(image);
+        hex = IntelHexFormat.generateIntelHex(image).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public byte[] legacy() throws HexParseException {
+        return LegacyIntelHex.parse(hex, size);
+    }
+
+    @Benchmark
+    public byte[] streamingArray() throws HexParseException {
+        return IntelHexFormat.parseIntelHex(hex, size);
+    }
+
+    @Benchmark
+    public byte[] streamingInputStream() throws HexParseException, IOException {
+        return IntelHexFormat.parseIntelHex(new ByteArrayInputStream(hex), size);
+    }
+}
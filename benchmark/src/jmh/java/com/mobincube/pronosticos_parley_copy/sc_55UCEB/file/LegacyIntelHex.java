@@ -0,0 +1,76 @@
+package com.mobincube.keystore.jks_parley_copy.sc_55UCEB.file;
+
+import com.mobincube.keystore.jks_parley_copy.sc_55UCEB.exception.HexParseException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Implementación anterior de {@link IntelHexFormat} (String + split +
+ * parseInt al leer, String.format por byte al generar), como línea base de
+ * los benchmarks. Misma lógica que la referencia de IntelHexFormatTest.
+ */
+final class LegacyIntelHex {
+
+    private LegacyIntelHex() { }
+
+    static byte[] parse(byte[] fileData, int targetSize) throws HexParseException {
+        String[] lines = new String(fileData, StandardCharsets.UTF_8).split("\\r?\\n");
+        byte[] buffer = new byte[targetSize];
+        Arrays.fill(buffer, (byte) 0xFF);
+        int ela = 0, esa = 0, highest = 0;
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            if (!line.startsWith(":") || line.length() < 11) throw new HexParseException(line);
+            try {
+                int len  = Integer.parseInt(line.substring(1, 3), 16);
+                int addr = Integer.parseInt(line.substring(3, 7), 16);
+                int type = Integer.parseInt(line.substring(7, 9), 16);
+                for (int i = 1; i < line.length() - 1; i += 2) Integer.parseInt(line.substring(i, i + 2), 16);
+                if (type == 0x00) {
+                    int fin = (ela << 16) + (esa << 4) + addr;
+                    for (int i = 0; i < len; i++) {
+                        int b = Integer.parseInt(line.substring(9 + i * 2, 11 + i * 2), 16);
+                        if (fin + i < targetSize) {
+                            buffer[fin + i] = (byte) b;
+                            if (fin + i > highest) highest = fin + i;
+                        }
+                    }
+                } else if (type == 0x01) {
+                    break;
+                } else if (type == 0x02) {
+                    esa = Integer.parseInt(line.substring(9, 13), 16);
+                } else if (type == 0x04) {
+                    ela = Integer.parseInt(line.substring(9, 13), 16);
+                }
+            } catch (Exception e) {
+                throw new HexParseException(line, e);
+            }
+        }
+        int actual = highest + 1;
+        if (actual % 16 != 0) actual = ((actual / 16) + 1) * 16;
+        return Arrays.copyOf(buffer, actual);
+    }
+
+    static String generate(byte[] data) {
+        StringBuilder sb = new StringBuilder();
+        for (int address = 0; address < data.length; address += 16) {
+            int len = Math.min(16, data.length - address);
+            if ((address % 65536) == 0 && address > 0) {
+                String ext = String.format("02000004%04X", address >> 16);
+                sb.append(":").append(ext).append(String.format("%02X", checksum(ext))).append("\n");
+            }
+            StringBuilder rec = new StringBuilder(String.format("%02X%04X%02X", len, address & 0xFFFF, 0));
+            for (int i = 0; i < len; i++) rec.append(String.format("%02X", data[address + i]));
+            sb.append(":").append(rec).append(String.format("%02X", checksum(rec.toString()))).append("\n");
+        }
+        return sb.append(":00000001FF\n").toString();
+    }
+
+    private static int checksum(String rec) {
+        int sum = 0;
+        for (int i = 0; i < rec.length(); i += 2) sum += Integer.parseInt(rec.substring(i, i + 2), 16);
+        return (256 - (sum & 0xFF)) & 0xFF;
+    }
+}